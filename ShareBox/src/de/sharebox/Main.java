@@ -2,14 +2,34 @@ package de.sharebox;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import de.sharebox.api.FileAPI;
+import de.sharebox.api.RetentionPolicy;
 import de.sharebox.api.UserAPI;
 import de.sharebox.user.controller.LoginController;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Diese Main-Klasse erstellt nur das erste Programmfenster.
  */
 public final class Main {
 
+	/**
+	 * Name der System-Property, über die ein Verzeichnis angegeben werden kann, in dem die FileAPI ihre Daten dauerhaft
+	 * speichert. Ist sie nicht gesetzt, werden alle Daten nur im Speicher gehalten.
+	 */
+	public static final String STORAGE_DIRECTORY_PROPERTY = "sharebox.storage.directory";
+
+	/**
+	 * Die RetentionPolicy der FileAPI: Die letzten 100 Versionen sowie alle Versionen der letzten 30 Tage werden
+	 * aufbewahrt, gelöschte FEntries werden nach 30 Tagen entfernt.
+	 */
+	private static final RetentionPolicy RETENTION_POLICY = new RetentionPolicy(100, TimeUnit.DAYS.toMillis(30),
+			TimeUnit.DAYS.toMillis(30));
+	private static final long COMPACTION_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
 	/**
 	 * Dies ist der zentrale Injector um erste Objekte mittels Dependency Injection zu erstellen.
 	 * (Reglementierung von Abhängigkeiten eines Objekts zur Laufzeit)
@@ -25,8 +45,22 @@ public final class Main {
 	 * @param args Programmargumente werden für ShareBox nicht benötigt.
 	 */
 	public static void main(final String[] args) {
-		//create sample content
 		final UserAPI userAPI = injector.getInstance(UserAPI.class);
+		final FileAPI fileAPI = injector.getInstance(FileAPI.class);
+
+		//restore persisted files and the root directories of the users
+		final String storageDirectory = System.getProperty(STORAGE_DIRECTORY_PROPERTY);
+		if (storageDirectory != null) {
+			final Path storagePath = Paths.get(storageDirectory);
+			fileAPI.openStorage(storagePath, userAPI);
+			userAPI.openStorage(storagePath);
+		}
+
+		//remove old versions in the background
+		fileAPI.setRetentionPolicy(RETENTION_POLICY);
+		fileAPI.startCompaction(COMPACTION_INTERVAL);
+
+		//create sample content, restored root directories are reused
 		userAPI.createSampleContent();
 
 		injector.getInstance(LoginController.class).show();
@@ -0,0 +1,14 @@
+package de.sharebox.api;
+
+/**
+ * Listener, die mit FileAPI.subscribe Änderungen abonnieren, müssen dieses Interface implementieren.
+ */
+public interface ChangeListener {
+	/**
+	 * Benachrichtigung, dass neue Änderungen gespeichert wurden. Wird nacheinander vom Thread der ChangeSubscription
+	 * aufgerufen, die ChangeSets schließen dabei lückenlos aneinander an.
+	 *
+	 * @param changeSet Die Änderungen seit dem Cursor des zuletzt gelieferten ChangeSets.
+	 */
+	void changesCommitted(final ChangeSet changeSet);
+}
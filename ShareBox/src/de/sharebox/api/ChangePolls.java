@@ -0,0 +1,131 @@
+package de.sharebox.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verwaltet die Long-Polls der FileAPI, also Abfragen von Änderungen, die erst beantwortet werden, sobald neue
+ * Änderungen vorliegen oder ihr Timeout abgelaufen ist. Ein wartender Poll belegt dabei keinen Thread, sondern nur ein
+ * Future. Alle Polls teilen sich einen einzigen Thread, der beim Speichern neuer Änderungen einmal geweckt wird und dann
+ * alle wartenden Polls beantwortet, sowie die Timeouts auslöst.
+ */
+class ChangePolls {
+
+	/**
+	 * Ein wartender Poll.
+	 */
+	private static class ChangePoll {
+		private final long cursor;
+		private final int limit;
+		private final SettableFuture<ChangeSet> result = SettableFuture.create();
+		private volatile ScheduledFuture<?> timeout;
+
+		public ChangePoll(final long cursor, final int limit) {
+			this.cursor = cursor;
+			this.limit = limit;
+		}
+	}
+
+	private final FileAPI fileAPI;
+	private final Set<ChangePoll> waitingPolls =
+			Collections.newSetFromMap(new ConcurrentHashMap<ChangePoll, Boolean>());
+	private final AtomicBoolean wakeupScheduled = new AtomicBoolean(false);
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("ShareBox change polls").setDaemon(true).build());
+
+	/**
+	 * Erstellt eine neue Verwaltung von Long-Polls.
+	 *
+	 * @param fileAPI Die FileAPI, deren Änderungen abgefragt werden.
+	 */
+	ChangePolls(final FileAPI fileAPI) {
+		this.fileAPI = fileAPI;
+	}
+
+	/**
+	 * Fragt die Änderungen nach dem gegebenen Cursor ab. Liegen bereits Änderungen vor, ist das Ergebnis sofort
+	 * verfügbar. Sonst wird es geliefert, sobald Änderungen gespeichert wurden, spätestens aber nach dem Timeout.
+	 *
+	 * @param cursor  Die Sequenznummer der zuletzt abgefragten Änderung.
+	 * @param limit   Die maximale Anzahl an Änderungen, die betrachtet werden sollen.
+	 * @param timeout Die maximale Wartezeit in ms.
+	 * @return Ein Future des ChangeSets. Nach Ablauf des Timeouts enthält es keine Änderungen.
+	 */
+	ListenableFuture<ChangeSet> poll(final long cursor, final int limit, final long timeout) {
+		final ChangePoll poll = new ChangePoll(cursor, limit);
+		final ChangeSet changeSet = fileAPI.getChangesSince(cursor, limit);
+
+		if (changeSet.getCursor() > cursor || timeout <= 0) {
+			poll.result.set(changeSet);
+		} else {
+			waitingPolls.add(poll);
+			poll.timeout = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					complete(poll, fileAPI.getChangesSince(poll.cursor, poll.limit));
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+
+			//changes stored after the first query did not see this poll yet
+			answerIfChanged(poll);
+		}
+
+		return poll.result;
+	}
+
+	/**
+	 * Meldet, dass neue Änderungen gespeichert wurden. Gibt es wartende Polls, werden sie vom gemeinsamen Thread
+	 * beantwortet, der aufrufende Thread wird dabei nicht aufgehalten. Mehrere Meldungen vor dem Aufwachen des Threads
+	 * werden zusammengefasst.
+	 */
+	void changesPublished() {
+		if (!waitingPolls.isEmpty() && wakeupScheduled.compareAndSet(false, true)) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					wakeupScheduled.set(false);
+					for (final ChangePoll poll : waitingPolls) {
+						answerIfChanged(poll);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der wartenden Polls.
+	 *
+	 * @return Die Anzahl der wartenden Polls.
+	 */
+	int getWaitingPollCount() {
+		return waitingPolls.size();
+	}
+
+	private void answerIfChanged(final ChangePoll poll) {
+		final ChangeSet changeSet = fileAPI.getChangesSince(poll.cursor, poll.limit);
+		if (changeSet.getCursor() > poll.cursor) {
+			complete(poll, changeSet);
+		}
+	}
+
+	private void complete(final ChangePoll poll, final ChangeSet changeSet) {
+		//remove the poll first, so it is no longer counted as waiting once its result is available
+		waitingPolls.remove(poll);
+		if (poll.result.set(changeSet)) {
+			final ScheduledFuture<?> timeout = poll.timeout;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package de.sharebox.api;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fasst gleiche Abfragen von Änderungen zusammen. Fragen mehrere Threads gleichzeitig die Änderungen ab demselben
+ * Cursor ab (z.B. viele Clients direkt nach einem Neustart oder alle wartenden Long-Polls nach einer Änderung), wird das
+ * Ergebnis nur vom ersten Thread berechnet, alle anderen warten auf dessen Ergebnis (Single-Flight). Das Ergebnis
+ * bleibt anschließend für CACHE_DURATION erhalten, sodass auch kurz darauf folgende Abfragen es erhalten.<br/>
+ * Da jede gespeicherte Änderung die Sequenznummer der zuletzt veröffentlichten Änderung erhöht und diese Teil des
+ * Schlüssels ist, liefert der Cache nie veraltete Änderungen. Das Ergebnis wird mit allen Aufrufern geteilt und sollte
+ * daher unveränderlich sein.
+ *
+ * @param <T> Der Typ des Ergebnisses einer Abfrage.
+ */
+class ChangeQueryCache<T> {
+	/**
+	 * Die Zeit in ms, für die ein berechnetes Ergebnis wiederverwendet wird.
+	 */
+	static final long CACHE_DURATION = 1000;
+
+	/**
+	 * Eine laufende oder abgeschlossene Abfrage.
+	 */
+	private static class CachedQuery<T> {
+		private final SettableFuture<T> result = SettableFuture.create();
+		private final long createdAt;
+
+		public CachedQuery(final long createdAt) {
+			this.createdAt = createdAt;
+		}
+	}
+
+	private final long cacheDuration;
+	private final ConcurrentMap<List<Long>, CachedQuery<T>> queries =
+			new ConcurrentHashMap<List<Long>, CachedQuery<T>>();
+	private volatile long lastCleanup = 0L;
+
+	/**
+	 * Erstellt einen neuen ChangeQueryCache mit der Standard-Cachedauer.
+	 */
+	ChangeQueryCache() {
+		this(CACHE_DURATION);
+	}
+
+	/**
+	 * Erstellt einen neuen ChangeQueryCache.
+	 *
+	 * @param cacheDuration Die Zeit in ms, für die ein berechnetes Ergebnis wiederverwendet wird.
+	 */
+	ChangeQueryCache(final long cacheDuration) {
+		this.cacheDuration = cacheDuration;
+	}
+
+	/**
+	 * Liefert das Ergebnis der gegebenen Abfrage. Läuft bereits dieselbe Abfrage oder wurde sie vor kurzem
+	 * berechnet, wird deren Ergebnis geliefert. Sonst wird es mit der gegebenen Berechnung im aufrufenden Thread
+	 * berechnet.
+	 *
+	 * @param cursor                  Der Cursor der Abfrage.
+	 * @param limit                   Die maximale Anzahl an Änderungen der Abfrage.
+	 * @param publishedSequenceNumber Die Sequenznummer der zuletzt veröffentlichten Änderung.
+	 * @param computation             Die Berechnung des Ergebnisses.
+	 * @return Das Ergebnis. Es wird ggf. mit anderen Aufrufern geteilt und darf daher nicht verändert werden.
+	 */
+	T get(final long cursor, final int limit, final long publishedSequenceNumber, final Supplier<T> computation) {
+		final long now = System.currentTimeMillis();
+		removeExpiredQueries(now);
+
+		final List<Long> key = Arrays.asList(cursor, (long) limit, publishedSequenceNumber);
+		final CachedQuery<T> newQuery = new CachedQuery<T>(now);
+		CachedQuery<T> query = queries.putIfAbsent(key, newQuery);
+		while (query != null && query.result.isDone() && isExpired(query, now)) {
+			query = queries.replace(key, query, newQuery) ? null : queries.putIfAbsent(key, newQuery);
+		}
+
+		T result;
+		if (query == null) {
+			try {
+				result = computation.get();
+				newQuery.result.set(result);
+			} catch (RuntimeException exception) {
+				queries.remove(key, newQuery);
+				newQuery.result.setException(exception);
+				throw exception;
+			}
+		} else {
+			result = Futures.getUnchecked(query.result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Liefert die Anzahl der gespeicherten Abfragen.
+	 *
+	 * @return Die Anzahl der gespeicherten Abfragen.
+	 */
+	int size() {
+		return queries.size();
+	}
+
+	private boolean isExpired(final CachedQuery<T> query, final long now) {
+		return now - query.createdAt >= cacheDuration;
+	}
+
+	/**
+	 * Entfernt höchstens einmal pro Cachedauer alle abgelaufenen Abfragen.
+	 *
+	 * @param now Die aktuelle Zeit in ms.
+	 */
+	private void removeExpiredQueries(final long now) {
+		if (now - lastCleanup >= cacheDuration) {
+			lastCleanup = now;
+			final Iterator<Map.Entry<List<Long>, CachedQuery<T>>> iterator = queries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final CachedQuery<T> query = iterator.next().getValue();
+				if (query.result.isDone() && isExpired(query, now)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package de.sharebox.api;
+
+import com.google.common.collect.ImmutableList;
+import de.sharebox.file.model.FEntry;
+
+/**
+ * Ein ChangeSet ist das Ergebnis einer Abfrage von Änderungen bei der FileAPI. Es enthält die geänderten FEntries,
+ * Tombstones für alle gelöschten FEntries sowie einen Cursor, mit dem bei der nächsten Abfrage genau an der Stelle
+ * fortgesetzt werden kann, an der diese Abfrage aufgehört hat.
+ */
+public class ChangeSet {
+	private final ImmutableList<FEntry> changedFEntries;
+	private final ImmutableList<Tombstone> deletedFEntries;
+	private final long cursor;
+	private final boolean moreChangesAvailable;
+
+	/**
+	 * Erstellt ein neues ChangeSet.
+	 *
+	 * @param changedFEntries      Die geänderten bzw. neu erstellten FEntries.
+	 * @param deletedFEntries      Die Tombstones der gelöschten FEntries.
+	 * @param cursor               Die Sequenznummer der letzten in diesem ChangeSet enthaltenen Änderung.
+	 * @param moreChangesAvailable True, wenn nach dem Cursor noch weitere Änderungen vorliegen, die aufgrund des
+	 *                             Limits der Abfrage nicht mehr enthalten sind.
+	 */
+	public ChangeSet(final ImmutableList<FEntry> changedFEntries,
+					 final ImmutableList<Tombstone> deletedFEntries,
+					 final long cursor,
+					 final boolean moreChangesAvailable) {
+		this.changedFEntries = changedFEntries;
+		this.deletedFEntries = deletedFEntries;
+		this.cursor = cursor;
+		this.moreChangesAvailable = moreChangesAvailable;
+	}
+
+	/**
+	 * Liefert die geänderten bzw. neu erstellten FEntries. Jeder FEntry ist dabei höchstens einmal, in seinem
+	 * aktuellsten Zustand innerhalb dieses ChangeSets, enthalten.
+	 *
+	 * @return Eine ImmutableList der geänderten FEntries.
+	 */
+	public ImmutableList<FEntry> getChangedFEntries() {
+		return changedFEntries;
+	}
+
+	/**
+	 * Liefert die Tombstones aller FEntries, die innerhalb dieses ChangeSets gelöscht wurden. Ein gelöschter FEntry ist
+	 * dabei nicht zusätzlich in den geänderten FEntries enthalten.
+	 *
+	 * @return Eine ImmutableList der Tombstones gelöschter FEntries.
+	 */
+	public ImmutableList<Tombstone> getDeletedFEntries() {
+		return deletedFEntries;
+	}
+
+	/**
+	 * Liefert den Cursor, der bei der nächsten Abfrage übergeben werden sollte.
+	 *
+	 * @return Die Sequenznummer der letzten in diesem ChangeSet enthaltenen Änderung.
+	 */
+	public long getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Gibt an ob nach dem Cursor noch weitere Änderungen vorliegen, die sofort abgefragt werden können.
+	 *
+	 * @return True, wenn weitere Änderungen vorliegen. False, sonst.
+	 */
+	public boolean hasMoreChanges() {
+		return moreChangesAvailable;
+	}
+}
@@ -0,0 +1,154 @@
+package de.sharebox.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ein Abonnement von Änderungen der FileAPI. Die FileAPI legt jedes gespeicherte ChangeSet sofort in die beschränkte
+ * Warteschlange des Abonnements, ein eigener Thread liefert die ChangeSets von dort an den ChangeListener aus. Ohne
+ * Änderungen wartet dieser Thread und verursacht keinerlei Arbeit.<br/>
+ * Da die FileAPI beim Speichern nie auf einen Listener warten darf, werden ChangeSets bei voller Warteschlange
+ * verworfen. Der Thread bemerkt dies bzw. jede andere Lücke zwischen dem Cursor des zuletzt gelieferten und dem Beginn
+ * des nächsten ChangeSets und holt die fehlenden Änderungen dann mit FileAPI.getChangesSince ab seinem Cursor nach.
+ * Ein langsamer Listener erhält so größere, zusammengefasste ChangeSets, verpasst aber keine Änderung.
+ */
+public class ChangeSubscription {
+	/**
+	 * Die maximale Anzahl an Änderungen, die beim Nachholen pro Anfrage an die FileAPI abgerufen werden.
+	 */
+	static final int CHANGES_PER_CATCH_UP = 500;
+
+	/**
+	 * Ein von der FileAPI veröffentlichtes ChangeSet zusammen mit dem Cursor, an den es anschließt.
+	 */
+	private static class PublishedChanges {
+		private final long previousCursor;
+		private final ChangeSet changeSet;
+
+		public PublishedChanges(final long previousCursor, final ChangeSet changeSet) {
+			this.previousCursor = previousCursor;
+			this.changeSet = changeSet;
+		}
+	}
+
+	private final FileAPI fileAPI;
+	private final ChangeListener listener;
+	private final BlockingQueue<PublishedChanges> queue;
+	private final Thread deliveryThread;
+
+	/**
+	 * Gesetzt, solange Änderungen nachgeholt werden müssen. Zu Beginn werden alle Änderungen ab dem Cursor nachgeholt.
+	 */
+	private final AtomicBoolean lagging = new AtomicBoolean(true);
+	private volatile boolean cancelled = false;
+	private volatile long cursor;
+
+	/**
+	 * Erstellt ein neues Abonnement. Sollte nur von FileAPI.subscribe aufgerufen werden.
+	 *
+	 * @param fileAPI       Die FileAPI, bei der fehlende Änderungen nachgeholt werden.
+	 * @param cursor        Der Cursor, ab dem Änderungen geliefert werden.
+	 * @param listener      Der Listener, an den die Änderungen geliefert werden.
+	 * @param queueCapacity Die maximale Anzahl an ChangeSets, die auf ihre Auslieferung warten können.
+	 */
+	ChangeSubscription(final FileAPI fileAPI, final long cursor, final ChangeListener listener,
+					   final int queueCapacity) {
+		this.fileAPI = fileAPI;
+		this.cursor = cursor;
+		this.listener = listener;
+		this.queue = new ArrayBlockingQueue<PublishedChanges>(queueCapacity);
+		this.deliveryThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				deliverChanges();
+			}
+		}, "ShareBox change subscription");
+		this.deliveryThread.setDaemon(true);
+	}
+
+	/**
+	 * Startet die Auslieferung der Änderungen.
+	 */
+	void start() {
+		deliveryThread.start();
+	}
+
+	/**
+	 * Legt ein neues ChangeSet in die Warteschlange, ohne zu blockieren. Ist die Warteschlange voll, wird das ChangeSet
+	 * verworfen und die Änderungen werden später nachgeholt.
+	 *
+	 * @param previousCursor Der Cursor, an den das ChangeSet anschließt.
+	 * @param changeSet      Das ChangeSet.
+	 */
+	void publish(final long previousCursor, final ChangeSet changeSet) {
+		if (!queue.offer(new PublishedChanges(previousCursor, changeSet))) {
+			lagging.set(true);
+		}
+	}
+
+	/**
+	 * Beendet das Abonnement. Danach werden keine Änderungen mehr an den Listener geliefert.
+	 */
+	public void cancel() {
+		cancelled = true;
+		fileAPI.unsubscribe(this);
+		deliveryThread.interrupt();
+	}
+
+	/**
+	 * Liefert den Cursor des zuletzt an den Listener gelieferten ChangeSets.
+	 *
+	 * @return Der Cursor.
+	 */
+	public long getCursor() {
+		return cursor;
+	}
+
+	private void deliverChanges() {
+		try {
+			while (!cancelled) {
+				if (lagging.getAndSet(false)) {
+					catchUp();
+				}
+
+				final PublishedChanges changes = queue.take();
+				if (changes.changeSet.getCursor() > cursor) {
+					if (changes.previousCursor == cursor) {
+						notifyListener(changes.changeSet);
+					} else {
+						catchUp();
+					}
+				}
+			}
+		} catch (InterruptedException exception) {
+			//the subscription was cancelled
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Holt alle Änderungen ab dem Cursor bei der FileAPI ab und liefert sie an den Listener. Danach noch in der
+	 * Warteschlange liegende ChangeSets sind damit bereits geliefert und werden übersprungen.
+	 */
+	private void catchUp() {
+		ChangeSet changeSet;
+		do {
+			changeSet = fileAPI.getChangesSince(cursor, CHANGES_PER_CATCH_UP);
+			if (changeSet.getCursor() > cursor) {
+				notifyListener(changeSet);
+			}
+		} while (!cancelled && changeSet.hasMoreChanges());
+	}
+
+	private void notifyListener(final ChangeSet changeSet) {
+		if (!cancelled) {
+			try {
+				listener.changesCommitted(changeSet);
+			} catch (RuntimeException exception) {
+				APILogger.logFailure("Change delivery up to " + changeSet.getCursor(), exception.getMessage());
+			}
+			cursor = changeSet.getCursor();
+		}
+	}
+}
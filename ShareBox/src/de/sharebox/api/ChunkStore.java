@@ -0,0 +1,1120 @@
+package de.sharebox.api;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Ein inhaltsadressierter Speicher für die Chunks, aus denen die Inhalte von Files bestehen. Jeder Chunk wird unter dem
+ * SHA-256-Hash seines Inhalts genau einmal gespeichert, egal wie viele Versionen von Files ihn verwenden. Identische
+ * Inhalte, z.B. von kopierten oder geteilten Files, belegen so keinen zusätzlichen Speicher.<br/>
+ * Die Chunks werden nacheinander in Segment-Dateien auf der Festplatte geschrieben, im Speicher wird nur deren Position
+ * gehalten. Downloads können so mit transferTo direkt aus den Segment-Dateien übertragen werden, ohne die Daten in den
+ * Heap zu kopieren. Für das Lesen von Ausschnitten werden die Segmente in den Speicher abgebildet, sodass nur die
+ * tatsächlich gelesenen Seiten von der Festplatte geladen werden.<br/>
+ * Jeder neue Chunk wird probeweise mit Deflate komprimiert und nur dann komprimiert gespeichert, wenn dadurch mindestens
+ * MINIMUM_COMPRESSION_SAVING seiner Größe eingespart wird. Das verwendete Codec steht im Header des Chunks. Bereits
+ * komprimierte Inhalte wie JPEG, MP4 oder ZIP werden so unverändert gespeichert und später ohne Dekomprimieren (und
+ * bei Downloads weiterhin ohne Kopie in den Heap) gelesen.<br/>
+ * Für jeden Chunk wird gezählt, von wie vielen gespeicherten Versionen er referenziert wird. Chunks ohne Referenzen
+ * werden erst nach UNREFERENCED_CHUNK_EXPIRY entfernt, damit gerade hochgeladene Chunks nicht entfernt werden, bevor
+ * die Version, die sie verwendet, gespeichert wurde. Eine Segment-Datei wird gelöscht, sobald sie keinen Chunk mehr
+ * enthält. Ist nur noch ein kleiner Teil eines Segments belegt, werden seine Chunks mit repackSegments an das aktive
+ * Segment angehängt und das alte Segment gelöscht.<br/>
+ * Da auch kleine Files jeweils nur als Chunk an ein Segment angehängt werden, entsteht nicht für jedes File eine
+ * eigene Datei. Mit putAll werden viele Chunks mit einem einzigen Schreibvorgang angehängt.
+ */
+class ChunkStore implements Closeable {
+	/**
+	 * Die Zeit in ms, nach der ein Chunk ohne Referenzen entfernt werden darf.
+	 */
+	static final long UNREFERENCED_CHUNK_EXPIRY = 60 * 60 * 1000L;
+
+	/**
+	 * Sobald eine Segment-Datei diese Größe erreicht, werden neue Chunks in eine neue Segment-Datei geschrieben.
+	 */
+	static final long MAXIMUM_SEGMENT_SIZE = 64 * 1024 * 1024L;
+
+	/**
+	 * Ein Segment wird neu gepackt, sobald weniger als dieser Anteil seiner Größe noch von Chunks belegt ist.
+	 */
+	static final double REPACK_THRESHOLD = 0.5;
+
+	/**
+	 * Die maximale Anzahl an Segmenten, die gleichzeitig in den Speicher abgebildet sind. Werden weitere Segmente
+	 * benötigt, wird die am längsten nicht verwendete Abbildung verworfen.
+	 */
+	static final int MAXIMUM_MAPPED_SEGMENTS = 32;
+
+	/**
+	 * Der Anteil seiner Größe, den ein Chunk durch die Komprimierung mindestens einsparen muss, damit er komprimiert
+	 * gespeichert wird. Die Probekomprimierung wird abgebrochen, sobald diese Ersparnis nicht mehr erreichbar ist.
+	 */
+	static final double MINIMUM_COMPRESSION_SAVING = 0.125;
+
+	private static final String SEGMENT_FILE_PREFIX = "chunks-";
+	private static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+	/**
+	 * Jeder Chunk wird in seiner Segment-Datei mit seinem Hash, seinem Codec, seiner Länge und der Länge der
+	 * gespeicherten Daten eingeleitet, sodass die Positionen aller Chunks beim Öffnen aus den Segment-Dateien
+	 * wiederhergestellt werden können.
+	 */
+	private static final int HASH_SIZE = 32;
+	private static final int CHUNK_HEADER_SIZE = HASH_SIZE + 1 + 4 + 4;
+
+	/**
+	 * Die Codecs, mit denen ein Chunk gespeichert sein kann. Der Index im Header entspricht der Position im Enum und darf
+	 * daher nicht verändert werden.
+	 */
+	enum Codec {
+		NONE,
+		DEFLATE
+	}
+
+	private final Map<String, StoredChunk> chunks = new HashMap<String, StoredChunk>();
+	private final Set<Segment> unsyncedSegments = new HashSet<Segment>();
+	private final Map<Segment, MappedByteBuffer> mappings = new LinkedHashMap<Segment, MappedByteBuffer>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Segment, MappedByteBuffer> eldest) {
+			return size() > MAXIMUM_MAPPED_SEGMENTS;
+		}
+	};
+	private final long maximumSegmentSize;
+	private Optional<Path> directory;
+	private boolean temporary = false;
+	private Optional<Segment> activeSegment = Optional.absent();
+	private int segmentCounter = 0;
+	private long storedBytes = 0;
+
+	private static class StoredChunk {
+		private final Segment segment;
+		private final long position;
+		private final Codec codec;
+		private final int length;
+		private final int storedLength;
+		private int referenceCount = 0;
+		private long unreferencedSince;
+
+		public StoredChunk(final Segment segment, final long position, final Codec codec, final int length,
+						   final int storedLength, final long unreferencedSince) {
+			this.segment = segment;
+			this.position = position;
+			this.codec = codec;
+			this.length = length;
+			this.storedLength = storedLength;
+			this.unreferencedSince = unreferencedSince;
+		}
+
+		private long getSizeInSegment() {
+			return CHUNK_HEADER_SIZE + storedLength;
+		}
+	}
+
+	/**
+	 * Ein Chunk, der an das aktive Segment angehängt werden soll. Beim Neupacken ersetzt er einen bereits gespeicherten
+	 * Chunk.
+	 */
+	private static class PendingChunk {
+		private final String hash;
+		private final Codec codec;
+		private final int length;
+		private final ByteBuffer storedData;
+		private final Optional<StoredChunk> replacedChunk;
+
+		public PendingChunk(final String hash, final Codec codec, final int length, final ByteBuffer storedData,
+							final Optional<StoredChunk> replacedChunk) {
+			this.hash = hash;
+			this.codec = codec;
+			this.length = length;
+			this.storedData = storedData;
+			this.replacedChunk = replacedChunk;
+		}
+	}
+
+	/**
+	 * Ein Chunk zusammen mit einem Buffer auf seine gespeicherten Daten in der Abbildung seines Segments.
+	 */
+	private static class MappedChunk {
+		private final StoredChunk chunk;
+		private final ByteBuffer storedData;
+
+		public MappedChunk(final StoredChunk chunk, final ByteBuffer storedData) {
+			this.chunk = chunk;
+			this.storedData = storedData;
+		}
+	}
+
+	/**
+	 * Eine Segment-Datei. Entfernte Segmente werden erst gelöscht, wenn kein Thread mehr aus ihnen liest.
+	 */
+	private static class Segment {
+		private final Path file;
+		private final FileChannel channel;
+		private long size;
+		private long liveBytes = 0;
+		private int storedChunks = 0;
+		private int readers = 0;
+		private boolean removed = false;
+
+		public Segment(final Path file, final FileChannel channel, final long size) {
+			this.file = file;
+			this.channel = channel;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Erstellt einen ChunkStore, dessen Segment-Dateien in einem temporären Verzeichnis abgelegt werden, das beim Beenden
+	 * des Programms gelöscht wird. Das Verzeichnis wird erst beim Speichern des ersten Chunks angelegt.
+	 */
+	ChunkStore() {
+		this(Optional.<Path>absent(), MAXIMUM_SEGMENT_SIZE);
+	}
+
+	private ChunkStore(final Optional<Path> directory, final long maximumSegmentSize) {
+		this.directory = directory;
+		this.maximumSegmentSize = maximumSegmentSize;
+	}
+
+	/**
+	 * Öffnet den ChunkStore im gegebenen Verzeichnis und liest die Positionen aller bereits gespeicherten Chunks aus den
+	 * Segment-Dateien. Ein unvollständig geschriebener Chunk am Ende eines Segments (z.B. nach einem Absturz) wird dabei
+	 * abgeschnitten. Ist ein Chunk mehrfach gespeichert (z.B. nach einem beim Neupacken abgebrochenen Programm), wird
+	 * das älteste Vorkommen verwendet. Alle Chunks sind zunächst ohne Referenzen.
+	 *
+	 * @param directory Das Verzeichnis, in dem die Segment-Dateien gespeichert werden.
+	 * @return Der geöffnete ChunkStore.
+	 * @throws IOException Falls das Verzeichnis oder ein Segment nicht gelesen werden konnte.
+	 */
+	static ChunkStore open(final Path directory) throws IOException {
+		return open(directory, MAXIMUM_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Öffnet den ChunkStore im gegebenen Verzeichnis mit der gegebenen maximalen Segmentgröße.
+	 *
+	 * @param directory          Das Verzeichnis, in dem die Segment-Dateien gespeichert werden.
+	 * @param maximumSegmentSize Die Größe, ab der neue Chunks in ein neues Segment geschrieben werden.
+	 * @return Der geöffnete ChunkStore.
+	 * @throws IOException Falls das Verzeichnis oder ein Segment nicht gelesen werden konnte.
+	 */
+	static ChunkStore open(final Path directory, final long maximumSegmentSize) throws IOException {
+		Files.createDirectories(directory);
+		final ChunkStore chunkStore = new ChunkStore(Optional.of(directory), maximumSegmentSize);
+
+		final Map<Integer, Path> segmentFiles = new TreeMap<Integer, Path>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+			for (final Path file : files) {
+				final String name = file.getFileName().toString();
+				segmentFiles.put(Integer.valueOf(name.substring(SEGMENT_FILE_PREFIX.length(),
+						name.length() - SEGMENT_FILE_SUFFIX.length())), file);
+			}
+		}
+
+		try {
+			for (final Map.Entry<Integer, Path> segmentFile : segmentFiles.entrySet()) {
+				chunkStore.segmentCounter = segmentFile.getKey();
+				chunkStore.scanSegment(segmentFile.getValue());
+			}
+		} catch (IOException exception) {
+			chunkStore.close();
+			throw exception;
+		}
+
+		return chunkStore;
+	}
+
+	/**
+	 * Liest die Positionen aller Chunks des gegebenen Segments. Das zuletzt gelesene Segment wird wieder als aktives
+	 * Segment verwendet.
+	 *
+	 * @param file Die Segment-Datei.
+	 * @throws IOException Falls das Segment nicht gelesen werden konnte.
+	 */
+	private void scanSegment(final Path file) throws IOException {
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final Segment segment = new Segment(file, channel, 0);
+		final long now = System.currentTimeMillis();
+
+		final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+		final long fileSize = channel.size();
+		long position = 0;
+		boolean complete = true;
+		while (complete && position + CHUNK_HEADER_SIZE <= fileSize) {
+			header.clear();
+			readFully(channel, header, position);
+			header.flip();
+
+			final byte[] hash = new byte[HASH_SIZE];
+			header.get(hash);
+			final int codecIndex = header.get();
+			final int length = header.getInt();
+			final int storedLength = header.getInt();
+			complete = codecIndex >= 0 && codecIndex < Codec.values().length && length >= 0 && storedLength >= 0
+					&& position + CHUNK_HEADER_SIZE + storedLength <= fileSize;
+			if (complete) {
+				final String hashString = BaseEncoding.base16().lowerCase().encode(hash);
+				if (!chunks.containsKey(hashString)) {
+					final StoredChunk chunk = new StoredChunk(segment, position + CHUNK_HEADER_SIZE,
+							Codec.values()[codecIndex], length, storedLength, now);
+					chunks.put(hashString, chunk);
+					segment.storedChunks++;
+					segment.liveBytes += chunk.getSizeInSegment();
+					storedBytes += storedLength;
+				}
+				position += CHUNK_HEADER_SIZE + storedLength;
+			}
+		}
+
+		channel.truncate(position);
+		segment.size = position;
+		activeSegment = Optional.of(segment);
+		if (segment.storedChunks == 0) {
+			segment.removed = true;
+			deleteIfUnused(segment);
+			activeSegment = Optional.absent();
+		}
+	}
+
+	/**
+	 * Speichert den gegebenen Ausschnitt als Chunk, sofern noch kein Chunk mit gleichem Inhalt existiert. Der Chunk
+	 * erhält dabei keine Referenz, diese wird erst mit retain beim Speichern einer Version vergeben.
+	 *
+	 * @param data   Die Daten, die den Chunk enthalten.
+	 * @param offset Der Beginn des Chunks in den Daten.
+	 * @param length Die Länge des Chunks.
+	 * @return Der SHA-256-Hash des Chunks.
+	 * @throws IOException Falls der Chunk nicht in eine Segment-Datei geschrieben werden konnte.
+	 */
+	String put(final byte[] data, final int offset, final int length) throws IOException {
+		return putAll(ImmutableList.of(ByteBuffer.wrap(data, offset, length))).get(0);
+	}
+
+	/**
+	 * Speichert die gegebenen Chunks, sofern noch keine Chunks mit gleichem Inhalt existieren. Alle neuen Chunks werden
+	 * gemeinsam mit einem Schreibvorgang an das aktive Segment angehängt. Die Chunks erhalten dabei keine Referenzen,
+	 * diese werden erst mit retain beim Speichern einer Version vergeben.
+	 *
+	 * @param newChunks Die Daten der Chunks. Die Buffer werden nicht verändert und nach dem Aufruf nicht mehr verwendet,
+	 *                  können also z.B. wiederverwendete direkte Buffer sein. Nur die Daten neuer Chunks werden dabei
+	 *                  kopiert.
+	 * @return Die SHA-256-Hashes der Chunks in ihrer Reihenfolge.
+	 * @throws IOException Falls die Chunks nicht in eine Segment-Datei geschrieben werden konnten.
+	 */
+	ImmutableList<String> putAll(final List<ByteBuffer> newChunks) throws IOException {
+		final List<String> hashes = new ArrayList<String>(newChunks.size());
+		for (final ByteBuffer chunk : newChunks) {
+			hashes.add(hashOf(chunk));
+		}
+
+		//compress outside of the lock, but only chunks that are not stored yet
+		final Set<String> missingHashes = missingHashesOf(hashes);
+		final Map<String, PendingChunk> pendingChunks = new LinkedHashMap<String, PendingChunk>();
+		for (int i = 0; i < newChunks.size(); i++) {
+			final String hash = hashes.get(i);
+			if (missingHashes.contains(hash) && !pendingChunks.containsKey(hash)) {
+				final ByteBuffer chunk = heapCopyOf(newChunks.get(i));
+				final Optional<byte[]> compressedData = compress(chunk.array(),
+						chunk.arrayOffset() + chunk.position(), chunk.remaining());
+				if (compressedData.isPresent()) {
+					pendingChunks.put(hash, new PendingChunk(hash, Codec.DEFLATE, chunk.remaining(),
+							ByteBuffer.wrap(compressedData.get()), Optional.<StoredChunk>absent()));
+				} else {
+					pendingChunks.put(hash, new PendingChunk(hash, Codec.NONE, chunk.remaining(), chunk.duplicate(),
+							Optional.<StoredChunk>absent()));
+				}
+			}
+		}
+
+		synchronized (this) {
+			final long now = System.currentTimeMillis();
+			for (final String hash : hashes) {
+				final StoredChunk existingChunk = chunks.get(hash);
+				if (existingChunk != null && existingChunk.referenceCount == 0) {
+					existingChunk.unreferencedSince = now;
+				}
+			}
+			appendChunks(new ArrayList<PendingChunk>(pendingChunks.values()));
+		}
+
+		return ImmutableList.copyOf(hashes);
+	}
+
+	private synchronized Set<String> missingHashesOf(final List<String> hashes) {
+		final Set<String> missingHashes = new HashSet<String>();
+		for (final String hash : hashes) {
+			if (!chunks.containsKey(hash)) {
+				missingHashes.add(hash);
+			}
+		}
+		return missingHashes;
+	}
+
+	/**
+	 * Hängt die gegebenen Chunks an das aktive Segment an. Die Chunks eines Segments werden dabei mit einem einzigen
+	 * Schreibvorgang geschrieben. Übersprungen werden neue Chunks, die inzwischen gespeichert wurden, sowie neu zu
+	 * packende Chunks, die inzwischen entfernt wurden. Muss mit gehaltenem Lock aufgerufen werden.
+	 *
+	 * @param pendingChunks Die anzuhängenden Chunks.
+	 * @throws IOException Falls die Chunks nicht geschrieben werden konnten.
+	 */
+	private void appendChunks(final List<PendingChunk> pendingChunks) throws IOException {
+		final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		final Map<PendingChunk, StoredChunk> appendedChunks = new LinkedHashMap<PendingChunk, StoredChunk>();
+		final long now = System.currentTimeMillis();
+
+		Segment segment = segmentForWriting();
+		long position = segment.size;
+		for (final PendingChunk pendingChunk : pendingChunks) {
+			if (chunks.get(pendingChunk.hash) == pendingChunk.replacedChunk.orNull()) {
+				if (position >= maximumSegmentSize && !buffers.isEmpty()) {
+					writeChunks(segment, position, buffers, appendedChunks);
+					segment = segmentForWriting();
+					position = segment.size;
+				}
+
+				final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+				header.put(BaseEncoding.base16().lowerCase().decode(pendingChunk.hash))
+						.put((byte) pendingChunk.codec.ordinal())
+						.putInt(pendingChunk.length)
+						.putInt(pendingChunk.storedData.remaining())
+						.flip();
+				buffers.add(header);
+				buffers.add(pendingChunk.storedData.duplicate());
+
+				final StoredChunk chunk = new StoredChunk(segment, position + CHUNK_HEADER_SIZE, pendingChunk.codec,
+						pendingChunk.length, pendingChunk.storedData.remaining(), now);
+				appendedChunks.put(pendingChunk, chunk);
+				position += chunk.getSizeInSegment();
+			}
+		}
+
+		if (!buffers.isEmpty()) {
+			writeChunks(segment, position, buffers, appendedChunks);
+		}
+	}
+
+	/**
+	 * Schreibt die gegebenen Buffer an das Ende des gegebenen Segments und übernimmt anschließend die geschriebenen
+	 * Chunks. Ersetzte Chunks werden dabei aus ihren bisherigen Segmenten entfernt. Die Listen werden danach geleert.
+	 *
+	 * @param segment        Das Segment.
+	 * @param endPosition    Das Ende des Segments nach dem Schreiben.
+	 * @param buffers        Die Header und Daten der Chunks.
+	 * @param appendedChunks Die geschriebenen Chunks.
+	 * @throws IOException Falls die Buffer nicht geschrieben werden konnten.
+	 */
+	private void writeChunks(final Segment segment, final long endPosition, final List<ByteBuffer> buffers,
+							 final Map<PendingChunk, StoredChunk> appendedChunks) throws IOException {
+		final ByteBuffer[] bufferArray = buffers.toArray(new ByteBuffer[buffers.size()]);
+		segment.channel.position(segment.size);
+		long remaining = endPosition - segment.size;
+		while (remaining > 0) {
+			remaining -= segment.channel.write(bufferArray);
+		}
+		segment.size = endPosition;
+		unsyncedSegments.add(segment);
+
+		for (final Map.Entry<PendingChunk, StoredChunk> appendedChunk : appendedChunks.entrySet()) {
+			final StoredChunk chunk = appendedChunk.getValue();
+			final Optional<StoredChunk> replacedChunk = appendedChunk.getKey().replacedChunk;
+			if (replacedChunk.isPresent()) {
+				chunk.referenceCount = replacedChunk.get().referenceCount;
+				chunk.unreferencedSince = replacedChunk.get().unreferencedSince;
+				removeFromSegment(replacedChunk.get());
+			}
+
+			chunks.put(appendedChunk.getKey().hash, chunk);
+			segment.storedChunks++;
+			segment.liveBytes += chunk.getSizeInSegment();
+			storedBytes += chunk.storedLength;
+		}
+
+		buffers.clear();
+		appendedChunks.clear();
+	}
+
+	/**
+	 * Entfernt den gegebenen Chunk aus der Belegung seines Segments. Enthält das Segment danach keine Chunks mehr und ist
+	 * es nicht das aktive Segment, wird es gelöscht, sobald niemand mehr aus ihm liest. Muss mit gehaltenem Lock
+	 * aufgerufen werden.
+	 *
+	 * @param chunk Der entfernte Chunk.
+	 */
+	private void removeFromSegment(final StoredChunk chunk) {
+		final Segment segment = chunk.segment;
+		segment.storedChunks--;
+		segment.liveBytes -= chunk.getSizeInSegment();
+		storedBytes -= chunk.storedLength;
+
+		if (segment.storedChunks == 0 && activeSegment.orNull() != segment) {
+			segment.removed = true;
+			deleteIfUnused(segment);
+		}
+	}
+
+	/**
+	 * Packt alle Segmente neu, von denen weniger als REPACK_THRESHOLD ihrer Größe noch belegt ist. Die noch gespeicherten
+	 * Chunks eines solchen Segments werden unverändert (also ggf. komprimiert) an das aktive Segment angehängt und dauerhaft
+	 * geschrieben, bevor das alte Segment gelöscht wird. Die Chunks eines Segments werden ohne Lock gelesen, sodass
+	 * andere Threads nur für das Anhängen kurz warten müssen.
+	 *
+	 * @return Die Anzahl der gelöschten Segmente.
+	 * @throws IOException Falls ein Segment nicht gelesen oder geschrieben werden konnte.
+	 */
+	int repackSegments() throws IOException {
+		final Map<Segment, List<Map.Entry<String, StoredChunk>>> candidates =
+				new LinkedHashMap<Segment, List<Map.Entry<String, StoredChunk>>>();
+		synchronized (this) {
+			for (final Map.Entry<String, StoredChunk> chunk : chunks.entrySet()) {
+				final Segment segment = chunk.getValue().segment;
+				if (segment != activeSegment.orNull() && segment.liveBytes < segment.size * REPACK_THRESHOLD) {
+					List<Map.Entry<String, StoredChunk>> chunksOfSegment = candidates.get(segment);
+					if (chunksOfSegment == null) {
+						chunksOfSegment = new ArrayList<Map.Entry<String, StoredChunk>>();
+						candidates.put(segment, chunksOfSegment);
+						segment.readers++;
+					}
+					chunksOfSegment.add(new AbstractMap.SimpleImmutableEntry<String, StoredChunk>(chunk));
+				}
+			}
+		}
+
+		int repackedSegments = 0;
+		final List<Segment> unreleasedSegments = new ArrayList<Segment>(candidates.keySet());
+		try {
+			for (final Map.Entry<Segment, List<Map.Entry<String, StoredChunk>>> candidate : candidates.entrySet()) {
+				final List<PendingChunk> pendingChunks = new ArrayList<PendingChunk>();
+				for (final Map.Entry<String, StoredChunk> chunk : candidate.getValue()) {
+					final StoredChunk storedChunk = chunk.getValue();
+					pendingChunks.add(new PendingChunk(chunk.getKey(), storedChunk.codec, storedChunk.length,
+							readStoredData(storedChunk), Optional.of(storedChunk)));
+				}
+
+				synchronized (this) {
+					appendChunks(pendingChunks);
+				}
+				sync();
+
+				releaseSegments(ImmutableList.of(candidate.getKey()));
+				unreleasedSegments.remove(candidate.getKey());
+				if (candidate.getKey().removed) {
+					repackedSegments++;
+				}
+			}
+		} finally {
+			releaseSegments(unreleasedSegments);
+		}
+
+		return repackedSegments;
+	}
+
+	/**
+	 * Komprimiert den gegebenen Ausschnitt probeweise mit Deflate auf der schnellsten Stufe. Die Komprimierung wird
+	 * abgebrochen, sobald das Ergebnis die durch MINIMUM_COMPRESSION_SAVING vorgegebene Größe überschreitet, sodass für
+	 * nicht komprimierbare Daten nur wenig Rechenzeit verbraucht wird.
+	 *
+	 * @param data   Die Daten, die den Chunk enthalten.
+	 * @param offset Der Beginn des Chunks in den Daten.
+	 * @param length Die Länge des Chunks.
+	 * @return Die komprimierten Daten oder Optional.absent(), falls sich die Komprimierung nicht lohnt.
+	 */
+	private static Optional<byte[]> compress(final byte[] data, final int offset, final int length) {
+		final byte[] buffer = new byte[(int) (length * (1 - MINIMUM_COMPRESSION_SAVING))];
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+		Optional<byte[]> compressedData = Optional.absent();
+		try {
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+
+			int compressedLength = 0;
+			while (!deflater.finished() && compressedLength < buffer.length) {
+				compressedLength += deflater.deflate(buffer, compressedLength, buffer.length - compressedLength);
+			}
+			if (deflater.finished()) {
+				compressedData = Optional.of(Arrays.copyOf(buffer, compressedLength));
+			}
+		} finally {
+			deflater.end();
+		}
+
+		return compressedData;
+	}
+
+	/**
+	 * Liefert die ursprünglichen Daten des gegebenen Chunks.
+	 *
+	 * @param chunk      Der Chunk.
+	 * @param storedData Die gespeicherten Daten des Chunks.
+	 * @return Die ursprünglichen Daten. Ist der Chunk nicht komprimiert, sind dies die gespeicherten Daten selbst.
+	 * @throws IOException Falls die gespeicherten Daten nicht dekomprimiert werden konnten.
+	 */
+	private static ByteBuffer decode(final StoredChunk chunk, final ByteBuffer storedData) throws IOException {
+		ByteBuffer data = storedData;
+		if (chunk.codec == Codec.DEFLATE) {
+			final byte[] compressedData = new byte[storedData.remaining()];
+			storedData.get(compressedData);
+
+			final byte[] decompressedData = new byte[chunk.length];
+			final Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(compressedData);
+				int decompressedLength = 0;
+				while (decompressedLength < chunk.length && !inflater.finished() && !inflater.needsInput()) {
+					decompressedLength += inflater.inflate(decompressedData, decompressedLength,
+							chunk.length - decompressedLength);
+				}
+				if (decompressedLength != chunk.length) {
+					throw new IOException("Compressed chunk is incomplete.");
+				}
+			} catch (DataFormatException exception) {
+				throw new IOException("Compressed chunk is corrupt.", exception);
+			} finally {
+				inflater.end();
+			}
+			data = ByteBuffer.wrap(decompressedData);
+		}
+		return data;
+	}
+
+	/**
+	 * Liest die gespeicherten Daten des gegebenen Chunks aus seinem Segment.
+	 *
+	 * @param chunk Der Chunk.
+	 * @return Die gespeicherten, ggf. komprimierten Daten.
+	 * @throws IOException Falls das Segment nicht gelesen werden konnte.
+	 */
+	private static ByteBuffer readStoredData(final StoredChunk chunk) throws IOException {
+		final ByteBuffer storedData = ByteBuffer.allocate(chunk.storedLength);
+		readFully(chunk.segment.channel, storedData, chunk.position);
+		storedData.flip();
+		return storedData;
+	}
+
+	/**
+	 * Liefert das Segment, in das der nächste Chunk geschrieben wird. Ist das aktive Segment voll, wird ein neues
+	 * angelegt.
+	 *
+	 * @return Das aktive Segment.
+	 * @throws IOException Falls kein neues Segment angelegt werden konnte.
+	 */
+	private Segment segmentForWriting() throws IOException {
+		if (!activeSegment.isPresent() || activeSegment.get().size >= maximumSegmentSize) {
+			if (!directory.isPresent()) {
+				directory = Optional.of(Files.createTempDirectory("sharebox-chunks"));
+				directory.get().toFile().deleteOnExit();
+				temporary = true;
+			}
+
+			segmentCounter++;
+			final Path file = directory.get().resolve(String.format("%s%08d%s", SEGMENT_FILE_PREFIX, segmentCounter,
+					SEGMENT_FILE_SUFFIX));
+			final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			if (temporary) {
+				file.toFile().deleteOnExit();
+			}
+
+			if (activeSegment.isPresent() && activeSegment.get().storedChunks == 0) {
+				activeSegment.get().removed = true;
+				deleteIfUnused(activeSegment.get());
+			}
+			activeSegment = Optional.of(new Segment(file, channel, 0));
+		}
+		return activeSegment.get();
+	}
+
+	/**
+	 * Berechnet den Hash, unter dem der gegebene Ausschnitt als Chunk gespeichert wird.
+	 *
+	 * @param data   Die Daten, die den Chunk enthalten.
+	 * @param offset Der Beginn des Chunks in den Daten.
+	 * @param length Die Länge des Chunks.
+	 * @return Der SHA-256-Hash des Chunks als Hex-String.
+	 */
+	static String hashOf(final byte[] data, final int offset, final int length) {
+		return Hashing.sha256().hashBytes(data, offset, length).toString();
+	}
+
+	/**
+	 * Berechnet den Hash, unter dem der gegebene Buffer als Chunk gespeichert wird. Direkte Buffer werden dabei nicht in
+	 * den Heap kopiert.
+	 *
+	 * @param chunk Der Chunk von seiner Position bis zu seinem Limit. Der Buffer wird nicht verändert.
+	 * @return Der SHA-256-Hash des Chunks als Hex-String.
+	 */
+	static String hashOf(final ByteBuffer chunk) {
+		final String hash;
+		if (chunk.hasArray()) {
+			hash = hashOf(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+		} else {
+			try {
+				final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update(chunk.duplicate());
+				hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+			} catch (NoSuchAlgorithmException exception) {
+				//every Java platform is required to support SHA-256
+				throw new IllegalStateException(exception);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Liefert einen Buffer mit Array für den gegebenen Chunk. Buffer ohne Array (z.B. direkte Buffer) werden dazu in
+	 * den Heap kopiert, da der Aufrufer sie nach dem Speichern wiederverwenden darf.
+	 *
+	 * @param chunk Der Chunk von seiner Position bis zu seinem Limit.
+	 * @return Der Chunk selbst oder eine Kopie im Heap.
+	 */
+	private static ByteBuffer heapCopyOf(final ByteBuffer chunk) {
+		ByteBuffer heapChunk = chunk;
+		if (!chunk.hasArray()) {
+			final byte[] data = new byte[chunk.remaining()];
+			chunk.duplicate().get(data);
+			heapChunk = ByteBuffer.wrap(data);
+		}
+		return heapChunk;
+	}
+
+	/**
+	 * Gibt an, ob ein Chunk mit dem gegebenen Hash gespeichert ist.
+	 *
+	 * @param hash Der Hash des Chunks.
+	 * @return True, wenn der Chunk gespeichert ist. False, sonst.
+	 */
+	synchronized boolean contains(final String hash) {
+		return chunks.containsKey(hash);
+	}
+
+	/**
+	 * Schreibt alle seit dem letzten Aufruf gespeicherten Chunks dauerhaft auf die Festplatte. Muss aufgerufen werden,
+	 * bevor eine Version, die diese Chunks verwendet, in das Write-Ahead-Log geschrieben wird.
+	 *
+	 * @throws IOException Falls ein Segment nicht geschrieben werden konnte.
+	 */
+	void sync() throws IOException {
+		final List<Segment> segments;
+		synchronized (this) {
+			segments = new ArrayList<Segment>(unsyncedSegments);
+			unsyncedSegments.clear();
+			for (final Segment segment : segments) {
+				segment.readers++;
+			}
+		}
+
+		try {
+			for (final Segment segment : segments) {
+				segment.channel.force(false);
+			}
+		} finally {
+			releaseSegments(segments);
+		}
+	}
+
+	/**
+	 * Liest die gegebenen Chunks und fügt sie in ihrer Reihenfolge zusammen.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 * @return Der zusammengefügte Inhalt oder Optional.absent(), falls ein Chunk nicht gespeichert ist.
+	 * @throws IOException Falls ein Segment nicht gelesen werden konnte.
+	 */
+	Optional<byte[]> read(final List<String> hashes) throws IOException {
+		final Optional<List<StoredChunk>> storedChunks = acquireChunks(hashes);
+
+		Optional<byte[]> result = Optional.absent();
+		if (storedChunks.isPresent()) {
+			try {
+				int contentLength = 0;
+				for (final StoredChunk chunk : storedChunks.get()) {
+					contentLength += chunk.length;
+				}
+
+				final ByteBuffer content = ByteBuffer.allocate(contentLength);
+				for (final StoredChunk chunk : storedChunks.get()) {
+					if (chunk.codec == Codec.NONE) {
+						content.limit(content.position() + chunk.length);
+						readFully(chunk.segment.channel, content, chunk.position);
+					} else {
+						content.put(decode(chunk, readStoredData(chunk)));
+					}
+				}
+				result = Optional.of(content.array());
+			} finally {
+				releaseChunks(storedChunks.get());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Überträgt die gegebenen Chunks in ihrer Reihenfolge mit FileChannel.transferTo direkt aus den Segment-Dateien in
+	 * den gegebenen Channel. Die Daten werden dabei nicht in den Heap kopiert, sodass das Betriebssystem sie z.B. direkt
+	 * aus dem Page-Cache an einen Socket übergeben kann. Nur komprimiert gespeicherte Chunks werden zuvor im Heap
+	 * dekomprimiert. Während der Übertragung wird der ChunkStore nicht gesperrt.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 * @param target Der Channel, in den die Chunks geschrieben werden. Muss ein blockierender Channel sein.
+	 * @return True, wenn alle Chunks übertragen wurden. False, falls ein Chunk nicht gespeichert ist. In diesem Fall wird
+	 * nichts übertragen.
+	 * @throws IOException Falls ein Segment nicht gelesen oder der Channel nicht beschrieben werden konnte.
+	 */
+	boolean transferTo(final List<String> hashes, final WritableByteChannel target) throws IOException {
+		final Optional<List<StoredChunk>> storedChunks = acquireChunks(hashes);
+
+		if (storedChunks.isPresent()) {
+			try {
+				for (final StoredChunk chunk : storedChunks.get()) {
+					if (chunk.codec == Codec.NONE) {
+						long transferred = 0;
+						while (transferred < chunk.length) {
+							transferred += chunk.segment.channel.transferTo(chunk.position + transferred,
+									chunk.length - transferred, target);
+						}
+					} else {
+						final ByteBuffer data = decode(chunk, readStoredData(chunk));
+						while (data.hasRemaining()) {
+							target.write(data);
+						}
+					}
+				}
+			} finally {
+				releaseChunks(storedChunks.get());
+			}
+		}
+		return storedChunks.isPresent();
+	}
+
+	/**
+	 * Berechnet die Positionen der gegebenen Chunks innerhalb des aus ihnen zusammengesetzten Inhalts.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 * @return Die Positionen aller Chunks, gefolgt von der Länge des gesamten Inhalts, oder Optional.absent(), falls ein
+	 * Chunk nicht gespeichert ist.
+	 */
+	synchronized Optional<long[]> chunkOffsets(final List<String> hashes) {
+		final long[] offsets = new long[hashes.size() + 1];
+		boolean complete = true;
+		for (int i = 0; complete && i < hashes.size(); i++) {
+			final StoredChunk chunk = chunks.get(hashes.get(i));
+			complete = chunk != null;
+			if (complete) {
+				offsets[i + 1] = offsets[i] + chunk.length;
+			}
+		}
+
+		Optional<long[]> result = Optional.absent();
+		if (complete) {
+			result = Optional.of(offsets);
+		}
+		return result;
+	}
+
+	/**
+	 * Liest einen Ausschnitt des aus den gegebenen Chunks zusammengesetzten Inhalts. Dazu werden nur die Chunks gelesen,
+	 * die den Ausschnitt enthalten, und zwar über Abbildungen ihrer Segmente in den Speicher. Es werden also nur die
+	 * Seiten geladen, die der Ausschnitt tatsächlich umfasst, unabhängig davon, wo er im Inhalt liegt. Komprimierte
+	 * Chunks werden dabei vollständig dekomprimiert.
+	 *
+	 * @param hashes       Die Hashes der Chunks.
+	 * @param chunkOffsets Die Positionen der Chunks, wie von chunkOffsets geliefert.
+	 * @param offset       Der Beginn des Ausschnitts im Inhalt.
+	 * @param length       Die Länge des Ausschnitts. Reicht der Ausschnitt über das Ende des Inhalts hinaus, wird er
+	 *                     entsprechend gekürzt.
+	 * @return Der Ausschnitt oder Optional.absent(), falls ein benötigter Chunk nicht gespeichert ist.
+	 * @throws IOException Falls ein Segment nicht abgebildet werden konnte.
+	 */
+	Optional<byte[]> readRange(final List<String> hashes, final long[] chunkOffsets, final long offset,
+							   final int length) throws IOException {
+		final long contentLength = chunkOffsets[hashes.size()];
+		final long start = Math.min(offset, contentLength);
+		final byte[] range = new byte[(int) Math.min(length, contentLength - start)];
+
+		Optional<byte[]> result = Optional.of(range);
+		if (range.length > 0) {
+			int firstChunk = Arrays.binarySearch(chunkOffsets, 0, hashes.size(), start);
+			if (firstChunk < 0) {
+				firstChunk = -firstChunk - 2;
+			}
+			int lastChunk = firstChunk + 1;
+			while (lastChunk < hashes.size() && chunkOffsets[lastChunk] < start + range.length) {
+				lastChunk++;
+			}
+
+			final Optional<List<MappedChunk>> mappedChunks = mapChunks(hashes.subList(firstChunk, lastChunk));
+			if (mappedChunks.isPresent()) {
+				int rangePosition = 0;
+				long positionInChunk = start - chunkOffsets[firstChunk];
+				for (final MappedChunk mappedChunk : mappedChunks.get()) {
+					final ByteBuffer chunkBuffer = decode(mappedChunk.chunk, mappedChunk.storedData);
+					chunkBuffer.position((int) positionInChunk);
+					final int count = Math.min(chunkBuffer.remaining(), range.length - rangePosition);
+					chunkBuffer.get(range, rangePosition, count);
+					rangePosition += count;
+					positionInChunk = 0;
+				}
+			} else {
+				result = Optional.absent();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Liefert für jeden der gegebenen Chunks einen eigenen Buffer auf die Abbildung seines Segments. Die Abbildungen
+	 * bleiben auch gültig, wenn das Segment währenddessen geschlossen oder gelöscht wird.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 * @return Die Chunks in ihrer Reihenfolge oder Optional.absent(), falls ein Chunk nicht gespeichert ist.
+	 * @throws IOException Falls ein Segment nicht abgebildet werden konnte.
+	 */
+	private synchronized Optional<List<MappedChunk>> mapChunks(final List<String> hashes) throws IOException {
+		final List<MappedChunk> mappedChunks = new ArrayList<MappedChunk>(hashes.size());
+		boolean complete = true;
+		for (int i = 0; complete && i < hashes.size(); i++) {
+			final StoredChunk chunk = chunks.get(hashes.get(i));
+			complete = chunk != null;
+			if (complete) {
+				MappedByteBuffer mapping = mappings.get(chunk.segment);
+				if (mapping == null || mapping.capacity() < chunk.position + chunk.storedLength) {
+					mapping = chunk.segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, chunk.segment.size);
+					mappings.put(chunk.segment, mapping);
+				}
+
+				final ByteBuffer chunkBuffer = mapping.duplicate();
+				chunkBuffer.position((int) chunk.position);
+				chunkBuffer.limit((int) chunk.position + chunk.storedLength);
+				mappedChunks.add(new MappedChunk(chunk, chunkBuffer.slice()));
+			}
+		}
+
+		Optional<List<MappedChunk>> result = Optional.absent();
+		if (complete) {
+			result = Optional.of(mappedChunks);
+		}
+		return result;
+	}
+
+	/**
+	 * Sucht die gegebenen Chunks und verhindert, dass ihre Segmente gelöscht werden, bis sie mit releaseChunks wieder
+	 * freigegeben werden.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 * @return Die Chunks in ihrer Reihenfolge oder Optional.absent(), falls ein Chunk nicht gespeichert ist.
+	 */
+	private synchronized Optional<List<StoredChunk>> acquireChunks(final List<String> hashes) {
+		final List<StoredChunk> storedChunks = new ArrayList<StoredChunk>(hashes.size());
+		for (final String hash : hashes) {
+			final StoredChunk chunk = chunks.get(hash);
+			if (chunk != null) {
+				storedChunks.add(chunk);
+			}
+		}
+
+		Optional<List<StoredChunk>> result = Optional.absent();
+		if (storedChunks.size() == hashes.size()) {
+			for (final StoredChunk chunk : storedChunks) {
+				chunk.segment.readers++;
+			}
+			result = Optional.of(storedChunks);
+		}
+		return result;
+	}
+
+	private void releaseChunks(final List<StoredChunk> storedChunks) {
+		final List<Segment> segments = new ArrayList<Segment>(storedChunks.size());
+		for (final StoredChunk chunk : storedChunks) {
+			segments.add(chunk.segment);
+		}
+		releaseSegments(segments);
+	}
+
+	private synchronized void releaseSegments(final List<Segment> segments) {
+		for (final Segment segment : segments) {
+			segment.readers--;
+			deleteIfUnused(segment);
+		}
+	}
+
+	/**
+	 * Erhöht die Anzahl der Referenzen der gegebenen Chunks um eins. Ein Chunk, der mehrfach in der Liste enthalten ist,
+	 * erhält auch mehrere Referenzen.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 */
+	synchronized void retain(final List<String> hashes) {
+		for (final String hash : hashes) {
+			final StoredChunk chunk = chunks.get(hash);
+			if (chunk != null) {
+				chunk.referenceCount++;
+			}
+		}
+	}
+
+	/**
+	 * Verringert die Anzahl der Referenzen der gegebenen Chunks um eins.
+	 *
+	 * @param hashes Die Hashes der Chunks.
+	 */
+	synchronized void release(final List<String> hashes) {
+		final long now = System.currentTimeMillis();
+		for (final String hash : hashes) {
+			final StoredChunk chunk = chunks.get(hash);
+			if (chunk != null && chunk.referenceCount > 0) {
+				chunk.referenceCount--;
+				if (chunk.referenceCount == 0) {
+					chunk.unreferencedSince = now;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entfernt alle Chunks, die seit mindestens UNREFERENCED_CHUNK_EXPIRY keine Referenzen mehr besitzen. Segmente, die
+	 * danach keine Chunks mehr enthalten, werden gelöscht.
+	 *
+	 * @param now Der aktuelle Zeitpunkt in ms.
+	 * @return Die Anzahl der entfernten Chunks.
+	 */
+	synchronized int removeUnreferencedChunks(final long now) {
+		int removedChunks = 0;
+
+		final Iterator<StoredChunk> iterator = chunks.values().iterator();
+		while (iterator.hasNext()) {
+			final StoredChunk chunk = iterator.next();
+			if (chunk.referenceCount == 0 && now - chunk.unreferencedSince >= UNREFERENCED_CHUNK_EXPIRY) {
+				iterator.remove();
+				removeFromSegment(chunk);
+				removedChunks++;
+			}
+		}
+
+		return removedChunks;
+	}
+
+	/**
+	 * Schließt und löscht das gegebene Segment, sofern es entfernt wurde und kein Thread mehr aus ihm liest.
+	 *
+	 * @param segment Das Segment.
+	 */
+	private void deleteIfUnused(final Segment segment) {
+		if (segment.removed && segment.readers == 0) {
+			unsyncedSegments.remove(segment);
+			mappings.remove(segment);
+			try {
+				segment.channel.close();
+				Files.deleteIfExists(segment.file);
+			} catch (IOException exception) {
+				APILogger.logFailure("Deleting chunk segment " + segment.file, exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der gespeicherten Chunks.
+	 *
+	 * @return Die Anzahl der Chunks.
+	 */
+	synchronized int getChunkCount() {
+		return chunks.size();
+	}
+
+	/**
+	 * Liefert die Summe der Größen aller gespeicherten Chunks, bei komprimierten Chunks also deren komprimierte Größe.
+	 *
+	 * @return Die Anzahl der gespeicherten Bytes.
+	 */
+	synchronized long getStoredBytes() {
+		return storedBytes;
+	}
+
+	/**
+	 * Liefert die Anzahl der Segmente, die derzeit in den Speicher abgebildet sind.
+	 *
+	 * @return Die Anzahl der Abbildungen.
+	 */
+	synchronized int getMappedSegmentCount() {
+		return mappings.size();
+	}
+
+	/**
+	 * Liefert die Anzahl der Segment-Dateien, die noch Chunks enthalten.
+	 *
+	 * @return Die Anzahl der Segmente.
+	 */
+	synchronized int getSegmentCount() {
+		final Set<Segment> segments = new HashSet<Segment>();
+		for (final StoredChunk chunk : chunks.values()) {
+			segments.add(chunk.segment);
+		}
+		return segments.size();
+	}
+
+	/**
+	 * Schließt alle Segment-Dateien. Danach können keine Chunks mehr gelesen oder gespeichert werden.
+	 *
+	 * @throws IOException Falls ein Segment nicht geschlossen werden konnte.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		final Set<Segment> segments = new HashSet<Segment>();
+		for (final StoredChunk chunk : chunks.values()) {
+			segments.add(chunk.segment);
+		}
+		if (activeSegment.isPresent()) {
+			segments.add(activeSegment.get());
+		}
+
+		for (final Segment segment : segments) {
+			segment.channel.close();
+		}
+		chunks.clear();
+		unsyncedSegments.clear();
+		mappings.clear();
+		activeSegment = Optional.absent();
+		storedBytes = 0;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+		long currentPosition = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, currentPosition);
+			if (read < 0) {
+				throw new IOException("Unexpected end of chunk segment.");
+			}
+			currentPosition += read;
+		}
+	}
+}
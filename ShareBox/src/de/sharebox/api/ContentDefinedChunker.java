@@ -0,0 +1,166 @@
+package de.sharebox.api;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Zerlegt Inhalte nach dem FastCDC-Verfahren in Chunks, deren Grenzen vom Inhalt selbst abhängen. Dazu wird über die
+ * Bytes ein rollierender Gear-Hash berechnet und eine Chunkgrenze gesetzt, sobald die ausgewählten Bits des Hashes null
+ * sind. Da der Hash nur von den letzten Bytes abhängt, verschieben Einfügungen und Löschungen nur die Grenzen in ihrer
+ * Nähe. Alle übrigen Chunks bleiben unverändert und müssen weder erneut übertragen noch gespeichert werden.<br/>
+ * Bis zur durchschnittlichen Chunkgröße wird eine strengere, danach eine lockerere Maske verwendet (Normalized
+ * Chunking), sodass die Chunkgrößen eng um den Durchschnitt verteilt sind.
+ */
+public class ContentDefinedChunker {
+	public static final int DEFAULT_MINIMUM_SIZE = 16 * 1024;
+	public static final int DEFAULT_AVERAGE_SIZE = 64 * 1024;
+	public static final int DEFAULT_MAXIMUM_SIZE = 256 * 1024;
+
+	/**
+	 * Zufällige, aber feste Werte für jedes mögliche Byte. Der Seed darf nicht verändert werden, da sich sonst alle
+	 * Chunkgrenzen und damit die Hashes aller Chunks ändern.
+	 */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		final Random random = new Random(0x5EB0C5L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	private final int minimumSize;
+	private final int averageSize;
+	private final int maximumSize;
+	private final long strictMask;
+	private final long looseMask;
+
+	/**
+	 * Erstellt einen ContentDefinedChunker mit den Standardgrößen.
+	 */
+	public ContentDefinedChunker() {
+		this(DEFAULT_MINIMUM_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Erstellt einen ContentDefinedChunker mit den gegebenen Größen.
+	 *
+	 * @param minimumSize Die minimale Größe eines Chunks. Nur der letzte Chunk eines Inhalts kann kleiner sein.
+	 * @param averageSize Die angestrebte durchschnittliche Größe eines Chunks. Muss eine Zweierpotenz sein.
+	 * @param maximumSize Die maximale Größe eines Chunks.
+	 */
+	ContentDefinedChunker(final int minimumSize, final int averageSize, final int maximumSize) {
+		if (Integer.bitCount(averageSize) != 1 || minimumSize > averageSize || averageSize > maximumSize) {
+			throw new IllegalArgumentException("Invalid chunk sizes.");
+		}
+		this.minimumSize = minimumSize;
+		this.averageSize = averageSize;
+		this.maximumSize = maximumSize;
+
+		final int bits = Integer.numberOfTrailingZeros(averageSize);
+		this.strictMask = highBits(bits + 2);
+		this.looseMask = highBits(bits - 2);
+	}
+
+	/**
+	 * Liefert eine Maske mit der gegebenen Anzahl gesetzter oberer Bits. Beim Gear-Hash hängen die oberen Bits von den
+	 * meisten der zuletzt gelesenen Bytes ab.
+	 *
+	 * @param count Die Anzahl der gesetzten Bits.
+	 * @return Die Maske.
+	 */
+	private static long highBits(final int count) {
+		return count <= 0 ? 0L : -1L << (Long.SIZE - count);
+	}
+
+	/**
+	 * Ermittelt die Länge des Chunks, der an der gegebenen Position beginnt.
+	 *
+	 * @param data   Die Daten.
+	 * @param offset Der Beginn des Chunks.
+	 * @param length Die Anzahl der ab offset noch verfügbaren Bytes.
+	 * @return Die Länge des Chunks.
+	 */
+	public int nextChunkLength(final byte[] data, final int offset, final int length) {
+		return nextChunkLength(ByteBuffer.wrap(data, offset, length));
+	}
+
+	/**
+	 * Ermittelt die Länge des Chunks, der an der Position des gegebenen Buffers beginnt. Damit können Inhalte
+	 * abschnittsweise zerlegt werden, z.B. beim Lesen aus einem Channel in einen direkten Buffer. Solange mindestens
+	 * getMaximumSize() Bytes oder der gesamte Rest des Inhalts verfügbar sind, entspricht das Ergebnis dem Zerlegen des
+	 * gesamten Inhalts.
+	 *
+	 * @param data Die Daten von der Position bis zum Limit. Der Buffer wird nicht verändert.
+	 * @return Die Länge des Chunks.
+	 */
+	public int nextChunkLength(final ByteBuffer data) {
+		final int offset = data.position();
+		int chunkLength = Math.min(data.remaining(), maximumSize);
+
+		if (chunkLength > minimumSize) {
+			final int normalSize = Math.min(chunkLength, averageSize);
+			long fingerprint = 0;
+			boolean found = false;
+
+			int i = minimumSize;
+			for (; !found && i < normalSize; i++) {
+				fingerprint = (fingerprint << 1) + GEAR[data.get(offset + i) & 0xff];
+				found = (fingerprint & strictMask) == 0;
+			}
+			for (; !found && i < chunkLength; i++) {
+				fingerprint = (fingerprint << 1) + GEAR[data.get(offset + i) & 0xff];
+				found = (fingerprint & looseMask) == 0;
+			}
+			chunkLength = i;
+		}
+
+		return chunkLength;
+	}
+
+	/**
+	 * Liefert die maximale Größe eines Chunks.
+	 *
+	 * @return Die maximale Größe eines Chunks.
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Zerlegt die gegebenen Daten und liefert die Längen aller Chunks in ihrer Reihenfolge.
+	 *
+	 * @param data Die Daten.
+	 * @return Die Längen der Chunks.
+	 */
+	public ImmutableList<Integer> split(final byte[] data) {
+		final ImmutableList.Builder<Integer> chunkLengths = ImmutableList.builder();
+		int offset = 0;
+		while (offset < data.length) {
+			final int chunkLength = nextChunkLength(data, offset, data.length - offset);
+			chunkLengths.add(chunkLength);
+			offset += chunkLength;
+		}
+		return chunkLengths.build();
+	}
+
+	/**
+	 * Zerlegt die gegebenen Daten und liefert die Hashes aller Chunks, so wie sie auch die FileAPI vergibt. Damit kann
+	 * vor dem Hochladen mit FileAPI.getMissingChunks ermittelt werden, welche Chunks tatsächlich übertragen werden
+	 * müssen.
+	 *
+	 * @param data Die Daten.
+	 * @return Die Hashes der Chunks in ihrer Reihenfolge.
+	 */
+	public ImmutableList<String> hashChunks(final byte[] data) {
+		final ImmutableList.Builder<String> chunkHashes = ImmutableList.builder();
+		int offset = 0;
+		for (final Integer chunkLength : split(data)) {
+			chunkHashes.add(ChunkStore.hashOf(data, offset, chunkLength));
+			offset += chunkLength;
+		}
+		return chunkHashes.build();
+	}
+}
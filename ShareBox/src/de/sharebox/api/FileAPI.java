@@ -1,228 +1,2214 @@
 package de.sharebox.api;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Striped;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import de.sharebox.file.model.Directory;
 import de.sharebox.file.model.FEntry;
 import de.sharebox.file.model.File;
+import de.sharebox.file.model.LogEntry;
+import de.sharebox.file.model.Permission;
+import de.sharebox.user.enums.StorageLimit;
 import de.sharebox.user.model.User;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Die FileAPI dient zur Kommunikation mit dem Server. Hiermit können Dateien und Verzeichnisse angelegt, aktualisiert
  * und abgerufen werden.<br/>
  * Für die Zwecke dieses Prototypen werden keine echten Request abgesetzt und nur über den APILogger Meldungen
- * ausgegeben, sowie die Daten lokal im Objekt gespeichert.
+ * ausgegeben, sowie die Daten lokal im Objekt gespeichert.<br/>
+ * Die FileAPI kann von beliebig vielen Threads gleichzeitig verwendet werden. Lesende Zugriffe benötigen keine Locks.
+ * Schreibende Zugriffe sperren nur den betroffenen FEntry (über einen von ENTRY_LOCK_STRIPES Locks) sowie für das
+ * Vergeben der Sequenznummer kurzzeitig das Änderungsprotokoll.
  */
 @Singleton
 public class FileAPI {
 	private static final String FILE_NOT_FOUND = "File not found.";
 
+	/**
+	 * Das Unterverzeichnis des mit openStorage geöffneten Verzeichnisses, in dem die Segment-Dateien der Chunks
+	 * gespeichert werden.
+	 */
+	static final String CHUNK_DIRECTORY_NAME = "chunks";
+
+	/**
+	 * Nach dieser Anzahl an Records im Write-Ahead-Log wird ein neuer Checkpoint geschrieben und das Log geleert.
+	 */
+	private static final long CHECKPOINT_INTERVAL = 10000;
+
+	/**
+	 * Spätestens nach dieser Anzahl an Versionen wird eine Version eines FEntries wieder vollständig anstatt als Delta
+	 * gespeichert, sodass zum Abrufen einer Version höchstens so viele Deltas angewendet werden müssen.
+	 */
+	private static final int FULL_VERSION_INTERVAL = 32;
+
+	/**
+	 * Die Anzahl an FEntries, die bei der Kompaktierung in einem Schritt bearbeitet werden, bevor anderen Threads wieder
+	 * Zugriff auf die FileAPI gewährt wird.
+	 */
+	private static final int COMPACTION_BATCH_SIZE = 256;
+
+	/**
+	 * Die Anzahl der Locks, auf die die FEntries beim Schreiben verteilt werden.
+	 */
+	private static final int ENTRY_LOCK_STRIPES = 64;
+
+	/**
+	 * Die maximale Anzahl an ChangeSets, die in einem Abonnement auf ihre Auslieferung warten können. Danach werden
+	 * die Änderungen vom Abonnement nachgeholt.
+	 */
+	private static final int SUBSCRIPTION_QUEUE_CAPACITY = 64;
+
 	/**
 	 * Diese Map dient dazu alle FEntries mit allen existierenden Versionen zu speichern. Der Key eines Eintrags in
 	 * der Map ist dabei jeweils der eindeutige, sich nicht ändernde, Identfier des FEntries, der von der API vorher
-	 * vergeben wurde. Als Value enthält ein Eintrag der Map eine Liste aller Versionen eines FEntries, jeweils gekapselt
-	 * in ein StoredFEntry-Objekt, das zusätzliche Informationen über den FEntry enthält, die dieser nicht selbst speichert.
+	 * vergeben wurde. Als Value enthält ein Eintrag der Map eine VersionChain aller Versionen eines FEntries, jeweils
+	 * gekapselt in ein StoredFEntry-Objekt, das zusätzliche Informationen über den FEntry enthält, die dieser nicht selbst
+	 * speichert.
+	 * <br/>
+	 * Die Versionen sind normalisiert gespeichert: Eine Version eines Directories enthält nur dessen eigene Metadaten
+	 * sowie die IDs seiner Kinder. Die Kinder werden erst beim Abrufen über diese Map aufgelöst.
+	 */
+	private final ConcurrentMap<Long, VersionChain<StoredFEntry>> storage =
+			new ConcurrentHashMap<Long, VersionChain<StoredFEntry>>();
+
+	/**
+	 * Das globale Änderungsprotokoll. Jede gespeicherte Version erhält eine fortlaufende Sequenznummer und wird unter
+	 * dieser in das Protokoll eingetragen. Änderungen ab einem Cursor können so direkt und ohne Durchsuchen des gesamten
+	 * Speichers abgefragt werden. Bei der Kompaktierung entfernte Versionen werden auch aus dem Protokoll entfernt.
+	 */
+	private final ConcurrentNavigableMap<Long, StoredFEntry> changeLog = new ConcurrentSkipListMap<Long, StoredFEntry>();
+
+	/**
+	 * Speichert zu jedem FEntry die ID des Directories, in dessen zuletzt gespeicherter Version er zuletzt als Kind
+	 * aufgeführt wurde. Wird für die Tombstones gelöschter FEntries benötigt.
+	 */
+	private final ConcurrentMap<Long, Long> parentIdentifiers = new ConcurrentHashMap<Long, Long>();
+
+	/**
+	 * Eine Zählervariable um fortlaufende eindeutige IDs für erstellte FEntries zu erzeugen.
+	 */
+	private final AtomicLong idCounter = new AtomicLong(0L);
+
+	/**
+	 * Die Locks, von denen jeweils einer beim Speichern einer neuen Version eines FEntries gehalten wird.
+	 */
+	private final Striped<Lock> entryLocks = Striped.lock(ENTRY_LOCK_STRIPES);
+
+	/**
+	 * Schützt das Vergeben von Sequenznummern und Timestamps sowie das Eintragen in das Änderungsprotokoll und das
+	 * Veröffentlichen, sodass Versionen immer in der Reihenfolge ihrer Sequenznummern sichtbar werden.
+	 */
+	private final Lock commitLock = new ReentrantLock();
+
+	/**
+	 * Wird von schreibenden Threads geteilt gehalten, bis ihre Version im Write-Ahead-Log steht, und exklusiv beim
+	 * Schreiben eines Checkpoints, damit kein Record zwischen Checkpoint und geleertem Log verloren geht.
+	 */
+	private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Die Sequenznummer der zuletzt vergebenen Version. Die erste Version erhält die Sequenznummer 1.
+	 */
+	private long sequenceCounter = 0L;
+
+	/**
+	 * Die Sequenznummer der zuletzt im Änderungsprotokoll sichtbar gewordenen Version. Alle Versionen bis zu dieser
+	 * Sequenznummer stehen im Write-Ahead-Log, getChangesSince liefert keine neueren Versionen.
+	 */
+	private volatile long publishedSequenceNumber = 0L;
+
+	/**
+	 * Die Batches, deren Sequenznummern vergeben, aber noch nicht veröffentlicht sind, in der Reihenfolge ihrer
+	 * Sequenznummern. Wird durch commitLock geschützt.
+	 */
+	private final LinkedList<VersionBatch> unpublishedBatches = new LinkedList<VersionBatch>();
+
+	/**
+	 * Der Timestamp der zuletzt gespeicherten Version.
+	 */
+	private long lastTimestamp = 0L;
+
+	/**
+	 * Das Write-Ahead-Log, in das alle neuen Versionen geschrieben werden, sofern mit openStorage ein
+	 * Speicherverzeichnis geöffnet wurde.
+	 */
+	private volatile Optional<WriteAheadLog> writeAheadLog = Optional.absent();
+
+	private volatile RetentionPolicy retentionPolicy = RetentionPolicy.keepEverything();
+
+	/**
+	 * Alle mit subscribe erstellten Abonnements.
+	 */
+	private final Set<ChangeSubscription> subscriptions = new CopyOnWriteArraySet<ChangeSubscription>();
+
+	/**
+	 * Alle auf neue Änderungen wartenden Long-Polls.
+	 */
+	private final ChangePolls changePolls = new ChangePolls(this);
+
+	/**
+	 * Fasst gleichzeitige Abfragen von Änderungen ab demselben Cursor zusammen.
+	 */
+	private final ChangeQueryCache<ChangeQuery> changeQueries = new ChangeQueryCache<ChangeQuery>();
+
+	/**
+	 * Speichert die Inhalte aller Files. Die Referenzen der Chunks entsprechen der Anzahl der gespeicherten Versionen,
+	 * die sie verwenden. Solange kein Speicherverzeichnis geöffnet wurde, liegen die Segment-Dateien in einem temporären
+	 * Verzeichnis.
+	 */
+	private volatile ChunkStore chunkStore = new ChunkStore();
+
+	private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+
+	/**
+	 * Der belegte Speicher aller Nutzer. Wird beim Vorbereiten jeder neuen Version angepasst.
+	 */
+	private final StorageAccounting storageAccounting = new StorageAccounting(new Function<String, StorageLimit>() {
+		@Override
+		public StorageLimit apply(final String email) {
+			return getStorageLimit(email);
+		}
+	});
+	private volatile Optional<Provider<UserAPI>> userAPI = Optional.absent();
+	private Optional<Timer> compactionTimer = Optional.absent();
+
+	public enum Status {
+		OK,
+		DELETED
+	}
+
+	/**
+	 * Die Art eines Records im Write-Ahead-Log.
+	 */
+	private enum RecordType {
+		CREATE,
+		UPDATE,
+		DELETE,
+		COUNTERS
+	}
+
+	/**
+	 * Diese Klasse versieht einen FEntry mit Timestap und Status Informationen, die benötigt werden wenn der FEntry
+	 * in der MockAPI gespeichert wird.<br/>
+	 * Handelt es sich um ein Directory, so wird nur eine flache Kopie (ohne Kinder) sowie die Liste der IDs der Kinder
+	 * gespeichert. Die Kosten einer neuen Version hängen somit nicht von der Größe des Teilbaums ab.<br/>
+	 * Die meisten Versionen werden zudem nur als VersionDelta zu ihrer Vorgängerversion gespeichert. Nur jede
+	 * FULL_VERSION_INTERVAL-te Version enthält den vollständigen FEntry.
+	 */
+	private class StoredFEntry implements VersionChain.Version {
+		private final Long identifier;
+		private final ImmutableList<Long> childIdentifiers;
+		private final ImmutableList<String> chunkHashes;
+		private Status status;
+		private long timestamp;
+		private long sequenceNumber;
+		private Long parentIdentifier;
+
+		/**
+		 * Der Inhalt dieser Version. Wird bei der Kompaktierung als Ganzes ersetzt, damit lesende Threads ohne Lock
+		 * immer einen konsistenten Inhalt sehen.
+		 */
+		private volatile StoredContent content;
+
+		/**
+		 * Der zuletzt aus den Deltas berechnete vollständige FEntry dieser Version. Wird nur weich referenziert, damit
+		 * der Speichervorteil der Deltas bei Speicherknappheit erhalten bleibt.
+		 */
+		private volatile SoftReference<FEntry> cachedSnapshot = new SoftReference<FEntry>(null);
+
+		/**
+		 * Die Positionen der Chunks dieser Version innerhalb ihres Inhalts. Werden beim ersten Lesen eines Ausschnitts
+		 * berechnet.
+		 */
+		private volatile long[] chunkOffsets;
+
+		/**
+		 * Erstellt eine neue Version. Timestamp und Sequenznummer werden erst beim Speichern vergeben.
+		 *
+		 * @param fEntry           Der vollständige FEntry (ohne Kinder) dieser Version.
+		 * @param childIdentifiers Die IDs der Kinder dieser Version.
+		 */
+		public StoredFEntry(final FEntry fEntry, final ImmutableList<Long> childIdentifiers) {
+			this.identifier = fEntry.getIdentifier();
+			this.content = new StoredContent(fEntry);
+			this.childIdentifiers = childIdentifiers;
+			if (fEntry instanceof File) {
+				this.chunkHashes = ((File) fEntry).getChunkHashes();
+			} else {
+				this.chunkHashes = ImmutableList.of();
+			}
+			this.status = Status.OK;
+		}
+
+		/**
+		 * Liefert die ID des gespeicherten FEntries.
+		 *
+		 * @return Die ID des gespeicherten FEntries.
+		 */
+		public Long getIdentifier() {
+			return identifier;
+		}
+
+		/**
+		 * Speichert diese Version nur noch als Delta zur gegebenen Vorgängerversion, sofern dies möglich ist und seit der
+		 * letzten vollständigen Version weniger als FULL_VERSION_INTERVAL Versionen gespeichert wurden. Andernfalls
+		 * bleibt die Version vollständig gespeichert, verwendet dabei aber die LogEntries der Vorgängerversion mit.
+		 * Darf nur aufgerufen werden, bevor die Version zur VersionChain hinzugefügt wurde.
+		 *
+		 * @param previous Die Vorgängerversion.
+		 */
+		public void storeAsDeltaOf(final StoredFEntry previous) {
+			final FEntry previousFEntry = previous.getSnapshot();
+			final Optional<VersionDelta> versionDelta = VersionDelta.between(previousFEntry, content.fEntry);
+
+			if (versionDelta.isPresent()) {
+				final int versionsSinceFullVersion = previous.content.versionsSinceFullVersion + 1;
+				if (versionsSinceFullVersion < FULL_VERSION_INTERVAL) {
+					content = new StoredContent(versionDelta.get(), previous, versionsSinceFullVersion);
+				} else {
+					content = new StoredContent(VersionDelta.apply(previousFEntry, ImmutableList.of(versionDelta.get())));
+				}
+			}
+		}
+
+		/**
+		 * Liefert die Änderungen dieser Version gegenüber der gegebenen früheren Version desselben FEntries. Ist diese
+		 * Version bereits als Delta zu ihr gespeichert, wird diese Delta ohne erneuten Vergleich geliefert.
+		 *
+		 * @param previous Die frühere Version.
+		 * @return Die Änderungen oder Optional.absent(), falls keine Delta erstellt werden kann.
+		 */
+		public Optional<VersionDelta> getDeltaTo(final StoredFEntry previous) {
+			final StoredContent versionContent = content;
+
+			Optional<VersionDelta> delta;
+			if (versionContent.fEntry == null && versionContent.previousVersion == previous) {
+				delta = Optional.of(versionContent.delta);
+			} else {
+				delta = VersionDelta.between(previous.getSnapshot(), getSnapshot());
+			}
+			return delta;
+		}
+
+		/**
+		 * Prüft, ob alle Chunks des Inhalts dieser Version gespeichert sind, und setzt die Größe des Files auf die Länge
+		 * des aus ihnen zusammengesetzten Inhalts. Die vom Client angegebene Größe wird also nie übernommen. Darf nur
+		 * aufgerufen werden, solange die Version noch vollständig gespeichert ist.
+		 *
+		 * @return True, wenn alle Chunks gespeichert sind. False, sonst.
+		 */
+		public boolean verifyContent() {
+			final Optional<long[]> offsets = getChunkOffsets();
+			if (offsets.isPresent() && content.fEntry instanceof File) {
+				final File file = (File) content.fEntry;
+				final long size = offsets.get()[chunkHashes.size()];
+				if (file.getSize() != size) {
+					content = new StoredContent(new File(file, file.getName(), file.getPermissions(),
+							file.getLogEntries(), chunkHashes, size));
+				}
+			}
+			return offsets.isPresent();
+		}
+
+		/**
+		 * Speichert diese Version wieder vollständig, sodass sie nicht mehr von ihren Vorgängerversionen abhängt. Wird
+		 * benötigt, bevor die Vorgängerversionen entfernt werden.
+		 */
+		public void storeAsFullVersion() {
+			content = new StoredContent(getSnapshot());
+		}
+
+		/**
+		 * Liefert den vollständigen FEntry (ohne Kinder) dieser Version. Ist die Version als Delta gespeichert, werden
+		 * dazu alle Deltas seit der letzten vollständigen Version angewendet und das Ergebnis zwischengespeichert. Der
+		 * gelieferte FEntry teilt seine LogEntries mit dem Speicher und darf daher nicht verändert oder herausgegeben
+		 * werden.
+		 *
+		 * @return Der vollständige FEntry dieser Version.
+		 */
+		public FEntry getSnapshot() {
+			StoredContent versionContent = content;
+			FEntry snapshot = versionContent.fEntry;
+
+			if (snapshot == null) {
+				snapshot = cachedSnapshot.get();
+			}
+			if (snapshot == null) {
+				final LinkedList<VersionDelta> deltas = new LinkedList<VersionDelta>();
+				while (versionContent.fEntry == null) {
+					deltas.addFirst(versionContent.delta);
+					versionContent = versionContent.previousVersion.content;
+				}
+				snapshot = VersionDelta.apply(versionContent.fEntry, deltas);
+				cachedSnapshot = new SoftReference<FEntry>(snapshot);
+			}
+
+			return snapshot;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Liefert die globale Sequenznummer dieser Version, die beim Anhängen an das Änderungsprotokoll vergeben wurde.
+		 *
+		 * @return Die Sequenznummer dieser Version.
+		 */
+		@Override
+		public long getSequenceNumber() {
+			return sequenceNumber;
+		}
+
+		/**
+		 * Liefert die ID des zuletzt bekannten Elternverzeichnisses zum Zeitpunkt, an dem diese Version gespeichert wurde.
+		 *
+		 * @return Die ID des Elternverzeichnisses oder null, falls keines bekannt ist.
+		 */
+		public Long getParentIdentifier() {
+			return parentIdentifier;
+		}
+
+		/**
+		 * Liefert die IDs der Kinder dieser Version. Handelt es sich um ein File ist die Liste leer.
+		 *
+		 * @return Die IDs der Kinder dieser Version.
+		 */
+		public ImmutableList<Long> getChildIdentifiers() {
+			return childIdentifiers;
+		}
+
+		/**
+		 * Liefert die Hashes der Chunks des Inhalts dieser Version. Handelt es sich um ein Directory ist die Liste leer.
+		 *
+		 * @return Die Hashes der Chunks dieser Version.
+		 */
+		public ImmutableList<String> getChunkHashes() {
+			return chunkHashes;
+		}
+
+		/**
+		 * Liefert die Positionen der Chunks dieser Version innerhalb ihres Inhalts, gefolgt von der Länge des Inhalts.
+		 *
+		 * @return Die Positionen der Chunks oder Optional.absent(), falls ein Chunk nicht gespeichert ist.
+		 */
+		public Optional<long[]> getChunkOffsets() {
+			Optional<long[]> offsets = Optional.fromNullable(chunkOffsets);
+			if (!offsets.isPresent()) {
+				offsets = chunkStore.chunkOffsets(chunkHashes);
+				chunkOffsets = offsets.orNull();
+			}
+			return offsets;
+		}
+
+		/**
+		 * Ruft eine Kopie des gespeicherten FEntries ab. Handelt es sich bei dem FEntry um ein Directory werden die
+		 * Kinder des Directories erst beim ersten Zugriff anhand ihrer IDs in ihrer aktuellsten Version aufgelöst.
+		 * Gelöschte Kinder werden dabei ausgelassen.
+		 *
+		 * @return Eine Kopie des gespeicherten FEntries.
+		 */
+		public FEntry getFEntry() {
+			return getFEntry(Optional.<Long>absent());
+		}
+
+		/**
+		 * Ruft eine Kopie des gespeicherten FEntries ab. Handelt es sich bei dem FEntry um ein Directory werden die
+		 * Kinder erst beim ersten Zugriff in der Version aufgelöst, die nach der Änderung mit der gegebenen
+		 * Sequenznummer aktuell war. So kostet das Abrufen eines Directories nur so viel wie das Erstellen seiner
+		 * direkten Kinder, und das auch erst, wenn diese tatsächlich benötigt werden.
+		 *
+		 * @param sequenceNumber Die Sequenznummer, zu der die Kinder aufgelöst werden sollen, oder Optional.absent() für
+		 *                       die aktuellste Version der Kinder.
+		 * @return Eine Kopie des gespeicherten FEntries.
+		 */
+		public FEntry getFEntry(final Optional<Long> sequenceNumber) {
+			final FEntry snapshot = getSnapshot();
+
+			FEntry copy;
+			if (snapshot instanceof Directory) {
+				copy = new Directory((Directory) snapshot, new ChildResolver(childIdentifiers, sequenceNumber));
+			} else {
+				copy = new File((File) snapshot);
+			}
+			return copy;
+		}
+
+		public Status getStatus() {
+			return this.status;
+		}
+
+		public void setStatus(final Status newStatus) {
+			this.status = newStatus;
+		}
+	}
+
+	/**
+	 * Löst die Kinder eines abgerufenen Directories auf, sobald diese zum ersten Mal benötigt werden.
+	 */
+	private class ChildResolver implements Supplier<List<FEntry>> {
+		private final ImmutableList<Long> childIdentifiers;
+		private final Optional<Long> sequenceNumber;
+
+		public ChildResolver(final ImmutableList<Long> childIdentifiers, final Optional<Long> sequenceNumber) {
+			this.childIdentifiers = childIdentifiers;
+			this.sequenceNumber = sequenceNumber;
+		}
+
+		@Override
+		public List<FEntry> get() {
+			final List<FEntry> children = new ArrayList<FEntry>();
+			for (final Long childIdentifier : childIdentifiers) {
+				final FEntry child = getFEntryWithId(childIdentifier, sequenceNumber);
+				if (child != null) {
+					children.add(child);
+				}
+			}
+			return children;
+		}
+	}
+
+	/**
+	 * Der unveränderliche Inhalt einer Version: Entweder der vollständige FEntry oder ein VersionDelta zu ihrer
+	 * Vorgängerversion.
+	 */
+	private static class StoredContent {
+		private final FEntry fEntry;
+		private final VersionDelta delta;
+		private final StoredFEntry previousVersion;
+		private final int versionsSinceFullVersion;
+
+		public StoredContent(final FEntry fEntry) {
+			this.fEntry = fEntry;
+			this.delta = null;
+			this.previousVersion = null;
+			this.versionsSinceFullVersion = 0;
+		}
+
+		public StoredContent(final VersionDelta delta, final StoredFEntry previousVersion, final int versionsSinceFullVersion) {
+			this.fEntry = null;
+			this.delta = delta;
+			this.previousVersion = previousVersion;
+			this.versionsSinceFullVersion = versionsSinceFullVersion;
+		}
+	}
+
+	/**
+	 * Erstellt ein FileAPI-Objekt. Als Singleton konzipiert.<br/>
+	 * Sollte nur mittels Dependency Injection durch Guice erstellt werden.
+	 */
+	@Inject
+	FileAPI() {
+		//empty package constructor to avoid direct instantiation
+	}
+
+	/**
+	 * Setzt die UserAPI, über die die aktuellen Speicherlimits der Nutzer abgefragt werden. Da die UserAPI selbst von
+	 * der FileAPI abhängt, wird sie von Guice nachträglich über einen Provider gesetzt und erst bei Bedarf abgefragt.
+	 * Ohne UserAPI werden keine Speicherlimits durchgesetzt.
+	 *
+	 * @param userAPI Ein Provider der UserAPI.
+	 */
+	@Inject
+	void setUserAPI(final Provider<UserAPI> userAPI) {
+		this.userAPI = Optional.of(userAPI);
+	}
+
+	/**
+	 * Öffnet das gegebene Verzeichnis als dauerhaften Speicher. Zunächst wird der Speicher aus dem letzten Checkpoint
+	 * und dem anschließend geschriebenen Write-Ahead-Log wiederhergestellt. Danach wird jede neue Version vor dem
+	 * Abschluss der jeweiligen Operation in das Log geschrieben. Sollte beim Programmstart aufgerufen werden, bevor
+	 * FEntries erstellt wurden.
+	 *
+	 * @param directory Das Verzeichnis, in dem Log, Checkpoint und die Chunks gespeichert werden.
+	 * @param userAPI   Die UserAPI, die für die wiederhergestellten FEntries verwendet werden soll.
+	 * @return True, wenn der Speicher geöffnet und wiederhergestellt werden konnte. False, sonst.
+	 */
+	public synchronized boolean openStorage(final Path directory, final UserAPI userAPI) {
+		boolean success = false;
+
+		if (writeAheadLog.isPresent() || !storage.isEmpty()) {
+			APILogger.logFailure("Opening storage " + directory, "Storage already in use.");
+		} else {
+			try {
+				final ChunkStore openedChunkStore = ChunkStore.open(directory.resolve(CHUNK_DIRECTORY_NAME));
+				chunkStore.close();
+				chunkStore = openedChunkStore;
+
+				final WriteAheadLog log = new WriteAheadLog(directory);
+
+				final List<byte[]> records = new ArrayList<byte[]>();
+				final Optional<List<byte[]>> checkpoint = log.readCheckpoint();
+				if (checkpoint.isPresent()) {
+					records.addAll(checkpoint.get());
+				}
+				records.addAll(log.readRecords());
+				restoreVersions(records, userAPI);
+
+				writeAheadLog = Optional.of(log);
+				success = true;
+				APILogger.logSuccess("Restored " + changeLog.size() + " versions from " + directory);
+			} catch (IOException exception) {
+				APILogger.logFailure("Opening storage " + directory, exception.getMessage());
+			}
+		}
+
+		return success;
+	}
+
+	/**
+	 * Schließt das mit openStorage geöffnete Write-Ahead-Log. Weitere Änderungen werden danach nur noch im Speicher
+	 * gehalten. Die Chunks bleiben weiterhin aus dem Speicherverzeichnis lesbar.
+	 */
+	public synchronized void closeStorage() {
+		final Optional<WriteAheadLog> log = writeAheadLog;
+		if (log.isPresent()) {
+			checkpointLock.writeLock().lock();
+			try {
+				writeAheadLog = Optional.absent();
+				log.get().close();
+			} catch (IOException exception) {
+				APILogger.logFailure("Closing storage", exception.getMessage());
+			} finally {
+				checkpointLock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Liefert das mit openStorage geöffnete Write-Ahead-Log.
+	 *
+	 * @return Das Write-Ahead-Log oder Optional.absent(), falls kein Speicher geöffnet ist.
+	 */
+	Optional<WriteAheadLog> getWriteAheadLog() {
+		return writeAheadLog;
+	}
+
+	/**
+	 * Setzt die RetentionPolicy, nach der alte Versionen und gelöschte FEntries bei der Kompaktierung entfernt werden.
+	 * Standardmäßig werden keine Versionen entfernt.
+	 *
+	 * @param retentionPolicy Die neue RetentionPolicy.
+	 */
+	public void setRetentionPolicy(final RetentionPolicy retentionPolicy) {
+		this.retentionPolicy = retentionPolicy;
+	}
+
+	/**
+	 * Startet einen Hintergrund-Thread mit niedriger Priorität, der in regelmäßigen Abständen die RetentionPolicy
+	 * anwendet. Läuft bereits eine Kompaktierung, wird diese zuvor beendet.
+	 *
+	 * @param interval Der Abstand zwischen zwei Kompaktierungen in ms.
+	 */
+	public synchronized void startCompaction(final long interval) {
+		stopCompaction();
+
+		final Timer timer = new Timer("FileAPI compaction", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+				compact();
+			}
+		}, interval, interval);
+		compactionTimer = Optional.of(timer);
+	}
+
+	/**
+	 * Beendet die mit startCompaction gestartete Kompaktierung.
+	 */
+	public synchronized void stopCompaction() {
+		if (compactionTimer.isPresent()) {
+			compactionTimer.get().cancel();
+			compactionTimer = Optional.absent();
+		}
+	}
+
+	/**
+	 * Wendet die RetentionPolicy auf alle FEntries an. Dabei wird immer nur der gerade bearbeitete FEntry für schreibende
+	 * Zugriffe gesperrt, lesende Zugriffe werden nie blockiert. Nach jeweils COMPACTION_BATCH_SIZE FEntries wird die
+	 * Rechenzeit an andere Threads abgegeben. Wurden Versionen entfernt, wird ein neuer Checkpoint geschrieben, damit sie
+	 * beim Wiederherstellen nicht aus dem Write-Ahead-Log zurückkehren. Anschließend werden nicht mehr referenzierte
+	 * Chunks entfernt und kaum noch belegte Segmente des Chunk-Speichers neu gepackt.
+	 *
+	 * @return Die Anzahl der entfernten Versionen.
+	 */
+	int compact() {
+		final List<Long> identifiers = new ArrayList<Long>(storage.keySet());
+
+		int removedVersions = 0;
+		for (int index = 0; index < identifiers.size(); index++) {
+			final Long identifier = identifiers.get(index);
+			final Lock entryLock = entryLocks.get(identifier);
+			entryLock.lock();
+			try {
+				removedVersions += compactVersions(identifier, System.currentTimeMillis());
+			} finally {
+				entryLock.unlock();
+			}
+
+			if ((index + 1) % COMPACTION_BATCH_SIZE == 0) {
+				Thread.yield();
+			}
+		}
+
+		//the log still contains the removed versions, replace it before their chunks are removed
+		if (removedVersions > 0 && writeAheadLog.isPresent()) {
+			try {
+				writeCheckpoint();
+			} catch (IOException exception) {
+				APILogger.logFailure("Writing checkpoint after compaction", exception.getMessage());
+			}
+		}
+
+		final int removedChunks = chunkStore.removeUnreferencedChunks(System.currentTimeMillis());
+
+		int repackedSegments = 0;
+		try {
+			repackedSegments = chunkStore.repackSegments();
+		} catch (IOException exception) {
+			APILogger.logFailure("Repacking chunk segments", exception.getMessage());
+		}
+
+		if (removedVersions > 0 || removedChunks > 0 || repackedSegments > 0) {
+			APILogger.logSuccess("Compaction removed " + removedVersions + " versions and " + removedChunks
+					+ " chunks and repacked " + repackedSegments + " chunk segments");
+		}
+
+		return removedVersions;
+	}
+
+	/**
+	 * Liefert den FEntry mit der gegebenen ID.
+	 *
+	 * @param fEntryId Die ID des FEntries.
+	 * @return Der aktuellste FEntry mit dieser ID.
+	 */
+	public FEntry getFEntryWithId(final Long fEntryId) {
+		return getFEntryWithId(fEntryId, Optional.<Long>absent());
+	}
+
+	/**
+	 * Liefert den FEntry mit der gegebenen ID in dem Zustand, den er zum gegebenen Zeitpunkt hatte. Handelt es sich um
+	 * ein Directory, werden auch seine Kinder in ihrem damaligen Zustand geliefert.
+	 *
+	 * @param fEntryId  Die ID des FEntries.
+	 * @param timestamp Der Zeitpunkt in ms.
+	 * @return Der FEntry zum gegebenen Zeitpunkt oder null, falls er zu diesem Zeitpunkt nicht existierte oder
+	 * gelöscht war.
+	 */
+	public FEntry getFEntryAt(final Long fEntryId, final long timestamp) {
+		return getFEntryAtSequence(fEntryId, getSequenceNumberAt(timestamp));
+	}
+
+	/**
+	 * Liefert den FEntry mit der gegebenen ID in dem Zustand, den er nach der Änderung mit der gegebenen Sequenznummer
+	 * hatte (siehe ChangeSet.getCursor()). Handelt es sich um ein Directory, werden auch seine Kinder in ihrem damaligen
+	 * Zustand geliefert.
+	 *
+	 * @param fEntryId       Die ID des FEntries.
+	 * @param sequenceNumber Die Sequenznummer.
+	 * @return Der FEntry nach der gegebenen Änderung oder null, falls er zu diesem Zeitpunkt nicht existierte oder
+	 * gelöscht war.
+	 */
+	public FEntry getFEntryAtSequence(final Long fEntryId, final long sequenceNumber) {
+		return getFEntryWithId(fEntryId, Optional.of(sequenceNumber));
+	}
+
+	/**
+	 * Erstellt einen neuen FEntry und weißt ihm eine neue ID zu.
+	 *
+	 * @param newFEntry Der neu erstellte FEntry.
+	 * @return Die ID des erstellten FEntries oder null, falls ein File dadurch das Speicherlimit eines Nutzers
+	 * überschreiten würde.
+	 */
+	public Long createNewFEntry(final FEntry newFEntry) {
+		//generate id
+		newFEntry.setIdentifier(idCounter.getAndIncrement());
+
+		//create new version chain to account for new file
+		if (storeVersions(ImmutableList.of(createStorageEntry(newFEntry)), true) == 1) {
+			APILogger.logSuccess(APILogger.actionStringForFEntryAction("FEntry Creation", newFEntry));
+		} else {
+			APILogger.logFailure(APILogger.actionStringForFEntryAction("FEntry Creation", newFEntry));
+			newFEntry.setIdentifier(null);
+		}
+
+		return newFEntry.getIdentifier();
+	}
+
+	/**
+	 * Aktulisiert den gegebenen FEntry bzw. seine lokale Kopie in der API. 2 FEntries werden hierbei als gleich betrachtet
+	 * wenn sie die selbe ID besitzen.
+	 *
+	 * @param updatedFEntry Aktulaisierter FEntry mit neuen Informationen.
+	 * @return True, wenn der FEntry gefunden und aktualisiert wurde. False, sonst.
+	 */
+	public boolean updateFEntry(final FEntry updatedFEntry) {
+		boolean success = false;
+
+		if (updatedFEntry.getIdentifier() != null && storage.containsKey(updatedFEntry.getIdentifier())) {
+			success = storeVersions(ImmutableList.of(createStorageEntry(updatedFEntry)), false) == 1;
+		}
+
+		if (success) {
+			APILogger.logSuccess(APILogger.actionStringForFEntryAction("FEntry Update", updatedFEntry));
+		} else {
+			//no file found found - error!
+			APILogger.logFailure(APILogger.actionStringForFEntryAction("FEntry Update", updatedFEntry), FILE_NOT_FOUND);
+		}
+
+		return success;
+	}
+
+	/**
+	 * Löscht den gegebenen FEntry bzw. seine lokale Kopie in der API. 2 FEntries werden hierbei als gleich betrachtet
+	 * wenn sie die selbe ID besitzen.
+	 *
+	 * @param deletedFEntry Der zu löschende FEntry.
+	 * @return True, wenn der FEntry gefunden und gelöscht wurde. False, sonst.
+	 */
+	public boolean deleteFEntry(final FEntry deletedFEntry) {
+		boolean success = false;
+
+		if (deletedFEntry.getIdentifier() != null && storage.containsKey(deletedFEntry.getIdentifier())) {
+			final StoredFEntry deletionEntry = createStorageEntry(deletedFEntry);
+			deletionEntry.setStatus(Status.DELETED);
+			success = storeVersions(ImmutableList.of(deletionEntry), false) == 1;
+		}
+
+		if (success) {
+			APILogger.logSuccess(APILogger.actionStringForFEntryAction("FEntry Deletion", deletedFEntry));
+		} else {
+			APILogger.logFailure(APILogger.actionStringForFEntryAction("FEntry Deletion", deletedFEntry), FILE_NOT_FOUND);
+		}
+
+		return success;
+	}
+
+	/**
+	 * Erstellt die gegebenen FEntries sowie alle noch nicht gespeicherten Kinder gegebener Directories in einem Schritt.
+	 * Die FEntries erhalten dabei einen zusammenhängenden Block neuer IDs und werden gemeinsam in das
+	 * Änderungsprotokoll und das Write-Ahead-Log geschrieben.
+	 *
+	 * @param newFEntries Die neu erstellten FEntries.
+	 * @return Die IDs der gegebenen FEntries in der gegebenen Reihenfolge. Für FEntries, die nicht gespeichert werden
+	 * konnten, ist die ID null.
+	 */
+	public List<Long> createNewFEntries(final List<? extends FEntry> newFEntries) {
+		final List<FEntry> createdFEntries = new ArrayList<FEntry>();
+		for (final FEntry newFEntry : newFEntries) {
+			collectNewFEntries(newFEntry, createdFEntries);
+		}
+
+		//generate a contiguous block of ids
+		long identifier = idCounter.getAndAdd(createdFEntries.size());
+		for (final FEntry createdFEntry : createdFEntries) {
+			createdFEntry.setIdentifier(identifier++);
+		}
+
+		final List<StoredFEntry> newVersions = new ArrayList<StoredFEntry>();
+		for (final FEntry createdFEntry : createdFEntries) {
+			newVersions.add(createStorageEntry(createdFEntry));
+		}
+		final boolean success = storeVersions(newVersions, true) == newVersions.size();
+
+		//FEntries rejected because of a storage limit or a failed write-ahead log do not keep their ids
+		for (final FEntry createdFEntry : createdFEntries) {
+			if (!storage.containsKey(createdFEntry.getIdentifier())) {
+				createdFEntry.setIdentifier(null);
+			}
+		}
+
+		APILogger.logResult("Batch FEntry Creation of " + createdFEntries.size() + " FEntries", success);
+
+		final List<Long> identifiers = new ArrayList<Long>();
+		for (final FEntry newFEntry : newFEntries) {
+			identifiers.add(newFEntry.getIdentifier());
+		}
+		return Collections.unmodifiableList(identifiers);
+	}
+
+	/**
+	 * Aktualisiert die gegebenen FEntries in einem Schritt. Neue Kinder gegebener Directories werden dabei zuvor
+	 * gemeinsam erstellt.
+	 *
+	 * @param updatedFEntries Die aktualisierten FEntries.
+	 * @return True, wenn alle FEntries aktualisiert wurden. False, wenn mindestens ein FEntry nicht gefunden wurde.
+	 */
+	public boolean updateFEntries(final List<? extends FEntry> updatedFEntries) {
+		final List<StoredFEntry> newVersions = createStorageEntriesOfExistingFEntries(updatedFEntries, Status.OK);
+		final boolean success = storeVersions(newVersions, false) == updatedFEntries.size();
+
+		APILogger.logResult("Batch FEntry Update of " + updatedFEntries.size() + " FEntries", success);
+
+		return success;
+	}
+
+	/**
+	 * Löscht die gegebenen FEntries in einem Schritt.
+	 *
+	 * @param deletedFEntries Die gelöschten FEntries.
+	 * @return True, wenn alle FEntries gelöscht wurden. False, wenn mindestens ein FEntry nicht gefunden wurde.
+	 */
+	public boolean deleteFEntries(final List<? extends FEntry> deletedFEntries) {
+		final List<StoredFEntry> newVersions = createStorageEntriesOfExistingFEntries(deletedFEntries, Status.DELETED);
+		final boolean success = storeVersions(newVersions, false) == deletedFEntries.size();
+
+		APILogger.logResult("Batch FEntry Deletion of " + deletedFEntries.size() + " FEntries", success);
+
+		return success;
+	}
+
+	/**
+	 * Legt den gegebenen Inhalt im Chunk-Speicher ab. Der Inhalt wird dazu vom ContentDefinedChunker zerlegt und nur die
+	 * noch unbekannten Chunks werden gespeichert. Wird eine große Datei an einer Stelle verändert, ändern sich so nur die
+	 * Chunks um diese Stelle. Die gelieferten Hashes können anschließend mit
+	 * File.setContent einem File zugewiesen werden. Werden sie nicht innerhalb von ChunkStore.UNREFERENCED_CHUNK_EXPIRY
+	 * in einer gespeicherten Version verwendet, werden die Chunks bei der Kompaktierung wieder entfernt.
+	 *
+	 * @param content Der Inhalt.
+	 * @return Die Hashes der Chunks des Inhalts in ihrer Reihenfolge oder Optional.absent(), falls der Inhalt nicht
+	 * gespeichert werden konnte.
+	 */
+	public Optional<ImmutableList<String>> uploadContent(final byte[] content) {
+		final Optional<ImmutableList<ImmutableList<String>>> hashes = uploadContents(ImmutableList.of(content));
+
+		Optional<ImmutableList<String>> contentHashes = Optional.absent();
+		if (hashes.isPresent()) {
+			contentHashes = Optional.of(hashes.get().get(0));
+		}
+		return contentHashes;
+	}
+
+	/**
+	 * Legt den Inhalt des gegebenen Channels wie uploadContent im Chunk-Speicher ab, ohne ihn vollständig in den Speicher
+	 * zu laden. Der Inhalt wird dazu abschnittsweise in den gegebenen Buffer gelesen und dort zerlegt. Bereits
+	 * gespeicherte Chunks werden nur gehasht, nur die Daten neuer Chunks werden kopiert. Der Buffer kann daher ein
+	 * wiederverwendeter direkter Buffer sein.
+	 *
+	 * @param channel Der Channel, aus dem bis zu seinem Ende gelesen wird.
+	 * @param buffer  Der Buffer, in den gelesen wird. Muss mindestens ContentDefinedChunker.DEFAULT_MAXIMUM_SIZE Bytes
+	 *                groß sein. Sein Inhalt wird überschrieben.
+	 * @return Die Hashes der Chunks des Inhalts in ihrer Reihenfolge oder Optional.absent(), falls der Inhalt nicht
+	 * gelesen oder gespeichert werden konnte.
+	 */
+	public Optional<ImmutableList<String>> uploadContent(final ReadableByteChannel channel, final ByteBuffer buffer) {
+		if (buffer.capacity() < chunker.getMaximumSize()) {
+			throw new IllegalArgumentException("Buffer is smaller than the maximum chunk size.");
+		}
+		final int previousChunkCount = chunkStore.getChunkCount();
+
+		final ImmutableList.Builder<String> chunkHashes = ImmutableList.builder();
+		long totalLength = 0;
+		int chunkCount = 0;
+		Optional<ImmutableList<String>> hashes = Optional.absent();
+		try {
+			buffer.clear();
+			boolean endOfStream = false;
+			while (!endOfStream || buffer.position() > 0) {
+				while (!endOfStream && buffer.hasRemaining()) {
+					endOfStream = channel.read(buffer) < 0;
+				}
+				buffer.flip();
+
+				//only split with a full chunk ahead, otherwise boundaries could differ from uploadContent(byte[])
+				final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+				while (buffer.remaining() >= chunker.getMaximumSize() || (endOfStream && buffer.hasRemaining())) {
+					final int chunkLength = chunker.nextChunkLength(buffer);
+					final ByteBuffer chunk = buffer.slice();
+					chunk.limit(chunkLength);
+					chunks.add(chunk);
+					buffer.position(buffer.position() + chunkLength);
+					totalLength += chunkLength;
+				}
+				if (!chunks.isEmpty()) {
+					chunkHashes.addAll(chunkStore.putAll(chunks));
+					chunkCount += chunks.size();
+				}
+				buffer.compact();
+			}
+			hashes = Optional.of(chunkHashes.build());
+
+			APILogger.logSuccess("Content upload of " + totalLength + " bytes in " + chunkCount
+					+ " chunks (" + Math.max(chunkStore.getChunkCount() - previousChunkCount, 0) + " new)");
+		} catch (IOException exception) {
+			APILogger.logFailure("Content upload of " + totalLength + " bytes", exception.getMessage());
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * Legt die gegebenen Inhalte wie uploadContent im Chunk-Speicher ab. Die noch unbekannten Chunks aller Inhalte werden
+	 * dabei gemeinsam mit einem einzigen Schreibvorgang an den Chunk-Speicher angehängt, sodass viele kleine Dateien
+	 * nicht jeweils einzeln geschrieben werden müssen.
+	 *
+	 * @param contents Die Inhalte.
+	 * @return Die Hashes der Chunks jedes Inhalts in der Reihenfolge der Inhalte oder Optional.absent(), falls die
+	 * Inhalte nicht gespeichert werden konnten.
+	 */
+	public Optional<ImmutableList<ImmutableList<String>>> uploadContents(final List<byte[]> contents) {
+		final int previousChunkCount = chunkStore.getChunkCount();
+
+		final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		final List<Integer> chunkCounts = new ArrayList<Integer>(contents.size());
+		long totalLength = 0;
+		for (final byte[] content : contents) {
+			final ImmutableList<Integer> chunkLengths = chunker.split(content);
+			int offset = 0;
+			for (final Integer chunkLength : chunkLengths) {
+				chunks.add(ByteBuffer.wrap(content, offset, chunkLength));
+				offset += chunkLength;
+			}
+			chunkCounts.add(chunkLengths.size());
+			totalLength += content.length;
+		}
+
+		Optional<ImmutableList<ImmutableList<String>>> hashes = Optional.absent();
+		try {
+			final ImmutableList<String> chunkHashes = chunkStore.putAll(chunks);
+
+			final ImmutableList.Builder<ImmutableList<String>> contentHashes = ImmutableList.builder();
+			int firstChunk = 0;
+			for (final Integer chunkCount : chunkCounts) {
+				contentHashes.add(chunkHashes.subList(firstChunk, firstChunk + chunkCount));
+				firstChunk += chunkCount;
+			}
+			hashes = Optional.of(contentHashes.build());
+
+			APILogger.logSuccess("Content upload of " + totalLength + " bytes in " + chunkHashes.size()
+					+ " chunks (" + Math.max(chunkStore.getChunkCount() - previousChunkCount, 0) + " new)");
+		} catch (IOException exception) {
+			APILogger.logFailure("Content upload of " + totalLength + " bytes", exception.getMessage());
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * Liefert die Hashes der gegebenen Chunks, die noch nicht gespeichert sind. Ein Client kann so einen geänderten
+	 * Inhalt mit dem ContentDefinedChunker lokal zerlegen und nur die fehlenden Chunks mit uploadChunk übertragen.
+	 *
+	 * @param chunkHashes Die Hashes der Chunks eines Inhalts.
+	 * @return Die Hashes der Chunks, die noch hochgeladen werden müssen.
+	 */
+	public ImmutableList<String> getMissingChunks(final List<String> chunkHashes) {
+		final ImmutableList.Builder<String> missingChunks = ImmutableList.builder();
+		for (final String chunkHash : ImmutableSet.copyOf(chunkHashes)) {
+			if (!chunkStore.contains(chunkHash)) {
+				missingChunks.add(chunkHash);
+			}
+		}
+		return missingChunks.build();
+	}
+
+	/**
+	 * Legt einen einzelnen, vom Client mit dem ContentDefinedChunker erstellten Chunk im Chunk-Speicher ab.
+	 *
+	 * @param chunk Die Daten des Chunks.
+	 * @return Der Hash des Chunks oder Optional.absent(), falls der Chunk nicht gespeichert werden konnte.
+	 */
+	public Optional<String> uploadChunk(final byte[] chunk) {
+		Optional<String> hash = Optional.absent();
+		try {
+			hash = Optional.of(chunkStore.put(chunk, 0, chunk.length));
+		} catch (IOException exception) {
+			APILogger.logFailure("Chunk upload of " + chunk.length + " bytes", exception.getMessage());
+		}
+		return hash;
+	}
+
+	/**
+	 * Liest den Inhalt des gegebenen Files aus dem Chunk-Speicher in ein Byte-Array. Für große Files sollte stattdessen
+	 * downloadContent(File, WritableByteChannel) verwendet werden, das den Inhalt nicht in den Heap kopiert.
+	 *
+	 * @param file Das File, dessen Inhalt gelesen werden soll.
+	 * @return Der Inhalt oder Optional.absent(), falls ein Chunk des Inhalts nicht gespeichert ist.
+	 */
+	public Optional<byte[]> downloadContent(final File file) {
+		Optional<byte[]> content = Optional.absent();
+		try {
+			content = chunkStore.read(file.getChunkHashes());
+			APILogger.logResult(APILogger.actionStringForFEntryAction("Content download", file), content.isPresent());
+		} catch (IOException exception) {
+			APILogger.logFailure(APILogger.actionStringForFEntryAction("Content download", file), exception.getMessage());
+		}
+
+		return content;
+	}
+
+	/**
+	 * Liest einen Ausschnitt aus dem Inhalt der aktuellsten Version des Files mit der gegebenen ID. Es werden nur die
+	 * Chunks gelesen, die den Ausschnitt enthalten, und zwar über in den Speicher abgebildete Segment-Dateien. Ein
+	 * Ausschnitt am Ende eines sehr großen Files lädt so nur die Seiten, die er tatsächlich umfasst.
+	 *
+	 * @param fileId Die ID des Files.
+	 * @param offset Der Beginn des Ausschnitts im Inhalt.
+	 * @param length Die Länge des Ausschnitts. Reicht der Ausschnitt über das Ende des Inhalts hinaus, wird er
+	 *               entsprechend gekürzt.
+	 * @return Der Ausschnitt oder Optional.absent(), falls kein File mit dieser ID existiert, der Ausschnitt ungültig
+	 * ist oder ein Chunk des Inhalts nicht gespeichert ist.
+	 */
+	public Optional<byte[]> readContent(final Long fileId, final long offset, final int length) {
+		final String action = "Content read of " + length + " bytes at " + offset + " from file with ID " + fileId;
+		Optional<byte[]> content = Optional.absent();
+
+		final VersionChain<StoredFEntry> versions = fileId == null ? null : storage.get(fileId);
+		final Optional<StoredFEntry> latestVersion = versions == null
+				? Optional.<StoredFEntry>absent() : versions.getLatest();
+		if (!latestVersion.isPresent() || latestVersion.get().getStatus() == Status.DELETED
+				|| !(latestVersion.get().getSnapshot() instanceof File)) {
+			APILogger.logFailure(action, FILE_NOT_FOUND);
+		} else if (offset < 0 || length < 0) {
+			APILogger.logFailure(action, "Invalid range.");
+		} else {
+			final StoredFEntry version = latestVersion.get();
+			try {
+				final Optional<long[]> chunkOffsets = version.getChunkOffsets();
+				if (chunkOffsets.isPresent()) {
+					content = chunkStore.readRange(version.getChunkHashes(), chunkOffsets.get(), offset, length);
+				}
+				APILogger.logResult(action, content.isPresent());
+			} catch (IOException exception) {
+				APILogger.logFailure(action, exception.getMessage());
+			}
+		}
+
+		return content;
+	}
+
+	/**
+	 * Überträgt den Inhalt des gegebenen Files direkt aus den Segment-Dateien des Chunk-Speichers in den gegebenen
+	 * Channel (z.B. einen SocketChannel). Dazu wird FileChannel.transferTo verwendet, sodass die Daten ohne
+	 * Zwischenpuffer im Heap übertragen werden und die Geschwindigkeit nur von Festplatte und Netzwerk abhängt.
+	 *
+	 * @param file   Das File, dessen Inhalt übertragen werden soll.
+	 * @param target Der blockierende Channel, in den der Inhalt geschrieben wird. Er wird nicht geschlossen.
+	 * @return True, wenn der gesamte Inhalt übertragen wurde. False, falls ein Chunk des Inhalts nicht gespeichert ist
+	 * (dann wurde nichts übertragen) oder die Übertragung fehlgeschlagen ist.
+	 */
+	public boolean downloadContent(final File file, final WritableByteChannel target) {
+		boolean success = false;
+		try {
+			success = chunkStore.transferTo(file.getChunkHashes(), target);
+			APILogger.logResult(APILogger.actionStringForFEntryAction("Content transfer", file), success);
+		} catch (IOException exception) {
+			APILogger.logFailure(APILogger.actionStringForFEntryAction("Content transfer", file), exception.getMessage());
+		}
+
+		return success;
+	}
+
+	/**
+	 * Schreibt ein ZIP-Archiv des Directories mit der gegebenen ID und aller darin enthaltenen FEntries, die der gegebene
+	 * Nutzer lesen darf, in den gegebenen Stream. Die Inhalte der Files werden dabei Stück für Stück aus dem
+	 * Chunk-Speicher in den ZipOutputStream übertragen, sodass weder temporäre Dateien angelegt werden noch der
+	 * Speicherbedarf von der Größe des Archivs abhängt. Nicht lesbare Directories werden samt Inhalt übersprungen.
+	 *
+	 * @param directoryId Die ID des Directories.
+	 * @param user        Der Nutzer, der das Archiv herunterlädt.
+	 * @param target      Der Stream, in den das Archiv geschrieben wird. Er wird nicht geschlossen.
+	 * @return True, wenn das gesamte Archiv geschrieben wurde. False, falls das Directory nicht existiert oder nicht
+	 * lesbar ist (dann wurde nichts geschrieben) oder das Schreiben fehlgeschlagen ist.
+	 */
+	public boolean downloadDirectoryAsZip(final Long directoryId, final User user, final OutputStream target) {
+		final String action = "Zip download of directory with ID " + directoryId;
+		boolean success = false;
+
+		final Optional<StoredFEntry> directory = getReadableVersion(directoryId, user);
+		if (!directory.isPresent() || !(directory.get().getSnapshot() instanceof Directory)) {
+			APILogger.logFailure(action, FILE_NOT_FOUND);
+		} else {
+			try {
+				final ZipOutputStream zipStream = new ZipOutputStream(target);
+				final Set<String> entryNames = new HashSet<String>();
+				final Set<Long> writtenIdentifiers = new HashSet<Long>();
+				final String rootPath = uniqueEntryName("", directory.get().getSnapshot().getName(), "/", entryNames);
+				zipStream.putNextEntry(new ZipEntry(rootPath));
+				zipStream.closeEntry();
+				writtenIdentifiers.add(directoryId);
+
+				success = addChildrenToZip(zipStream, Channels.newChannel(zipStream), directory.get(), rootPath,
+						user, entryNames, writtenIdentifiers);
+				if (success) {
+					zipStream.finish();
+				}
+				zipStream.flush();
+				APILogger.logResult(action, success);
+			} catch (IOException exception) {
+				APILogger.logFailure(action, exception.getMessage());
+			}
+		}
+
+		return success;
+	}
+
+	/**
+	 * Fügt alle lesbaren Kinder des gegebenen Directories rekursiv zum ZIP-Archiv hinzu. Jeder FEntry wird dabei nur
+	 * einmal geschrieben, auch wenn er (z.B. durch Freigaben) an mehreren Stellen des Baums oder in einem seiner eigenen
+	 * Unterverzeichnisse enthalten ist.
+	 *
+	 * @param zipStream          Der ZipOutputStream des Archivs.
+	 * @param zipChannel         Ein Channel, der in den ZipOutputStream schreibt.
+	 * @param directory          Das Directory.
+	 * @param path               Der Pfad des Directories im Archiv.
+	 * @param user               Der Nutzer, der das Archiv herunterlädt.
+	 * @param entryNames         Die Namen aller bisherigen Einträge des Archivs.
+	 * @param writtenIdentifiers Die IDs aller bereits geschriebenen FEntries.
+	 * @return True, wenn alle Kinder hinzugefügt wurden. False, falls ein Chunk eines Inhalts nicht gespeichert ist.
+	 * @throws IOException Falls das Archiv nicht geschrieben werden konnte.
+	 */
+	private boolean addChildrenToZip(final ZipOutputStream zipStream, final WritableByteChannel zipChannel,
+									 final StoredFEntry directory, final String path, final User user,
+									 final Set<String> entryNames, final Set<Long> writtenIdentifiers)
+			throws IOException {
+		boolean success = true;
+
+		final Iterator<Long> childIdentifiers = directory.getChildIdentifiers().iterator();
+		while (success && childIdentifiers.hasNext()) {
+			final Long childIdentifier = childIdentifiers.next();
+			final Optional<StoredFEntry> child = getReadableVersion(childIdentifier, user);
+			if (child.isPresent() && writtenIdentifiers.add(childIdentifier)) {
+				final FEntry snapshot = child.get().getSnapshot();
+				if (snapshot instanceof Directory) {
+					final String directoryPath = uniqueEntryName(path, snapshot.getName(), "/", entryNames);
+					final ZipEntry entry = new ZipEntry(directoryPath);
+					entry.setTime(child.get().getTimestamp());
+					zipStream.putNextEntry(entry);
+					zipStream.closeEntry();
+
+					success = addChildrenToZip(zipStream, zipChannel, child.get(), directoryPath, user, entryNames,
+							writtenIdentifiers);
+				} else if (snapshot instanceof File) {
+					final ZipEntry entry = new ZipEntry(uniqueEntryName(path, snapshot.getName(), "", entryNames));
+					entry.setTime(child.get().getTimestamp());
+					zipStream.putNextEntry(entry);
+					success = chunkStore.transferTo(child.get().getChunkHashes(), zipChannel);
+					zipStream.closeEntry();
+				}
+			}
+		}
+
+		return success;
+	}
+
+	/**
+	 * Liefert einen im Archiv noch nicht vergebenen Namen für einen Eintrag. Bei gleichnamigen FEntries wird eine
+	 * fortlaufende Nummer angehängt. Trennzeichen im Namen sowie leere Namen und die Namen "." und ".." werden durch
+	 * "_" ersetzt, damit kein Eintrag außerhalb seines Directories entpackt werden kann.
+	 *
+	 * @param path       Der Pfad des übergeordneten Directories im Archiv.
+	 * @param name       Der Name des FEntries.
+	 * @param suffix     "/" für Directories, sonst "".
+	 * @param entryNames Die Namen aller bisherigen Einträge. Der gelieferte Name wird hinzugefügt.
+	 * @return Der Name des Eintrags.
+	 */
+	private static String uniqueEntryName(final String path, final String name, final String suffix,
+										  final Set<String> entryNames) {
+		String baseName = Strings.nullToEmpty(name).replace('/', '_').replace('\\', '_');
+		if (baseName.isEmpty() || ".".equals(baseName) || "..".equals(baseName)) {
+			baseName = "_";
+		}
+
+		String entryName = path + baseName + suffix;
+		int counter = 2;
+		while (!entryNames.add(entryName)) {
+			entryName = path + baseName + " (" + counter + ")" + suffix;
+			counter++;
+		}
+		return entryName;
+	}
+
+	/**
+	 * Liefert die aktuellste Version des FEntries mit der gegebenen ID, sofern er nicht gelöscht ist und der gegebene
+	 * Nutzer ihn lesen darf.
+	 *
+	 * @param fEntryId Die ID des FEntries.
+	 * @param user     Der Nutzer.
+	 * @return Die aktuellste Version oder Optional.absent().
+	 */
+	private Optional<StoredFEntry> getReadableVersion(final Long fEntryId, final User user) {
+		Optional<StoredFEntry> readableVersion = Optional.absent();
+
+		final VersionChain<StoredFEntry> versions = fEntryId == null ? null : storage.get(fEntryId);
+		if (versions != null) {
+			final Optional<StoredFEntry> latestVersion = versions.getLatest();
+			if (latestVersion.isPresent() && latestVersion.get().getStatus() != Status.DELETED
+					&& latestVersion.get().getSnapshot().getPermissionOfUser(user).getReadAllowed()) {
+				readableVersion = latestVersion;
+			}
+		}
+
+		return readableVersion;
+	}
+
+	/**
+	 * Liefert den vom gegebenen Nutzer belegten Speicher. Dazu zählen alle Files, an denen der Nutzer Rechte besitzt.
+	 * Der Wert wird bei jeder Änderung mitgeführt und muss daher nicht berechnet werden.
+	 *
+	 * @param user Der Nutzer.
+	 * @return Der belegte Speicher in Bytes.
+	 */
+	public long getStorageUsage(final User user) {
+		return storageAccounting.getUsage(user.getEmail());
+	}
+
+	/**
+	 * Prüft, ob der gegebene Nutzer noch die gegebene Anzahl an Bytes belegen darf, z.B. vor dem Hochladen eines neuen
+	 * Inhalts. Nutzer ohne Speicherlimit werden nicht beschränkt.
+	 *
+	 * @param user            Der Nutzer.
+	 * @param additionalBytes Die Anzahl der zusätzlich benötigten Bytes.
+	 * @return True, wenn das Speicherlimit des Nutzers dadurch nicht überschritten wird. False, sonst.
+	 */
+	public boolean hasStorageFor(final User user, final long additionalBytes) {
+		final StorageLimit storageLimit = getStorageLimit(user.getEmail());
+		return storageLimit == null || getStorageUsage(user) + additionalBytes <= storageLimit.getBytes();
+	}
+
+	/**
+	 * Liefert das aktuelle Speicherlimit des Nutzers mit der gegebenen E-Mail-Adresse von der UserAPI.
+	 *
+	 * @param email Die E-Mail-Adresse des Nutzers.
+	 * @return Das Speicherlimit oder null, falls der Nutzer keines besitzt oder keine UserAPI gesetzt ist.
+	 */
+	private StorageLimit getStorageLimit(final String email) {
+		final Optional<Provider<UserAPI>> currentUserAPI = userAPI;
+		return currentUserAPI.isPresent() ? currentUserAPI.get().get().getStorageLimitOfUser(email) : null;
+	}
+
+	/**
+	 * Liefert alle FEntries, welche sich nach der Änderung mit der gegebenen Sequenznummer geändert haben oder erstellt
+	 * wurden, sowie Tombstones für alle seitdem gelöschten FEntries. Es werden höchstens "limit" Änderungen des
+	 * Änderungsprotokolls betrachtet, sodass der Aufwand nur von der Anzahl der Änderungen und nicht von der Größe des
+	 * gesamten Speichers abhängt. Wurde ein FEntry innerhalb dieser Änderungen mehrfach geändert, ist er nur einmal in
+	 * seinem neusten Zustand enthalten.<br/>
+	 * Gleichzeitige Abfragen ab demselben Cursor werden nur einmal ausgewertet und die gefundenen Versionen werden kurz
+	 * zwischengespeichert (siehe ChangeQueryCache). Jeder Aufrufer erhält dennoch ein eigenes ChangeSet mit eigenen
+	 * Kopien der FEntries.
+	 *
+	 * @param cursor Die Sequenznummer der zuletzt abgefragten Änderung (siehe ChangeSet.getCursor()). 0 um alle
+	 *               Änderungen abzufragen.
+	 * @param limit  Die maximale Anzahl an Änderungen, die betrachtet werden sollen.
+	 * @return Ein ChangeSet mit den geänderten FEntries und dem Cursor für die nächste Abfrage.
+	 */
+	public ChangeSet getChangesSince(final long cursor, final int limit) {
+		final long publishedCursor = publishedSequenceNumber;
+		final long startCursor = Math.min(Math.max(cursor, 0L), publishedCursor);
+
+		final ChangeQuery query = changeQueries.get(startCursor, limit, publishedCursor, new Supplier<ChangeQuery>() {
+			@Override
+			public ChangeQuery get() {
+				return queryChanges(startCursor, limit, publishedCursor);
+			}
+		});
+		return query.toChangeSet();
+	}
+
+	/**
+	 * Sucht die Versionen für getChangesSince aus dem Änderungsprotokoll. Noch nicht veröffentlichte Versionen werden
+	 * dabei ausgelassen.
+	 *
+	 * @param cursor          Die Sequenznummer der zuletzt abgefragten Änderung.
+	 * @param limit           Die maximale Anzahl an Änderungen, die betrachtet werden sollen.
+	 * @param publishedCursor Die Sequenznummer der zuletzt veröffentlichten Version.
+	 * @return Die gefundenen Versionen und der Cursor für die nächste Abfrage.
+	 */
+	private ChangeQuery queryChanges(final long cursor, final int limit, final long publishedCursor) {
+		long newCursor = cursor;
+
+		final List<StoredFEntry> changes = new ArrayList<StoredFEntry>();
+		final Iterator<StoredFEntry> changeIterator =
+				changeLog.subMap(newCursor, false, publishedCursor, true).values().iterator();
+		for (int i = 0; i < limit && changeIterator.hasNext(); i++) {
+			final StoredFEntry change = changeIterator.next();
+			changes.add(change);
+			newCursor = change.getSequenceNumber();
+		}
+
+		return new ChangeQuery(changes, newCursor, changeIterator.hasNext());
+	}
+
+	/**
+	 * Liefert wie getChangesSince die Änderungen nach der gegebenen Sequenznummer. Liegen noch keine Änderungen vor,
+	 * wird jedoch gewartet, bis neue Änderungen gespeichert wurden oder der Timeout abgelaufen ist. Clients, die kein
+	 * Abonnement (siehe subscribe) halten können, erhalten so neue Änderungen sofort, ohne die FileAPI ständig abfragen
+	 * zu müssen.
+	 *
+	 * @param cursor  Die Sequenznummer der zuletzt abgefragten Änderung (siehe ChangeSet.getCursor()).
+	 * @param limit   Die maximale Anzahl an Änderungen, die betrachtet werden sollen.
+	 * @param timeout Die maximale Wartezeit in ms.
+	 * @return Ein ChangeSet mit den geänderten FEntries und dem Cursor für die nächste Abfrage. Nach Ablauf des
+	 * Timeouts ist es leer.
+	 */
+	public ChangeSet getChangesSince(final long cursor, final int limit, final long timeout) {
+		return Futures.getUnchecked(pollChangesSince(cursor, limit, timeout));
+	}
+
+	/**
+	 * Variante von getChangesSince(long, int, long), die nicht blockiert. Ein wartender Poll belegt keinen Thread, alle
+	 * wartenden Polls werden beim Speichern neuer Änderungen gemeinsam von einem einzigen Thread beantwortet. Damit
+	 * können z.B. sehr viele Clients gleichzeitig auf Änderungen warten.
+	 *
+	 * @param cursor  Die Sequenznummer der zuletzt abgefragten Änderung (siehe ChangeSet.getCursor()).
+	 * @param limit   Die maximale Anzahl an Änderungen, die betrachtet werden sollen.
+	 * @param timeout Die maximale Wartezeit in ms.
+	 * @return Ein Future des ChangeSets, das spätestens nach Ablauf des Timeouts verfügbar ist.
+	 */
+	public ListenableFuture<ChangeSet> pollChangesSince(final long cursor, final int limit, final long timeout) {
+		return changePolls.poll(cursor, limit, timeout);
+	}
+
+	/**
+	 * Das Ergebnis einer Abfrage von Änderungen, bevor daraus FEntries erstellt werden. Enthält nur die unveränderlichen
+	 * gespeicherten Versionen und kann daher zwischengespeichert und mit mehreren Aufrufern geteilt werden, während jedes
+	 * ChangeSet eigene Kopien der FEntries erhält.
+	 */
+	private class ChangeQuery {
+		private final ImmutableList<StoredFEntry> latestChanges;
+		private final long cursor;
+		private final boolean moreChangesAvailable;
+
+		/**
+		 * Erstellt ein neues Abfrageergebnis. Jeder FEntry ist darin nur einmal in seinem neusten Zustand enthalten.
+		 *
+		 * @param changes              Die Versionen in der Reihenfolge ihrer Sequenznummern.
+		 * @param cursor               Der Cursor des Ergebnisses.
+		 * @param moreChangesAvailable Ob nach dem Cursor noch weitere Änderungen vorliegen.
+		 */
+		public ChangeQuery(final List<StoredFEntry> changes, final long cursor, final boolean moreChangesAvailable) {
+			final Map<Long, StoredFEntry> latestChangesByIdentifier = new LinkedHashMap<Long, StoredFEntry>();
+			for (final StoredFEntry change : changes) {
+				latestChangesByIdentifier.remove(change.getIdentifier());
+				latestChangesByIdentifier.put(change.getIdentifier(), change);
+			}
+
+			this.latestChanges = ImmutableList.copyOf(latestChangesByIdentifier.values());
+			this.cursor = cursor;
+			this.moreChangesAvailable = moreChangesAvailable;
+		}
+
+		/**
+		 * Erstellt ein neues ChangeSet mit neuen Kopien der geänderten FEntries.
+		 *
+		 * @return Das ChangeSet.
+		 */
+		public ChangeSet toChangeSet() {
+			final List<FEntry> changedFEntries = new ArrayList<FEntry>();
+			final List<Tombstone> deletedFEntries = new ArrayList<Tombstone>();
+			for (final StoredFEntry change : latestChanges) {
+				if (change.getStatus() == Status.DELETED) {
+					deletedFEntries.add(new Tombstone(change.getIdentifier(), change.getParentIdentifier(),
+							change.getTimestamp()));
+				} else {
+					changedFEntries.add(change.getFEntry());
+				}
+			}
+
+			return new ChangeSet(ImmutableList.copyOf(changedFEntries), ImmutableList.copyOf(deletedFEntries),
+					cursor, moreChangesAvailable);
+		}
+	}
+
+	/**
+	 * Abonniert alle Änderungen nach der Änderung mit der gegebenen Sequenznummer. Bereits vorhandene Änderungen werden
+	 * zunächst nachgeholt, danach wird jede neu gespeicherte Änderung sofort an den Listener geliefert. Die Auslieferung
+	 * geschieht in einem eigenen Thread der ChangeSubscription, ein langsamer Listener hält also keine schreibenden
+	 * Threads auf.
+	 *
+	 * @param cursor   Die Sequenznummer der zuletzt bekannten Änderung (siehe ChangeSet.getCursor()). 0 um alle
+	 *                 Änderungen zu erhalten.
+	 * @param listener Der Listener, an den die Änderungen geliefert werden.
+	 * @return Das Abonnement, mit dem die Auslieferung wieder beendet werden kann.
+	 */
+	public ChangeSubscription subscribe(final long cursor, final ChangeListener listener) {
+		final ChangeSubscription subscription =
+				new ChangeSubscription(this, cursor, listener, SUBSCRIPTION_QUEUE_CAPACITY);
+		subscriptions.add(subscription);
+		subscription.start();
+		return subscription;
+	}
+
+	/**
+	 * Entfernt das gegebene Abonnement. Wird von ChangeSubscription.cancel aufgerufen.
+	 *
+	 * @param subscription Das zu entfernende Abonnement.
 	 */
-	private final Map<Long, List<StoredFEntry>> storage = new HashMap<Long, List<StoredFEntry>>();
+	void unsubscribe(final ChangeSubscription subscription) {
+		subscriptions.remove(subscription);
+	}
 
 	/**
-	 * Eine einfache Zählervariable um fortlaufende eindeutige IDs für erstellte FEntries zu erzeugen.
+	 * Veröffentlicht die gegebenen, gerade gespeicherten Versionen an alle Abonnements und weckt die wartenden
+	 * Long-Polls. Jedes Abonnement erhält ein eigenes ChangeSet, ohne Abonnements wird keines erstellt.
+	 *
+	 * @param pendingVersions Die gespeicherten Versionen in der Reihenfolge ihrer Sequenznummern.
 	 */
-	private Long idCounter = 0L;
+	private void publishVersions(final List<PendingVersion> pendingVersions) {
+		changePolls.changesPublished();
 
-	public enum Status {
-		OK,
-		DELETED
+		if (!subscriptions.isEmpty()) {
+			final List<StoredFEntry> changes = new ArrayList<StoredFEntry>();
+			for (final PendingVersion pendingVersion : pendingVersions) {
+				changes.add(pendingVersion.version);
+			}
+			final long previousCursor = changes.get(0).getSequenceNumber() - 1;
+			final ChangeQuery query = new ChangeQuery(changes, changes.get(changes.size() - 1).getSequenceNumber(), false);
+
+			for (final ChangeSubscription subscription : subscriptions) {
+				subscription.publish(previousCursor, query.toChangeSet());
+			}
+		}
 	}
 
 	/**
-	 * Diese Klasse versieht einen FEntry mit Timestap und Status Informationen, die benötigt werden wenn der FEntry
-	 * in der MockAPI gespeichert wird.
+	 * Gibt den gegebenen FEntry für den gegebenen Nutzer frei. Der FEntry wird dabei zu dem Hauptverzeichnis des Nutzer
+	 * hinzugefügt, indem eine neue Version des Hauptverzeichnisses mit der ID des FEntries gespeichert wird.
+	 *
+	 * @param userAPI      Die UserAPI. Wird benötigt um die ID des Hauptverzeichnises des Nutzers zu erhalten.
+	 * @param invitedUser  Der Nutzer, für den der FEntry freigegeben werden soll.
+	 * @param sharedFEntry Der freizugebende FEntry.
+	 * @return True, wenn die Operation erfolgreich war. False, sonst.
 	 */
-	private class StoredFEntry {
-		private final Long timestamp;
-		private final FEntry fEntry;
-		private Status status;
+	public boolean shareFEntry(final UserAPI userAPI, final User invitedUser, final FEntry sharedFEntry) {
+		Boolean success = true;
 
-		public StoredFEntry(final Long timestamp, final FEntry fEntry) {
-			this.timestamp = timestamp;
-			this.fEntry = fEntry;
-			this.status = Status.OK;
+		try {
+			final Long rootDirID = userAPI.getRootDirIDOfUser(invitedUser);
+			if (sharedFEntry.getIdentifier() == null) {
+				createNewFEntry(sharedFEntry);
+			}
+
+			final Lock rootDirLock = entryLocks.get(rootDirID);
+			rootDirLock.lock();
+			try {
+				final StoredFEntry rootDirEntry = storage.get(rootDirID).getLatest().get();
+				final Directory invitedUsersRootDir = new Directory((Directory) rootDirEntry.getSnapshot(), ImmutableList.<FEntry>of());
+				invitedUsersRootDir.addFEntry(sharedFEntry);
+
+				final ImmutableList<Long> childIdentifiers = ImmutableList.<Long>builder()
+						.addAll(rootDirEntry.getChildIdentifiers())
+						.add(sharedFEntry.getIdentifier())
+						.build();
+				success = storeVersions(ImmutableList.of(new StoredFEntry(createTypeAwareFEntryCopy(invitedUsersRootDir),
+						childIdentifiers)), false) == 1;
+			} finally {
+				rootDirLock.unlock();
+			}
+		} catch (Exception exception) {
+			success = false;
 		}
 
-		public long getTimestamp() {
-			return timestamp;
+		APILogger.logResult("Shared file  '" + sharedFEntry.getName() + "' with user", success);
+
+		return success;
+	}
+
+	/**
+	 * Entfernt die nach der RetentionPolicy nicht mehr benötigten Versionen des FEntries mit der gegebenen ID. Ist der
+	 * FEntry gelöscht und die Aufbewahrungsdauer für gelöschte FEntries abgelaufen, wird der FEntry vollständig
+	 * entfernt. Muss mit gehaltenem Lock des FEntries aufgerufen werden.
+	 *
+	 * @param identifier Die ID des FEntries.
+	 * @param now        Der aktuelle Zeitpunkt in ms.
+	 * @return Die Anzahl der entfernten Versionen.
+	 */
+	private int compactVersions(final Long identifier, final long now) {
+		final VersionChain<StoredFEntry> versions = storage.get(identifier);
+		List<StoredFEntry> removedVersions = ImmutableList.of();
+
+		if (versions != null && versions.getLatest().isPresent()) {
+			final StoredFEntry latestVersion = versions.getLatest().get();
+			if (latestVersion.getStatus() == Status.DELETED
+					&& !retentionPolicy.isTombstoneRetained(now - latestVersion.getTimestamp())) {
+				storage.remove(identifier);
+				parentIdentifiers.remove(identifier);
+				removedVersions = versions.getVersions();
+			} else {
+				final List<StoredFEntry> allVersions = versions.getVersions();
+				int count = 0;
+				while (count < allVersions.size() - 1
+						&& !retentionPolicy.isVersionRetained(allVersions.size() - 1 - count,
+						now - allVersions.get(count).getTimestamp())) {
+					count++;
+				}
+
+				if (count > 0) {
+					allVersions.get(count).storeAsFullVersion();
+					removedVersions = versions.removeOldest(count);
+				}
+			}
 		}
 
-		/**
-		 * Ruft den gespeicherte FEntry ab. Handelt es sich bei dem FEntry um ein Directory werden alle Kinder des
-		 * Directories aktualisiert abgefragt.
-		 *
-		 * @return Der gespeicherte FEntry.
-		 */
-		public FEntry getFEntry() {
-			//update children
-			if (fEntry instanceof Directory) {
-				for (final FEntry child : ((Directory) fEntry).getFEntries()) {
-					child.applyChanges(getFEntryWithId(child.getIdentifier()), FileAPI.this);
+		for (final StoredFEntry removedVersion : removedVersions) {
+			changeLog.remove(removedVersion.getSequenceNumber());
+			chunkStore.release(removedVersion.getChunkHashes());
+		}
+		return removedVersions.size();
+	}
+
+	/**
+	 * Speichert die gegebenen Versionen als neue Versionen ihrer FEntries. Dazu werden die Locks aller betroffenen
+	 * FEntries gehalten und die Versionen erhalten in einem Schritt aufeinanderfolgende Sequenznummern. Anschließend
+	 * werden alle Versionen gemeinsam in das Write-Ahead-Log geschrieben, sofern eines geöffnet ist, und erst danach in
+	 * ihre Versionslisten und das Änderungsprotokoll eingetragen. Konnten sie nicht in das Log geschrieben werden, wird
+	 * keine der Versionen gespeichert. Veröffentlicht werden die Versionen erst, wenn auch alle Versionen mit kleineren
+	 * Sequenznummern gespeichert oder verworfen wurden.<br/>
+	 * Neue Versionen erhalten dabei die nächste Sequenznummer und den aktuellen Timestamp, wiederhergestellte Versionen
+	 * behalten ihre gespeicherten Werte.
+	 *
+	 * @param newVersions Die neuen Versionen.
+	 * @param create      True, wenn für FEntries ohne gespeicherte Versionen neue Versionslisten angelegt werden sollen.
+	 * @return Die Anzahl der gespeicherten Versionen. Versionen von FEntries, die nicht (mehr) existieren, werden nicht
+	 * gespeichert.
+	 */
+	private int storeVersions(final List<StoredFEntry> newVersions, final boolean create) {
+		final List<Long> identifiers = new ArrayList<Long>();
+		for (final StoredFEntry newVersion : newVersions) {
+			identifiers.add(newVersion.getIdentifier());
+		}
+		final ImmutableList<Lock> locks = ImmutableList.copyOf(entryLocks.bulkGet(identifiers));
+		final List<PendingVersion> pendingVersions = new ArrayList<PendingVersion>();
+		final List<VersionBatch> publishedBatches = new ArrayList<VersionBatch>();
+
+		//always lock the entries before the checkpoint lock to avoid deadlocks with checkpoints
+		for (final Lock lock : locks) {
+			lock.lock();
+		}
+		checkpointLock.readLock().lock();
+		try {
+			try {
+				pendingVersions.addAll(prepareVersions(newVersions, create));
+
+				if (!pendingVersions.isEmpty()) {
+					final VersionBatch batch = reserveVersions(pendingVersions);
+					boolean logged = true;
+					if (writeAheadLog.isPresent()) {
+						try {
+							logVersions(pendingVersions);
+						} catch (IOException exception) {
+							APILogger.logFailure("Write-ahead logging of " + pendingVersions.size() + " versions",
+									exception.getMessage());
+							logged = false;
+						}
+					}
+
+					if (logged) {
+						commitVersions(pendingVersions);
+					} else {
+						releaseVersions(pendingVersions);
+						pendingVersions.clear();
+					}
+					publishedBatches.addAll(completeBatch(batch, logged));
+				}
+			} finally {
+				for (final Lock lock : locks.reverse()) {
+					lock.unlock();
 				}
 			}
-			return fEntry;
+		} finally {
+			checkpointLock.readLock().unlock();
 		}
 
-		public Status getStatus() {
-			return this.status;
+		for (final VersionBatch publishedBatch : publishedBatches) {
+			publishVersions(publishedBatch.pendingVersions);
 		}
+		if (!pendingVersions.isEmpty()) {
+			checkpointIfNeeded();
+		}
+		return pendingVersions.size();
+	}
 
-		public void setStatus(final Status newStatus) {
-			this.status = newStatus;
+	/**
+	 * Die Versionen eines Aufrufs von storeVersions, deren Sequenznummern bereits vergeben sind.
+	 */
+	private class VersionBatch {
+		private final List<PendingVersion> pendingVersions;
+		private final long lastSequenceNumber;
+		private boolean completed = false;
+		private boolean stored = false;
+
+		public VersionBatch(final List<PendingVersion> pendingVersions, final long lastSequenceNumber) {
+			this.pendingVersions = pendingVersions;
+			this.lastSequenceNumber = lastSequenceNumber;
 		}
 	}
 
 	/**
-	 * Erstellt ein FileAPI-Objekt. Als Singleton konzipiert.<br/>
-	 * Sollte nur mittels Dependency Injection durch Guice erstellt werden.
+	 * Eine Version, die zum Speichern vorbereitet, aber noch nicht im Änderungsprotokoll sichtbar ist.
 	 */
-	@Inject
-	FileAPI() {
-		//empty package constructor to avoid direct instantiation
+	private class PendingVersion {
+		private final VersionChain<StoredFEntry> versions;
+		private final StoredFEntry version;
+		private final FEntry fEntry;
+		private final StoredFEntry previousVersion;
+		private final boolean firstVersion;
+
+		public PendingVersion(final VersionChain<StoredFEntry> versions, final StoredFEntry version,
+							  final FEntry fEntry, final StoredFEntry previousVersion) {
+			this.versions = versions;
+			this.version = version;
+			this.fEntry = fEntry;
+			this.previousVersion = previousVersion;
+			this.firstVersion = previousVersion == null;
+		}
 	}
 
 	/**
-	 * Liefert den FEntry mit der gegebenen ID.
+	 * Ermittelt für die gegebenen Versionen die Versionslisten ihrer FEntries und speichert die Versionen, wenn möglich,
+	 * als Delta zu ihren Vorgängerversionen. Muss mit gehaltenen Locks der FEntries aufgerufen werden.<br/>
+	 * Neue Versionen von Files werden nur angenommen, wenn alle ihre Chunks gespeichert sind. Ihre Größe wird dabei aus
+	 * den Längen der Chunks bestimmt.
 	 *
-	 * @param fEntryId Die ID des FEntries.
-	 * @return Der aktuellste FEntry mit dieser ID.
+	 * @param newVersions Die neuen Versionen.
+	 * @param create      True, wenn für FEntries ohne gespeicherte Versionen neue Versionslisten angelegt werden sollen.
+	 * @return Die vorbereiteten Versionen in der gegebenen Reihenfolge, ohne die Versionen nicht existierender FEntries.
 	 */
-	public FEntry getFEntryWithId(final Long fEntryId) {
-		FEntry foundFEntry = null;
+	private List<PendingVersion> prepareVersions(final List<StoredFEntry> newVersions, final boolean create) {
+		final Map<Long, VersionChain<StoredFEntry>> versionChains = new HashMap<Long, VersionChain<StoredFEntry>>();
+		final Map<Long, StoredFEntry> latestVersions = new HashMap<Long, StoredFEntry>();
+		final List<PendingVersion> pendingVersions = new ArrayList<PendingVersion>();
+
+		for (final StoredFEntry newVersion : newVersions) {
+			final Long identifier = newVersion.getIdentifier();
+			VersionChain<StoredFEntry> versions = versionChains.get(identifier);
+			if (versions == null) {
+				versions = storage.get(identifier);
+				if (versions != null) {
+					final Optional<StoredFEntry> latestVersion = versions.getLatest();
+					if (latestVersion.isPresent()) {
+						latestVersions.put(identifier, latestVersion.get());
+					}
+				} else if (create) {
+					versions = new VersionChain<StoredFEntry>();
+				}
+			}
 
-		final Optional<StoredFEntry> latestStorageEntryForFEntryID = getLatestStorageEntryForFEntryID(fEntryId);
-		if (latestStorageEntryForFEntryID.isPresent() && latestStorageEntryForFEntryID.get().getStatus() != Status.DELETED) {
-			foundFEntry = latestStorageEntryForFEntryID.get().getFEntry();
+			//restored versions were verified when they were stored the first time
+			final boolean verified = versions == null || newVersion.sequenceNumber != 0
+					|| newVersion.getStatus() == Status.DELETED || newVersion.verifyContent();
+			if (!verified) {
+				APILogger.logFailure(APILogger.actionStringForFEntryAction("Storing", newVersion.getSnapshot()),
+						"Content contains unknown chunks.");
+			} else if (versions != null) {
+				final FEntry fEntry = newVersion.getSnapshot();
+				final StoredFEntry previousVersion = latestVersions.get(identifier);
+
+				//restored versions are charged again to rebuild the usage, but limits are not enforced for them since
+				//they were accepted when they were stored the first time
+				if (storageAccounting.update(usedSnapshotOf(previousVersion), usedSnapshotOf(newVersion),
+						newVersion.sequenceNumber == 0)) {
+					if (previousVersion != null) {
+						newVersion.storeAsDeltaOf(previousVersion);
+					}
+
+					chunkStore.retain(newVersion.getChunkHashes());
+					versionChains.put(identifier, versions);
+					latestVersions.put(identifier, newVersion);
+					pendingVersions.add(new PendingVersion(versions, newVersion, fEntry, previousVersion));
+				} else {
+					APILogger.logFailure(APILogger.actionStringForFEntryAction("Storing", fEntry),
+							"Storage limit exceeded.");
+				}
+			}
 		}
 
-		return foundFEntry;
+		return pendingVersions;
 	}
 
 	/**
-	 * Erstellt einen neuen FEntry und weißt ihm eine neue ID zu.
+	 * Liefert den vollständigen FEntry der gegebenen Version, sofern diese Speicher belegt.
 	 *
-	 * @param newFEntry Der neu erstellte FEntry.
-	 * @return Die ID des erstellten FEntries.
+	 * @param version Die Version oder null.
+	 * @return Der FEntry der Version oder Optional.absent(), falls keine Version gegeben oder der FEntry gelöscht ist.
 	 */
-	public Long createNewFEntry(final FEntry newFEntry) {
-		//generate id
-		newFEntry.setIdentifier(idCounter++);
+	private Optional<FEntry> usedSnapshotOf(final StoredFEntry version) {
+		Optional<FEntry> snapshot = Optional.absent();
+		if (version != null && version.getStatus() != Status.DELETED) {
+			snapshot = Optional.of(version.getSnapshot());
+		}
+		return snapshot;
+	}
 
-		//create new sublist to account for new file if no existing file was found
-		final StoredFEntry newEntry = new StoredFEntry(System.currentTimeMillis(), createTypeAwareFEntryCopy(newFEntry));
-		final List<StoredFEntry> versions = new ArrayList<StoredFEntry>();
-		versions.add(newEntry);
-		storage.put(newFEntry.getIdentifier(), versions);
+	/**
+	 * Vergibt Sequenznummern und Timestamps an die gegebenen Versionen und vermerkt sie als noch nicht veröffentlicht.
+	 * Muss mit gehaltenen Locks der FEntries aufgerufen werden.
+	 *
+	 * @param pendingVersions Die vorbereiteten Versionen.
+	 * @return Der Batch der Versionen, der mit completeBatch abgeschlossen werden muss.
+	 */
+	private VersionBatch reserveVersions(final List<PendingVersion> pendingVersions) {
+		commitLock.lock();
+		try {
+			for (final PendingVersion pendingVersion : pendingVersions) {
+				final StoredFEntry newVersion = pendingVersion.version;
+				if (newVersion.sequenceNumber == 0) {
+					newVersion.sequenceNumber = ++sequenceCounter;
+					newVersion.timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+				} else {
+					sequenceCounter = Math.max(sequenceCounter, newVersion.sequenceNumber);
+				}
+				lastTimestamp = Math.max(lastTimestamp, newVersion.timestamp);
+			}
 
-		APILogger.logSuccess(APILogger.actionStringForFEntryAction("FEntry Creation", newFEntry));
+			final VersionBatch batch = new VersionBatch(pendingVersions,
+					pendingVersions.get(pendingVersions.size() - 1).version.sequenceNumber);
+			unpublishedBatches.addLast(batch);
+			return batch;
+		} finally {
+			commitLock.unlock();
+		}
+	}
 
-		return newFEntry.getIdentifier();
+	/**
+	 * Hängt die gegebenen, dauerhaft gespeicherten Versionen an die Versionen ihrer FEntries sowie an das
+	 * Änderungsprotokoll an. Zudem werden die Elternverzeichnisse der Kinder der Versionen aktualisiert. Für
+	 * getChangesSince bleiben die Versionen unsichtbar, bis ihr Batch veröffentlicht wird. Muss mit gehaltenen Locks der
+	 * FEntries aufgerufen werden.
+	 *
+	 * @param pendingVersions Die vorbereiteten Versionen.
+	 */
+	private void commitVersions(final List<PendingVersion> pendingVersions) {
+		commitLock.lock();
+		try {
+			for (final PendingVersion pendingVersion : pendingVersions) {
+				final StoredFEntry newVersion = pendingVersion.version;
+				for (final Long childIdentifier : newVersion.getChildIdentifiers()) {
+					parentIdentifiers.put(childIdentifier, newVersion.getIdentifier());
+				}
+				newVersion.parentIdentifier = parentIdentifiers.get(newVersion.getIdentifier());
+
+				pendingVersion.versions.append(newVersion);
+				storage.putIfAbsent(newVersion.getIdentifier(), pendingVersion.versions);
+				changeLog.put(newVersion.sequenceNumber, newVersion);
+			}
+		} finally {
+			commitLock.unlock();
+		}
 	}
 
+	/**
+	 * Gibt die Speichernutzung und die Chunks der gegebenen Versionen wieder frei, z.B. weil sie nicht in das
+	 * Write-Ahead-Log geschrieben werden konnten. Muss mit gehaltenen Locks der FEntries aufgerufen werden.
+	 *
+	 * @param pendingVersions Die vorbereiteten, nicht gespeicherten Versionen.
+	 */
+	private void releaseVersions(final List<PendingVersion> pendingVersions) {
+		for (final PendingVersion pendingVersion : Lists.reverse(pendingVersions)) {
+			final StoredFEntry version = pendingVersion.version;
+			storageAccounting.update(usedSnapshotOf(version), usedSnapshotOf(pendingVersion.previousVersion), false);
+			chunkStore.release(version.getChunkHashes());
+		}
+	}
 
 	/**
-	 * Aktulisiert den gegebenen FEntry bzw. seine lokale Kopie in der API. 2 FEntries werden hierbei als gleich betrachtet
-	 * wenn sie die selbe ID besitzen.
+	 * Schließt den gegebenen Batch ab und veröffentlicht alle abgeschlossenen Batches, vor denen kein Batch mit
+	 * kleineren Sequenznummern mehr aussteht. Die Sequenznummern verworfener Batches werden dabei übersprungen.
 	 *
-	 * @param updatedFEntry Aktulaisierter FEntry mit neuen Informationen.
-	 * @return True, wenn der FEntry gefunden und aktualisiert wurde. False, sonst.
+	 * @param batch  Der abgeschlossene Batch.
+	 * @param stored True, wenn die Versionen des Batches gespeichert wurden. False, wenn sie verworfen wurden.
+	 * @return Die veröffentlichten Batches mit gespeicherten Versionen in der Reihenfolge ihrer Sequenznummern.
 	 */
-	public boolean updateFEntry(final FEntry updatedFEntry) {
-		final List<StoredFEntry> versions = storage.get(updatedFEntry.getIdentifier());
+	private List<VersionBatch> completeBatch(final VersionBatch batch, final boolean stored) {
+		final List<VersionBatch> publishedBatches = new ArrayList<VersionBatch>();
 
-		if (versions == null) {
-			//no file found found - error!
-			APILogger.logFailure(APILogger.actionStringForFEntryAction("FEntry Update", updatedFEntry), FILE_NOT_FOUND);
-		} else {
-			final StoredFEntry newEntry = new StoredFEntry(System.currentTimeMillis(), createTypeAwareFEntryCopy(updatedFEntry));
-			versions.add(newEntry);
-			APILogger.logSuccess(APILogger.actionStringForFEntryAction("FEntry Update", updatedFEntry));
+		commitLock.lock();
+		try {
+			batch.completed = true;
+			batch.stored = stored;
+			while (!unpublishedBatches.isEmpty() && unpublishedBatches.getFirst().completed) {
+				final VersionBatch publishedBatch = unpublishedBatches.removeFirst();
+				if (publishedBatch.stored) {
+					publishedBatches.add(publishedBatch);
+				}
+				publishedSequenceNumber = Math.max(publishedSequenceNumber, publishedBatch.lastSequenceNumber);
+			}
+		} finally {
+			commitLock.unlock();
 		}
+		return publishedBatches;
+	}
 
-		return versions != null;
+	/**
+	 * Schreibt die gegebenen Versionen mit einem Schreibvorgang in das Write-Ahead-Log. Versionen mit Vorgängerversion
+	 * werden dabei, wenn möglich, nur als Delta zu dieser geschrieben.
+	 *
+	 * @param storedVersions Die gespeicherten Versionen.
+	 * @throws IOException Falls die Chunks oder die Versionen nicht dauerhaft gespeichert werden konnten.
+	 */
+	private void logVersions(final List<PendingVersion> storedVersions) throws IOException {
+		final List<byte[]> records = new ArrayList<byte[]>();
+		for (final PendingVersion storedVersion : storedVersions) {
+			Optional<VersionDelta> delta = Optional.absent();
+			if (storedVersion.previousVersion != null) {
+				delta = storedVersion.version.getDeltaTo(storedVersion.previousVersion);
+			}
+			records.add(encodeVersion(storedVersion.version, storedVersion.fEntry, delta, storedVersion.firstVersion));
+		}
+		//the chunks of the versions have to be durable before the versions referencing them
+		chunkStore.sync();
+		writeAheadLog.get().appendAll(records);
 	}
 
 	/**
-	 * Löscht den gegebenen FEntry bzw. seine lokale Kopie in der API. 2 FEntries werden hierbei als gleich betrachtet
-	 * wenn sie die selbe ID besitzen.
+	 * Schreibt einen neuen Checkpoint, sobald das Write-Ahead-Log CHECKPOINT_INTERVAL Records enthält.
+	 */
+	private void checkpointIfNeeded() {
+		final Optional<WriteAheadLog> log = writeAheadLog;
+		if (log.isPresent() && log.get().getRecordsSinceCheckpoint() >= CHECKPOINT_INTERVAL) {
+			try {
+				writeCheckpoint();
+			} catch (IOException exception) {
+				APILogger.logFailure("Writing checkpoint", exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Schreibt alle gespeicherten Versionen als neuen Checkpoint und leert das Write-Ahead-Log. Nur die älteste
+	 * gespeicherte Version jedes FEntries wird dabei vollständig geschrieben, alle weiteren als Delta zu ihrer
+	 * Vorgängerversion. Schreibende Zugriffe warten währenddessen, lesende Zugriffe nicht.
 	 *
-	 * @param deletedFEntry Der zu löschende FEntry.
-	 * @return True, wenn der FEntry gefunden und gelöscht wurde. False, sonst.
+	 * @throws IOException Falls der Checkpoint nicht geschrieben werden konnte.
 	 */
-	public boolean deleteFEntry(final FEntry deletedFEntry) {
-		final List<StoredFEntry> versions = storage.get(deletedFEntry.getIdentifier());
+	void writeCheckpoint() throws IOException {
+		checkpointLock.writeLock().lock();
+		try {
+			final Optional<WriteAheadLog> log = writeAheadLog;
+			if (log.isPresent()) {
+				final List<byte[]> records = new ArrayList<byte[]>();
+				records.add(encodeCounters());
+				final Map<Long, StoredFEntry> previousVersions = new HashMap<Long, StoredFEntry>();
+				for (final StoredFEntry version : changeLog.values()) {
+					final VersionChain<StoredFEntry> versions = storage.get(version.getIdentifier());
+					final boolean firstVersion = versions != null && versions.getFirst().orNull() == version;
 
-		if (versions == null) {
-			APILogger.logFailure(APILogger.actionStringForFEntryAction("FEntry Deletion", deletedFEntry), FILE_NOT_FOUND);
+					final StoredFEntry previousVersion = previousVersions.put(version.getIdentifier(), version);
+					Optional<VersionDelta> delta = Optional.absent();
+					if (previousVersion != null) {
+						delta = version.getDeltaTo(previousVersion);
+					}
+					records.add(encodeVersion(version, version.getSnapshot(), delta, firstVersion));
+				}
+				log.get().writeCheckpoint(records);
+			}
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stellt die Versionen der gegebenen Records wieder her. Die Records werden in ihrer Reihenfolge gelesen, sodass
+	 * Deltas auf die zuletzt gelesene Version ihres FEntries angewendet werden können. Records, deren Version bereits
+	 * gelesen wurde (z.B. in Checkpoint und Log), werden übersprungen. Anschließend werden die Versionen in der
+	 * Reihenfolge ihrer Sequenznummern gespeichert. Die Sequenznummern bleiben dabei erhalten, damit die Cursor der
+	 * Clients auch nach einem Neustart gültig sind.
+	 *
+	 * @param records Die Records aus Checkpoint und Write-Ahead-Log.
+	 * @param userAPI Die UserAPI, die für die wiederhergestellten FEntries verwendet werden soll.
+	 * @throws IOException Falls ein Record nicht gelesen werden konnte.
+	 */
+	private void restoreVersions(final List<byte[]> records, final UserAPI userAPI) throws IOException {
+		final SortedMap<Long, StoredFEntry> versionsBySequenceNumber = new TreeMap<Long, StoredFEntry>();
+		final Map<Long, StoredFEntry> latestVersions = new HashMap<Long, StoredFEntry>();
+		for (final byte[] record : records) {
+			if (record.length > 0 && record[0] == RecordType.COUNTERS.ordinal()) {
+				decodeCounters(record);
+			} else {
+				final Optional<StoredFEntry> version = decodeVersion(record, latestVersions, userAPI);
+				if (version.isPresent()) {
+					latestVersions.put(version.get().getIdentifier(), version.get());
+					versionsBySequenceNumber.put(version.get().getSequenceNumber(), version.get());
+				}
+			}
+		}
+
+		for (final StoredFEntry version : versionsBySequenceNumber.values()) {
+			raiseIdCounter(version.getIdentifier() + 1);
+		}
+		storeVersions(ImmutableList.copyOf(versionsBySequenceNumber.values()), true);
+	}
+
+	/**
+	 * Erhöht den Zähler für IDs auf den gegebenen Wert, sofern er kleiner ist.
+	 *
+	 * @param minimumValue Der Mindestwert des Zählers.
+	 */
+	private void raiseIdCounter(final long minimumValue) {
+		long current = idCounter.get();
+		while (current < minimumValue && !idCounter.compareAndSet(current, minimumValue)) {
+			current = idCounter.get();
+		}
+	}
+
+	/**
+	 * Serialisiert die aktuellen Zählerstände für IDs und Sequenznummern. Diese werden in jedem Checkpoint gespeichert,
+	 * da die höchste vergebene ID bzw. Sequenznummer nach einer Kompaktierung nicht mehr in den Versionen enthalten sein
+	 * muss.
+	 *
+	 * @return Der serialisierte Record.
+	 * @throws IOException Falls die Zählerstände nicht serialisiert werden konnten.
+	 */
+	private byte[] encodeCounters() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(bytes);
+		output.writeByte(RecordType.COUNTERS.ordinal());
+		output.writeLong(idCounter.get());
+		output.writeLong(publishedSequenceNumber);
+		output.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Übernimmt die Zählerstände aus einem mit encodeCounters erstellten Record, sofern diese größer als die aktuellen
+	 * sind.
+	 *
+	 * @param record Der serialisierte Record.
+	 * @throws IOException Falls der Record nicht gelesen werden konnte.
+	 */
+	private void decodeCounters(final byte[] record) throws IOException {
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+		input.readByte();
+		raiseIdCounter(input.readLong());
+
+		final long sequenceNumber = input.readLong();
+		commitLock.lock();
+		try {
+			sequenceCounter = Math.max(sequenceCounter, sequenceNumber);
+			publishedSequenceNumber = Math.max(publishedSequenceNumber, sequenceNumber);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Serialisiert die gegebene Version als Record für das Write-Ahead-Log. Ist eine Delta zur Vorgängerversion gegeben,
+	 * wird nur diese geschrieben, andernfalls der gesamte FEntry.
+	 *
+	 * @param version      Die zu serialisierende Version.
+	 * @param fEntry       Der vollständige FEntry der Version.
+	 * @param delta        Die Änderungen gegenüber der zuvor geschriebenen Version des FEntries oder Optional.absent().
+	 * @param firstVersion True, wenn es sich um die erste Version des FEntries handelt.
+	 * @return Der serialisierte Record.
+	 * @throws IOException Falls die Version nicht serialisiert werden konnte.
+	 */
+	private byte[] encodeVersion(final StoredFEntry version, final FEntry fEntry, final Optional<VersionDelta> delta,
+								 final boolean firstVersion) throws IOException {
+		RecordType type = firstVersion ? RecordType.CREATE : RecordType.UPDATE;
+		if (version.getStatus() == Status.DELETED) {
+			type = RecordType.DELETE;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(bytes);
+		output.writeByte(type.ordinal());
+		output.writeLong(version.getSequenceNumber());
+		output.writeLong(version.getTimestamp());
+		output.writeLong(version.getIdentifier());
+		output.writeBoolean(fEntry instanceof Directory);
+
+		output.writeBoolean(delta.isPresent());
+		if (delta.isPresent()) {
+			delta.get().writeTo(output);
 		} else {
-			final StoredFEntry deletionEntry = new StoredFEntry(System.currentTimeMillis(), createTypeAwareFEntryCopy(deletedFEntry));
-			deletionEntry.setStatus(Status.DELETED);
-			versions.add(deletionEntry);
-			APILogger.logSuccess(APILogger.actionStringForFEntryAction("FEntry Deletion", deletedFEntry));
+			VersionDelta.of(fEntry).writeTo(output);
+		}
+
+		output.writeInt(version.getChildIdentifiers().size());
+		for (final Long childIdentifier : version.getChildIdentifiers()) {
+			output.writeLong(childIdentifier);
 		}
+		output.flush();
 
-		return versions != null;
+		return bytes.toByteArray();
 	}
 
 	/**
-	 * Liefert alle FEntries, welche sich nach dem gegebenen Zeitpunkt geändert haben oder erstellt wurden.
+	 * Erstellt aus einem Record des Write-Ahead-Logs wieder eine Version. Die Sequenznummer des Records wird dabei
+	 * übernommen. Enthält der Record nur eine Delta, wird sie auf die zuletzt gelesene Version des FEntries angewendet.
 	 *
-	 * @param timeOfLastPoll Timestamp der letzten Abfrage in ms.
-	 * @return Eine ImmutableList von FEntries die sich geändert haben bzw. neu erstellt wurden.
+	 * @param record         Der serialisierte Record.
+	 * @param latestVersions Die zuletzt gelesene Version jedes FEntries.
+	 * @param userAPI        Die UserAPI, die für den wiederhergestellten FEntry verwendet werden soll.
+	 * @return Die wiederhergestellte Version oder Optional.absent(), falls die Version bereits gelesen wurde.
+	 * @throws IOException Falls der Record nicht gelesen werden konnte oder die Version, auf der seine Delta basiert,
+	 *                     fehlt.
 	 */
-	public ImmutableList<FEntry> getChangesSince(final long timeOfLastPoll) {
-		final List<FEntry> changedFEntries = new ArrayList<FEntry>();
+	private Optional<StoredFEntry> decodeVersion(final byte[] record, final Map<Long, StoredFEntry> latestVersions,
+												 final UserAPI userAPI) throws IOException {
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+		final RecordType type = RecordType.values()[input.readByte()];
+		final long sequenceNumber = input.readLong();
+		final long timestamp = input.readLong();
+		final Long identifier = input.readLong();
+		final boolean isDirectory = input.readBoolean();
+
+		Optional<StoredFEntry> version = Optional.absent();
+		final StoredFEntry latestVersion = latestVersions.get(identifier);
+		if (latestVersion == null || latestVersion.getSequenceNumber() < sequenceNumber) {
+			final boolean isDelta = input.readBoolean();
+			final VersionDelta delta = VersionDelta.readFrom(input);
 
-		for (final Long key : storage.keySet()) {
-			final StoredFEntry latestStorageEntryForFEntryID = getLatestStorageEntryForFEntryID(key).get();
-			if (latestStorageEntryForFEntryID.getTimestamp() >= timeOfLastPoll && latestStorageEntryForFEntryID.getStatus() != Status.DELETED) {
-				changedFEntries.add(latestStorageEntryForFEntryID.getFEntry());
+			FEntry previousFEntry;
+			if (!isDelta) {
+				final List<Permission> noPermissions = ImmutableList.of();
+				final List<LogEntry> noLogEntries = ImmutableList.of();
+				previousFEntry = isDirectory ? new Directory(userAPI, identifier, null, noPermissions, noLogEntries)
+						: new File(userAPI, identifier, null, noPermissions, noLogEntries);
+			} else if (latestVersion != null && latestVersion.getSnapshot() instanceof Directory == isDirectory) {
+				previousFEntry = latestVersion.getSnapshot();
+			} else {
+				throw new IOException("Previous version of FEntry " + identifier + " is missing.");
+			}
+
+			final ImmutableList.Builder<Long> childIdentifiers = ImmutableList.builder();
+			final int childCount = input.readInt();
+			for (int i = 0; i < childCount; i++) {
+				childIdentifiers.add(input.readLong());
 			}
-		}
 
-		return ImmutableList.copyOf(changedFEntries);
+			final FEntry fEntry = VersionDelta.apply(previousFEntry, ImmutableList.of(delta));
+			version = Optional.of(new StoredFEntry(fEntry, childIdentifiers.build()));
+			version.get().timestamp = timestamp;
+			version.get().sequenceNumber = sequenceNumber;
+			if (type == RecordType.DELETE) {
+				version.get().setStatus(Status.DELETED);
+			}
+		}
+		return version;
 	}
 
 	/**
-	 * Gibt den gegebenen FEntry für den gegebenen Nutzer frei. Der FEntry wird dabei zu dem Hauptverzeichnis des Nutzer
-	 * hinzugefügt.
+	 * Erstellt einen neuen StoredFEntry für den gegebenen FEntry. Kinder eines Directories, die noch keine ID besitzen,
+	 * werden dabei zuvor als neue FEntries angelegt. Kinder, die nicht angelegt werden konnten, fehlen in der neuen
+	 * Version. Darf nicht mit gehaltenem Lock eines FEntries aufgerufen werden.
 	 *
-	 * @param userAPI      Die UserAPI. Wird benötigt um die ID des Hauptverzeichnises des Nutzers zu erhalten.
-	 * @param invitedUser  Der Nutzer, für den der FEntry freigegeben werden soll.
-	 * @param sharedFEntry Der freizugebende FEntry.
-	 * @return True, wenn die Operation erfolgreich war. False, sonst.
+	 * @param fEntry Der FEntry, von dem eine neue Version gespeichert werden soll.
+	 * @return Der neue StoredFEntry.
 	 */
-	public boolean shareFEntry(final UserAPI userAPI, final User invitedUser, final FEntry sharedFEntry) {
-		Boolean success = true;
+	private StoredFEntry createStorageEntry(final FEntry fEntry) {
+		final ImmutableList.Builder<Long> childIdentifiers = ImmutableList.builder();
+		if (fEntry instanceof Directory) {
+			for (final FEntry child : ((Directory) fEntry).getFEntries()) {
+				if (child.getIdentifier() == null) {
+					createNewFEntry(child);
+				}
+				if (child.getIdentifier() != null) {
+					childIdentifiers.add(child.getIdentifier());
+				}
+			}
+		}
 
-		try {
-			final Directory invitedUsersRootDir = (Directory) getLatestStorageEntryForFEntryID(userAPI.getRootDirIDOfUser(invitedUser)).get().getFEntry();
-			invitedUsersRootDir.addFEntry(sharedFEntry);
-		} catch (Exception exception) {
-			success = false;
+		return new StoredFEntry(createTypeAwareFEntryCopy(fEntry), childIdentifiers.build());
+	}
+
+	/**
+	 * Fügt den gegebenen FEntry und rekursiv alle seine Kinder ohne ID der Liste hinzu. Eltern stehen dabei vor ihren
+	 * Kindern.
+	 *
+	 * @param fEntry      Der neue FEntry.
+	 * @param newFEntries Die Liste, der die FEntries hinzugefügt werden.
+	 */
+	private void collectNewFEntries(final FEntry fEntry, final List<FEntry> newFEntries) {
+		newFEntries.add(fEntry);
+		if (fEntry instanceof Directory) {
+			for (final FEntry child : ((Directory) fEntry).getFEntries()) {
+				if (child.getIdentifier() == null) {
+					collectNewFEntries(child, newFEntries);
+				}
+			}
 		}
+	}
 
-		APILogger.logResult("Shared file  '" + sharedFEntry.getName() + "' with user", success);
+	/**
+	 * Erstellt StoredFEntries mit dem gegebenen Status für alle gegebenen FEntries, die bereits gespeichert sind. Kinder
+	 * gegebener Directories, die noch keine ID besitzen, werden zuvor gemeinsam als neue FEntries angelegt.
+	 *
+	 * @param fEntries Die FEntries.
+	 * @param status   Der Status der neuen Versionen.
+	 * @return Die neuen StoredFEntries der bereits gespeicherten FEntries.
+	 */
+	private List<StoredFEntry> createStorageEntriesOfExistingFEntries(final List<? extends FEntry> fEntries,
+																	  final Status status) {
+		final List<FEntry> newChildren = new ArrayList<FEntry>();
+		for (final FEntry fEntry : fEntries) {
+			if (fEntry instanceof Directory) {
+				for (final FEntry child : ((Directory) fEntry).getFEntries()) {
+					if (child.getIdentifier() == null) {
+						newChildren.add(child);
+					}
+				}
+			}
+		}
+		if (!newChildren.isEmpty()) {
+			createNewFEntries(newChildren);
+		}
 
-		return success;
+		final List<StoredFEntry> storageEntries = new ArrayList<StoredFEntry>();
+		for (final FEntry fEntry : fEntries) {
+			if (fEntry.getIdentifier() != null && storage.containsKey(fEntry.getIdentifier())) {
+				final StoredFEntry storageEntry = createStorageEntry(fEntry);
+				storageEntry.setStatus(status);
+				storageEntries.add(storageEntry);
+			}
+		}
+		return storageEntries;
 	}
 
 	/**
-	 * Kopiert einen FEntry mit dem entsprechenden Copy-Konstruktor seiner spezifischen Klasse.
+	 * Kopiert einen FEntry mit dem entsprechenden Copy-Konstruktor seiner spezifischen Klasse. Directories werden dabei
+	 * flach, also ohne ihre Kinder, kopiert.
 	 *
 	 * @param fEntryToCopy Der FEntry der kopiert werden soll.
 	 * @return Die Kopie des FEntries.
@@ -230,7 +2216,7 @@ public class FileAPI {
 	private FEntry createTypeAwareFEntryCopy(final FEntry fEntryToCopy) {
 		FEntry copy = null;
 		if (fEntryToCopy instanceof Directory) {
-			copy = new Directory((Directory) fEntryToCopy);
+			copy = new Directory((Directory) fEntryToCopy, ImmutableList.<FEntry>of());
 		} else if (fEntryToCopy instanceof File) {
 			copy = new File((File) fEntryToCopy);
 		}
@@ -238,27 +2224,59 @@ public class FileAPI {
 	}
 
 	/**
-	 * Liefert den aktuellsten StoredFEntry des FEntries mit der gegebenen ID.
+	 * Liefert eine Kopie des FEntries mit der gegebenen ID. Die aktuellste Version wird dabei direkt über die
+	 * VersionChain abgerufen, ältere Versionen per binärer Suche.
 	 *
-	 * @param fEntryId Die ID des FEntries.
-	 * @return Der aktuellste StoredFEntry, des FEntries, als Optional.
+	 * @param fEntryId       Die ID des FEntries.
+	 * @param sequenceNumber Die Sequenznummer, zu der der FEntry abgerufen werden soll, oder Optional.absent() für die
+	 *                       aktuellste Version.
+	 * @return Der FEntry oder null, falls er nicht existiert(e) oder gelöscht ist bzw. war.
 	 */
-	private Optional<StoredFEntry> getLatestStorageEntryForFEntryID(final Long fEntryId) {
-		Optional<StoredFEntry> foundEntry = Optional.absent();
+	private FEntry getFEntryWithId(final Long fEntryId, final Optional<Long> sequenceNumber) {
+		FEntry foundFEntry = null;
 
-		final List<StoredFEntry> versions = storage.get(fEntryId);
+		VersionChain<StoredFEntry> versions = null;
+		if (fEntryId != null) {
+			versions = storage.get(fEntryId);
+		}
 
 		if (versions != null) {
-			long latestTimestamp = 0;
-			for (final StoredFEntry storedFEntry : versions) {
-				if (storedFEntry.getTimestamp() >= latestTimestamp) {
-					foundEntry = Optional.of(storedFEntry);
-					latestTimestamp = storedFEntry.getTimestamp();
-				}
+			Optional<StoredFEntry> version;
+			if (sequenceNumber.isPresent()) {
+				version = versions.getAtSequence(sequenceNumber.get());
+			} else {
+				version = versions.getLatest();
+			}
+
+			if (version.isPresent() && version.get().getStatus() != Status.DELETED) {
+				foundFEntry = version.get().getFEntry(sequenceNumber);
 			}
 		}
 
-		return foundEntry;
+		return foundFEntry;
+	}
+
+	/**
+	 * Liefert per binärer Suche die Sequenznummer der letzten Änderung, die zum gegebenen Zeitpunkt bereits gespeichert
+	 * war. Da Timestamps in der Reihenfolge der Sequenznummern vergeben werden, sind die Versionen im Änderungsprotokoll
+	 * auch nach Zeit sortiert.
+	 *
+	 * @param timestamp Der Zeitpunkt in ms.
+	 * @return Die Sequenznummer der letzten Änderung bis zu diesem Zeitpunkt oder 0, falls es noch keine gab.
+	 */
+	private long getSequenceNumberAt(final long timestamp) {
+		long low = 0;
+		long high = publishedSequenceNumber;
+		while (low < high) {
+			final long middle = low + (high - low + 1) / 2;
+			final Map.Entry<Long, StoredFEntry> change = changeLog.floorEntry(middle);
+			if (change == null || change.getValue().getTimestamp() <= timestamp) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
 	}
 
 }
@@ -0,0 +1,59 @@
+package de.sharebox.api;
+
+/**
+ * Legt fest, wie lange die FileAPI alte Versionen und gelöschte FEntries aufbewahrt. Eine alte Version wird erst
+ * entfernt, wenn sie weder zu den letzten Versionen ihres FEntries gehört, die aufbewahrt werden sollen, noch jünger
+ * als das angegebene Mindestalter ist. Die aktuellste Version eines FEntries wird nie entfernt, es sei denn der FEntry
+ * wurde gelöscht und die Aufbewahrungsdauer für gelöschte FEntries ist abgelaufen.
+ */
+public class RetentionPolicy {
+	private final int versionsToKeep;
+	private final long minimumVersionAge;
+	private final long tombstoneRetention;
+
+	/**
+	 * Erstellt eine neue RetentionPolicy.
+	 *
+	 * @param versionsToKeep     Die Anzahl der letzten Versionen eines FEntries, die immer aufbewahrt werden. Mindestens 1.
+	 * @param minimumVersionAge  Versionen, die jünger als diese Dauer in ms sind, werden immer aufbewahrt.
+	 * @param tombstoneRetention Die Dauer in ms, nach der ein gelöschter FEntry mit allen Versionen entfernt wird.
+	 */
+	public RetentionPolicy(final int versionsToKeep, final long minimumVersionAge, final long tombstoneRetention) {
+		if (versionsToKeep < 1) {
+			throw new IllegalArgumentException("At least the latest version has to be kept.");
+		}
+		this.versionsToKeep = versionsToKeep;
+		this.minimumVersionAge = minimumVersionAge;
+		this.tombstoneRetention = tombstoneRetention;
+	}
+
+	/**
+	 * Liefert eine RetentionPolicy, mit der keine Versionen und gelöschten FEntries entfernt werden.
+	 *
+	 * @return Eine RetentionPolicy, die alles aufbewahrt.
+	 */
+	public static RetentionPolicy keepEverything() {
+		return new RetentionPolicy(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Gibt an, ob eine alte Version aufbewahrt werden muss.
+	 *
+	 * @param newerVersions Die Anzahl der Versionen des FEntries, die nach dieser Version gespeichert wurden.
+	 * @param age           Das Alter der Version in ms.
+	 * @return True, wenn die Version aufbewahrt werden muss. False, sonst.
+	 */
+	public boolean isVersionRetained(final int newerVersions, final long age) {
+		return newerVersions < versionsToKeep || age < minimumVersionAge;
+	}
+
+	/**
+	 * Gibt an, ob ein gelöschter FEntry noch aufbewahrt werden muss.
+	 *
+	 * @param age Die Zeit seit der Löschung in ms.
+	 * @return True, wenn der gelöschte FEntry aufbewahrt werden muss. False, sonst.
+	 */
+	public boolean isTombstoneRetained(final long age) {
+		return age < tombstoneRetention;
+	}
+}
@@ -0,0 +1,100 @@
+package de.sharebox.api;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+import de.sharebox.file.model.Permission;
+import de.sharebox.user.enums.StorageLimit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Zählt für jeden Nutzer den von ihm belegten Speicher. Einem Nutzer werden dabei alle Files angerechnet, an denen er
+ * Rechte besitzt, also seine eigenen und die für ihn freigegebenen Files.<br/>
+ * Die Zähler werden bei jeder neuen Version eines Files nur um die Änderung gegenüber der Vorgängerversion angepasst.
+ * Der belegte Speicher eines Nutzers und die Prüfung seines Speicherlimits erfordern so nie das Durchlaufen seiner
+ * Verzeichnisse. Die Speicherlimits werden bei jeder Prüfung über die E-Mail-Adresse nachgeschlagen, da die Kopien
+ * der Nutzer in den Permissions nach einer Änderung des Limits veraltet sind.
+ */
+class StorageAccounting {
+	private final Map<String, Long> usageByUser = new HashMap<String, Long>();
+	private final Function<String, StorageLimit> storageLimits;
+
+	/**
+	 * Erstellt eine neue, leere Speicherzählung.
+	 *
+	 * @param storageLimits Liefert zur E-Mail-Adresse eines Nutzers dessen aktuelles Speicherlimit oder null, falls er
+	 *                      keines besitzt.
+	 */
+	StorageAccounting(final Function<String, StorageLimit> storageLimits) {
+		this.storageLimits = storageLimits;
+	}
+
+	/**
+	 * Passt die Zähler an die Änderung eines FEntries von der gegebenen Vorgängerversion zur gegebenen neuen Version an.
+	 * Directories belegen selbst keinen Speicher und werden ignoriert.<br/>
+	 * Sollen Speicherlimits durchgesetzt werden, wird die Änderung nur übernommen, wenn dadurch kein Nutzer, dessen
+	 * belegter Speicher wächst, sein Speicherlimit überschreitet. Nutzer ohne bekanntes Speicherlimit werden nicht
+	 * beschränkt.
+	 *
+	 * @param previousFEntry Die Vorgängerversion oder Optional.absent(), falls der FEntry neu ist oder gelöscht war.
+	 * @param fEntry         Die neue Version oder Optional.absent(), falls der FEntry gelöscht wird.
+	 * @param enforceLimits  True, wenn die Änderung bei Überschreiten eines Speicherlimits abgelehnt werden soll.
+	 * @return True, wenn die Änderung übernommen wurde. False, wenn sie ein Speicherlimit überschreiten würde.
+	 */
+	synchronized boolean update(final Optional<FEntry> previousFEntry, final Optional<FEntry> fEntry,
+								final boolean enforceLimits) {
+		final Map<String, Long> changes = new HashMap<String, Long>();
+		addCharges(changes, previousFEntry, -1);
+		addCharges(changes, fEntry, 1);
+
+		boolean withinLimits = true;
+		if (enforceLimits && fEntry.isPresent()) {
+			for (final Permission permission : fEntry.get().getPermissions()) {
+				final String email = permission.getUser().getEmail();
+				final StorageLimit storageLimit = storageLimits.apply(email);
+				final Long change = changes.get(email);
+				if (storageLimit != null && change != null && change > 0
+						&& getUsage(email) + change > storageLimit.getBytes()) {
+					withinLimits = false;
+				}
+			}
+		}
+
+		if (withinLimits) {
+			for (final Map.Entry<String, Long> change : changes.entrySet()) {
+				final long usage = getUsage(change.getKey()) + change.getValue();
+				if (usage == 0) {
+					usageByUser.remove(change.getKey());
+				} else {
+					usageByUser.put(change.getKey(), usage);
+				}
+			}
+		}
+		return withinLimits;
+	}
+
+	private static void addCharges(final Map<String, Long> changes, final Optional<FEntry> fEntry, final int sign) {
+		if (fEntry.isPresent() && fEntry.get() instanceof File) {
+			final long size = ((File) fEntry.get()).getSize();
+			for (final Permission permission : fEntry.get().getPermissions()) {
+				final String email = permission.getUser().getEmail();
+				final Long change = changes.get(email);
+				changes.put(email, (change == null ? 0 : change) + sign * size);
+			}
+		}
+	}
+
+	/**
+	 * Liefert den vom gegebenen Nutzer belegten Speicher.
+	 *
+	 * @param email Die E-Mail-Adresse des Nutzers.
+	 * @return Der belegte Speicher in Bytes.
+	 */
+	synchronized long getUsage(final String email) {
+		final Long usage = usageByUser.get(email);
+		return usage == null ? 0 : usage;
+	}
+}
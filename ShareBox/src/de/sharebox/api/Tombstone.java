@@ -0,0 +1,52 @@
+package de.sharebox.api;
+
+/**
+ * Ein Tombstone beschreibt die Löschung eines FEntries im Änderungsprotokoll der FileAPI. Anstatt dass Clients eine
+ * Löschung erst über den Vergleich der Kinder des Elternverzeichnisses bemerken, erhalten sie mit einem Tombstone
+ * direkt die ID des gelöschten FEntries und seines Elternverzeichnisses.
+ */
+public class Tombstone {
+	private final Long identifier;
+	private final Long parentIdentifier;
+	private final long timestamp;
+
+	/**
+	 * Erstellt einen neuen Tombstone.
+	 *
+	 * @param identifier       Die ID des gelöschten FEntries.
+	 * @param parentIdentifier Die ID des zuletzt bekannten Elternverzeichnisses oder null, falls keines bekannt ist.
+	 * @param timestamp        Der Zeitpunkt der Löschung in ms.
+	 */
+	public Tombstone(final Long identifier, final Long parentIdentifier, final long timestamp) {
+		this.identifier = identifier;
+		this.parentIdentifier = parentIdentifier;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Liefert die ID des gelöschten FEntries.
+	 *
+	 * @return Die ID des gelöschten FEntries.
+	 */
+	public Long getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Liefert die ID des Verzeichnisses, in dem sich der FEntry zuletzt befand.
+	 *
+	 * @return Die ID des Elternverzeichnisses oder null, falls keines bekannt ist.
+	 */
+	public Long getParentIdentifier() {
+		return parentIdentifier;
+	}
+
+	/**
+	 * Liefert den Zeitpunkt der Löschung.
+	 *
+	 * @return Der Zeitpunkt der Löschung in ms.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
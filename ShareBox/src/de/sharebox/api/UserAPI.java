@@ -9,8 +9,15 @@ import de.sharebox.user.enums.StorageLimit;
 import de.sharebox.user.model.AddressInfo;
 import de.sharebox.user.model.User;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
@@ -23,6 +30,8 @@ import static com.google.common.base.Strings.isNullOrEmpty;
  */
 @Singleton
 public class UserAPI {
+	static final String ROOT_DIRECTORIES_FILE_NAME = "root-directories.properties";
+
 	private final FileAPI fileAPI;
 
 	/**
@@ -32,6 +41,12 @@ public class UserAPI {
 
 	private Optional<User> currentUser = Optional.absent();
 
+	/**
+	 * Die dauerhaft gespeicherte Zuordnung der E-Mail-Adressen der User zu den IDs ihrer Root-Verzeichnisse.
+	 */
+	private final Properties rootDirectories = new Properties();
+	private Optional<Path> rootDirectoriesFile = Optional.absent();
+
 	/**
 	 * Leerer Konstruktor um ein direktes Erstellen zu verhindern. Als Singleton konzipiert.<br/>
 	 * Instanzen dieser Klasse sollten nur per Dependecy Injection durch Guice erstellt werden.
@@ -119,10 +134,17 @@ public class UserAPI {
 				&& !isNullOrEmpty(user.getPassword())
 				&& !getUserWithMail(user.getEmail()).isPresent()) {
 
-			//create new root directory for user
-			final Directory rootDir = new Directory(this, "Sharebox", user);
-			rootDir.setIdentifier(fileAPI.createNewFEntry(rootDir));
-			user.setRootDirectoryIdentifier(rootDir.getIdentifier());
+			final Optional<Long> restoredIdentifier = getRestoredRootDirectoryIdentifier(user.getEmail());
+			if (restoredIdentifier.isPresent()) {
+				//reuse root directory restored by the FileAPI
+				user.setRootDirectoryIdentifier(restoredIdentifier.get());
+			} else {
+				//create new root directory for user
+				final Directory rootDir = new Directory(this, "Sharebox", user);
+				rootDir.setIdentifier(fileAPI.createNewFEntry(rootDir));
+				user.setRootDirectoryIdentifier(rootDir.getIdentifier());
+				storeRootDirectoryIdentifier(user.getEmail(), rootDir.getIdentifier());
+			}
 
 			userList.add(new User(user));
 			success = true;
@@ -136,6 +158,70 @@ public class UserAPI {
 	}
 
 
+	/**
+	 * Öffnet das gegebene Verzeichnis als dauerhaften Speicher für die Zuordnung der User zu ihren Root-Verzeichnissen.
+	 * Wird ein User danach erneut registriert, erhält er das von der FileAPI wiederhergestellte Root-Verzeichnis statt
+	 * eines neuen. Sollte zusammen mit FileAPI.openStorage und vor dem Registrieren von Usern aufgerufen werden.
+	 *
+	 * @param directory Das Verzeichnis, in dem auch die FileAPI ihre Daten speichert.
+	 * @return True, wenn die Zuordnung gelesen werden konnte oder noch nicht existierte. False, sonst.
+	 */
+	public boolean openStorage(final Path directory) {
+		boolean success = false;
+
+		final Path file = directory.resolve(ROOT_DIRECTORIES_FILE_NAME);
+		try {
+			if (Files.exists(file)) {
+				try (InputStream inputStream = Files.newInputStream(file)) {
+					rootDirectories.load(inputStream);
+				}
+			}
+			rootDirectoriesFile = Optional.of(file);
+			success = true;
+		} catch (IOException exception) {
+			APILogger.logFailure("Opening root directories " + file, exception.getMessage());
+		}
+
+		return success;
+	}
+
+	private Optional<Long> getRestoredRootDirectoryIdentifier(final String email) {
+		Optional<Long> identifier = Optional.absent();
+
+		final String storedIdentifier = rootDirectories.getProperty(email);
+		if (storedIdentifier != null) {
+			try {
+				final Long rootDirectoryIdentifier = Long.valueOf(storedIdentifier);
+				if (fileAPI.getFEntryWithId(rootDirectoryIdentifier) instanceof Directory) {
+					identifier = Optional.of(rootDirectoryIdentifier);
+				}
+			} catch (NumberFormatException exception) {
+				APILogger.logFailure("Restoring root directory of " + email, exception.getMessage());
+			}
+		}
+
+		return identifier;
+	}
+
+	private void storeRootDirectoryIdentifier(final String email, final Long identifier) {
+		if (rootDirectoriesFile.isPresent() && identifier != null) {
+			rootDirectories.setProperty(email, identifier.toString());
+
+			//write to a temporary file first so that a crash never leaves a partially written mapping behind
+			final Path file = rootDirectoriesFile.get();
+			final Path temporaryFile = file.resolveSibling(ROOT_DIRECTORIES_FILE_NAME + ".tmp");
+			try {
+				try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+					rootDirectories.store(outputStream, null);
+				}
+				Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException exception) {
+				APILogger.logFailure("Storing root directory of " + email, exception.getMessage());
+			}
+		}
+	}
+
+
 	/**
 	 * Ändert Profil-Informationen.
 	 *
@@ -259,6 +345,18 @@ public class UserAPI {
 		return getUserWithMail(user.getEmail()).get().getRootDirectoryIdentifier();
 	}
 
+	/**
+	 * Liefert das aktuelle Speicherlimit des Nutzers mit der gegebenen E-Mail-Adresse. Anders als das Speicherlimit
+	 * einer Kopie des Users (z.B. in einer Permission) berücksichtigt es jede Änderung durch changeAccountingSettings.
+	 *
+	 * @param email Die E-Mail-Adresse des Nutzers.
+	 * @return Das Speicherlimit oder null, falls der Nutzer unbekannt ist oder kein Speicherlimit besitzt.
+	 */
+	public StorageLimit getStorageLimitOfUser(final String email) {
+		final Optional<User> foundUser = getUserWithMail(email);
+		return foundUser.isPresent() ? foundUser.get().getStorageLimit() : null;
+	}
+
 
 	/**
 	 * Prüft, ob ein User eingeloggt ist.
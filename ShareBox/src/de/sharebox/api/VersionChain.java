@@ -0,0 +1,136 @@
+package de.sharebox.api;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Die Versionen eines FEntries in der Reihenfolge, in der sie gespeichert wurden. Die aktuellste Version wird zusätzlich
+ * direkt referenziert, sodass sie ohne Durchlaufen der Liste abgerufen werden kann. Ältere Versionen werden per
+ * binärer Suche über ihre Sequenznummer gefunden.<br/>
+ * Alle Methoden sind threadsicher. Die aktuellste Version kann ohne Lock abgerufen werden, alle anderen Zugriffe
+ * sperren nur diese VersionChain.
+ *
+ * @param <V> Der Typ der gespeicherten Versionen.
+ */
+class VersionChain<V extends VersionChain.Version> {
+
+	/**
+	 * Eine einzelne Version innerhalb einer VersionChain.
+	 */
+	interface Version {
+		/**
+		 * Liefert die globale Sequenznummer dieser Version.
+		 *
+		 * @return Die Sequenznummer dieser Version.
+		 */
+		long getSequenceNumber();
+	}
+
+	private final List<V> versions = new ArrayList<V>();
+	private volatile V head;
+
+	/**
+	 * Hängt die gegebene Version als neue aktuellste Version an. Ihre Sequenznummer muss größer als die aller bisherigen
+	 * Versionen sein.
+	 *
+	 * @param version Die neue Version.
+	 */
+	synchronized void append(final V version) {
+		if (head != null && version.getSequenceNumber() <= head.getSequenceNumber()) {
+			throw new IllegalArgumentException("Versions must be appended in ascending sequence number order.");
+		}
+		versions.add(version);
+		head = version;
+	}
+
+	/**
+	 * Liefert die aktuellste Version.
+	 *
+	 * @return Die aktuellste Version oder Optional.absent(), falls keine Version vorhanden ist.
+	 */
+	Optional<V> getLatest() {
+		return Optional.fromNullable(head);
+	}
+
+	/**
+	 * Liefert die erste noch vorhandene Version.
+	 *
+	 * @return Die erste Version oder Optional.absent(), falls keine Version vorhanden ist.
+	 */
+	synchronized Optional<V> getFirst() {
+		Optional<V> first = Optional.absent();
+		if (!versions.isEmpty()) {
+			first = Optional.of(versions.get(0));
+		}
+		return first;
+	}
+
+	/**
+	 * Liefert die Version, die nach der Änderung mit der gegebenen Sequenznummer aktuell war, also die letzte Version
+	 * deren Sequenznummer kleiner oder gleich der gegebenen ist.
+	 *
+	 * @param sequenceNumber Die Sequenznummer.
+	 * @return Die zu diesem Zeitpunkt aktuelle Version oder Optional.absent(), falls zu diesem Zeitpunkt noch keine
+	 * Version existierte.
+	 */
+	synchronized Optional<V> getAtSequence(final long sequenceNumber) {
+		Optional<V> foundVersion = Optional.absent();
+
+		final V latest = head;
+		if (latest != null && latest.getSequenceNumber() <= sequenceNumber) {
+			foundVersion = Optional.of(latest);
+		} else {
+			int low = 0;
+			int high = versions.size() - 1;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				final V version = versions.get(middle);
+				if (version.getSequenceNumber() <= sequenceNumber) {
+					foundVersion = Optional.of(version);
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+			}
+		}
+
+		return foundVersion;
+	}
+
+	/**
+	 * Entfernt die gegebene Anzahl der ältesten Versionen. Die aktuellste Version kann dabei nicht entfernt werden.
+	 *
+	 * @param count Die Anzahl der zu entfernenden Versionen.
+	 * @return Die entfernten Versionen.
+	 */
+	synchronized List<V> removeOldest(final int count) {
+		if (count < 0 || (count > 0 && count >= versions.size())) {
+			throw new IllegalArgumentException("The latest version cannot be removed.");
+		}
+		final List<V> oldestVersions = versions.subList(0, count);
+		final List<V> removedVersions = new ArrayList<V>(oldestVersions);
+		oldestVersions.clear();
+		return removedVersions;
+	}
+
+	/**
+	 * Liefert die Anzahl der Versionen.
+	 *
+	 * @return Die Anzahl der Versionen.
+	 */
+	synchronized int size() {
+		return versions.size();
+	}
+
+	/**
+	 * Liefert alle Versionen in der Reihenfolge, in der sie gespeichert wurden.
+	 *
+	 * @return Eine nicht veränderbare Kopie der Versionen.
+	 */
+	synchronized List<V> getVersions() {
+		return ImmutableList.copyOf(versions);
+	}
+}
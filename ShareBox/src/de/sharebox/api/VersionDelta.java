@@ -0,0 +1,272 @@
+package de.sharebox.api;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import de.sharebox.file.model.Directory;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+import de.sharebox.file.model.LogEntry;
+import de.sharebox.file.model.Permission;
+import de.sharebox.user.model.User;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Die Änderungen einer Version eines FEntries gegenüber ihrer Vorgängerversion. Gespeichert werden nur der Name, die
+ * Rechte und bei Files die Chunks und die Größe des Inhalts, sofern sie sich geändert haben, sowie die neu
+ * hinzugekommenen LogEntries. Da LogEntries nur angehängt werden, muss so nicht bei jeder Version das gesamte Log
+ * erneut gespeichert werden. Aus demselben Grund werden auch die Records des Write-Ahead-Logs als Deltas geschrieben.
+ */
+class VersionDelta {
+	private final boolean nameChanged;
+	private final String name;
+	private final Optional<ImmutableList<Permission>> permissions;
+	private final Optional<ImmutableList<String>> chunkHashes;
+	private final long size;
+	private final ImmutableList<LogEntry> addedLogEntries;
+
+	private VersionDelta(final boolean nameChanged, final String name,
+						 final Optional<ImmutableList<Permission>> permissions,
+						 final Optional<ImmutableList<String>> chunkHashes, final long size,
+						 final ImmutableList<LogEntry> addedLogEntries) {
+		this.nameChanged = nameChanged;
+		this.name = name;
+		this.permissions = permissions;
+		this.chunkHashes = chunkHashes;
+		this.size = size;
+		this.addedLogEntries = addedLogEntries;
+	}
+
+	/**
+	 * Ermittelt die Änderungen des gegebenen FEntries gegenüber seiner Vorgängerversion. Eine Delta kann nur erstellt
+	 * werden, wenn beide vom selben Typ sind und die LogEntries der Vorgängerversion unverändert am Anfang der
+	 * LogEntries der neuen Version stehen.
+	 *
+	 * @param previousFEntry Die Vorgängerversion.
+	 * @param fEntry         Die neue Version.
+	 * @return Die Änderungen oder Optional.absent(), falls die neue Version vollständig gespeichert werden muss.
+	 */
+	static Optional<VersionDelta> between(final FEntry previousFEntry, final FEntry fEntry) {
+		Optional<VersionDelta> delta = Optional.absent();
+
+		final ImmutableList<LogEntry> previousLogEntries = previousFEntry.getLogEntries();
+		final ImmutableList<LogEntry> logEntries = fEntry.getLogEntries();
+		if (previousFEntry.getClass().equals(fEntry.getClass()) && startsWith(logEntries, previousLogEntries)) {
+			Optional<ImmutableList<Permission>> changedPermissions = Optional.absent();
+			if (!permissionsEqual(previousFEntry.getPermissions(), fEntry.getPermissions())) {
+				changedPermissions = Optional.of(detachedCopyOf(fEntry.getPermissions()));
+			}
+
+			Optional<ImmutableList<String>> changedChunkHashes = Optional.absent();
+			long size = 0;
+			if (fEntry instanceof File) {
+				final File previousFile = (File) previousFEntry;
+				final File file = (File) fEntry;
+				if (!previousFile.getChunkHashes().equals(file.getChunkHashes())
+						|| previousFile.getSize() != file.getSize()) {
+					changedChunkHashes = Optional.of(file.getChunkHashes());
+				}
+				size = file.getSize();
+			}
+
+			delta = Optional.of(new VersionDelta(!Objects.equal(previousFEntry.getName(), fEntry.getName()),
+					fEntry.getName(),
+					changedPermissions,
+					changedChunkHashes,
+					size,
+					ImmutableList.copyOf(logEntries.subList(previousLogEntries.size(), logEntries.size()))));
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Erstellt eine Delta, die den gesamten Inhalt des gegebenen FEntries enthält. Angewendet auf einen leeren FEntry
+	 * desselben Typs ergibt sie wieder den gegebenen FEntry.
+	 *
+	 * @param fEntry Der FEntry.
+	 * @return Die vollständige Delta.
+	 */
+	static VersionDelta of(final FEntry fEntry) {
+		Optional<ImmutableList<String>> chunkHashes = Optional.absent();
+		long size = 0;
+		if (fEntry instanceof File) {
+			chunkHashes = Optional.of(((File) fEntry).getChunkHashes());
+			size = ((File) fEntry).getSize();
+		}
+
+		return new VersionDelta(true, fEntry.getName(), Optional.of(detachedCopyOf(fEntry.getPermissions())),
+				chunkHashes, size, fEntry.getLogEntries());
+	}
+
+	/**
+	 * Wendet die gegebenen Deltas nacheinander auf den gegebenen FEntry an. Die LogEntries werden dabei nicht kopiert,
+	 * sondern von allen Versionen gemeinsam verwendet.
+	 *
+	 * @param fEntry Der vollständig gespeicherte FEntry, auf dem die Deltas basieren.
+	 * @param deltas Die Deltas in der Reihenfolge, in der die Versionen gespeichert wurden.
+	 * @return Ein neuer FEntry (ohne Kinder), der alle Änderungen enthält.
+	 */
+	static FEntry apply(final FEntry fEntry, final List<VersionDelta> deltas) {
+		String name = fEntry.getName();
+		List<Permission> permissions = fEntry.getPermissions();
+		final List<LogEntry> logEntries = new ArrayList<LogEntry>(fEntry.getLogEntries());
+		List<String> chunkHashes = ImmutableList.of();
+		long size = 0;
+		if (fEntry instanceof File) {
+			chunkHashes = ((File) fEntry).getChunkHashes();
+			size = ((File) fEntry).getSize();
+		}
+
+		for (final VersionDelta delta : deltas) {
+			if (delta.nameChanged) {
+				name = delta.name;
+			}
+			if (delta.permissions.isPresent()) {
+				permissions = delta.permissions.get();
+			}
+			if (delta.chunkHashes.isPresent()) {
+				chunkHashes = delta.chunkHashes.get();
+				size = delta.size;
+			}
+			logEntries.addAll(delta.addedLogEntries);
+		}
+
+		FEntry result;
+		if (fEntry instanceof Directory) {
+			result = new Directory((Directory) fEntry, name, permissions, logEntries);
+		} else {
+			result = new File((File) fEntry, name, permissions, logEntries, chunkHashes, size);
+		}
+		return result;
+	}
+
+	/**
+	 * Serialisiert diese Delta. Von den Nutzern der Permissions wird nur die E-Mail-Adresse gespeichert.
+	 *
+	 * @param output Die Ausgabe, in die die Delta geschrieben wird.
+	 * @throws IOException Falls die Delta nicht geschrieben werden konnte.
+	 */
+	void writeTo(final DataOutput output) throws IOException {
+		output.writeBoolean(nameChanged);
+		if (nameChanged) {
+			output.writeUTF(name);
+		}
+
+		output.writeBoolean(permissions.isPresent());
+		if (permissions.isPresent()) {
+			output.writeInt(permissions.get().size());
+			for (final Permission permission : permissions.get()) {
+				output.writeUTF(permission.getUser().getEmail());
+				output.writeBoolean(permission.getReadAllowed());
+				output.writeBoolean(permission.getWriteAllowed());
+				output.writeBoolean(permission.getManageAllowed());
+			}
+		}
+
+		output.writeBoolean(chunkHashes.isPresent());
+		if (chunkHashes.isPresent()) {
+			output.writeInt(chunkHashes.get().size());
+			for (final String chunkHash : chunkHashes.get()) {
+				output.writeUTF(chunkHash);
+			}
+			output.writeLong(size);
+		}
+
+		output.writeInt(addedLogEntries.size());
+		for (final LogEntry logEntry : addedLogEntries) {
+			output.writeByte(logEntry.getMessage().ordinal());
+			output.writeLong(logEntry.getDate().getTime());
+		}
+	}
+
+	/**
+	 * Liest eine mit writeTo serialisierte Delta.
+	 *
+	 * @param input Die Eingabe, aus der die Delta gelesen wird.
+	 * @return Die gelesene Delta.
+	 * @throws IOException Falls die Delta nicht gelesen werden konnte.
+	 */
+	static VersionDelta readFrom(final DataInput input) throws IOException {
+		final boolean nameChanged = input.readBoolean();
+		final String name = nameChanged ? input.readUTF() : null;
+
+		Optional<ImmutableList<Permission>> permissions = Optional.absent();
+		if (input.readBoolean()) {
+			final ImmutableList.Builder<Permission> permissionList = ImmutableList.builder();
+			final int permissionCount = input.readInt();
+			for (int i = 0; i < permissionCount; i++) {
+				final User user = new User();
+				user.setEmail(input.readUTF());
+				permissionList.add(new Permission(user, null, input.readBoolean(), input.readBoolean(),
+						input.readBoolean()));
+			}
+			permissions = Optional.of(permissionList.build());
+		}
+
+		Optional<ImmutableList<String>> chunkHashes = Optional.absent();
+		long size = 0;
+		if (input.readBoolean()) {
+			final ImmutableList.Builder<String> chunkHashList = ImmutableList.builder();
+			final int chunkCount = input.readInt();
+			for (int i = 0; i < chunkCount; i++) {
+				chunkHashList.add(input.readUTF());
+			}
+			chunkHashes = Optional.of(chunkHashList.build());
+			size = input.readLong();
+		}
+
+		final ImmutableList.Builder<LogEntry> addedLogEntries = ImmutableList.builder();
+		final int logEntryCount = input.readInt();
+		for (int i = 0; i < logEntryCount; i++) {
+			addedLogEntries.add(new LogEntry(LogEntry.LogMessage.values()[input.readByte()],
+					new Date(input.readLong())));
+		}
+
+		return new VersionDelta(nameChanged, name, permissions, chunkHashes, size, addedLogEntries.build());
+	}
+
+	/**
+	 * Kopiert die gegebenen Permissions ohne Referenz auf ihren FEntry, damit die Delta nicht die gesamte Version, aus der
+	 * sie erstellt wurde, im Speicher hält.
+	 *
+	 * @param permissions Die zu kopierenden Permissions.
+	 * @return Die Kopien der Permissions.
+	 */
+	private static ImmutableList<Permission> detachedCopyOf(final List<Permission> permissions) {
+		final ImmutableList.Builder<Permission> copies = ImmutableList.builder();
+		for (final Permission permission : permissions) {
+			copies.add(new Permission(permission.getUser(), null, permission.getReadAllowed(),
+					permission.getWriteAllowed(), permission.getManageAllowed()));
+		}
+		return copies.build();
+	}
+
+	private static boolean startsWith(final List<LogEntry> logEntries, final List<LogEntry> prefix) {
+		boolean startsWith = logEntries.size() >= prefix.size();
+		for (int i = 0; startsWith && i < prefix.size(); i++) {
+			startsWith = logEntries.get(i).getMessage() == prefix.get(i).getMessage()
+					&& logEntries.get(i).getDate().equals(prefix.get(i).getDate());
+		}
+		return startsWith;
+	}
+
+	private static boolean permissionsEqual(final List<Permission> permissions, final List<Permission> otherPermissions) {
+		boolean equal = permissions.size() == otherPermissions.size();
+		for (int i = 0; equal && i < permissions.size(); i++) {
+			final Permission permission = permissions.get(i);
+			final Permission otherPermission = otherPermissions.get(i);
+			equal = Objects.equal(permission.getUser().getEmail(), otherPermission.getUser().getEmail())
+					&& permission.getReadAllowed().equals(otherPermission.getReadAllowed())
+					&& permission.getWriteAllowed().equals(otherPermission.getWriteAllowed())
+					&& permission.getManageAllowed().equals(otherPermission.getManageAllowed());
+		}
+		return equal;
+	}
+}
@@ -0,0 +1,322 @@
+package de.sharebox.api;
+
+import com.google.common.base.Optional;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Ein nur angehängtes Write-Ahead-Log, mit dem die FileAPI ihre Änderungen dauerhaft auf der Festplatte speichert.<br/>
+ * Jeder Record wird mit Länge und CRC32-Prüfsumme in die Log-Datei geschrieben. Schreiben mehrere Threads gleichzeitig,
+ * so werden ihre Records gesammelt und gemeinsam mit nur einem fsync geschrieben (Group Commit): Der erste wartende
+ * Thread schreibt alle bis dahin angefallenen Records, alle anderen warten nur auf dessen Abschluss.<br/>
+ * Mit einem Checkpoint wird der gesamte Zustand in eine eigene Datei geschrieben und das Log anschließend geleert,
+ * sodass die Wiederherstellung nur den Checkpoint und die danach geschriebenen Records lesen muss.
+ */
+class WriteAheadLog implements Closeable {
+	static final String LOG_FILE_NAME = "fileapi.wal";
+	static final String CHECKPOINT_FILE_NAME = "fileapi.checkpoint";
+
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private final Path logFile;
+	private final Path checkpointFile;
+	private final FileChannel logChannel;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushFinished = lock.newCondition();
+
+	private List<byte[]> pendingRecords = new ArrayList<byte[]>();
+	private long appendedRecords = 0;
+	private long durableRecords = 0;
+	private boolean flushInProgress = false;
+
+	/**
+	 * Der Fehler des ersten fehlgeschlagenen Schreibvorgangs. Da der Zustand der Datei danach nicht mehr bekannt ist,
+	 * schlagen ab diesem Zeitpunkt alle weiteren Schreibvorgänge fehl.
+	 */
+	private IOException failure;
+
+	private long recordsSinceCheckpoint;
+
+	/**
+	 * Öffnet das Write-Ahead-Log im gegebenen Verzeichnis. Existiert noch keine Log-Datei wird eine neue angelegt.
+	 * Ein unvollständig geschriebener Record am Ende des Logs (z.B. nach einem Absturz) wird dabei abgeschnitten.
+	 *
+	 * @param directory Das Verzeichnis, in dem Log und Checkpoint gespeichert werden.
+	 * @throws IOException Falls das Log nicht geöffnet werden konnte.
+	 */
+	WriteAheadLog(final Path directory) throws IOException {
+		Files.createDirectories(directory);
+		this.logFile = directory.resolve(LOG_FILE_NAME);
+		this.checkpointFile = directory.resolve(CHECKPOINT_FILE_NAME);
+		this.logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		final long validLength = scanRecords(logChannel, null);
+		logChannel.truncate(validLength);
+		logChannel.position(validLength);
+	}
+
+	/**
+	 * Liest alle vollständig und korrekt geschriebenen Records des Logs.
+	 *
+	 * @return Die Records in der Reihenfolge, in der sie geschrieben wurden.
+	 * @throws IOException Falls das Log nicht gelesen werden konnte.
+	 */
+	List<byte[]> readRecords() throws IOException {
+		final List<byte[]> records = new ArrayList<byte[]>();
+		lock.lock();
+		try {
+			scanRecords(logChannel, records);
+			recordsSinceCheckpoint = records.size();
+		} finally {
+			lock.unlock();
+		}
+		return records;
+	}
+
+	/**
+	 * Liest die Records des letzten Checkpoints.
+	 *
+	 * @return Die Records des Checkpoints oder Optional.absent(), falls noch kein Checkpoint geschrieben wurde.
+	 * @throws IOException Falls der Checkpoint nicht gelesen werden konnte.
+	 */
+	Optional<List<byte[]>> readCheckpoint() throws IOException {
+		Optional<List<byte[]>> checkpoint = Optional.absent();
+
+		if (Files.exists(checkpointFile)) {
+			final List<byte[]> records = new ArrayList<byte[]>();
+			try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.READ)) {
+				scanRecords(channel, records);
+			}
+			checkpoint = Optional.of(records);
+		}
+
+		return checkpoint;
+	}
+
+	/**
+	 * Hängt den gegebenen Record an das Log an und kehrt erst zurück, wenn er dauerhaft auf der Festplatte gespeichert
+	 * ist. Gleichzeitig wartende Threads teilen sich dabei einen Schreibvorgang und einen fsync.
+	 *
+	 * @param record Der zu speichernde Record.
+	 * @throws IOException Falls der Record oder ein vorheriger Record nicht geschrieben werden konnte.
+	 */
+	void append(final byte[] record) throws IOException {
+		appendAll(Collections.singletonList(record));
+	}
+
+	/**
+	 * Hängt die gegebenen Records an das Log an und kehrt erst zurück, wenn alle dauerhaft gespeichert sind.
+	 *
+	 * @param records Die zu speichernden Records.
+	 * @throws IOException Falls die Records nicht geschrieben werden konnten.
+	 */
+	void appendAll(final List<byte[]> records) throws IOException {
+		lock.lock();
+		try {
+			pendingRecords.addAll(records);
+			appendedRecords += records.size();
+			final long ticket = appendedRecords;
+
+			while (durableRecords < ticket) {
+				if (failure != null) {
+					throw new IOException("Write-ahead log is no longer writable.", failure);
+				}
+				if (flushInProgress) {
+					flushFinished.awaitUninterruptibly();
+				} else {
+					flushPendingRecords();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der Records, die seit dem letzten Checkpoint geschrieben wurden.
+	 *
+	 * @return Die Anzahl der Records seit dem letzten Checkpoint.
+	 */
+	long getRecordsSinceCheckpoint() {
+		lock.lock();
+		try {
+			return recordsSinceCheckpoint;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Schreibt einen Checkpoint mit den gegebenen Records und leert anschließend das Log. Der Checkpoint wird zunächst
+	 * in eine temporäre Datei geschrieben und erst danach atomar umbenannt, sodass zu jedem Zeitpunkt ein vollständiger
+	 * Checkpoint existiert. Der Aufrufer muss sicherstellen, dass die Records den gesamten bis dahin geloggten Zustand
+	 * enthalten.
+	 *
+	 * @param records Die Records, die den gesamten aktuellen Zustand beschreiben.
+	 * @throws IOException Falls der Checkpoint nicht geschrieben werden konnte.
+	 */
+	void writeCheckpoint(final List<byte[]> records) throws IOException {
+		lock.lock();
+		try {
+			while (flushInProgress) {
+				flushFinished.awaitUninterruptibly();
+			}
+			if (!pendingRecords.isEmpty()) {
+				flushPendingRecords();
+			}
+			if (failure != null) {
+				throw new IOException("Write-ahead log is no longer writable.", failure);
+			}
+
+			final Path temporaryFile = checkpointFile.resolveSibling(CHECKPOINT_FILE_NAME + ".tmp");
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeRecords(channel, records);
+				channel.force(true);
+			}
+			Files.move(temporaryFile, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+			logChannel.truncate(0);
+			logChannel.position(0);
+			logChannel.force(true);
+			recordsSinceCheckpoint = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			logChannel.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Schreibt alle bisher gesammelten Records. Muss mit gehaltenem Lock aufgerufen werden, der während des eigentlichen
+	 * Schreibens freigegeben wird, damit weitere Threads ihre Records für den nächsten Schreibvorgang sammeln können.
+	 */
+	private void flushPendingRecords() {
+		flushInProgress = true;
+		final List<byte[]> batch = pendingRecords;
+		final long batchEnd = appendedRecords;
+		pendingRecords = new ArrayList<byte[]>();
+
+		lock.unlock();
+		IOException writeFailure = null;
+		try {
+			writeRecords(logChannel, batch);
+			logChannel.force(false);
+		} catch (IOException exception) {
+			writeFailure = exception;
+		} finally {
+			lock.lock();
+		}
+
+		if (writeFailure == null) {
+			durableRecords = batchEnd;
+			recordsSinceCheckpoint += batch.size();
+		} else {
+			failure = writeFailure;
+			APILogger.logFailure("Write-ahead log flush", writeFailure.getMessage());
+		}
+		flushInProgress = false;
+		flushFinished.signalAll();
+	}
+
+	private static void writeRecords(final FileChannel channel, final List<byte[]> records) throws IOException {
+		int size = 0;
+		for (final byte[] record : records) {
+			size += RECORD_HEADER_SIZE + record.length;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		final CRC32 checksum = new CRC32();
+		for (final byte[] record : records) {
+			checksum.reset();
+			checksum.update(record, 0, record.length);
+			buffer.putInt(record.length);
+			buffer.putInt((int) checksum.getValue());
+			buffer.put(record);
+		}
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Liest alle gültigen Records ab dem Anfang der Datei. Das Lesen endet beim ersten unvollständigen oder
+	 * beschädigten Record.
+	 *
+	 * @param channel Der zu lesende Channel.
+	 * @param records Die Liste, in die die gelesenen Records eingefügt werden, oder null falls nur gezählt werden soll.
+	 * @return Die Länge des gültigen Teils der Datei in Bytes.
+	 * @throws IOException Falls die Datei nicht gelesen werden konnte.
+	 */
+	private static long scanRecords(final FileChannel channel, final List<byte[]> records) throws IOException {
+		final long fileSize = channel.size();
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		final CRC32 checksum = new CRC32();
+
+		long position = 0;
+		boolean valid = true;
+		while (valid && position + RECORD_HEADER_SIZE <= fileSize) {
+			header.clear();
+			readFully(channel, header, position);
+			header.flip();
+			final int length = header.getInt();
+			final int expectedChecksum = header.getInt();
+
+			if (length < 0 || position + RECORD_HEADER_SIZE + length > fileSize) {
+				valid = false;
+			} else {
+				final ByteBuffer record = ByteBuffer.allocate(length);
+				readFully(channel, record, position + RECORD_HEADER_SIZE);
+
+				checksum.reset();
+				checksum.update(record.array(), 0, length);
+				if ((int) checksum.getValue() == expectedChecksum) {
+					if (records != null) {
+						records.add(record.array());
+					}
+					position += RECORD_HEADER_SIZE + length;
+				} else {
+					valid = false;
+				}
+			}
+		}
+
+		return position;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long currentPosition = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, currentPosition);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+			currentPosition += read;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package de.sharebox.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.sharebox.api.APILogger;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Führt eine Abfrage (z.B. den Poll des FileManagers) in einem Intervall aus, das sich an die letzten Änderungen
+ * anpasst: Solange Änderungen auftreten, wird im minimalen Intervall abgefragt. Ohne Änderungen verdoppelt sich das
+ * Intervall nach jeder Abfrage bis zum maximalen Intervall. Jedes Intervall wird zufällig um bis zu JITTER verlängert
+ * oder verkürzt, damit nicht alle Clients, die gleichzeitig gestartet wurden, auch gleichzeitig abfragen.<br/>
+ * Mit pollNow kann jederzeit eine sofortige Abfrage ausgelöst werden.
+ */
+class AdaptiveScheduler {
+	static final long MINIMUM_INTERVAL = 1000;
+	static final long MAXIMUM_INTERVAL = 5 * 60 * 1000;
+
+	/**
+	 * Der maximale Anteil, um den ein Intervall zufällig verändert wird.
+	 */
+	static final double JITTER = 0.1;
+
+	private final Runnable task;
+	private final ScheduledExecutorService executor;
+	private final long minimumInterval;
+	private final long maximumInterval;
+	private final double jitter;
+	private final Random random;
+
+	private long currentInterval;
+	private boolean activity = false;
+	private boolean pollRequested = false;
+	private boolean running = false;
+	private boolean polling = false;
+	private ScheduledFuture<?> nextRun;
+	private long nextRunTime;
+
+	private final Runnable runTask = new Runnable() {
+		@Override
+		public void run() {
+			runTask();
+		}
+	};
+
+	/**
+	 * Erstellt einen neuen AdaptiveScheduler mit den Standardintervallen und einem eigenen Thread.
+	 *
+	 * @param task Die regelmäßig auszuführende Abfrage.
+	 */
+	AdaptiveScheduler(final Runnable task) {
+		this(task, Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("ShareBox sync scheduler").setDaemon(true).build()),
+				MINIMUM_INTERVAL, MAXIMUM_INTERVAL, JITTER, new Random());
+	}
+
+	/**
+	 * Erstellt einen neuen AdaptiveScheduler.
+	 *
+	 * @param task            Die regelmäßig auszuführende Abfrage.
+	 * @param executor        Der Executor, in dem die Abfrage ausgeführt wird.
+	 * @param minimumInterval Das Intervall in ms, solange Änderungen auftreten.
+	 * @param maximumInterval Das größte Intervall in ms ohne Änderungen.
+	 * @param jitter          Der maximale Anteil, um den ein Intervall zufällig verändert wird.
+	 * @param random          Die Quelle der zufälligen Veränderungen.
+	 */
+	AdaptiveScheduler(final Runnable task, final ScheduledExecutorService executor, final long minimumInterval,
+					  final long maximumInterval, final double jitter, final Random random) {
+		this.task = task;
+		this.executor = executor;
+		this.minimumInterval = minimumInterval;
+		this.maximumInterval = maximumInterval;
+		this.jitter = jitter;
+		this.random = random;
+		this.currentInterval = minimumInterval;
+	}
+
+	/**
+	 * Startet die regelmäßige Ausführung mit einer sofortigen Abfrage.
+	 */
+	synchronized void start() {
+		running = true;
+		currentInterval = minimumInterval;
+		schedule(0);
+	}
+
+	/**
+	 * Beendet die regelmäßige Ausführung. Eine gerade laufende Abfrage wird noch beendet.
+	 */
+	synchronized void stop() {
+		running = false;
+		if (nextRun != null) {
+			nextRun.cancel(false);
+			nextRun = null;
+		}
+	}
+
+	/**
+	 * Löst eine sofortige Abfrage aus. Läuft gerade eine Abfrage, folgt die nächste direkt auf diese.
+	 */
+	synchronized void pollNow() {
+		pollRequested = true;
+		if (running) {
+			schedule(0);
+		}
+	}
+
+	/**
+	 * Meldet eine Änderung. Das Intervall fällt dadurch auf das minimale Intervall, eine später geplante Abfrage wird
+	 * entsprechend vorgezogen. Während einer Abfrage gemeldete Änderungen bestimmen das Intervall bis zur nächsten.
+	 */
+	synchronized void recordActivity() {
+		activity = true;
+		currentInterval = minimumInterval;
+		if (running && !polling && nextRunTime - System.currentTimeMillis() > minimumInterval) {
+			schedule(jittered(minimumInterval));
+		}
+	}
+
+	/**
+	 * Liefert das aktuelle Intervall ohne zufällige Veränderung.
+	 *
+	 * @return Das aktuelle Intervall in ms.
+	 */
+	synchronized long getCurrentInterval() {
+		return currentInterval;
+	}
+
+	private void runTask() {
+		synchronized (this) {
+			activity = false;
+			pollRequested = false;
+			polling = true;
+		}
+
+		try {
+			task.run();
+		} catch (RuntimeException exception) {
+			APILogger.logFailure("Scheduled poll", exception.getMessage());
+		}
+
+		synchronized (this) {
+			polling = false;
+			if (activity) {
+				currentInterval = minimumInterval;
+			} else {
+				currentInterval = Math.min(currentInterval * 2, maximumInterval);
+			}
+
+			if (running) {
+				schedule(pollRequested ? 0 : jittered(currentInterval));
+			}
+		}
+	}
+
+	/**
+	 * Plant die nächste Abfrage. Eine bereits geplante Abfrage wird dabei ersetzt.
+	 *
+	 * @param delay Die Verzögerung in ms.
+	 */
+	private void schedule(final long delay) {
+		if (nextRun != null) {
+			nextRun.cancel(false);
+		}
+		nextRunTime = System.currentTimeMillis() + delay;
+		nextRun = executor.schedule(runTask, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private long jittered(final long interval) {
+		return Math.round(interval * (1 + (random.nextDouble() * 2 - 1) * jitter));
+	}
+}
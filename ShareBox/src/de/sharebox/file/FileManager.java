@@ -1,36 +1,70 @@
 package de.sharebox.file;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import de.sharebox.api.APILogger;
+import de.sharebox.api.ChangeListener;
+import de.sharebox.api.ChangeSet;
+import de.sharebox.api.ChangeSubscription;
 import de.sharebox.api.FileAPI;
+import de.sharebox.api.Tombstone;
 import de.sharebox.file.model.Directory;
 import de.sharebox.file.model.FEntry;
 import de.sharebox.file.notification.DirectoryNotification;
 import de.sharebox.file.notification.DirectoryObserver;
 import de.sharebox.file.notification.FEntryNotification;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Der FileManager dient als Bindeglied zwischen FileAPI und der Applikationen. Jeder in der Applikation verwendete
  * FEntry sollte sich beim FileManager registrieren. Der FileManager registriert sich bei jedem so registrierten FEntry
- * als Observer. Jede Änderungsbenachrichtigung sendet der FileManager an die FileAPI weiter. Zudem ruft der FileManager
- * regelmäßig (derzeit alle 30sek) Änderungen bei der FileAPI ab und führt diese auf den registrierten FEntries aus und
- * löst die entsprechenden Notifications aus, wobei als Source der FileManager gesetzt wird.
+ * als Observer. Jede Änderungsbenachrichtigung sendet der FileManager über eine WriteBehindQueue verzögert und
+ * zusammengefasst an die FileAPI weiter. Zudem abonniert der FileManager die Änderungen der FileAPI, führt diese sofort
+ * nach dem Speichern auf den registrierten FEntries aus und löst die entsprechenden Notifications aus, wobei als Source
+ * der FileManager gesetzt wird.
  * Durch das Setzen der Source der Notification kann der FileManager Änderungsbenachrichtigungen, die von ihm selbst
- * erzeugt wurden, ignorieren und verhindert somit einen endlosen 'Notificationkreis'.
+ * erzeugt wurden, ignorieren und verhindert somit einen endlosen 'Notificationkreis'.<br/>
+ * Ist mit watchLocalFolder ein lokaler Ordner gesetzt, werden dessen Änderungen über einen LocalFolderWatcher erkannt
+ * und bei der nächsten Abfrage auf das zugeordnete Directory angewandt.
  */
 @Singleton
 public class FileManager implements DirectoryObserver {
+	/**
+	 * Die maximale Anzahl an Änderungen, die pro Anfrage an die FileAPI abgerufen werden.
+	 */
+	private static final int CHANGES_PER_REQUEST = 500;
+
+	/**
+	 * Die maximale Wartezeit eines Long-Polls an die FileAPI in ms.
+	 */
+	private static final long LONG_POLL_TIMEOUT = 30 * 1000;
+
 	private final FileAPI fileAPI;
-	private Timer timer;
+	private final WriteBehindQueue writeBehindQueue;
+	private final AdaptiveScheduler scheduler;
+	private final ExecutorService changePollExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setNameFormat("ShareBox change poll").setDaemon(true).build());
+	private volatile Optional<ChangeSubscription> subscription = Optional.absent();
+	private volatile Optional<ListenableFuture<ChangeSet>> changePoll = Optional.absent();
+	private volatile Optional<LocalFolderWatcher> localFolderWatcher = Optional.absent();
 
-	private long lastAPIPoll = 0;
+	/**
+	 * Die Sequenznummer der zuletzt von der FileAPI abgerufenen Änderung.
+	 */
+	private long apiCursor = 0;
 
 	private final Map<Long, FEntry> registeredFEntries = new HashMap<Long, FEntry>();
 
@@ -43,33 +77,147 @@ public class FileManager implements DirectoryObserver {
 	@Inject
 	FileManager(final FileAPI fileAPI) {
 		this.fileAPI = fileAPI;
+		this.writeBehindQueue = new WriteBehindQueue(fileAPI);
+		this.scheduler = new AdaptiveScheduler(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		});
 	}
 
 	/**
-	 * Startet einen Timer, der alle 30 Sekunden Änderungen der API und des Dateisystems abfragt.
+	 * Abonniert die Änderungen der API ab dem Cursor der letzten Abfrage und startet die regelmäßige Abfrage der
+	 * Änderungen des Dateisystems. Deren Intervall passt sich an die Häufigkeit der Änderungen an (siehe
+	 * AdaptiveScheduler). Schlägt das Abonnement fehl, werden die Änderungen der API per Long-Poll abgefragt (siehe
+	 * FileAPI.pollChangesSince). Nur wenn auch das fehlschlägt, werden sie ebenfalls regelmäßig abgefragt.
 	 */
 	public void startPolling() {
 		stopPolling();
 
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
+		try {
+			subscription = Optional.of(fileAPI.subscribe(apiCursor, new ChangeListener() {
+				@Override
+				public void changesCommitted(final ChangeSet changeSet) {
+					applyChangeSet(changeSet);
+				}
+			}));
+		} catch (RuntimeException exception) {
+			APILogger.logFailure("Subscription of changes from API", exception.getMessage());
+			longPollAPIForChanges();
+		}
+
+		scheduler.start();
+	}
+
+	/**
+	 * Beendet das Abonnement bzw. den Long-Poll der Änderungen der API und die regelmäßige Abfrage der Änderungen des
+	 * Dateisystems. Noch nicht geschriebene Änderungen werden zuvor an die API gesendet.
+	 */
+	public void stopPolling() {
+		flushChanges();
+
+		if (subscription.isPresent()) {
+			subscription.get().cancel();
+			subscription = Optional.absent();
+		}
+		final Optional<ListenableFuture<ChangeSet>> poll;
+		synchronized (this) {
+			poll = changePoll;
+			changePoll = Optional.absent();
+		}
+		if (poll.isPresent()) {
+			poll.get().cancel(false);
+		}
+		scheduler.stop();
+	}
+
+	/**
+	 * Löst sofort eine Abfrage der Änderungen aus, ohne auf das Ende des aktuellen Intervalls zu warten.
+	 */
+	public void pollNow() {
+		scheduler.pollNow();
+	}
+
+	/**
+	 * Liefert das aktuelle Intervall der regelmäßigen Abfrage.
+	 *
+	 * @return Das aktuelle Intervall in ms.
+	 */
+	public long getPollInterval() {
+		return scheduler.getCurrentInterval();
+	}
+
+	/**
+	 * Beobachtet den gegebenen lokalen Ordner und überträgt dessen Änderungen ab sofort auf das gegebene Directory.
+	 * Zuvor wird der Ordner im Hintergrund vollständig eingelesen, der Fortschritt kann mit getLocalFolderScanProgress
+	 * abgefragt werden. Erkannte Änderungen lösen eine sofortige Abfrage aus, werden also nur angewandt, während die
+	 * regelmäßige Abfrage läuft. Ein zuvor beobachteter Ordner wird nicht länger beobachtet.
+	 *
+	 * @param folder    Der lokale Ordner.
+	 * @param directory Das dem Ordner entsprechende, registrierte Directory.
+	 * @return ob die Operation erfolgreich war
+	 */
+	public synchronized boolean watchLocalFolder(final Path folder, final Directory directory) {
+		stopWatchingLocalFolder();
+
+		final LocalFolderWatcher watcher = new LocalFolderWatcher(folder, directory, fileAPI, new Runnable() {
 			@Override
 			public void run() {
-				pollAPIForChanges();
-				pollFileSystemForChanges();
+				pollNow();
 			}
-		}, 0, 30000);
+		});
+
+		final boolean success = watcher.start();
+		if (success) {
+			localFolderWatcher = Optional.of(watcher);
+		}
+		return success;
+	}
+
+	/**
+	 * Liefert den Fortschritt des initialen Einlesens des beobachteten lokalen Ordners.
+	 *
+	 * @return Der Fortschritt oder Optional.absent(), falls kein lokaler Ordner beobachtet wird.
+	 */
+	public Optional<ScanProgress> getLocalFolderScanProgress() {
+		final Optional<LocalFolderWatcher> watcher = localFolderWatcher;
+
+		Optional<ScanProgress> progress = Optional.absent();
+		if (watcher.isPresent()) {
+			progress = Optional.of(watcher.get().getScanProgress());
+		}
+		return progress;
 	}
 
 	/**
-	 * Stoppt den laufenden Timer, der Änderungen der API und des Dateisystems abfragt.
+	 * Beendet die Beobachtung des lokalen Ordners. Noch nicht angewandte Änderungen des Ordners verfallen.
 	 */
-	public void stopPolling() {
-		if (timer != null) {
-			timer.cancel();
+	public synchronized void stopWatchingLocalFolder() {
+		if (localFolderWatcher.isPresent()) {
+			localFolderWatcher.get().stop();
+			localFolderWatcher = Optional.absent();
 		}
 	}
 
+	/**
+	 * Die regelmäßige Abfrage der Änderungen. Die Änderungen der API werden nur abgefragt, wenn sie weder abonniert
+	 * sind, noch per Long-Poll abgefragt werden.
+	 */
+	private void poll() {
+		if (!subscription.isPresent() && !changePoll.isPresent()) {
+			pollAPIForChanges();
+		}
+		pollFileSystemForChanges();
+	}
+
+	/**
+	 * Sendet alle gesammelten, noch nicht geschriebenen Änderungen sofort an die API.
+	 */
+	public void flushChanges() {
+		writeBehindQueue.flush();
+	}
+
 	/**
 	 * Registriert einen neuen oder existierenden FEntry, der ab sofort vom FileManager beoabachtet und mit der FileAPI
 	 * abgeglichen wird. Handelt es sich um ein Directory werden auch rekursiv alle enthaltenen FEntries registriert.
@@ -79,68 +227,201 @@ public class FileManager implements DirectoryObserver {
 	 * @return ob die Operation erfolgreich war
 	 */
 	public boolean registerFEntry(final FEntry fEntry) {
-		fEntry.addObserver(this);
+		return registerFEntries(ImmutableList.of(fEntry));
+	}
+
+	/**
+	 * Registriert mehrere neue oder existierende FEntries (siehe registerFEntry). Alle FEntries ohne ID werden dabei
+	 * mit einer einzigen Anfrage als neue FEntries an die API gemeldet.
+	 *
+	 * @param fEntries Die zu registrierenden FEntries.
+	 * @return ob die Operation erfolgreich war
+	 */
+	public boolean registerFEntries(final List<? extends FEntry> fEntries) {
+		final List<FEntry> newFEntries = new ArrayList<FEntry>();
+		for (final FEntry fEntry : fEntries) {
+			collectNewFEntries(fEntry, newFEntries);
+		}
+
+		if (!newFEntries.isEmpty()) {
+			final List<Long> identifiers = fileAPI.createNewFEntries(newFEntries);
+			for (int i = 0; i < newFEntries.size(); i++) {
+				newFEntries.get(i).setIdentifier(identifiers.get(i));
+			}
+		}
+
+		for (final FEntry fEntry : fEntries) {
+			observeFEntry(fEntry);
+		}
+
+		return true;
+	}
 
+	/**
+	 * Fügt alle FEntries ohne ID der Liste hinzu. Kinder eines neuen Directories werden dabei nicht hinzugefügt, da sie
+	 * von der FileAPI gemeinsam mit ihrem Directory erstellt werden.
+	 *
+	 * @param fEntry      Der zu prüfende FEntry.
+	 * @param newFEntries Die Liste, der die neuen FEntries hinzugefügt werden.
+	 */
+	private void collectNewFEntries(final FEntry fEntry, final List<FEntry> newFEntries) {
 		if (fEntry.getIdentifier() == null) {
-			fEntry.setIdentifier(fileAPI.createNewFEntry(fEntry));
+			newFEntries.add(fEntry);
+		} else if (fEntry instanceof Directory) {
+			for (final FEntry child : ((Directory) fEntry).getFEntries()) {
+				collectNewFEntries(child, newFEntries);
+			}
 		}
+	}
 
+	/**
+	 * Beobachtet den gegebenen FEntry sowie rekursiv alle seine Kinder.
+	 *
+	 * @param fEntry Der zu beobachtende FEntry.
+	 */
+	private void observeFEntry(final FEntry fEntry) {
+		fEntry.addObserver(this);
 		registeredFEntries.put(fEntry.getIdentifier(), fEntry);
 
 		if (fEntry instanceof Directory) {
 			for (final FEntry child : ((Directory) fEntry).getFEntries()) {
-				registerFEntry(child);
+				observeFEntry(child);
 			}
 		}
-
-		return true;
 	}
 
 	/**
 	 * Fragt Änderungen seit dem letzten Poll von der FIleAPI ab und aktualisiert/ergänzt die veränderten FEntries.
+	 * Von der API gemeldete Löschungen (Tombstones) werden direkt auf die registrierten FEntries angewandt.
+	 * Die Änderungen werden ab dem Cursor der letzten Abfrage in Blöcken von höchstens CHANGES_PER_REQUEST Änderungen
+	 * abgerufen, bis keine weiteren Änderungen mehr vorliegen.
 	 */
-	public void pollAPIForChanges() {
+	public synchronized void pollAPIForChanges() {
 		APILogger.logMessage("Polling changes from API...");
 
-		final long currentAPIPoll = System.currentTimeMillis();
+		ChangeSet changeSet;
+		do {
+			changeSet = fileAPI.getChangesSince(apiCursor, CHANGES_PER_REQUEST);
+			applyChangeSet(changeSet);
+		} while (changeSet.hasMoreChanges());
+	}
+
+	/**
+	 * Fragt die Änderungen der API ab dem Cursor der letzten Abfrage per Long-Poll ab. Während der Poll wartet, wird
+	 * kein Thread belegt. Sobald sein ChangeSet vorliegt, wird es im Thread für Long-Polls angewandt und der nächste
+	 * Poll gestartet. Schlägt ein Poll fehl, werden die Änderungen stattdessen wieder regelmäßig abgefragt.
+	 */
+	private synchronized void longPollAPIForChanges() {
+		try {
+			final ListenableFuture<ChangeSet> poll =
+					fileAPI.pollChangesSince(apiCursor, CHANGES_PER_REQUEST, LONG_POLL_TIMEOUT);
+			changePoll = Optional.of(poll);
+
+			Futures.addCallback(poll, new FutureCallback<ChangeSet>() {
+				@Override
+				public void onSuccess(final ChangeSet changeSet) {
+					//polls that were cancelled or replaced by stopPolling and startPolling are ignored
+					synchronized (FileManager.this) {
+						if (changePoll.orNull() == poll) {
+							applyChangeSet(changeSet);
+							longPollAPIForChanges();
+						}
+					}
+				}
 
-		final ImmutableList<FEntry> changedFEntries = fileAPI.getChangesSince(lastAPIPoll);
-		for (final FEntry changedFEntry : changedFEntries) {
-			final FEntry currentFEntry = registeredFEntries.get(changedFEntry.getIdentifier());
-			if (currentFEntry != null) {
-				currentFEntry.applyChanges(changedFEntry, this);
+				@Override
+				public void onFailure(final Throwable throwable) {
+					synchronized (FileManager.this) {
+						if (changePoll.orNull() == poll) {
+							APILogger.logFailure("Long poll of changes from API", throwable.getMessage());
+							changePoll = Optional.absent();
+						}
+					}
+				}
+			}, changePollExecutor);
+		} catch (RuntimeException exception) {
+			APILogger.logFailure("Long poll of changes from API", exception.getMessage());
+			changePoll = Optional.absent();
+		}
+	}
+
+	/**
+	 * Führt die Änderungen des gegebenen ChangeSets auf den registrierten FEntries aus und übernimmt dessen Cursor.
+	 * ChangeSets, die nicht über den Cursor hinausgehen (z.B. weil sie bereits durch pollAPIForChanges abgerufen wurden),
+	 * werden ignoriert. FEntries mit noch nicht geschriebenen lokalen Änderungen werden nicht überschrieben, da diese
+	 * Änderungen neuer sind.
+	 *
+	 * @param changeSet Das ChangeSet.
+	 */
+	private synchronized void applyChangeSet(final ChangeSet changeSet) {
+		if (!changeSet.getChangedFEntries().isEmpty() || !changeSet.getDeletedFEntries().isEmpty()) {
+			scheduler.recordActivity();
+		}
+
+		if (changeSet.getCursor() > apiCursor) {
+			for (final FEntry changedFEntry : changeSet.getChangedFEntries()) {
+				final FEntry currentFEntry = registeredFEntries.get(changedFEntry.getIdentifier());
+				if (currentFEntry != null && !writeBehindQueue.isPending(changedFEntry.getIdentifier())) {
+					currentFEntry.applyChanges(changedFEntry, this);
+				}
 			}
+			for (final Tombstone tombstone : changeSet.getDeletedFEntries()) {
+				applyDeletion(tombstone);
+			}
+			apiCursor = changeSet.getCursor();
 		}
+	}
 
-		lastAPIPoll = currentAPIPoll;
+	/**
+	 * Wendet die durch den Tombstone beschriebene Löschung auf die registrierten FEntries an. Der gelöschte FEntry wird
+	 * aus seinem Elternverzeichnis entfernt, erhält eine DELETED-Notification und wird nicht länger beobachtet.
+	 *
+	 * @param tombstone Der Tombstone des gelöschten FEntries.
+	 */
+	private void applyDeletion(final Tombstone tombstone) {
+		final FEntry deletedFEntry = registeredFEntries.remove(tombstone.getIdentifier());
+		if (deletedFEntry != null) {
+			final FEntry parent = registeredFEntries.get(tombstone.getParentIdentifier());
+			if (parent instanceof Directory) {
+				((Directory) parent).removeFEntry(deletedFEntry, this);
+			}
+			deletedFEntry.fireNotification(FEntryNotification.ChangeType.DELETED, this);
+			deletedFEntry.removeObserver(this);
+		}
 	}
 
 	/**
-	 * Sucht nach Änderungen im Dateisystem seit dem letzten Poll und aktualisiert/ergänzt die veränderten FEntries.
+	 * Wendet die seit dem letzten Poll im lokalen Ordner erkannten Änderungen auf die FEntries an. Der Ordner wird dazu
+	 * nicht durchsucht, sondern die Änderungen werden ereignisgesteuert vom LocalFolderWatcher gesammelt. Da der
+	 * Watcher die FEntries wie applyChangeSet nur mit gehaltenem Monitor des FileManagers verändert, überschneiden sich
+	 * lokale Änderungen nicht mit denen der API. Geänderte Dateien werden dabei ohne gehaltenen Monitor eingelesen.
 	 */
 	public void pollFileSystemForChanges() {
-		APILogger.logMessage("Polling changes from local filesystem... NOT implemented in this Prototype!");
+		final Optional<LocalFolderWatcher> watcher = localFolderWatcher;
+		if (watcher.isPresent() && watcher.get().applyChanges(this)) {
+			APILogger.logMessage("Applied changes from local folder");
+		}
 	}
 
 	@Override
 	public void directoryNotification(final DirectoryNotification notification) {
 		if (notification.getSource() != this) {    //do not publish changes that came from the api/filemanager
+			scheduler.recordActivity();
 			if (notification.getChangeType().equals(FEntryNotification.ChangeType.ADDED_CHILDREN)) {
-				for (final FEntry addedChild : notification.getAffectedChildren()) {
-					registerFEntry(addedChild);
-				}
+				registerFEntries(notification.getAffectedChildren());
 			}
-			fileAPI.updateFEntry(notification.getChangedFEntry());
+			writeBehindQueue.update(notification.getChangedFEntry());
 		}
 	}
 
 	@Override
 	public void fEntryNotification(final FEntryNotification notification) {
 		if (notification.getSource() != this) {    //do not publish changes that came from the api/filemanager
+			scheduler.recordActivity();
 			if (notification.getChangeType().equals(FEntryNotification.ChangeType.DELETED)) {
-				fileAPI.deleteFEntry(notification.getChangedFEntry());
+				writeBehindQueue.delete(notification.getChangedFEntry());
 			} else {
-				fileAPI.updateFEntry(notification.getChangedFEntry());
+				writeBehindQueue.update(notification.getChangedFEntry());
 			}
 		}
 	}
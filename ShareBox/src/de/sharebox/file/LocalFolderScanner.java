@@ -0,0 +1,316 @@
+package de.sharebox.file;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.sharebox.api.APILogger;
+import de.sharebox.api.ContentDefinedChunker;
+import de.sharebox.api.FileAPI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Liest einen lokalen Ordner vollständig ein und hasht alle enthaltenen Dateien, z.B. beim ersten Abgleich eines
+ * bereits gefüllten Ordners.<br/>
+ * Die Verzeichnisse werden parallel in einem ForkJoinPool durchsucht, jedes Verzeichnis in einer eigenen Task. Gefundene
+ * Dateien werden an einen Pool von Hash-Threads übergeben, die den Inhalt über einen FileChannel in einen direkten
+ * Buffer pro Thread lesen und mit FileAPI.uploadContent zerlegen. Dabei werden nur Chunks gespeichert, die noch nicht
+ * bekannt sind. Höchstens QUEUED_FILES_PER_THREAD Dateien pro Hash-Thread warten auf das Hashen, danach wartet die
+ * Suche, bis wieder Platz ist. So sind bei schnellen Datenträgern alle Kerne ausgelastet, ohne dass sich die gefundenen
+ * Dateien im Speicher stauen. Gewartet wird über ForkJoinPool.managedBlock, damit der Pool für wartende Tasks
+ * Ersatz-Threads starten kann.
+ */
+class LocalFolderScanner {
+	/**
+	 * Die Größe des direkten Buffers jedes Hash-Threads.
+	 */
+	static final int BUFFER_SIZE = 4 * ContentDefinedChunker.DEFAULT_MAXIMUM_SIZE;
+
+	/**
+	 * Die maximale Anzahl an Dateien pro Hash-Thread, die gefunden, aber noch nicht gehasht sind.
+	 */
+	static final int QUEUED_FILES_PER_THREAD = 4;
+
+	/**
+	 * Eine eingelesene Datei.
+	 */
+	static class ScannedFile {
+		private final ImmutableList<String> chunkHashes;
+		private final long size;
+
+		public ScannedFile(final ImmutableList<String> chunkHashes, final long size) {
+			this.chunkHashes = chunkHashes;
+			this.size = size;
+		}
+
+		public ImmutableList<String> getChunkHashes() {
+			return chunkHashes;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Ein eingelesenes Verzeichnis mit seinen Dateien und Unterverzeichnissen, jeweils nach Namen sortiert.
+	 */
+	static class ScannedDirectory {
+		private final SortedMap<String, ScannedFile> files = new ConcurrentSkipListMap<String, ScannedFile>();
+		private final SortedMap<String, ScannedDirectory> directories =
+				new ConcurrentSkipListMap<String, ScannedDirectory>();
+
+		public SortedMap<String, ScannedFile> getFiles() {
+			return files;
+		}
+
+		public SortedMap<String, ScannedDirectory> getDirectories() {
+			return directories;
+		}
+	}
+
+	private final Path rootPath;
+	private final FileAPI fileAPI;
+	private final int threads;
+
+	private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	private final AtomicLong discoveredFiles = new AtomicLong();
+	private final AtomicLong discoveredBytes = new AtomicLong();
+	private final AtomicLong hashedFiles = new AtomicLong();
+	private final AtomicLong hashedBytes = new AtomicLong();
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+
+	/**
+	 * Erstellt einen neuen LocalFolderScanner mit einem Thread pro Prozessorkern.
+	 *
+	 * @param rootPath Der einzulesende lokale Ordner.
+	 * @param fileAPI  Die FileAPI, in der die Inhalte der Dateien gespeichert werden.
+	 */
+	LocalFolderScanner(final Path rootPath, final FileAPI fileAPI) {
+		this(rootPath, fileAPI, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Erstellt einen neuen LocalFolderScanner.
+	 *
+	 * @param rootPath Der einzulesende lokale Ordner.
+	 * @param fileAPI  Die FileAPI, in der die Inhalte der Dateien gespeichert werden.
+	 * @param threads  Die Anzahl der Threads zum Durchsuchen sowie die Anzahl der Threads zum Hashen.
+	 */
+	LocalFolderScanner(final Path rootPath, final FileAPI fileAPI, final int threads) {
+		this.rootPath = rootPath;
+		this.fileAPI = fileAPI;
+		this.threads = threads;
+	}
+
+	/**
+	 * Liest den Ordner ein und wartet, bis alle gefundenen Dateien gehasht sind. Dateien, die nicht gelesen werden
+	 * konnten, fehlen im Ergebnis.
+	 *
+	 * @return Der eingelesene Ordner oder Optional.absent(), falls der aufrufende Thread unterbrochen wurde.
+	 */
+	Optional<ScannedDirectory> scan() {
+		final long startTime = System.currentTimeMillis();
+		final ScannedDirectory root = new ScannedDirectory();
+
+		final ForkJoinPool walkPool = new ForkJoinPool(threads);
+		final ExecutorService hashingPool = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("ShareBox hashing %d").setDaemon(true).build());
+		final Semaphore queuedFiles = new Semaphore(threads * QUEUED_FILES_PER_THREAD);
+
+		Optional<ScannedDirectory> result = Optional.absent();
+		try {
+			walkPool.invoke(new DirectoryTask(rootPath, root, hashingPool, queuedFiles));
+			hashingPool.shutdown();
+			hashingPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			result = Optional.of(root);
+
+			APILogger.logSuccess("Scan of " + rootPath + " (" + hashedFiles.get() + " files, " + hashedBytes.get()
+					+ " bytes in " + (System.currentTimeMillis() - startTime) + " ms)");
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			APILogger.logFailure("Scan of " + rootPath, "interrupted");
+		} finally {
+			walkPool.shutdown();
+			hashingPool.shutdownNow();
+			finished.set(true);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Hasht eine einzelne Datei im aufrufenden Thread und speichert dabei ihre noch unbekannten Chunks. Jeder Thread
+	 * verwendet dazu seinen eigenen direkten Buffer.
+	 *
+	 * @param path Der Pfad der Datei.
+	 * @return Die eingelesene Datei oder Optional.absent(), falls sie nicht gelesen oder gespeichert werden konnte.
+	 */
+	Optional<ScannedFile> hashFile(final Path path) {
+		Optional<ScannedFile> scannedFile = Optional.absent();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final Optional<ImmutableList<String>> chunkHashes = fileAPI.uploadContent(channel, buffers.get());
+			if (chunkHashes.isPresent()) {
+				scannedFile = Optional.of(new ScannedFile(chunkHashes.get(), size));
+			}
+		} catch (IOException exception) {
+			APILogger.logFailure("Read " + path, exception.getMessage());
+		}
+		return scannedFile;
+	}
+
+	/**
+	 * Liefert den aktuellen Fortschritt des Einlesens.
+	 *
+	 * @return Der aktuelle Fortschritt.
+	 */
+	ScanProgress getProgress() {
+		//read finished first, so a finished progress always contains the final counts
+		final boolean isFinished = finished.get();
+		return new ScanProgress(discoveredFiles.get(), discoveredBytes.get(), hashedFiles.get(), hashedBytes.get(),
+				isFinished);
+	}
+
+	/**
+	 * Durchsucht ein Verzeichnis, übergibt seine Dateien an die Hash-Threads und durchsucht seine Unterverzeichnisse
+	 * parallel in eigenen Tasks. Symbolische Links werden nicht verfolgt.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path path;
+		private final ScannedDirectory scannedDirectory;
+		private final ExecutorService hashingPool;
+		private final Semaphore queuedFiles;
+
+		public DirectoryTask(final Path path, final ScannedDirectory scannedDirectory,
+							 final ExecutorService hashingPool, final Semaphore queuedFiles) {
+			this.path = path;
+			this.scannedDirectory = scannedDirectory;
+			this.hashingPool = hashingPool;
+			this.queuedFiles = queuedFiles;
+		}
+
+		@Override
+		protected void compute() {
+			final List<DirectoryTask> subdirectoryTasks = new ArrayList<DirectoryTask>();
+
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+				for (final Path child : children) {
+					try {
+						final BasicFileAttributes attributes =
+								Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+						final String name = child.getFileName().toString();
+
+						if (attributes.isDirectory()) {
+							final ScannedDirectory subdirectory = new ScannedDirectory();
+							scannedDirectory.directories.put(name, subdirectory);
+							subdirectoryTasks.add(new DirectoryTask(child, subdirectory, hashingPool, queuedFiles));
+						} else if (attributes.isRegularFile()) {
+							discoveredFiles.incrementAndGet();
+							discoveredBytes.addAndGet(attributes.size());
+							submitFile(child, name);
+						}
+					} catch (IOException exception) {
+						//the entry vanished while scanning, the folder watcher picks up its removal
+						APILogger.logFailure("Scan " + child, exception.getMessage());
+					}
+				}
+			} catch (IOException exception) {
+				APILogger.logFailure("Scan " + path, exception.getMessage());
+			}
+
+			invokeAll(subdirectoryTasks);
+		}
+
+		private void submitFile(final Path file, final String name) {
+			final QueueSlot queueSlot = new QueueSlot(queuedFiles);
+			try {
+				ForkJoinPool.managedBlock(queueSlot);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				APILogger.logFailure("Scan " + file, "interrupted");
+			}
+
+			if (queueSlot.isAcquired()) {
+				hashingPool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							final Optional<ScannedFile> scannedFile = hashFile(file);
+							if (scannedFile.isPresent()) {
+								scannedDirectory.files.put(name, scannedFile.get());
+								hashedBytes.addAndGet(scannedFile.get().getSize());
+							}
+							hashedFiles.incrementAndGet();
+						} finally {
+							queuedFiles.release();
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Wartet auf einen freien Platz für eine gefundene Datei. Da das Warten über ForkJoinPool.managedBlock geschieht,
+	 * kann der ForkJoinPool währenddessen einen Ersatz-Thread starten, sodass wartende Tasks nicht alle Threads des
+	 * Pools blockieren.
+	 */
+	private static class QueueSlot implements ForkJoinPool.ManagedBlocker {
+		private final Semaphore queuedFiles;
+		private boolean acquired = false;
+
+		public QueueSlot(final Semaphore queuedFiles) {
+			this.queuedFiles = queuedFiles;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			if (!acquired) {
+				queuedFiles.acquire();
+				acquired = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			if (!acquired) {
+				acquired = queuedFiles.tryAcquire();
+			}
+			return acquired;
+		}
+
+		public boolean isAcquired() {
+			return acquired;
+		}
+	}
+}
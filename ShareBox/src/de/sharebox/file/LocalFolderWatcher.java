@@ -0,0 +1,607 @@
+package de.sharebox.file;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.sharebox.api.APILogger;
+import de.sharebox.api.FileAPI;
+import de.sharebox.file.model.Directory;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Beobachtet einen lokalen Ordner mit einem WatchService und überträgt dessen Änderungen auf das zugeordnete Directory.
+ * <br/>
+ * Ein eigener Thread sammelt die Events des Betriebssystems. Mehrere Events desselben Pfades werden zusammengefasst und
+ * erst gemeldet, wenn für DEBOUNCE_DELAY keine weiteren Events eingetroffen sind. Schreibt ein Editor z.B. zuerst eine
+ * temporäre Datei und benennt diese dann um, wird dadurch nur die umbenannte Datei übernommen. Gehen Events verloren
+ * (OVERFLOW), wird nur das betroffene Verzeichnis erneut eingelesen, nicht der gesamte Ordner.<br/>
+ * Bevor Events verarbeitet werden, liest der Thread den gesamten Ordner einmal mit einem LocalFolderScanner ein, damit
+ * auch bereits vorhandene Dateien abgeglichen werden.<br/>
+ * Die gesammelten Änderungen werden nicht im Thread des Watchers, sondern erst durch applyChanges auf die FEntries
+ * angewandt, damit der Aufrufer (der FileManager) sie mit den Änderungen der API synchronisieren kann.
+ */
+class LocalFolderWatcher {
+	/**
+	 * Die Zeit in ms ohne neue Events, nach der gesammelte Events gemeldet werden.
+	 */
+	static final long DEBOUNCE_DELAY = 500;
+
+	/**
+	 * Die maximale Zeit in ms, die gesammelte Events bei ununterbrochenen Änderungen zurückgehalten werden.
+	 */
+	static final long MAXIMUM_DELAY = 10 * 1000;
+
+	private final Path rootPath;
+	private final Directory rootDirectory;
+	private final LocalFolderScanner scanner;
+	private final Runnable changesDetected;
+	private final long debounceDelay;
+
+	private final Set<Path> changedPaths = new LinkedHashSet<Path>();
+	private final Set<Path> rescanDirectories = new LinkedHashSet<Path>();
+	private Optional<LocalFolderScanner.ScannedDirectory> scannedFolder = Optional.absent();
+	private WatchService watchService;
+	private volatile boolean running = false;
+
+	/**
+	 * Erstellt einen neuen LocalFolderWatcher mit der Standardverzögerung.
+	 *
+	 * @param rootPath        Der zu beobachtende lokale Ordner.
+	 * @param rootDirectory   Das Directory, das dem lokalen Ordner entspricht.
+	 * @param fileAPI         Die FileAPI, in der die Inhalte geänderter Dateien gespeichert werden.
+	 * @param changesDetected Wird im Thread des Watchers aufgerufen, sobald Änderungen zum Anwenden bereitstehen.
+	 */
+	LocalFolderWatcher(final Path rootPath, final Directory rootDirectory, final FileAPI fileAPI,
+					   final Runnable changesDetected) {
+		this(rootPath, rootDirectory, fileAPI, changesDetected, DEBOUNCE_DELAY);
+	}
+
+	/**
+	 * Erstellt einen neuen LocalFolderWatcher.
+	 *
+	 * @param rootPath        Der zu beobachtende lokale Ordner.
+	 * @param rootDirectory   Das Directory, das dem lokalen Ordner entspricht.
+	 * @param fileAPI         Die FileAPI, in der die Inhalte geänderter Dateien gespeichert werden.
+	 * @param changesDetected Wird im Thread des Watchers aufgerufen, sobald Änderungen zum Anwenden bereitstehen.
+	 * @param debounceDelay   Die Zeit in ms ohne neue Events, nach der gesammelte Events gemeldet werden.
+	 */
+	LocalFolderWatcher(final Path rootPath, final Directory rootDirectory, final FileAPI fileAPI,
+					   final Runnable changesDetected, final long debounceDelay) {
+		this.rootPath = rootPath.toAbsolutePath().normalize();
+		this.rootDirectory = rootDirectory;
+		this.scanner = new LocalFolderScanner(this.rootPath, fileAPI);
+		this.changesDetected = changesDetected;
+		this.debounceDelay = debounceDelay;
+	}
+
+	/**
+	 * Registriert den lokalen Ordner und alle seine Unterordner beim WatchService und startet den Thread des Watchers,
+	 * der zuerst den gesamten Ordner einliest.
+	 *
+	 * @return True, wenn der Ordner beobachtet wird. False, im Falle eines Fehlers.
+	 */
+	synchronized boolean start() {
+		boolean success = false;
+		try {
+			watchService = rootPath.getFileSystem().newWatchService();
+			registerTree(rootPath);
+			running = true;
+
+			new ThreadFactoryBuilder().setNameFormat("ShareBox folder watcher").setDaemon(true).build()
+					.newThread(new Runnable() {
+						@Override
+						public void run() {
+							watchEvents();
+						}
+					}).start();
+			success = true;
+		} catch (IOException exception) {
+			APILogger.logFailure("Watch " + rootPath, exception.getMessage());
+		}
+		return success;
+	}
+
+	/**
+	 * Beendet die Beobachtung. Gesammelte, aber noch nicht angewandte Änderungen verfallen.
+	 */
+	synchronized void stop() {
+		running = false;
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException exception) {
+				APILogger.logFailure("Stop watching " + rootPath, exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Liefert den Fortschritt des initialen Einlesens des Ordners.
+	 *
+	 * @return Der aktuelle Fortschritt.
+	 */
+	ScanProgress getScanProgress() {
+		return scanner.getProgress();
+	}
+
+	/**
+	 * Wendet alle gesammelten Änderungen auf die FEntries unterhalb des Directories an. Neue Dateien und Verzeichnisse
+	 * werden angelegt, geänderte Dateien erhalten ihren neuen Inhalt und gelöschte Dateien und Verzeichnisse werden
+	 * gelöscht. Dabei werden die üblichen Notifications ausgelöst. Liegt das Ergebnis des initialen Einlesens vor, wird
+	 * es vor den Events angewandt.<br/>
+	 * Die FEntries werden nur gelesen und verändert, während der Monitor des gegebenen Objekts gehalten wird. Zunächst
+	 * werden damit die einzulesenden Dateien ermittelt, diese werden dann ohne gehaltene Locks gehasht und erst danach
+	 * wird das Ergebnis wieder mit gehaltenem Monitor angewandt. Große Dateien halten so weder den Aufrufer noch den
+	 * Thread des Watchers auf.
+	 *
+	 * @param modelLock Das Objekt, auf dem alle Zugriffe auf die FEntries synchronisiert sind (z.B. der FileManager).
+	 * @return True, wenn Änderungen angewandt wurden. False, sonst.
+	 */
+	boolean applyChanges(final Object modelLock) {
+		final Optional<LocalFolderScanner.ScannedDirectory> scan;
+		final List<Path> paths;
+		final List<Path> directories;
+		synchronized (this) {
+			scan = scannedFolder;
+			scannedFolder = Optional.absent();
+
+			//pick up events that arrived after the last notification
+			if (running) {
+				WatchKey key = watchService.poll();
+				while (key != null) {
+					collectEvents(key);
+					key = watchService.poll();
+				}
+			}
+
+			paths = ImmutableList.copyOf(changedPaths);
+			directories = ImmutableList.copyOf(rescanDirectories);
+			changedPaths.clear();
+			rescanDirectories.clear();
+		}
+
+		final Set<Path> files = new LinkedHashSet<Path>();
+		synchronized (modelLock) {
+			final ChildIndex index = new ChildIndex();
+			for (final Path path : paths) {
+				collectFiles(path, index, files);
+			}
+			for (final Path directory : directories) {
+				collectRescannedFiles(directory, index, files);
+			}
+		}
+
+		final Map<Path, Optional<LocalFolderScanner.ScannedFile>> contents =
+				new HashMap<Path, Optional<LocalFolderScanner.ScannedFile>>();
+		for (final Path file : files) {
+			contents.put(file, scanner.hashFile(file));
+		}
+
+		boolean changed = false;
+		synchronized (modelLock) {
+			final ChildIndex index = new ChildIndex();
+			if (scan.isPresent()) {
+				changed = applyScan(rootDirectory, scan.get(), index);
+			}
+			for (final Path path : paths) {
+				changed |= applyChange(path, index, contents);
+			}
+			for (final Path directory : directories) {
+				changed |= rescan(directory, index, contents);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Wendet wie applyChanges(Object) alle gesammelten Änderungen an, synchronisiert die Zugriffe auf die FEntries
+	 * jedoch auf dem Directory des Ordners.
+	 *
+	 * @return True, wenn Änderungen angewandt wurden. False, sonst.
+	 */
+	boolean applyChanges() {
+		return applyChanges(rootDirectory);
+	}
+
+	/**
+	 * Übernimmt die Events des gegebenen WatchKeys in die gesammelten Änderungen. Neue Verzeichnisse werden dabei sofort
+	 * registriert und zum Einlesen vorgemerkt, da Änderungen vor ihrer Registrierung keine Events auslösen.
+	 *
+	 * @param key Der WatchKey eines Verzeichnisses.
+	 */
+	synchronized void collectEvents(final WatchKey key) {
+		final Path directory = (Path) key.watchable();
+
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				rescanDirectories.add(directory);
+			} else {
+				final Path path = directory.resolve((Path) event.context());
+				changedPaths.add(path);
+
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+						&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					try {
+						registerTree(path);
+					} catch (IOException exception) {
+						APILogger.logFailure("Watch " + path, exception.getMessage());
+					}
+					rescanDirectories.add(path);
+				}
+			}
+		}
+		key.reset();
+	}
+
+	/**
+	 * Die Schleife des Watcher-Threads. Liest zuerst den Ordner ein und meldet das Ergebnis. Die Events, die dabei
+	 * auftreten, bleiben im WatchService und werden anschließend verarbeitet. Danach wartet sie auf das erste Event
+	 * einer Folge und sammelt weitere Events, bis für debounceDelay keine Events mehr eingetroffen sind oder
+	 * MAXIMUM_DELAY abgelaufen ist.
+	 */
+	private void watchEvents() {
+		final Optional<LocalFolderScanner.ScannedDirectory> scan = scanner.scan();
+		synchronized (this) {
+			scannedFolder = scan;
+		}
+		changesDetected.run();
+
+		try {
+			while (running) {
+				collectEvents(watchService.take());
+
+				final long deadline = System.currentTimeMillis() + Math.max(MAXIMUM_DELAY, debounceDelay);
+				WatchKey key = watchService.poll(debounceDelay, TimeUnit.MILLISECONDS);
+				while (key != null) {
+					collectEvents(key);
+					key = System.currentTimeMillis() < deadline ?
+							watchService.poll(debounceDelay, TimeUnit.MILLISECONDS) : null;
+				}
+
+				changesDetected.run();
+			}
+		} catch (ClosedWatchServiceException exception) {
+			//the watcher was stopped
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Registriert das gegebene Verzeichnis und alle seine Unterverzeichnisse beim WatchService.
+	 *
+	 * @param directory Das Verzeichnis.
+	 * @throws IOException Falls ein Verzeichnis nicht registriert werden konnte.
+	 */
+	private void registerTree(final Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attributes)
+					throws IOException {
+				dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Ermittelt die Dateien, die applyChange für den gegebenen Pfad einlesen wird. Neue Verzeichnisse werden dabei
+	 * vollständig durchsucht. Muss mit gehaltenem Monitor des Modells aufgerufen werden.
+	 *
+	 * @param path  Der geänderte Pfad.
+	 * @param index Der Index der Kinder für diesen Durchgang.
+	 * @param files Die Menge, der die einzulesenden Dateien hinzugefügt werden.
+	 */
+	private void collectFiles(final Path path, final ChildIndex index, final Set<Path> files) {
+		if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+			files.add(path);
+		} else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && !findDirectory(path, index).isPresent()) {
+			try {
+				Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+						if (attributes.isRegularFile()) {
+							files.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path file, final IOException exception) {
+						APILogger.logFailure("Scan " + file, exception.getMessage());
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException exception) {
+				APILogger.logFailure("Scan " + path, exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Ermittelt die Dateien, die rescan für das gegebene Verzeichnis einlesen wird. Muss mit gehaltenem Monitor des
+	 * Modells aufgerufen werden.
+	 *
+	 * @param directory Das erneut einzulesende Verzeichnis.
+	 * @param index     Der Index der Kinder für diesen Durchgang.
+	 * @param files     Die Menge, der die einzulesenden Dateien hinzugefügt werden.
+	 */
+	private void collectRescannedFiles(final Path directory, final ChildIndex index, final Set<Path> files) {
+		if (!findDirectory(directory, index).isPresent()) {
+			collectFiles(directory, index, files);
+		} else if (Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+				for (final Path child : children) {
+					collectFiles(child, index, files);
+				}
+			} catch (IOException exception) {
+				APILogger.logFailure("Rescan " + directory, exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Gleicht den FEntry des gegebenen Pfades mit dem lokalen Dateisystem ab. Muss mit gehaltenem Monitor des Modells
+	 * aufgerufen werden.
+	 *
+	 * @param path     Der geänderte Pfad.
+	 * @param index    Der Index der Kinder für diesen Durchgang.
+	 * @param contents Die zuvor eingelesenen Dateien.
+	 * @return True, wenn ein FEntry geändert wurde. False, sonst.
+	 */
+	private boolean applyChange(final Path path, final ChildIndex index,
+								final Map<Path, Optional<LocalFolderScanner.ScannedFile>> contents) {
+		boolean changed = false;
+
+		final Optional<Directory> parent = findDirectory(path.getParent(), index);
+		if (parent.isPresent()) {
+			final String name = path.getFileName().toString();
+			Optional<FEntry> fEntry = index.find(parent.get(), name);
+
+			final boolean isDirectory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+			final boolean isFile = Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS);
+
+			//entries that vanished or changed their type are deleted first
+			if (fEntry.isPresent() && (isDirectory ? !(fEntry.get() instanceof Directory) :
+					!isFile || !(fEntry.get() instanceof File))) {
+				index.delete(parent.get(), fEntry.get());
+				fEntry = Optional.absent();
+				changed = true;
+			}
+
+			if (isDirectory && !fEntry.isPresent()) {
+				changed |= index.createDirectory(parent.get(), name).isPresent();
+				//the new directory may already contain files that did not cause an event yet
+				rescan(path, index, contents);
+			} else if (isFile && !contents.containsKey(path)) {
+				//the file appeared after its content was read, it is read with the next changes
+				synchronized (this) {
+					changedPaths.add(path);
+				}
+			} else if (isFile && contents.get(path).isPresent()) {
+				changed |= applyFileContent(parent.get(), name, fEntry, contents.get(path).get(), index);
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Setzt den Inhalt der eingelesenen lokalen Datei auf der zugehörigen File. Existiert diese noch nicht, wird sie
+	 * angelegt. Hat sich der Inhalt nicht geändert, bleibt die File unverändert.
+	 *
+	 * @param parent      Das Directory der Datei.
+	 * @param name        Der Name der Datei.
+	 * @param fEntry      Die bereits bestehende File, falls vorhanden.
+	 * @param scannedFile Die eingelesene Datei, deren Chunks bereits gespeichert sind.
+	 * @param index       Der Index der Kinder für diesen Durchgang.
+	 * @return True, wenn die File angelegt oder geändert wurde. False, sonst.
+	 */
+	private boolean applyFileContent(final Directory parent, final String name, final Optional<FEntry> fEntry,
+									 final LocalFolderScanner.ScannedFile scannedFile, final ChildIndex index) {
+		boolean changed = false;
+
+		final Optional<File> file = fEntry.isPresent() ? Optional.of((File) fEntry.get()) : index.createFile(parent, name);
+		if (file.isPresent() && (!file.get().getChunkHashes().equals(scannedFile.getChunkHashes())
+				|| file.get().getSize() != scannedFile.getSize())) {
+			file.get().setContent(scannedFile.getChunkHashes(), scannedFile.getSize());
+			changed = true;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Gleicht das gegebene Directory rekursiv mit dem eingelesenen Verzeichnis ab. Fehlende Dateien und Verzeichnisse
+	 * werden angelegt und geänderte Dateien erhalten ihren neuen Inhalt. Anders als bei rescan werden FEntries, die
+	 * lokal fehlen, nicht gelöscht, da der Ordner beim ersten Abgleich z.B. noch nicht alle Dateien des Servers enthält.
+	 *
+	 * @param directory        Das abzugleichende Directory.
+	 * @param scannedDirectory Das eingelesene Verzeichnis.
+	 * @param index            Der Index der Kinder für diesen Durchgang.
+	 * @return True, wenn FEntries geändert wurden. False, sonst.
+	 */
+	private boolean applyScan(final Directory directory, final LocalFolderScanner.ScannedDirectory scannedDirectory,
+							  final ChildIndex index) {
+		boolean changed = false;
+
+		for (final Map.Entry<String, LocalFolderScanner.ScannedDirectory> entry :
+				scannedDirectory.getDirectories().entrySet()) {
+			final Optional<FEntry> fEntry = index.find(directory, entry.getKey());
+			final Optional<Directory> subdirectory;
+			if (fEntry.isPresent() && fEntry.get() instanceof Directory) {
+				subdirectory = Optional.of((Directory) fEntry.get());
+			} else {
+				if (fEntry.isPresent()) {
+					index.delete(directory, fEntry.get());
+				}
+				subdirectory = index.createDirectory(directory, entry.getKey());
+				changed = true;
+			}
+
+			if (subdirectory.isPresent()) {
+				changed |= applyScan(subdirectory.get(), entry.getValue(), index);
+			}
+		}
+
+		for (final Map.Entry<String, LocalFolderScanner.ScannedFile> entry : scannedDirectory.getFiles().entrySet()) {
+			Optional<FEntry> fEntry = index.find(directory, entry.getKey());
+			if (fEntry.isPresent() && !(fEntry.get() instanceof File)) {
+				index.delete(directory, fEntry.get());
+				fEntry = Optional.absent();
+			}
+			changed |= applyFileContent(directory, entry.getKey(), fEntry, entry.getValue(), index);
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Liest das gegebene Verzeichnis erneut ein und gleicht alle direkt enthaltenen FEntries ab. FEntries, zu denen es
+	 * lokal keine Datei mehr gibt, werden gelöscht. Neue Unterverzeichnisse werden vollständig eingelesen.
+	 *
+	 * @param directory Das einzulesende Verzeichnis.
+	 * @param index     Der Index der Kinder für diesen Durchgang.
+	 * @param contents  Die zuvor eingelesenen Dateien.
+	 * @return True, wenn FEntries geändert wurden. False, sonst.
+	 */
+	private boolean rescan(final Path directory, final ChildIndex index,
+						   final Map<Path, Optional<LocalFolderScanner.ScannedFile>> contents) {
+		boolean changed = false;
+
+		final Optional<Directory> fEntry = findDirectory(directory, index);
+		if (!fEntry.isPresent()) {
+			//creating the directory reads it as well
+			changed = applyChange(directory, index, contents);
+		} else if (Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+			final Set<String> names = new HashSet<String>();
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+				for (final Path child : children) {
+					names.add(child.getFileName().toString());
+					changed |= applyChange(child, index, contents);
+				}
+
+				final List<FEntry> removedFEntries = new ArrayList<FEntry>();
+				for (final FEntry child : fEntry.get().getFEntries()) {
+					if (!names.contains(child.getName())) {
+						removedFEntries.add(child);
+					}
+				}
+				for (final FEntry removedFEntry : removedFEntries) {
+					index.delete(fEntry.get(), removedFEntry);
+					changed = true;
+				}
+			} catch (IOException exception) {
+				APILogger.logFailure("Rescan " + directory, exception.getMessage());
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Sucht das Directory, das dem gegebenen lokalen Verzeichnis entspricht.
+	 *
+	 * @param directory Der Pfad des lokalen Verzeichnisses.
+	 * @param index     Der Index der Kinder für diesen Durchgang.
+	 * @return Das Directory oder Optional.absent(), falls es (noch) nicht existiert oder außerhalb des Ordners liegt.
+	 */
+	private Optional<Directory> findDirectory(final Path directory, final ChildIndex index) {
+		Optional<Directory> result = Optional.absent();
+
+		if (directory != null && directory.equals(rootPath)) {
+			result = Optional.of(rootDirectory);
+		} else if (directory != null && directory.startsWith(rootPath)) {
+			result = Optional.of(rootDirectory);
+			for (final Path name : rootPath.relativize(directory)) {
+				final Optional<FEntry> child = index.find(result.get(), name.toString());
+				if (child.isPresent() && child.get() instanceof Directory) {
+					result = Optional.of((Directory) child.get());
+				} else {
+					result = Optional.absent();
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Die Kinder der Directories nach ihrem Namen, damit z.B. beim erneuten Einlesen eines großen Verzeichnisses nicht
+	 * für jede Datei alle Kinder durchsucht werden. Der Index eines Directories wird beim ersten Zugriff aufgebaut und
+	 * gilt nur für einen Durchgang, in dem der Monitor des Modells durchgehend gehalten wird. FEntries, die während des
+	 * Durchgangs angelegt oder gelöscht werden, müssen daher über den Index angelegt bzw. gelöscht werden.
+	 */
+	private static class ChildIndex {
+		private final Map<Directory, Map<String, FEntry>> children =
+				new IdentityHashMap<Directory, Map<String, FEntry>>();
+
+		public Optional<FEntry> find(final Directory directory, final String name) {
+			return Optional.fromNullable(childrenOf(directory).get(name));
+		}
+
+		public Optional<File> createFile(final Directory directory, final String name) {
+			final Optional<File> file = directory.createNewFile(name);
+			if (file.isPresent()) {
+				childrenOf(directory).put(name, file.get());
+			}
+			return file;
+		}
+
+		public Optional<Directory> createDirectory(final Directory directory, final String name) {
+			final Optional<Directory> subdirectory = directory.createNewDirectory(name);
+			if (subdirectory.isPresent()) {
+				childrenOf(directory).put(name, subdirectory.get());
+			}
+			return subdirectory;
+		}
+
+		public void delete(final Directory directory, final FEntry fEntry) {
+			directory.deleteFEntry(fEntry);
+			final Map<String, FEntry> childrenByName = children.get(directory);
+			if (childrenByName != null && childrenByName.get(fEntry.getName()) == fEntry) {
+				childrenByName.remove(fEntry.getName());
+			}
+		}
+
+		private Map<String, FEntry> childrenOf(final Directory directory) {
+			Map<String, FEntry> childrenByName = children.get(directory);
+			if (childrenByName == null) {
+				childrenByName = new HashMap<String, FEntry>();
+				//the first child of a name wins, as it did when searching the children
+				for (final FEntry child : Lists.reverse(directory.getFEntries())) {
+					childrenByName.put(child.getName(), child);
+				}
+				children.put(directory, childrenByName);
+			}
+			return childrenByName;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package de.sharebox.file;
+
+/**
+ * Der Fortschritt des initialen Einlesens eines lokalen Ordners zu einem bestimmten Zeitpunkt. Da Dateien bereits
+ * gehasht werden, während der Ordner noch durchsucht wird, steigt auch die Anzahl der gefundenen Dateien, bis das
+ * Einlesen abgeschlossen ist.
+ */
+public class ScanProgress {
+	private final long discoveredFiles;
+	private final long discoveredBytes;
+	private final long hashedFiles;
+	private final long hashedBytes;
+	private final boolean finished;
+
+	/**
+	 * Erstellt einen neuen ScanProgress.
+	 *
+	 * @param discoveredFiles Die Anzahl der bisher gefundenen Dateien.
+	 * @param discoveredBytes Die Größe der bisher gefundenen Dateien in Bytes.
+	 * @param hashedFiles     Die Anzahl der bisher gehashten Dateien.
+	 * @param hashedBytes     Die Größe der bisher gehashten Dateien in Bytes.
+	 * @param finished        Ob das Einlesen abgeschlossen ist.
+	 */
+	public ScanProgress(final long discoveredFiles, final long discoveredBytes, final long hashedFiles,
+						final long hashedBytes, final boolean finished) {
+		this.discoveredFiles = discoveredFiles;
+		this.discoveredBytes = discoveredBytes;
+		this.hashedFiles = hashedFiles;
+		this.hashedBytes = hashedBytes;
+		this.finished = finished;
+	}
+
+	/**
+	 * Liefert die Anzahl der bisher gefundenen Dateien.
+	 *
+	 * @return Die Anzahl der gefundenen Dateien.
+	 */
+	public long getDiscoveredFiles() {
+		return discoveredFiles;
+	}
+
+	/**
+	 * Liefert die Größe der bisher gefundenen Dateien.
+	 *
+	 * @return Die Größe in Bytes.
+	 */
+	public long getDiscoveredBytes() {
+		return discoveredBytes;
+	}
+
+	/**
+	 * Liefert die Anzahl der bisher gehashten Dateien.
+	 *
+	 * @return Die Anzahl der gehashten Dateien.
+	 */
+	public long getHashedFiles() {
+		return hashedFiles;
+	}
+
+	/**
+	 * Liefert die Größe der bisher gehashten Dateien.
+	 *
+	 * @return Die Größe in Bytes.
+	 */
+	public long getHashedBytes() {
+		return hashedBytes;
+	}
+
+	/**
+	 * Gibt an, ob das Einlesen abgeschlossen ist.
+	 *
+	 * @return True, wenn alle gefundenen Dateien gehasht wurden. False, sonst.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+}
@@ -0,0 +1,327 @@
+package de.sharebox.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.sharebox.api.APILogger;
+import de.sharebox.api.FileAPI;
+import de.sharebox.file.model.Directory;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sammelt die Änderungen, die der FileManager an die FileAPI weiterleitet, und schreibt sie verzögert in einem
+ * eigenen Thread. Mehrere Änderungen desselben FEntries innerhalb von WRITE_DELAY werden dabei zu einer einzigen
+ * Aktualisierung mit seinem dann aktuellen Zustand zusammengefasst, eine Löschung ersetzt alle vorherigen
+ * Aktualisierungen. Alle gesammelten Änderungen werden mit FileAPI.updateFEntries bzw. FileAPI.deleteFEntries in einem
+ * Schritt geschrieben, sodass der aufrufende Thread (meist der Event Dispatch Thread) nie auf die FileAPI warten muss.
+ * <br/>
+ * Gesammelt wird jeweils eine Kopie des FEntries zum Zeitpunkt der Änderung, sodass die FileAPI nie einen FEntry liest,
+ * der gerade verändert wird. Die Änderungen gelten als ausstehend, bis die FileAPI sie gespeichert hat. Schlägt das
+ * Schreiben fehl, werden sie erneut gesammelt und höchstens MAXIMUM_ATTEMPTS mal geschrieben.<br/>
+ * Es werden höchstens "capacity" FEntries gleichzeitig gesammelt. Ist die Warteschlange voll, wird sie sofort geschrieben
+ * und der aufrufende Thread wartet, bis wieder Platz ist.
+ */
+class WriteBehindQueue {
+	/**
+	 * Die Zeit in ms, die nach der ersten gesammelten Änderung gewartet wird, bevor alle Änderungen geschrieben werden.
+	 */
+	static final long WRITE_DELAY = 200;
+
+	/**
+	 * Die maximale Anzahl an FEntries, deren Änderungen gleichzeitig gesammelt werden.
+	 */
+	static final int CAPACITY = 1000;
+
+	/**
+	 * Die maximale Anzahl an Versuchen, eine Änderung zu schreiben, bevor sie verworfen wird.
+	 */
+	static final int MAXIMUM_ATTEMPTS = 3;
+
+	private enum Operation {
+		UPDATE, DELETE
+	}
+
+	/**
+	 * Eine gesammelte Änderung eines FEntries.
+	 */
+	private static class PendingWrite {
+		private final Object key;
+		private final FEntry snapshot;
+		private final Operation operation;
+		private final int attempts;
+
+		public PendingWrite(final Object key, final FEntry snapshot, final Operation operation, final int attempts) {
+			this.key = key;
+			this.snapshot = snapshot;
+			this.operation = operation;
+			this.attempts = attempts;
+		}
+	}
+
+	private final FileAPI fileAPI;
+	private final long writeDelay;
+	private final int capacity;
+	private final int maximumAttempts;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("ShareBox write behind").setDaemon(true).build());
+
+	private Map<Object, PendingWrite> pendingWrites = new LinkedHashMap<Object, PendingWrite>();
+
+	/**
+	 * Die Anzahl der gerade geschriebenen Änderungen je FEntry. Diese gelten bis zum Ende des Schreibens als ausstehend.
+	 */
+	private final Map<Object, Integer> writesInFlight = new HashMap<Object, Integer>();
+	private final Lock lock = new ReentrantLock();
+	private final Condition spaceAvailable = lock.newCondition();
+	private boolean flushScheduled = false;
+
+	/**
+	 * Stellt sicher, dass gesammelte Änderungen in der Reihenfolge ihres Schreibens bei der FileAPI ankommen.
+	 */
+	private final Lock flushLock = new ReentrantLock();
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Erstellt eine neue WriteBehindQueue mit der Standardverzögerung und -kapazität.
+	 *
+	 * @param fileAPI Die FileAPI, an die die Änderungen geschrieben werden.
+	 */
+	WriteBehindQueue(final FileAPI fileAPI) {
+		this(fileAPI, WRITE_DELAY, CAPACITY, MAXIMUM_ATTEMPTS);
+	}
+
+	/**
+	 * Erstellt eine neue WriteBehindQueue.
+	 *
+	 * @param fileAPI         Die FileAPI, an die die Änderungen geschrieben werden.
+	 * @param writeDelay      Die Zeit in ms, nach der gesammelte Änderungen geschrieben werden.
+	 * @param capacity        Die maximale Anzahl an FEntries, deren Änderungen gleichzeitig gesammelt werden.
+	 * @param maximumAttempts Die maximale Anzahl an Versuchen, eine Änderung zu schreiben.
+	 */
+	WriteBehindQueue(final FileAPI fileAPI, final long writeDelay, final int capacity, final int maximumAttempts) {
+		this.fileAPI = fileAPI;
+		this.writeDelay = writeDelay;
+		this.capacity = capacity;
+		this.maximumAttempts = maximumAttempts;
+	}
+
+	/**
+	 * Sammelt eine Aktualisierung des gegebenen FEntries. Ist für ihn bereits eine Löschung gesammelt, wird die
+	 * Aktualisierung ignoriert.
+	 *
+	 * @param fEntry Der aktualisierte FEntry.
+	 */
+	void update(final FEntry fEntry) {
+		enqueue(fEntry, Operation.UPDATE);
+	}
+
+	/**
+	 * Sammelt die Löschung des gegebenen FEntries. Alle für ihn gesammelten Aktualisierungen entfallen.
+	 *
+	 * @param fEntry Der gelöschte FEntry.
+	 */
+	void delete(final FEntry fEntry) {
+		enqueue(fEntry, Operation.DELETE);
+	}
+
+	/**
+	 * Prüft, ob für den FEntry mit der gegebenen ID noch nicht geschriebene Änderungen gesammelt sind.
+	 *
+	 * @param identifier Die ID des FEntries.
+	 * @return True, wenn Änderungen gesammelt sind. False, sonst.
+	 */
+	boolean isPending(final Long identifier) {
+		final boolean pending;
+		lock.lock();
+		try {
+			pending = pendingWrites.containsKey(identifier) || writesInFlight.containsKey(identifier);
+		} finally {
+			lock.unlock();
+		}
+		return pending;
+	}
+
+	/**
+	 * Schreibt alle gesammelten Änderungen sofort im aufrufenden Thread. Änderungen, die nicht geschrieben werden
+	 * konnten, werden erneut gesammelt, sofern inzwischen keine neuere Änderung desselben FEntries vorliegt.
+	 */
+	void flush() {
+		flushLock.lock();
+		try {
+			final List<PendingWrite> writes;
+			lock.lock();
+			try {
+				writes = new ArrayList<PendingWrite>(pendingWrites.values());
+				pendingWrites.clear();
+				flushScheduled = false;
+				for (final PendingWrite write : writes) {
+					final Integer count = writesInFlight.get(write.key);
+					writesInFlight.put(write.key, count == null ? 1 : count + 1);
+				}
+				spaceAvailable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			final List<PendingWrite> updates = new ArrayList<PendingWrite>();
+			final List<PendingWrite> deletions = new ArrayList<PendingWrite>();
+			for (final PendingWrite write : writes) {
+				if (write.operation == Operation.DELETE) {
+					deletions.add(write);
+				} else {
+					updates.add(write);
+				}
+			}
+
+			if (!updates.isEmpty()) {
+				completeWrites(updates, write(updates, Operation.UPDATE));
+			}
+			if (!deletions.isEmpty()) {
+				completeWrites(deletions, write(deletions, Operation.DELETE));
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Schreibt die gegebenen Änderungen mit einem einzigen Aufruf der FileAPI.
+	 *
+	 * @param writes    Die Änderungen.
+	 * @param operation Die gemeinsame Art der Änderungen.
+	 * @return True, wenn die FileAPI alle Änderungen gespeichert hat. False, sonst.
+	 */
+	private boolean write(final List<PendingWrite> writes, final Operation operation) {
+		final List<FEntry> snapshots = new ArrayList<FEntry>(writes.size());
+		for (final PendingWrite write : writes) {
+			snapshots.add(write.snapshot);
+		}
+
+		boolean success = false;
+		try {
+			if (operation == Operation.DELETE) {
+				success = fileAPI.deleteFEntries(snapshots);
+			} else {
+				success = fileAPI.updateFEntries(snapshots);
+			}
+		} catch (RuntimeException exception) {
+			APILogger.logFailure("Write behind flush", exception.getMessage());
+		}
+		return success;
+	}
+
+	/**
+	 * Beendet das Schreiben der gegebenen Änderungen. War es nicht erfolgreich, werden die Änderungen vor allen
+	 * inzwischen gesammelten Änderungen erneut gesammelt. Eine inzwischen gesammelte Änderung desselben FEntries ersetzt
+	 * dabei eine fehlgeschlagene Aktualisierung, eine fehlgeschlagene Löschung bleibt dagegen bestehen.
+	 *
+	 * @param writes  Die geschriebenen Änderungen.
+	 * @param success Ob das Schreiben erfolgreich war.
+	 */
+	private void completeWrites(final List<PendingWrite> writes, final boolean success) {
+		lock.lock();
+		try {
+			if (!success) {
+				final Map<Object, PendingWrite> retriedWrites = new LinkedHashMap<Object, PendingWrite>();
+				for (final PendingWrite write : writes) {
+					final PendingWrite newerWrite = pendingWrites.get(write.key);
+					if (write.attempts >= maximumAttempts) {
+						APILogger.logFailure(APILogger.actionStringForFEntryAction("Write behind", write.snapshot),
+								"gave up after " + write.attempts + " attempts");
+					} else if (newerWrite == null || write.operation == Operation.DELETE) {
+						retriedWrites.put(write.key,
+								new PendingWrite(write.key, write.snapshot, write.operation, write.attempts + 1));
+					}
+				}
+
+				for (final Map.Entry<Object, PendingWrite> entry : pendingWrites.entrySet()) {
+					if (!retriedWrites.containsKey(entry.getKey())) {
+						retriedWrites.put(entry.getKey(), entry.getValue());
+					}
+				}
+				pendingWrites = retriedWrites;
+				scheduleFlush();
+			}
+
+			for (final PendingWrite write : writes) {
+				final int count = writesInFlight.get(write.key);
+				if (count > 1) {
+					writesInFlight.put(write.key, count - 1);
+				} else {
+					writesInFlight.remove(write.key);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(final FEntry fEntry, final Operation operation) {
+		//FEntries without an ID are not known by the API yet and are only collapsed with themselves
+		final Object key = fEntry.getIdentifier() == null ? fEntry : fEntry.getIdentifier();
+
+		lock.lock();
+		try {
+			while (!pendingWrites.containsKey(key) && pendingWrites.size() >= capacity) {
+				executor.execute(flushTask);
+				spaceAvailable.awaitUninterruptibly();
+			}
+
+			final PendingWrite pendingWrite = pendingWrites.get(key);
+			if (pendingWrite == null || pendingWrite.operation == Operation.UPDATE) {
+				pendingWrites.put(key, new PendingWrite(key, snapshotOf(fEntry), operation, 1));
+			}
+
+			scheduleFlush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Plant das Schreiben der gesammelten Änderungen nach writeDelay, falls es nicht bereits geplant ist. Muss mit
+	 * gehaltenem Lock aufgerufen werden.
+	 */
+	private void scheduleFlush() {
+		if (!flushScheduled) {
+			flushScheduled = true;
+			executor.schedule(flushTask, writeDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Kopiert den gegebenen FEntry mit dem Copy-Konstruktor seiner Klasse. Directories werden dabei flach kopiert, die
+	 * Kopie enthält also dieselben Kinder, da die FileAPI von diesen nur die IDs verwendet.
+	 *
+	 * @param fEntry Der zu kopierende FEntry.
+	 * @return Die Kopie.
+	 */
+	private static FEntry snapshotOf(final FEntry fEntry) {
+		final FEntry snapshot;
+		if (fEntry instanceof Directory) {
+			snapshot = new Directory((Directory) fEntry, ((Directory) fEntry).getFEntries());
+		} else if (fEntry instanceof File) {
+			snapshot = new File((File) fEntry);
+		} else {
+			snapshot = new FEntry(fEntry);
+		}
+		return snapshot;
+	}
+}
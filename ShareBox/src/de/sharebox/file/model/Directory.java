@@ -1,6 +1,7 @@
 package de.sharebox.file.model;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import de.sharebox.api.UserAPI;
 import de.sharebox.file.notification.DirectoryNotification;
@@ -10,7 +11,9 @@ import de.sharebox.file.notification.FEntryObserver;
 import de.sharebox.user.model.User;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Diese Klasse repräsentiert ein Verzeichnis, das von der Sharebox verwaltet und mit dem Server synchronisiert wird.
@@ -18,6 +21,11 @@ import java.util.List;
 public class Directory extends FEntry {
 	private final List<FEntry> fEntries = new ArrayList<FEntry>();
 
+	/**
+	 * Liefert die noch nicht geladenen Kinder des Directories oder null, falls die Kinder bereits geladen wurden.
+	 */
+	private Supplier<? extends List<FEntry>> pendingFEntries;
+
 	/**
 	 * Der Standard-Konstruktor.
 	 *
@@ -41,6 +49,35 @@ public class Directory extends FEntry {
 		super(userAPI, name, creatingUser);
 	}
 
+	/**
+	 * Erstellt ein Directory ohne Kinder mit den gegebenen, bereits bekannten Werten, z.B. beim Wiederherstellen
+	 * gespeicherter Directories. Es werden dabei weder Notifications gefeuert noch LogEntries erstellt.
+	 *
+	 * @param userAPI     Die aktuell für dieses Directory relevante UserAPI.
+	 * @param identifier  Die eindeutige ID des Directories.
+	 * @param name        Der Name des Directories.
+	 * @param permissions Die Rechte der Nutzer an diesem Directory.
+	 * @param logEntries  Die LogEntries des Directories.
+	 */
+	public Directory(final UserAPI userAPI, final Long identifier, final String name,
+					 final List<Permission> permissions, final List<LogEntry> logEntries) {
+		super(userAPI, identifier, name, permissions, logEntries);
+	}
+
+	/**
+	 * Erstellt ein Directory ohne Kinder mit der UserAPI und der ID des gegebenen Directories, aber den gegebenen Werten.
+	 * Es werden dabei weder Notifications gefeuert noch LogEntries erstellt.
+	 *
+	 * @param sourceDirectory Das Directory, dessen UserAPI und ID übernommen werden.
+	 * @param name            Der Name des Directories.
+	 * @param permissions     Die Rechte der Nutzer an diesem Directory.
+	 * @param logEntries      Die LogEntries des Directories.
+	 */
+	public Directory(final Directory sourceDirectory, final String name,
+					 final List<Permission> permissions, final List<LogEntry> logEntries) {
+		super(sourceDirectory, name, permissions, logEntries);
+	}
+
 	/**
 	 * Copy Konstruktor
 	 *
@@ -49,7 +86,7 @@ public class Directory extends FEntry {
 	public Directory(final Directory sourceDirectory) {
 		super(sourceDirectory);
 
-		for (final FEntry fEntry : sourceDirectory.fEntries) {
+		for (final FEntry fEntry : sourceDirectory.fEntries()) {
 			if (fEntry instanceof File) {
 				this.fEntries.add(new File((File) fEntry));
 			} else {
@@ -58,13 +95,40 @@ public class Directory extends FEntry {
 		}
 	}
 
+	/**
+	 * Copy Konstruktor, der anstelle der Unterdateien und -verzeichnisse des Quell-Objekts die gegebenen FEntries
+	 * übernimmt. Die FEntries werden dabei nicht kopiert, sodass nur die Metadaten des Verzeichnisses selbst kopiert
+	 * werden müssen.
+	 *
+	 * @param sourceDirectory Das Quell-Objekt.
+	 * @param fEntries        Die Unterdateien und -verzeichnisse, die das neue Directory enthalten soll.
+	 */
+	public Directory(final Directory sourceDirectory, final List<FEntry> fEntries) {
+		super(sourceDirectory);
+
+		this.fEntries.addAll(fEntries);
+	}
+
+	/**
+	 * Copy Konstruktor, der die Unterdateien und -verzeichnisse erst beim ersten Zugriff über den gegebenen Supplier
+	 * lädt. So müssen beim Abrufen eines Directories nicht bereits alle darunterliegenden FEntries erstellt werden.
+	 *
+	 * @param sourceDirectory  Das Quell-Objekt.
+	 * @param fEntriesSupplier Liefert beim ersten Zugriff die Unterdateien und -verzeichnisse des neuen Directories.
+	 */
+	public Directory(final Directory sourceDirectory, final Supplier<? extends List<FEntry>> fEntriesSupplier) {
+		super(sourceDirectory);
+
+		this.pendingFEntries = fEntriesSupplier;
+	}
+
 	/**
 	 * Liefert eine immutable List aller Unterdateien und -verzeichnisse.
 	 *
 	 * @return Eine immutable List aller Unterdateien und -verzeichnisse.
 	 */
 	public ImmutableList<FEntry> getFEntries() {
-		return ImmutableList.copyOf(fEntries);
+		return ImmutableList.copyOf(fEntries());
 	}
 
 	/**
@@ -82,7 +146,7 @@ public class Directory extends FEntry {
 		if (!fEntryExists(filename)) {
 			newFile = Optional.of(new File(getUserAPI(), filename, getUserAPI().getCurrentUser()));
 
-			fEntries.add(newFile.get());
+			fEntries().add(newFile.get());
 			addLogEntry(LogEntry.LogMessage.ADDED_FILE);
 			fireDirectoryNotification(FEntryNotification.ChangeType.ADDED_CHILDREN, newFile.get(), this);
 		}
@@ -105,7 +169,7 @@ public class Directory extends FEntry {
 		if (!fEntryExists(dirname)) {
 			newDir = Optional.of(new Directory(getUserAPI(), dirname, getUserAPI().getCurrentUser()));
 
-			fEntries.add(newDir.get());
+			fEntries().add(newDir.get());
 			addLogEntry(LogEntry.LogMessage.ADDED_DIRECTORY);
 			fireDirectoryNotification(FEntryNotification.ChangeType.ADDED_CHILDREN, newDir.get(), this);
 		}
@@ -121,7 +185,7 @@ public class Directory extends FEntry {
 	 * @param newFEntry Der hinzuzufügende FEntry.
 	 */
 	public void addFEntry(final FEntry newFEntry) {
-		fEntries.add(newFEntry);
+		fEntries().add(newFEntry);
 
 		if (newFEntry instanceof File) {
 			addLogEntry(LogEntry.LogMessage.ADDED_FILE);
@@ -132,6 +196,31 @@ public class Directory extends FEntry {
 		fireDirectoryNotification(FEntryNotification.ChangeType.ADDED_CHILDREN, newFEntry, this);
 	}
 
+	/**
+	 * Fügt dem Verzeichnis mehrere FEntries hinzu. Die Observer erhalten dabei nur eine gemeinsame Notification für alle
+	 * hinzugefügten FEntries.<br/>
+	 * Hinweis: Es werden keine Rechte überprüft! Diese hat der Aufrufer dieser Methode vorher zu überprüfen, falls
+	 * diese Methode auf eine Aktion des Nutzers hin aufgerufen wird und nicht aufgrund von Änderungen seitens der API.
+	 *
+	 * @param newFEntries Die hinzuzufügenden FEntries.
+	 */
+	public void addFEntries(final List<? extends FEntry> newFEntries) {
+		for (final FEntry newFEntry : newFEntries) {
+			fEntries().add(newFEntry);
+
+			if (newFEntry instanceof File) {
+				addLogEntry(LogEntry.LogMessage.ADDED_FILE);
+			} else if (newFEntry instanceof Directory) {
+				addLogEntry(LogEntry.LogMessage.ADDED_DIRECTORY);
+			}
+		}
+
+		if (!newFEntries.isEmpty()) {
+			fireDirectoryNotification(FEntryNotification.ChangeType.ADDED_CHILDREN,
+					ImmutableList.<FEntry>copyOf(newFEntries), this);
+		}
+	}
+
 	/**
 	 * Löscht den übergebenen FEntry aus dem Dateisystem. Handelt es sich um ein Verzeichnis, dann werden alle
 	 * Unterdateien dieses Verzeichnisses rekursiv gelöscht. Es werden die Observer aller gelöschten Objekte mit einer
@@ -161,6 +250,22 @@ public class Directory extends FEntry {
 		fireDirectoryNotification(FEntryNotification.ChangeType.REMOVE_CHILDREN, fEntry, this);
 	}
 
+	/**
+	 * Entfernt den übergebenen FEntry aus diesem Verzeichnis, ohne ihn oder seine Kinder zu löschen und ohne einen
+	 * LogEntry zu erstellen. Dient dazu Löschungen, die von der API gemeldet wurden, auf das Verzeichnis anzuwenden.
+	 * Die Observer des Verzeichnisses erhalten eine REMOVE_CHILDREN-Benachrichtigung mit der gegebenen Source, falls
+	 * der FEntry enthalten war.<br/>
+	 * Hinweis: Es werden keine Rechte überprüft!
+	 *
+	 * @param fEntry Der zu entfernende FEntry.
+	 * @param source Das Objekt, das als Source der Notification gesetzt werden soll.
+	 */
+	public void removeFEntry(final FEntry fEntry, final Object source) {
+		if (removeChild(fEntry)) {
+			fireDirectoryNotification(FEntryNotification.ChangeType.REMOVE_CHILDREN, fEntry, source);
+		}
+	}
+
 	/**
 	 * Feuert eine DirectoryNotification auf den registrierten DirectoryObservern. Etwaige reine
 	 * FEntryObserver erhalten keine Benachrichtigung. Die Notifikation enthält unter anderem das Directory, dem FEntries
@@ -173,19 +278,43 @@ public class Directory extends FEntry {
 	 */
 	public void fireDirectoryNotification(final FEntryNotification.ChangeType reason,
 										  final FEntry affectedChild, final Object source) {
-		final ImmutableList<FEntry> addedFEntries = ImmutableList.of(affectedChild);
+		fireDirectoryNotification(reason, ImmutableList.of(affectedChild), source);
+	}
 
+	/**
+	 * Feuert eine DirectoryNotification für mehrere hinzugefügte bzw. entfernte FEntries auf den registrierten
+	 * DirectoryObservern.
+	 *
+	 * @param reason           Die Art der Änderung - entweder REMOVE_CHILDREN oder ADDED_CHILDREN.
+	 * @param affectedChildren Die hinzugefügten/entfernten FEntries.
+	 * @param source           Das Objekt, das die Änderung ausgelöst hat - im Zweifel das Directory selbst setzen.
+	 */
+	public void fireDirectoryNotification(final FEntryNotification.ChangeType reason,
+										  final ImmutableList<FEntry> affectedChildren, final Object source) {
 		final ImmutableList<FEntryObserver> observers = ImmutableList.copyOf(this.observers);
 		for (final FEntryObserver observer : observers) {
 			if (observer instanceof DirectoryObserver) {
-				((DirectoryObserver) observer).directoryNotification(new DirectoryNotification(this, reason, source, addedFEntries));
+				((DirectoryObserver) observer).directoryNotification(new DirectoryNotification(this, reason, source, affectedChildren));
 			}
 		}
 	}
 
+	/**
+	 * Liefert die Unterdateien und -verzeichnisse und lädt sie dazu beim ersten Zugriff, falls nötig.
+	 *
+	 * @return Die veränderbare Liste der Unterdateien und -verzeichnisse.
+	 */
+	private List<FEntry> fEntries() {
+		if (pendingFEntries != null) {
+			fEntries.addAll(pendingFEntries.get());
+			pendingFEntries = null;
+		}
+		return fEntries;
+	}
+
 	private Boolean fEntryExists(final String fileName) {
 		boolean exists = false;
-		for (final FEntry fEntry : fEntries) {
+		for (final FEntry fEntry : fEntries()) {
 			if (fEntry.getName().equals(fileName)) {
 				exists = true;
 			}
@@ -198,44 +327,46 @@ public class Directory extends FEntry {
 		super.applyChanges(updatedFEntry, source);
 
 		final Directory updatedDirectory = (Directory) updatedFEntry;
+		final Set<Long> currentIdentifiers = identifiersOfChildren(this);
+		final Set<Long> updatedIdentifiers = identifiersOfChildren(updatedDirectory);
 
 		final List<FEntry> addedChildren = new ArrayList<FEntry>();
 		for (final FEntry childOfUpdatedDir : updatedDirectory.getFEntries()) {
-			if (!directoryContainsFEntry(this, childOfUpdatedDir)) {
+			if (!currentIdentifiers.contains(childOfUpdatedDir.getIdentifier())) {
 				addedChildren.add(childOfUpdatedDir);
 			}
 		}
-		for (final FEntry addedChild : addedChildren) {
-			fEntries.add(addedChild);
-			fireDirectoryNotification(FEntryNotification.ChangeType.ADDED_CHILDREN, addedChild, source);
-		}
 
 		final List<FEntry> removedChildren = new ArrayList<FEntry>();
 		for (final FEntry childOfCurrentDir : this.getFEntries()) {
-			if (!directoryContainsFEntry(updatedDirectory, childOfCurrentDir)) {
+			if (!updatedIdentifiers.contains(childOfCurrentDir.getIdentifier())) {
 				removedChildren.add(childOfCurrentDir);
 			}
 		}
+
+		for (final FEntry addedChild : addedChildren) {
+			fEntries().add(addedChild);
+			fireDirectoryNotification(FEntryNotification.ChangeType.ADDED_CHILDREN, addedChild, source);
+		}
 		for (final FEntry removedChild : removedChildren) {
 			removeChild(removedChild);
 			fireDirectoryNotification(FEntryNotification.ChangeType.REMOVE_CHILDREN, removedChild, source);
 		}
 	}
 
-	private Boolean directoryContainsFEntry(final Directory directory, final FEntry containedFEntry) {
-		Boolean found = false;
-		for (final FEntry fEntry : directory.getFEntries()) {
-			if (fEntry.getIdentifier().equals(containedFEntry.getIdentifier())) {
-				found = true;
-				break;
+	private Set<Long> identifiersOfChildren(final Directory directory) {
+		final Set<Long> identifiers = new HashSet<Long>();
+		for (final FEntry fEntry : directory.fEntries()) {
+			if (fEntry.getIdentifier() != null) {
+				identifiers.add(fEntry.getIdentifier());
 			}
 		}
-		return found;
+		return identifiers;
 	}
 
-	private void removeChild(final FEntry removedChild) {
+	private boolean removeChild(final FEntry removedChild) {
 		FEntry foundFEntry = null;
-		for (final FEntry fEntry : fEntries) {
+		for (final FEntry fEntry : fEntries()) {
 			if ((removedChild.getIdentifier() != null && fEntry.getIdentifier() != null &&
 					fEntry.getIdentifier().equals(removedChild.getIdentifier())) ||
 					fEntry.equals(removedChild)) {
@@ -244,7 +375,8 @@ public class Directory extends FEntry {
 			}
 		}
 		if (foundFEntry != null) {
-			fEntries.remove(foundFEntry);
+			fEntries().remove(foundFEntry);
 		}
+		return foundFEntry != null;
 	}
 }
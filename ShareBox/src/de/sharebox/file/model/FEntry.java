@@ -50,6 +50,44 @@ public class FEntry {
 		addLogEntry(LogEntry.LogMessage.CREATED);
 	}
 
+	/**
+	 * Erstellt einen FEntry mit den gegebenen, bereits bekannten Werten, wie es z.B. beim Wiederherstellen gespeicherter
+	 * FEntries nötig ist. Es werden dabei weder Notifications gefeuert noch LogEntries erstellt. Die Rechte der
+	 * gegebenen Permissions werden in neue Permission-Objekte für diesen FEntry übernommen.
+	 *
+	 * @param userAPI     Die aktuell für diesen FEntry relevante UserAPI.
+	 * @param identifier  Die eindeutige ID des FEntries.
+	 * @param name        Der Name des FEntries.
+	 * @param permissions Die Rechte der Nutzer an diesem FEntry.
+	 * @param logEntries  Die LogEntries des FEntries.
+	 */
+	public FEntry(final UserAPI userAPI, final Long identifier, final String name,
+				  final List<Permission> permissions, final List<LogEntry> logEntries) {
+		this.userAPI = userAPI;
+		this.identifier = identifier;
+		this.name = name;
+
+		for (final Permission permission : permissions) {
+			this.permissions.add(new Permission(permission.getUser(), this, permission.getReadAllowed(),
+					permission.getWriteAllowed(), permission.getManageAllowed()));
+		}
+		this.logEntries.addAll(logEntries);
+	}
+
+	/**
+	 * Erstellt einen FEntry mit der UserAPI und der ID des gegebenen FEntries, aber den gegebenen Werten. Es werden dabei
+	 * weder Notifications gefeuert noch LogEntries erstellt. Die LogEntries werden nicht kopiert.
+	 *
+	 * @param sourceFEntry Der FEntry, dessen UserAPI und ID übernommen werden.
+	 * @param name         Der Name des FEntries.
+	 * @param permissions  Die Rechte der Nutzer an diesem FEntry.
+	 * @param logEntries   Die LogEntries des FEntries.
+	 */
+	public FEntry(final FEntry sourceFEntry, final String name,
+				  final List<Permission> permissions, final List<LogEntry> logEntries) {
+		this(sourceFEntry.getUserAPI(), sourceFEntry.getIdentifier(), name, permissions, logEntries);
+	}
+
 	/**
 	 * Der Copy-Konstruktor. Permissions und LogEntries werden ebenfalls mit dem Copy-Konstruktor kopiert.
 	 * Observer werden nicht übertragen.
@@ -1,12 +1,22 @@
 package de.sharebox.file.model;
 
+import com.google.common.collect.ImmutableList;
 import de.sharebox.api.UserAPI;
+import de.sharebox.file.notification.FEntryNotification;
 import de.sharebox.user.model.User;
 
+import java.util.List;
+
 /**
- * Diese Klasse repräsentiert eine Datei, die von der Sharebox verwaltet und mit dem Server synchronisiert wird.
+ * Diese Klasse repräsentiert eine Datei, die von der Sharebox verwaltet und mit dem Server synchronisiert wird.<br/>
+ * Der Inhalt der Datei wird nicht im File selbst gehalten, sondern als geordnete Liste der SHA-256-Hashes der Chunks,
+ * aus denen er im Chunk-Speicher der FileAPI besteht. Kopien eines Files verweisen so auf dieselben Chunks. Die Größe
+ * des Inhalts wird zusätzlich gespeichert, damit sie ohne Zugriff auf die Chunks (z.B. für die Abrechnung des
+ * belegten Speichers) bekannt ist.
  */
 public class File extends FEntry {
+	private ImmutableList<String> chunkHashes = ImmutableList.of();
+	private long size = 0;
 
 	/**
 	 * Der Standard-Konstruktor.
@@ -32,12 +42,113 @@ public class File extends FEntry {
 	}
 
 	/**
-	 * Copy Konstruktor
+	 * Erstellt ein File mit den gegebenen, bereits bekannten Werten, z.B. beim Wiederherstellen gespeicherter Files.
+	 * Es werden dabei weder Notifications gefeuert noch LogEntries erstellt.
+	 *
+	 * @param userAPI     Die aktuell für dieses File relevante UserAPI.
+	 * @param identifier  Die eindeutige ID des Files.
+	 * @param name        Der Name des Files.
+	 * @param permissions Die Rechte der Nutzer an diesem File.
+	 * @param logEntries  Die LogEntries des Files.
+	 */
+	public File(final UserAPI userAPI, final Long identifier, final String name,
+				final List<Permission> permissions, final List<LogEntry> logEntries) {
+		this(userAPI, identifier, name, permissions, logEntries, ImmutableList.<String>of(), 0);
+	}
+
+	/**
+	 * Erstellt ein File mit den gegebenen, bereits bekannten Werten und Inhalt, z.B. beim Wiederherstellen gespeicherter
+	 * Files. Es werden dabei weder Notifications gefeuert noch LogEntries erstellt.
+	 *
+	 * @param userAPI     Die aktuell für dieses File relevante UserAPI.
+	 * @param identifier  Die eindeutige ID des Files.
+	 * @param name        Der Name des Files.
+	 * @param permissions Die Rechte der Nutzer an diesem File.
+	 * @param logEntries  Die LogEntries des Files.
+	 * @param chunkHashes Die Hashes der Chunks des Inhalts.
+	 * @param size        Die Größe des Inhalts in Bytes.
+	 */
+	public File(final UserAPI userAPI, final Long identifier, final String name, final List<Permission> permissions,
+				final List<LogEntry> logEntries, final List<String> chunkHashes, final long size) {
+		super(userAPI, identifier, name, permissions, logEntries);
+		this.chunkHashes = ImmutableList.copyOf(chunkHashes);
+		this.size = size;
+	}
+
+	/**
+	 * Erstellt ein File mit der UserAPI und der ID des gegebenen Files, aber den gegebenen Werten. Es werden dabei weder
+	 * Notifications gefeuert noch LogEntries erstellt.
+	 *
+	 * @param sourceFile  Das File, dessen UserAPI und ID übernommen werden.
+	 * @param name        Der Name des Files.
+	 * @param permissions Die Rechte der Nutzer an diesem File.
+	 * @param logEntries  Die LogEntries des Files.
+	 * @param chunkHashes Die Hashes der Chunks des Inhalts.
+	 * @param size        Die Größe des Inhalts in Bytes.
+	 */
+	public File(final File sourceFile, final String name, final List<Permission> permissions,
+				final List<LogEntry> logEntries, final List<String> chunkHashes, final long size) {
+		super(sourceFile, name, permissions, logEntries);
+		this.chunkHashes = ImmutableList.copyOf(chunkHashes);
+		this.size = size;
+	}
+
+	/**
+	 * Copy Konstruktor. Der Inhalt wird dabei nicht kopiert, sondern beide Files verweisen auf dieselben Chunks.
 	 *
 	 * @param sourceFile Das Quell-Objekt.
 	 */
 	public File(final File sourceFile) {
 		super(sourceFile);
+		this.chunkHashes = sourceFile.chunkHashes;
+		this.size = sourceFile.size;
+	}
+
+	/**
+	 * Liefert die Hashes der Chunks, aus denen der Inhalt dieses Files besteht, in ihrer Reihenfolge im Inhalt.
+	 *
+	 * @return Die Hashes der Chunks des Inhalts.
+	 */
+	public ImmutableList<String> getChunkHashes() {
+		return chunkHashes;
+	}
+
+	/**
+	 * Liefert die Größe des Inhalts dieses Files.
+	 *
+	 * @return Die Größe des Inhalts in Bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Setzt den Inhalt des Files auf die gegebenen, bereits im Chunk-Speicher abgelegten Chunks (siehe
+	 * FileAPI.uploadContent) und benachrichtigt alle Observer über die Änderung.<br/>
+	 * Hinweis: Es werden keine Rechte überprüft! Diese hat der Aufrufer dieser Methode vorher zu überprüfen, falls
+	 * diese Methode auf eine Aktion des Nutzers hin aufgerufen wird und nicht aufgrund von Änderungen seitens der API.
+	 *
+	 * @param chunkHashes Die Hashes der Chunks des neuen Inhalts.
+	 * @param size        Die Größe des neuen Inhalts in Bytes.
+	 */
+	public void setContent(final List<String> chunkHashes, final long size) {
+		this.chunkHashes = ImmutableList.copyOf(chunkHashes);
+		this.size = size;
+		addLogEntry(LogEntry.LogMessage.CHANGED);
+		fireNotification(FEntryNotification.ChangeType.CONTENT_CHANGED, this);
+	}
+
+	@Override
+	public void applyChanges(final FEntry updatedFEntry, final Object source) {
+		super.applyChanges(updatedFEntry, source);
+
+		final ImmutableList<String> updatedChunkHashes = ((File) updatedFEntry).getChunkHashes();
+		final long updatedSize = ((File) updatedFEntry).getSize();
+		if (!chunkHashes.equals(updatedChunkHashes) || size != updatedSize) {
+			chunkHashes = updatedChunkHashes;
+			size = updatedSize;
+			fireNotification(FEntryNotification.ChangeType.CONTENT_CHANGED, source);
+		}
 	}
 
 }
@@ -42,6 +42,18 @@ public class LogEntry {
 		this.date = new Date();
 	}
 
+	/**
+	 * Erstellt einen LogEntry mit der gegebenen Message und dem gegebenen Zeitpunkt, z.B. beim Wiederherstellen
+	 * gespeicherter LogEntries.
+	 *
+	 * @param message Die Meldung des LogEntries.
+	 * @param date    Der Zeitpunkt, an dem der LogEntry ursprünglich erstellt wurde.
+	 */
+	public LogEntry(final LogMessage message, final Date date) {
+		this.message = message;
+		this.date = (Date) date.clone();
+	}
+
 	/**
 	 * Der Copy-Konstruktor.
 	 *
@@ -15,6 +15,7 @@ public class FEntryNotification {
 	public static enum ChangeType {
 		NAME_CHANGED,
 		PERMISSION_CHANGED,
+		CONTENT_CHANGED,
 		ADDED_CHILDREN,
 		REMOVE_CHILDREN,
 		DELETED
@@ -59,18 +59,15 @@ public class DirectoryViewClipboardService {
 	}
 
 	/**
-	 * Fügt den Inhalt der Zwischenablage in das gegebene Verzeichnis ein.
+	 * Fügt den Inhalt der Zwischenablage in das gegebene Verzeichnis ein. Alle FEntries werden dabei gemeinsam
+	 * eingefügt, sodass sie auch gemeinsam an die FileAPI gemeldet werden.
 	 *
 	 * @param targetDirectory Das Verzeichnis in das die Inhalte eingefügt werden sollen.
 	 * @return Das Verzeichnis nach dem Einfügen.
 	 */
 	public Directory pasteClipboardContent(final Directory targetDirectory) {
 		if (targetDirectory.getPermissionOfCurrentUser().getWriteAllowed()) {
-			if (!clipboard.isEmpty()) {
-				for (final FEntry pasteFEntry : clipboard) {
-					targetDirectory.addFEntry(pasteFEntry);
-				}
-			}
+			targetDirectory.addFEntries(clipboard);
 		} else {
 			optionPane.showMessageDialog("Sie besitzen für das Zielverzeichnis leider nicht die nötigen Rechte.");
 		}
@@ -1,6 +1,7 @@
 package de.sharebox.user.controller;
 
 import com.google.inject.Inject;
+import de.sharebox.api.FileAPI;
 import de.sharebox.api.UserAPI;
 import de.sharebox.helpers.OptionPaneHelper;
 import de.sharebox.helpers.SwingEngineHelper;
@@ -16,13 +17,17 @@ import static com.google.common.base.Strings.isNullOrEmpty;
  * Dieser Controller ist verantwortlich für das Fenster, in dem der Nutzer seine Rechnungsdaten ändern kann.
  */
 public class AccountingController {
+	private static final double BYTES_PER_GB = 1024 * 1024 * 1024;
+
 	private final OptionPaneHelper optionPane;
 	private final UserAPI userAPI;
+	private final FileAPI fileAPI;
 
 	private int oldStorageLimitIndex;
 
 	private JFrame frame;
 	protected JComboBox<StorageLimit> storageLimitField;
+	protected JLabel storageUsageLabel;
 	protected JTextField streetField;
 	protected JTextField additiveField;
 	protected JTextField codeField;
@@ -35,17 +40,20 @@ public class AccountingController {
 	 *
 	 * @param optionPaneHelper Ein OptionPaneHelper zum Anzeigen von Dialog-Fenstern.
 	 * @param userAPI          Die UserAPI zur Kommunikation mit dem Server.
+	 * @param fileAPI          Die FileAPI, von der der belegte Speicher abgefragt wird.
 	 */
 	@Inject
 	AccountingController(final OptionPaneHelper optionPaneHelper,
-						 final UserAPI userAPI) {
+						 final UserAPI userAPI,
+						 final FileAPI fileAPI) {
 		this.optionPane = optionPaneHelper;
 		this.userAPI = userAPI;
+		this.fileAPI = fileAPI;
 	}
 
 	/**
 	 * Öffnen des Fensters für die Accountbearbeitung. Hierbei werden die Textfelder mit den möglicherweise
-	 * bereits bekannten Informationen vorausgefüllt.
+	 * bereits bekannten Informationen vorausgefüllt und der aktuell belegte Speicher angezeigt.
 	 */
 	public void show() {
 		frame = (JFrame) new SwingEngineHelper().render(this, "user/editAccounting");
@@ -67,12 +75,20 @@ public class AccountingController {
 		codeField.setText(addressInfo.getZipCode());
 		locationField.setText(addressInfo.getCity());
 		countryField.setText(addressInfo.getCountry());
+
+		final long storageUsage = fileAPI.getStorageUsage(user);
+		String usageText = String.format("%.2f GB", storageUsage / BYTES_PER_GB);
+		if (user.getStorageLimit() != null) {
+			usageText += " von " + user.getStorageLimit();
+		}
+		storageUsageLabel.setText(usageText);
 	}
 
 	/**
 	 * Speichert die Änderungen der Account-Informationen. Wählt man ein Speicherlimit von mehr als 5GB, also mehr als
 	 * den kostenlosen Speicher, so MUSS man zwingend Addressinformationen für die Rechnung angeben und wird danach an
-	 * das externe Abrechnungssystem weitergeleitet. Dieses ist in diesem Prototypen nicht eingebunden.
+	 * das externe Abrechnungssystem weitergeleitet. Dieses ist in diesem Prototypen nicht eingebunden. Ein Speicherlimit
+	 * unterhalb des bereits belegten Speichers kann nicht gewählt werden.
 	 * <br/>
 	 * Diese Methode wird per SWIxml an das GUI Element gebunden.
 	 */
@@ -89,7 +105,9 @@ public class AccountingController {
 		user.setAddressInfo(addressInfo);
 		user.setStorageLimit((StorageLimit) storageLimitField.getSelectedItem());
 
-		if (!storageLimitField.getSelectedItem().equals(StorageLimit.GB_5) &&
+		if (fileAPI.getStorageUsage(userAPI.getCurrentUser()) > user.getStorageLimit().getBytes()) {
+			optionPane.showMessageDialog("Ihre Dateien belegen bereits mehr Speicher als das gewählte Speicherlimit!");
+		} else if (!storageLimitField.getSelectedItem().equals(StorageLimit.GB_5) &&
 				(isNullOrEmpty(addressInfo.getStreet()) || isNullOrEmpty(addressInfo.getCity()) ||
 						isNullOrEmpty(addressInfo.getZipCode()) || isNullOrEmpty(addressInfo.getCountry()))) {
 			optionPane.showMessageDialog("Sie müssen erst die Zahlungsinformationen angeben, bevor sie ihre " +
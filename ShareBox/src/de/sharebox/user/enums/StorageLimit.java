@@ -4,12 +4,25 @@ package de.sharebox.user.enums;
  * Die ist das Enum-Objekt für die (kaufbaren) Speichergrößen von Sharebox.
  */
 public enum StorageLimit {
-	GB_5("5 GB"), GB_10("10 GB"), GB_20("20 GB"), GB_50("50 GB"), GB_100("100 GB");
+	GB_5("5 GB", 5), GB_10("10 GB", 10), GB_20("20 GB", 20), GB_50("50 GB", 50), GB_100("100 GB", 100);
+
+	private static final long BYTES_PER_GB = 1024L * 1024L * 1024L;
 
 	private final String text;
+	private final long bytes;
 
-	private StorageLimit(final String text) {
+	private StorageLimit(final String text, final long gigabytes) {
 		this.text = text;
+		this.bytes = gigabytes * BYTES_PER_GB;
+	}
+
+	/**
+	 * Liefert die Speichergröße in Bytes.
+	 *
+	 * @return Die Anzahl an Bytes, die ein Nutzer mit diesem Speicherlimit belegen darf.
+	 */
+	public long getBytes() {
+		return bytes;
 	}
 
 	@Override
@@ -0,0 +1,73 @@
+package de.sharebox.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.sharebox.file.model.FEntry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChangePollsTest {
+	private ChangePolls changePolls;
+
+	@Mock
+	private FileAPI fileAPI;
+
+	@Before
+	public void setUp() {
+		when(fileAPI.getChangesSince(3L, 10)).thenReturn(changeSet(3L));
+
+		changePolls = new ChangePolls(fileAPI);
+	}
+
+	@Test
+	public void existingChangesAreReturnedImmediately() {
+		when(fileAPI.getChangesSince(3L, 10)).thenReturn(changeSet(5L));
+
+		final ListenableFuture<ChangeSet> result = changePolls.poll(3L, 10, 60000);
+
+		assertThat(result.isDone()).isTrue();
+		assertThat(changePolls.getWaitingPollCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void waitingPollsAreAnsweredWhenChangesArePublished()
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final ListenableFuture<ChangeSet> result = changePolls.poll(3L, 10, 60000);
+		final ListenableFuture<ChangeSet> otherResult = changePolls.poll(3L, 10, 60000);
+		assertThat(result.isDone()).isFalse();
+		assertThat(changePolls.getWaitingPollCount()).isEqualTo(2);
+
+		when(fileAPI.getChangesSince(3L, 10)).thenReturn(changeSet(4L));
+		changePolls.changesPublished();
+
+		assertThat(result.get(5, TimeUnit.SECONDS).getCursor()).isEqualTo(4L);
+		assertThat(otherResult.get(5, TimeUnit.SECONDS).getCursor()).isEqualTo(4L);
+		assertThat(changePolls.getWaitingPollCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void waitingPollsTimeOutWithoutChanges()
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final ListenableFuture<ChangeSet> result = changePolls.poll(3L, 10, 50);
+
+		final ChangeSet changeSet = result.get(5, TimeUnit.SECONDS);
+		assertThat(changeSet.getCursor()).isEqualTo(3L);
+		assertThat(changeSet.getChangedFEntries()).isEmpty();
+		assertThat(changePolls.getWaitingPollCount()).isEqualTo(0);
+	}
+
+	private static ChangeSet changeSet(final long cursor) {
+		return new ChangeSet(ImmutableList.<FEntry>of(), ImmutableList.<Tombstone>of(), cursor, false);
+	}
+}
@@ -0,0 +1,120 @@
+package de.sharebox.api;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import de.sharebox.file.model.FEntry;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ChangeQueryCacheTest {
+	private final AtomicInteger computations = new AtomicInteger(0);
+
+	private final Supplier<ChangeSet> computation = new Supplier<ChangeSet>() {
+		@Override
+		public ChangeSet get() {
+			return changeSet(computations.incrementAndGet());
+		}
+	};
+
+	@Test
+	public void identicalQueriesAreComputedOnce() {
+		final ChangeQueryCache<ChangeSet> cache = new ChangeQueryCache<ChangeSet>();
+
+		final ChangeSet first = cache.get(3L, 10, 7L, computation);
+		final ChangeSet second = cache.get(3L, 10, 7L, computation);
+
+		assertThat(second).isSameAs(first);
+		assertThat(computations.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void queriesAfterNewChangesAreComputedAgain() {
+		final ChangeQueryCache<ChangeSet> cache = new ChangeQueryCache<ChangeSet>();
+
+		cache.get(3L, 10, 7L, computation);
+		cache.get(3L, 10, 8L, computation);
+		cache.get(4L, 10, 8L, computation);
+		cache.get(4L, 20, 8L, computation);
+
+		assertThat(computations.get()).isEqualTo(4);
+	}
+
+	@Test
+	public void expiredQueriesAreComputedAgain() {
+		final ChangeQueryCache<ChangeSet> cache = new ChangeQueryCache<ChangeSet>(0);
+
+		cache.get(3L, 10, 7L, computation);
+		cache.get(3L, 10, 7L, computation);
+
+		assertThat(computations.get()).isEqualTo(2);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void concurrentQueriesShareOneComputation() throws InterruptedException {
+		final ChangeQueryCache<ChangeSet> cache = new ChangeQueryCache<ChangeSet>();
+		final CountDownLatch computationStarted = new CountDownLatch(1);
+		final CountDownLatch computationReleased = new CountDownLatch(1);
+		final AtomicReference<ChangeSet> waitingResult = new AtomicReference<ChangeSet>();
+
+		final Thread computingThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				cache.get(3L, 10, 7L, new Supplier<ChangeSet>() {
+					@Override
+					public ChangeSet get() {
+						computationStarted.countDown();
+						try {
+							computationReleased.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException exception) {
+							Thread.currentThread().interrupt();
+						}
+						return computation.get();
+					}
+				});
+			}
+		});
+		final Thread waitingThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				waitingResult.set(cache.get(3L, 10, 7L, computation));
+			}
+		});
+
+		computingThread.start();
+		assertThat(computationStarted.await(5, TimeUnit.SECONDS)).isTrue();
+		waitingThread.start();
+		Thread.sleep(50);
+		computationReleased.countDown();
+		computingThread.join(5000);
+		waitingThread.join(5000);
+
+		assertThat(computations.get()).isEqualTo(1);
+		assertThat(waitingResult.get().getCursor()).isEqualTo(1L);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void failedComputationsAreNotCached() {
+		final ChangeQueryCache<ChangeSet> cache = new ChangeQueryCache<ChangeSet>();
+		try {
+			cache.get(3L, 10, 7L, new Supplier<ChangeSet>() {
+				@Override
+				public ChangeSet get() {
+					throw new IllegalStateException("failed");
+				}
+			});
+		} finally {
+			assertThat(cache.size()).isEqualTo(0);
+		}
+	}
+
+	private static ChangeSet changeSet(final long cursor) {
+		return new ChangeSet(ImmutableList.<FEntry>of(), ImmutableList.<Tombstone>of(), cursor, false);
+	}
+}
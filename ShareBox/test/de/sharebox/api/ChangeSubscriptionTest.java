@@ -0,0 +1,95 @@
+package de.sharebox.api;
+
+import com.google.common.collect.ImmutableList;
+import de.sharebox.file.model.FEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChangeSubscriptionTest {
+	private final BlockingQueue<ChangeSet> deliveredChanges = new LinkedBlockingQueue<ChangeSet>();
+	private ChangeSubscription subscription;
+
+	@Mock
+	private FileAPI fileAPI;
+
+	@Before
+	public void setUp() {
+		when(fileAPI.getChangesSince(0L, ChangeSubscription.CHANGES_PER_CATCH_UP)).thenReturn(changeSet(0L));
+
+		subscription = new ChangeSubscription(fileAPI, 0L, new ChangeListener() {
+			@Override
+			public void changesCommitted(final ChangeSet changeSet) {
+				deliveredChanges.add(changeSet);
+			}
+		}, 2);
+	}
+
+	@After
+	public void tearDown() {
+		subscription.cancel();
+	}
+
+	@Test
+	public void deliversPublishedChangesInOrder() throws InterruptedException {
+		subscription.start();
+		subscription.publish(0L, changeSet(1L));
+		subscription.publish(1L, changeSet(3L));
+
+		assertThat(deliveredChanges.poll(5, TimeUnit.SECONDS).getCursor()).isEqualTo(1L);
+		assertThat(deliveredChanges.poll(5, TimeUnit.SECONDS).getCursor()).isEqualTo(3L);
+
+		subscription.publish(3L, changeSet(4L));
+		assertThat(deliveredChanges.poll(5, TimeUnit.SECONDS).getCursor()).isEqualTo(4L);
+		verify(fileAPI, times(1)).getChangesSince(0L, ChangeSubscription.CHANGES_PER_CATCH_UP);
+	}
+
+	@Test
+	public void missedChangesAreFetchedFromTheAPI() throws InterruptedException {
+		when(fileAPI.getChangesSince(0L, ChangeSubscription.CHANGES_PER_CATCH_UP)).thenReturn(changeSet(0L), changeSet(5L));
+
+		subscription.start();
+		subscription.publish(4L, changeSet(5L));
+		subscription.publish(5L, changeSet(6L));
+
+		assertThat(deliveredChanges.poll(5, TimeUnit.SECONDS).getCursor()).isEqualTo(5L);
+		assertThat(deliveredChanges.poll(5, TimeUnit.SECONDS).getCursor()).isEqualTo(6L);
+	}
+
+	@Test
+	public void changesArePublishedWithoutBlockingWhenTheQueueIsFull() throws InterruptedException {
+		when(fileAPI.getChangesSince(0L, ChangeSubscription.CHANGES_PER_CATCH_UP)).thenReturn(changeSet(3L));
+
+		subscription.publish(0L, changeSet(1L));
+		subscription.publish(1L, changeSet(2L));
+		subscription.publish(2L, changeSet(3L));
+		subscription.start();
+
+		assertThat(deliveredChanges.poll(5, TimeUnit.SECONDS).getCursor()).isEqualTo(3L);
+		assertThat(deliveredChanges.poll(200, TimeUnit.MILLISECONDS)).isNull();
+	}
+
+	@Test
+	public void cancelledSubscriptionsAreRemovedFromTheAPI() {
+		subscription.cancel();
+
+		verify(fileAPI).unsubscribe(subscription);
+	}
+
+	private static ChangeSet changeSet(final long cursor) {
+		return new ChangeSet(ImmutableList.<FEntry>of(), ImmutableList.<Tombstone>of(), cursor, false);
+	}
+}
@@ -0,0 +1,232 @@
+package de.sharebox.api;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ChunkStoreTest {
+	private static final byte[] DATA = "first chunksecond chunk".getBytes();
+
+	private ChunkStore chunkStore;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		chunkStore = new ChunkStore();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		chunkStore.close();
+	}
+
+	@Test
+	public void identicalChunksAreStoredOnlyOnce() throws IOException {
+		final String firstHash = chunkStore.put(DATA, 0, 11);
+		final String secondHash = chunkStore.put("first chunk".getBytes(), 0, 11);
+
+		assertThat(secondHash).isEqualTo(firstHash);
+		assertThat(firstHash).hasSize(64);
+		assertThat(firstHash).isEqualTo(ChunkStore.hashOf(DATA, 0, 11));
+		assertThat(chunkStore.getChunkCount()).isEqualTo(1);
+		assertThat(chunkStore.getStoredBytes()).isEqualTo(11);
+	}
+
+	@Test
+	public void readsChunksInTheGivenOrder() throws IOException {
+		final String firstHash = chunkStore.put(DATA, 0, 11);
+		final String secondHash = chunkStore.put(DATA, 11, 12);
+
+		assertThat(new String(chunkStore.read(ImmutableList.of(firstHash, secondHash)).get())).isEqualTo("first chunksecond chunk");
+		assertThat(new String(chunkStore.read(ImmutableList.of(secondHash, firstHash)).get())).isEqualTo("second chunkfirst chunk");
+	}
+
+	@Test
+	public void readingAMissingChunkFails() throws IOException {
+		final String hash = chunkStore.put(DATA, 0, 11);
+
+		assertThat(chunkStore.read(ImmutableList.of(hash, "unknown")).isPresent()).isFalse();
+	}
+
+	@Test
+	public void transfersChunksToAChannel() throws IOException {
+		final String firstHash = chunkStore.put(DATA, 0, 11);
+		final String secondHash = chunkStore.put(DATA, 11, 12);
+
+		final ByteArrayOutputStream target = new ByteArrayOutputStream();
+		assertThat(chunkStore.transferTo(ImmutableList.of(secondHash, firstHash), Channels.newChannel(target))).isTrue();
+		assertThat(new String(target.toByteArray())).isEqualTo("second chunkfirst chunk");
+
+		assertThat(chunkStore.transferTo(ImmutableList.of(firstHash, "unknown"), Channels.newChannel(target))).isFalse();
+	}
+
+	@Test
+	public void readsRangesAcrossChunkBoundaries() throws IOException {
+		final ImmutableList<String> hashes = ImmutableList.of(chunkStore.put(DATA, 0, 11), chunkStore.put(DATA, 11, 12));
+		final long[] chunkOffsets = chunkStore.chunkOffsets(hashes).get();
+
+		assertThat(chunkOffsets).isEqualTo(new long[]{0, 11, 23});
+		assertThat(new String(chunkStore.readRange(hashes, chunkOffsets, 6, 11).get())).isEqualTo("chunksecond");
+		assertThat(new String(chunkStore.readRange(hashes, chunkOffsets, 11, 6).get())).isEqualTo("second");
+		assertThat(new String(chunkStore.readRange(hashes, chunkOffsets, 18, 100).get())).isEqualTo("chunk");
+		assertThat(chunkStore.readRange(hashes, chunkOffsets, 50, 10).get()).isEmpty();
+		assertThat(chunkStore.getMappedSegmentCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void rangesOfAppendedChunksCanBeReadAfterMapping() throws IOException {
+		final ImmutableList<String> firstHashes = ImmutableList.of(chunkStore.put(DATA, 0, 11));
+		chunkStore.readRange(firstHashes, chunkStore.chunkOffsets(firstHashes).get(), 0, 11);
+
+		final ImmutableList<String> secondHashes = ImmutableList.of(chunkStore.put(DATA, 11, 12));
+		final byte[] range = chunkStore.readRange(secondHashes, chunkStore.chunkOffsets(secondHashes).get(), 0, 12).get();
+
+		assertThat(new String(range)).isEqualTo("second chunk");
+	}
+
+	@Test
+	public void compressibleChunksAreStoredCompressed() throws IOException {
+		final byte[] text = Strings.repeat("compressible text ", 1000).getBytes();
+		final ImmutableList<String> hashes = ImmutableList.of(chunkStore.put(text, 0, text.length));
+
+		assertThat(chunkStore.getStoredBytes()).isLessThan(text.length / 2);
+		assertThat(chunkStore.read(hashes).get()).isEqualTo(text);
+		assertThat(new String(chunkStore.readRange(hashes, chunkStore.chunkOffsets(hashes).get(), 18, 12).get()))
+				.isEqualTo("compressible");
+
+		final ByteArrayOutputStream target = new ByteArrayOutputStream();
+		assertThat(chunkStore.transferTo(hashes, Channels.newChannel(target))).isTrue();
+		assertThat(target.toByteArray()).isEqualTo(text);
+	}
+
+	@Test
+	public void incompressibleChunksAreStoredUnchanged() throws IOException {
+		final byte[] randomData = new byte[4096];
+		new Random(11).nextBytes(randomData);
+		final String hash = chunkStore.put(randomData, 0, randomData.length);
+
+		assertThat(chunkStore.getStoredBytes()).isEqualTo(randomData.length);
+		assertThat(chunkStore.read(ImmutableList.of(hash)).get()).isEqualTo(randomData);
+	}
+
+	@Test
+	public void onlyExpiredUnreferencedChunksAreRemoved() throws IOException {
+		final String referencedHash = chunkStore.put(DATA, 0, 11);
+		final String unreferencedHash = chunkStore.put(DATA, 11, 12);
+		chunkStore.retain(ImmutableList.of(referencedHash, referencedHash));
+		chunkStore.release(ImmutableList.of(referencedHash));
+
+		final long now = System.currentTimeMillis();
+		assertThat(chunkStore.removeUnreferencedChunks(now)).isEqualTo(0);
+		assertThat(chunkStore.removeUnreferencedChunks(now + ChunkStore.UNREFERENCED_CHUNK_EXPIRY + 1)).isEqualTo(1);
+
+		assertThat(chunkStore.contains(referencedHash)).isTrue();
+		assertThat(chunkStore.contains(unreferencedHash)).isFalse();
+		assertThat(chunkStore.getStoredBytes()).isEqualTo(11);
+	}
+
+	@Test
+	public void reopenedStoreContainsAllChunks() throws IOException {
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final ChunkStore persistentStore = ChunkStore.open(directory);
+		final String firstHash = persistentStore.put(DATA, 0, 11);
+		final String secondHash = persistentStore.put(DATA, 11, 12);
+		final byte[] text = Strings.repeat("compressible text ", 1000).getBytes();
+		final String compressedHash = persistentStore.put(text, 0, text.length);
+		persistentStore.sync();
+		persistentStore.close();
+
+		final ChunkStore reopenedStore = ChunkStore.open(directory);
+		try {
+			assertThat(reopenedStore.getChunkCount()).isEqualTo(3);
+			assertThat(reopenedStore.getSegmentCount()).isEqualTo(1);
+			assertThat(new String(reopenedStore.read(ImmutableList.of(firstHash, secondHash)).get()))
+					.isEqualTo("first chunksecond chunk");
+			assertThat(reopenedStore.read(ImmutableList.of(compressedHash)).get()).isEqualTo(text);
+		} finally {
+			reopenedStore.close();
+		}
+	}
+
+	@Test
+	public void storesABatchOfChunksAtOnce() throws IOException {
+		final ImmutableList<String> hashes = chunkStore.putAll(ImmutableList.of(ByteBuffer.wrap(DATA, 0, 11),
+				ByteBuffer.wrap(DATA, 11, 12), ByteBuffer.wrap("first chunk".getBytes())));
+
+		assertThat(hashes).hasSize(3);
+		assertThat(hashes.get(2)).isEqualTo(hashes.get(0));
+		assertThat(chunkStore.getChunkCount()).isEqualTo(2);
+		assertThat(chunkStore.getStoredBytes()).isEqualTo(23);
+		assertThat(new String(chunkStore.read(hashes).get())).isEqualTo("first chunksecond chunkfirst chunk");
+	}
+
+	@Test
+	public void directBuffersCanBeReusedAfterStoring() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(11);
+		buffer.put("first chunk".getBytes()).flip();
+
+		final String hash = chunkStore.putAll(ImmutableList.of(buffer)).get(0);
+		buffer.clear();
+		buffer.put("other chunk".getBytes());
+
+		assertThat(hash).isEqualTo(ChunkStore.hashOf(DATA, 0, 11));
+		assertThat(new String(chunkStore.read(ImmutableList.of(hash)).get())).isEqualTo("first chunk");
+	}
+
+	@Test
+	public void sparseSegmentsAreRepacked() throws IOException {
+		final Random random = new Random(7);
+		final byte[] first = new byte[20];
+		final byte[] second = new byte[60];
+		final byte[] third = new byte[20];
+		random.nextBytes(first);
+		random.nextBytes(second);
+		random.nextBytes(third);
+
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final ChunkStore persistentStore = ChunkStore.open(directory, 100);
+		final String firstHash = persistentStore.put(first, 0, first.length);
+		persistentStore.put(second, 0, second.length);
+		final String thirdHash = persistentStore.put(third, 0, third.length);
+		persistentStore.retain(ImmutableList.of(firstHash, thirdHash));
+		persistentStore.removeUnreferencedChunks(System.currentTimeMillis() + ChunkStore.UNREFERENCED_CHUNK_EXPIRY);
+		assertThat(persistentStore.getSegmentCount()).isEqualTo(2);
+
+		assertThat(persistentStore.repackSegments()).isEqualTo(1);
+		assertThat(persistentStore.repackSegments()).isEqualTo(0);
+
+		assertThat(persistentStore.getSegmentCount()).isEqualTo(1);
+		assertThat(persistentStore.getStoredBytes()).isEqualTo(40);
+		assertThat(persistentStore.read(ImmutableList.of(firstHash, thirdHash)).get()).isEqualTo(concat(first, third));
+		persistentStore.close();
+
+		final ChunkStore reopenedStore = ChunkStore.open(directory, 100);
+		try {
+			assertThat(reopenedStore.getChunkCount()).isEqualTo(2);
+			assertThat(reopenedStore.read(ImmutableList.of(firstHash, thirdHash)).get()).isEqualTo(concat(first, third));
+		} finally {
+			reopenedStore.close();
+		}
+	}
+
+	private static byte[] concat(final byte[] first, final byte[] second) {
+		final ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+		buffer.put(first).put(second);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,69 @@
+package de.sharebox.api;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ContentDefinedChunkerTest {
+	private static final int MINIMUM_SIZE = 256;
+	private static final int AVERAGE_SIZE = 1024;
+	private static final int MAXIMUM_SIZE = 4096;
+
+	private ContentDefinedChunker chunker;
+	private byte[] content;
+
+	@Before
+	public void setUp() {
+		chunker = new ContentDefinedChunker(MINIMUM_SIZE, AVERAGE_SIZE, MAXIMUM_SIZE);
+
+		content = new byte[200 * 1024];
+		new Random(42).nextBytes(content);
+	}
+
+	@Test
+	public void chunksCoverTheWholeContentWithinTheSizeLimits() {
+		final ImmutableList<Integer> chunkLengths = chunker.split(content);
+
+		int totalLength = 0;
+		for (int i = 0; i < chunkLengths.size(); i++) {
+			assertThat(chunkLengths.get(i)).isLessThanOrEqualTo(MAXIMUM_SIZE);
+			if (i < chunkLengths.size() - 1) {
+				assertThat(chunkLengths.get(i)).isGreaterThanOrEqualTo(MINIMUM_SIZE);
+			}
+			totalLength += chunkLengths.get(i);
+		}
+		assertThat(totalLength).isEqualTo(content.length);
+		assertThat(chunkLengths.size()).isGreaterThan(content.length / MAXIMUM_SIZE);
+	}
+
+	@Test
+	public void smallContentIsASingleChunk() {
+		assertThat(chunker.split(new byte[100])).containsExactly(100);
+		assertThat(chunker.split(new byte[0])).isEmpty();
+	}
+
+	@Test
+	public void anInsertionOnlyChangesNearbyChunks() {
+		final byte[] changedContent = new byte[content.length + 10];
+		System.arraycopy(content, 0, changedContent, 0, 100000);
+		System.arraycopy(content, 100000, changedContent, 100010, content.length - 100000);
+
+		final ImmutableList<String> originalHashes = chunker.hashChunks(content);
+		final ImmutableList<String> changedHashes = chunker.hashChunks(changedContent);
+
+		final Set<String> newHashes = new HashSet<String>(changedHashes);
+		newHashes.removeAll(originalHashes);
+		assertThat(newHashes.size()).isLessThanOrEqualTo(2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void averageSizeMustBeAPowerOfTwo() {
+		new ContentDefinedChunker(100, 1000, 4000);
+	}
+}
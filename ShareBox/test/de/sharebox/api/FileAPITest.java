@@ -1,18 +1,43 @@
 package de.sharebox.api;
 
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.util.Providers;
 import de.sharebox.file.model.Directory;
 import de.sharebox.file.model.FEntry;
 import de.sharebox.file.model.File;
+import de.sharebox.user.enums.StorageLimit;
 import de.sharebox.user.model.User;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
@@ -35,10 +60,14 @@ public class FileAPITest {
 	@InjectMocks
 	private FileAPI fileAPI;
 
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	@Before
 	public void setUp() {
 		when(user.getEmail()).thenReturn("test@mail.com");
 		when(mockedUserAPI.getCurrentUser()).thenReturn(user);
+		fileAPI.setUserAPI(Providers.of(mockedUserAPI));
 
 		tFile1 = new File(mockedUserAPI, "Testfile", user);
 		tFile2 = new File(mockedUserAPI, "Other stuff", user);
@@ -113,15 +142,35 @@ public class FileAPITest {
 		assertThat(updatedFile.getIdentifier()).isEqualTo(newId);
 	}
 
+	@Test
+	public void storesDirectoriesWithReferencesToTheirChildren() {
+		tDirectory1.addFEntry(tFile1);
+		final Long dirID = fileAPI.createNewFEntry(tDirectory1);
+		assertThat(tFile1.getIdentifier()).isNotNull();
+
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+
+		final Directory storedDir = (Directory) fileAPI.getFEntryWithId(dirID);
+		assertThat(storedDir.getFEntries()).hasSize(1);
+		assertThat(storedDir.getFEntries().get(0).getIdentifier()).isEqualTo(tFile1.getIdentifier());
+		assertThat(storedDir.getFEntries().get(0).getName()).isEqualTo(NEW_NAME);
+
+		fileAPI.deleteFEntry(tFile1);
+
+		assertThat(((Directory) fileAPI.getFEntryWithId(dirID)).getFEntries()).isEmpty();
+	}
+
 	@Test
 	public void testGetChangesSince() {
-		Long lastChange = System.currentTimeMillis();
+		long cursor = fileAPI.getChangesSince(0L, 100).getCursor();
 
 		fileAPI.createNewFEntry(tFile1);
 		fileAPI.createNewFEntry(tDirectory1);
 
-		List<FEntry> changedFEntries = fileAPI.getChangesSince(lastChange);
-		lastChange = System.currentTimeMillis();
+		ChangeSet changeSet = fileAPI.getChangesSince(cursor, 100);
+		cursor = changeSet.getCursor();
+		List<FEntry> changedFEntries = changeSet.getChangedFEntries();
 		assertThat(changedFEntries).hasSize(2);
 		assertThat(changedFEntries.get(0)).isInstanceOf(File.class)
 				.isNotSameAs(tFile1);
@@ -133,13 +182,221 @@ public class FileAPITest {
 		tFile1.setName(NEW_NAME);
 		fileAPI.updateFEntry(tFile1);
 
-		changedFEntries = fileAPI.getChangesSince(lastChange);
+		changedFEntries = fileAPI.getChangesSince(cursor, 100).getChangedFEntries();
 		assertThat(changedFEntries).hasSize(1);
 		assertThat(changedFEntries.get(0)).isInstanceOf(File.class)
 				.isNotSameAs(tFile1);
 		assertThat(changedFEntries.get(0).getName()).isEqualTo(NEW_NAME);
 	}
 
+	@Test
+	public void getChangesSinceRespectsTheLimitAndReturnsEveryFEntryOnlyOnce() {
+		fileAPI.createNewFEntry(tFile1);
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+		fileAPI.createNewFEntry(tFile2);
+
+		final ChangeSet firstChangeSet = fileAPI.getChangesSince(0L, 2);
+		assertThat(firstChangeSet.getChangedFEntries()).hasSize(1);
+		assertThat(firstChangeSet.getChangedFEntries().get(0).getName()).isEqualTo(NEW_NAME);
+		assertThat(firstChangeSet.getCursor()).isEqualTo(2L);
+		assertThat(firstChangeSet.hasMoreChanges()).isTrue();
+
+		final ChangeSet secondChangeSet = fileAPI.getChangesSince(firstChangeSet.getCursor(), 2);
+		assertThat(secondChangeSet.getChangedFEntries()).hasSize(1);
+		assertThat(secondChangeSet.getChangedFEntries().get(0).getName()).isEqualTo("Other stuff");
+		assertThat(secondChangeSet.getCursor()).isEqualTo(3L);
+		assertThat(secondChangeSet.hasMoreChanges()).isFalse();
+
+		assertThat(fileAPI.getChangesSince(secondChangeSet.getCursor(), 2).getChangedFEntries()).isEmpty();
+	}
+
+	@Test
+	public void identicalChangeQueriesReturnTheirOwnFEntries() {
+		tDirectory1.addFEntry(tFile1);
+		fileAPI.createNewFEntry(tDirectory1);
+
+		final ChangeSet firstChangeSet = fileAPI.getChangesSince(0L, 100);
+		final ChangeSet secondChangeSet = fileAPI.getChangesSince(0L, 100);
+
+		assertThat(secondChangeSet.getChangedFEntries()).hasSize(2);
+		for (int i = 0; i < 2; i++) {
+			final FEntry first = firstChangeSet.getChangedFEntries().get(i);
+			final FEntry second = secondChangeSet.getChangedFEntries().get(i);
+			assertThat(second).isNotSameAs(first);
+
+			if (first instanceof Directory) {
+				final FEntry firstChild = ((Directory) first).getFEntries().get(0);
+				final FEntry secondChild = ((Directory) second).getFEntries().get(0);
+				firstChild.setName(NEW_NAME);
+				assertThat(secondChild).isNotSameAs(firstChild);
+				assertThat(secondChild.getName()).isEqualTo("Testfile");
+			}
+		}
+	}
+
+	@Test
+	public void getChangesSinceReportsDeletionsAsTombstones() {
+		tDirectory1.addFEntry(tFile1);
+		final Long dirID = fileAPI.createNewFEntry(tDirectory1);
+		final long cursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		fileAPI.deleteFEntry(tFile1);
+
+		final ChangeSet changeSet = fileAPI.getChangesSince(cursor, 100);
+		assertThat(changeSet.getChangedFEntries()).isEmpty();
+		assertThat(changeSet.getDeletedFEntries()).hasSize(1);
+		assertThat(changeSet.getDeletedFEntries().get(0).getIdentifier()).isEqualTo(tFile1.getIdentifier());
+		assertThat(changeSet.getDeletedFEntries().get(0).getParentIdentifier()).isEqualTo(dirID);
+	}
+
+	@Test
+	public void returnsHistoricalVersionsBySequenceNumber() {
+		tDirectory1.addFEntry(tFile1);
+		final Long dirID = fileAPI.createNewFEntry(tDirectory1);
+		final long createdCursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+		final long updatedCursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		fileAPI.deleteFEntry(tFile1);
+
+		assertThat(fileAPI.getFEntryAtSequence(tFile1.getIdentifier(), 0L)).isNull();
+		assertThat(fileAPI.getFEntryAtSequence(tFile1.getIdentifier(), createdCursor).getName()).isEqualTo("Testfile");
+		assertThat(fileAPI.getFEntryAtSequence(tFile1.getIdentifier(), updatedCursor).getName()).isEqualTo(NEW_NAME);
+		assertThat(fileAPI.getFEntryAtSequence(tFile1.getIdentifier(), updatedCursor + 1)).isNull();
+
+		final Directory oldDirectory = (Directory) fileAPI.getFEntryAtSequence(dirID, createdCursor);
+		assertThat(oldDirectory.getFEntries()).hasSize(1);
+		assertThat(oldDirectory.getFEntries().get(0).getName()).isEqualTo("Testfile");
+		assertThat(((Directory) fileAPI.getFEntryWithId(dirID)).getFEntries()).isEmpty();
+	}
+
+	@Test
+	public void everyVersionOfALongHistoryCanBeRead() {
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+		final long firstCursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		for (int i = 0; i < 100; i++) {
+			tFile1.setName("Version " + i);
+			fileAPI.updateFEntry(tFile1);
+		}
+
+		for (int i = 0; i < 100; i++) {
+			final FEntry version = fileAPI.getFEntryAtSequence(fileID, firstCursor + 1 + i);
+			assertThat(version.getName()).isEqualTo("Version " + i);
+			assertThat(version.getLogEntries()).hasSize(i + 2);
+			assertThat(version.getPermissions()).hasSize(1);
+		}
+		assertThat(fileAPI.getFEntryWithId(fileID).getLogEntries()).hasSize(101);
+	}
+
+	@Test
+	public void returnsHistoricalVersionsByTimestamp() {
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+
+		assertThat(fileAPI.getFEntryAt(fileID, 0L)).isNull();
+		assertThat(fileAPI.getFEntryAt(fileID, Long.MAX_VALUE).getName()).isEqualTo("Testfile");
+	}
+
+	@Test
+	public void compactionRemovesOldVersionsAccordingToTheRetentionPolicy() {
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+		for (int i = 0; i < 50; i++) {
+			tFile1.setName("Version " + i);
+			fileAPI.updateFEntry(tFile1);
+		}
+		final long cursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		fileAPI.setRetentionPolicy(new RetentionPolicy(2, 0, Long.MAX_VALUE));
+		assertThat(fileAPI.compact()).isEqualTo(49);
+
+		assertThat(fileAPI.getFEntryAtSequence(fileID, cursor - 2)).isNull();
+		assertThat(fileAPI.getFEntryAtSequence(fileID, cursor - 1).getName()).isEqualTo("Version 48");
+		assertThat(fileAPI.getFEntryWithId(fileID).getName()).isEqualTo("Version 49");
+		assertThat(fileAPI.getFEntryWithId(fileID).getLogEntries()).hasSize(51);
+
+		final ChangeSet changeSet = fileAPI.getChangesSince(0L, 100);
+		assertThat(changeSet.getChangedFEntries()).hasSize(1);
+		assertThat(changeSet.getCursor()).isEqualTo(cursor);
+		assertThat(fileAPI.getChangesSince(cursor, 100).getCursor()).isEqualTo(cursor);
+	}
+
+	@Test
+	public void compactionKeepsYoungVersions() {
+		fileAPI.createNewFEntry(tFile1);
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+
+		fileAPI.setRetentionPolicy(new RetentionPolicy(1, Long.MAX_VALUE, Long.MAX_VALUE));
+
+		assertThat(fileAPI.compact()).isEqualTo(0);
+	}
+
+	@Test
+	public void compactionPurgesExpiredTombstones() {
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+		fileAPI.createNewFEntry(tFile2);
+		fileAPI.deleteFEntry(tFile1);
+
+		fileAPI.setRetentionPolicy(new RetentionPolicy(1, 0, 0));
+		assertThat(fileAPI.compact()).isEqualTo(2);
+
+		final ChangeSet changeSet = fileAPI.getChangesSince(0L, 100);
+		assertThat(changeSet.getDeletedFEntries()).isEmpty();
+		assertThat(changeSet.getChangedFEntries()).hasSize(1);
+		assertThat(fileAPI.getFEntryWithId(fileID)).isNull();
+		assertThat(fileAPI.updateFEntry(tFile1)).isFalse();
+	}
+
+	@Test
+	public void versionsRemovedByCompactionAreNotRestored() {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+		final Long deletedID = fileAPI.createNewFEntry(tFile2);
+		fileAPI.deleteFEntry(tFile2);
+
+		fileAPI.setRetentionPolicy(new RetentionPolicy(1, 0, 0));
+		assertThat(fileAPI.compact()).isEqualTo(3);
+		fileAPI.closeStorage();
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		assertThat(restoredFileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		final ChangeSet changeSet = restoredFileAPI.getChangesSince(0L, 100);
+		assertThat(changeSet.getChangedFEntries()).hasSize(1);
+		assertThat(changeSet.getDeletedFEntries()).isEmpty();
+		assertThat(restoredFileAPI.getFEntryWithId(fileID).getName()).isEqualTo(NEW_NAME);
+		assertThat(restoredFileAPI.getFEntryAtSequence(fileID, 1L)).isNull();
+		assertThat(restoredFileAPI.getFEntryWithId(deletedID)).isNull();
+	}
+
+	@Test
+	public void restoredStorageKeepsCountersAfterCompaction() throws Exception {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+		fileAPI.createNewFEntry(tFile1);
+		final Long deletedID = fileAPI.createNewFEntry(tFile2);
+		fileAPI.deleteFEntry(tFile2);
+		final long cursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		fileAPI.setRetentionPolicy(new RetentionPolicy(1, 0, 0));
+		fileAPI.compact();
+		fileAPI.writeCheckpoint();
+		fileAPI.closeStorage();
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		restoredFileAPI.openStorage(storageDirectory, mockedUserAPI);
+
+		assertThat(restoredFileAPI.getChangesSince(0L, 100).getCursor()).isEqualTo(1L);
+		assertThat(restoredFileAPI.getChangesSince(cursor, 100).getCursor()).isEqualTo(cursor);
+		assertThat(restoredFileAPI.createNewFEntry(new File(mockedUserAPI, "Another file", user))).isGreaterThan(deletedID);
+	}
+
 	@Test
 	public void testShareFEntry() {
 		final Long dirID = fileAPI.createNewFEntry(tDirectory1);
@@ -153,4 +410,662 @@ public class FileAPITest {
 		assertThat(updatedDir.getFEntries().get(0).getName()).isEqualTo(tFile1.getName());
 		assertThat(updatedDir.getFEntries().get(0).getIdentifier()).isEqualTo(fileID);
 	}
+
+	@Test
+	public void restoresFEntriesFromTheWriteAheadLog() {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		assertThat(fileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		tDirectory1.addFEntry(tFile1);
+		tDirectory1.addFEntry(tFile2);
+		final Long dirID = fileAPI.createNewFEntry(tDirectory1);
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+		fileAPI.deleteFEntry(tFile2);
+		fileAPI.closeStorage();
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		assertThat(restoredFileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		final Directory restoredDirectory = (Directory) restoredFileAPI.getFEntryWithId(dirID);
+		assertThat(restoredDirectory.getName()).isEqualTo(tDirectory1.getName());
+		assertThat(restoredDirectory.getFEntries()).hasSize(1);
+		assertThat(restoredDirectory.getFEntries().get(0).getName()).isEqualTo(NEW_NAME);
+		assertThat(restoredDirectory.getPermissions().get(0).getUser().getEmail()).isEqualTo("test@mail.com");
+		assertThat(restoredFileAPI.getFEntryWithId(tFile2.getIdentifier())).isNull();
+		assertThat(restoredFileAPI.getChangesSince(0L, 100).getCursor())
+				.isEqualTo(fileAPI.getChangesSince(0L, 100).getCursor());
+
+		final Long newID = restoredFileAPI.createNewFEntry(new File(mockedUserAPI, "Another file", user));
+		assertThat(newID).isGreaterThan(tFile2.getIdentifier());
+	}
+
+	@Test
+	public void restoresFEntriesFromCheckpointAndWriteAheadLog() throws Exception {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+
+		final Long file1ID = fileAPI.createNewFEntry(tFile1);
+		fileAPI.writeCheckpoint();
+		final Long file2ID = fileAPI.createNewFEntry(tFile2);
+		fileAPI.closeStorage();
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		assertThat(restoredFileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		assertThat(restoredFileAPI.getFEntryWithId(file1ID).getName()).isEqualTo(tFile1.getName());
+		assertThat(restoredFileAPI.getFEntryWithId(file2ID).getName()).isEqualTo(tFile2.getName());
+	}
+
+	@Test
+	public void recordsOfUpdatesOnlyContainTheChanges() throws Exception {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+		for (int i = 0; i < 50; i++) {
+			tFile1.setName(NEW_NAME + i);
+			fileAPI.updateFEntry(tFile1);
+		}
+		fileAPI.writeCheckpoint();
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+
+		final List<byte[]> records = fileAPI.getWriteAheadLog().get().readRecords();
+		final List<byte[]> checkpoint = fileAPI.getWriteAheadLog().get().readCheckpoint().get();
+		fileAPI.closeStorage();
+
+		assertThat(records).hasSize(1);
+		assertThat(records.get(0).length).isLessThan(200);
+		assertThat(checkpoint).hasSize(52);
+		for (final byte[] record : checkpoint) {
+			assertThat(record.length).isLessThan(200);
+		}
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		assertThat(restoredFileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		final FEntry restoredFile = restoredFileAPI.getFEntryWithId(fileID);
+		assertThat(restoredFile.getName()).isEqualTo(NEW_NAME);
+		assertThat(restoredFile.getLogEntries()).hasSize(tFile1.getLogEntries().size());
+	}
+
+	@Test
+	public void changesThatCannotBeLoggedAreRolledBack() throws Exception {
+		fileAPI.openStorage(temporaryFolder.getRoot().toPath(), mockedUserAPI);
+		tDirectory1.addFEntry(tFile1);
+		final Long dirID = fileAPI.createNewFEntry(tDirectory1);
+		final long cursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		fileAPI.getWriteAheadLog().get().close();
+
+		tFile1.setName(NEW_NAME);
+		assertThat(fileAPI.updateFEntry(tFile1)).isFalse();
+		assertThat(fileAPI.deleteFEntry(tDirectory1)).isFalse();
+		assertThat(fileAPI.createNewFEntry(tFile2)).isNull();
+		tDirectory1.addFEntry(new File(mockedUserAPI, "Third file", user));
+		assertThat(fileAPI.updateFEntries(ImmutableList.of(tDirectory1))).isFalse();
+
+		assertThat(fileAPI.getFEntryWithId(tFile1.getIdentifier()).getName()).isEqualTo("Testfile");
+		assertThat(((Directory) fileAPI.getFEntryWithId(dirID)).getFEntries()).hasSize(1);
+		assertThat(fileAPI.getChangesSince(cursor, 100).getChangedFEntries()).isEmpty();
+		assertThat(fileAPI.getChangesSince(cursor, 100).getDeletedFEntries()).isEmpty();
+	}
+
+	@Test
+	public void storageCannotBeOpenedWhenFEntriesAlreadyExist() {
+		fileAPI.createNewFEntry(tFile1);
+
+		assertThat(fileAPI.openStorage(temporaryFolder.getRoot().toPath(), mockedUserAPI)).isFalse();
+	}
+
+	@Test
+	public void createsUpdatesAndDeletesFEntriesInBatches() {
+		final File childFile = new File(mockedUserAPI, "Child", user);
+		tDirectory1.addFEntry(childFile);
+
+		final List<Long> identifiers = fileAPI.createNewFEntries(ImmutableList.of(tFile1, tDirectory1));
+
+		assertThat(identifiers).containsExactly(tFile1.getIdentifier(), tDirectory1.getIdentifier());
+		assertThat(childFile.getIdentifier()).isEqualTo(tDirectory1.getIdentifier() + 1);
+		assertThat(((Directory) fileAPI.getFEntryWithId(tDirectory1.getIdentifier())).getFEntries()).hasSize(1);
+		assertThat(fileAPI.getChangesSince(0L, 100).getCursor()).isEqualTo(3L);
+
+		tFile1.setName(NEW_NAME);
+		childFile.setName(NEW_NAME);
+		assertThat(fileAPI.updateFEntries(ImmutableList.of(tFile1, childFile))).isTrue();
+		assertThat(fileAPI.getFEntryWithId(tFile1.getIdentifier()).getName()).isEqualTo(NEW_NAME);
+		assertThat(fileAPI.getFEntryWithId(childFile.getIdentifier()).getName()).isEqualTo(NEW_NAME);
+
+		assertThat(fileAPI.deleteFEntries(ImmutableList.of(tFile1, tFile2))).isFalse();
+		assertThat(fileAPI.getFEntryWithId(tFile1.getIdentifier())).isNull();
+	}
+
+	@Test
+	public void childrenOfADirectoryAreResolvedOnFirstAccess() {
+		tDirectory1.addFEntry(tFile1);
+		final Long directoryID = fileAPI.createNewFEntry(tDirectory1);
+		final Directory storedDirectory = (Directory) fileAPI.getFEntryWithId(directoryID);
+
+		tFile1.setName(NEW_NAME);
+		fileAPI.updateFEntry(tFile1);
+
+		assertThat(storedDirectory.getFEntries().get(0).getName()).isEqualTo(NEW_NAME);
+
+		tFile1.setName("newest name");
+		fileAPI.updateFEntry(tFile1);
+
+		assertThat(storedDirectory.getFEntries().get(0).getName()).isEqualTo(NEW_NAME);
+		assertThat(((Directory) fileAPI.getFEntryWithId(directoryID)).getFEntries().get(0).getName())
+				.isEqualTo("newest name");
+	}
+
+	@Test
+	public void storesFileContentInChunks() {
+		final byte[] content = new byte[1024 * 1024];
+		new Random(42).nextBytes(content);
+
+		final List<String> chunkHashes = fileAPI.uploadContent(content).get();
+		tFile1.setContent(chunkHashes, content.length);
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+
+		assertThat(chunkHashes.size()).isGreaterThan(1);
+		final File storedFile = (File) fileAPI.getFEntryWithId(fileID);
+		assertThat(storedFile.getChunkHashes()).isEqualTo(chunkHashes);
+		assertThat(fileAPI.downloadContent(storedFile).get()).isEqualTo(content);
+	}
+
+	@Test
+	public void storesManySmallFilesInOneUpload() {
+		final List<byte[]> contents = new ArrayList<byte[]>();
+		for (int i = 0; i < 100; i++) {
+			contents.add(("small file " + i).getBytes());
+		}
+
+		final List<ImmutableList<String>> chunkHashes = fileAPI.uploadContents(contents).get();
+
+		assertThat(chunkHashes).hasSize(100);
+		for (int i = 0; i < contents.size(); i++) {
+			tFile1.setContent(chunkHashes.get(i), contents.get(i).length);
+			assertThat(fileAPI.downloadContent(tFile1).get()).isEqualTo(contents.get(i));
+		}
+	}
+
+	@Test
+	public void uploadsFromAChannelLikeFromAnArray() {
+		final byte[] content = new byte[1000000];
+		new Random(3).nextBytes(content);
+
+		final ImmutableList<String> chunkHashes = fileAPI.uploadContent(
+				Channels.newChannel(new ByteArrayInputStream(content)),
+				ByteBuffer.allocateDirect(ContentDefinedChunker.DEFAULT_MAXIMUM_SIZE)).get();
+
+		assertThat(chunkHashes).isEqualTo(fileAPI.uploadContent(content).get());
+		tFile1.setContent(chunkHashes, content.length);
+		assertThat(fileAPI.downloadContent(tFile1).get()).isEqualTo(content);
+	}
+
+	@Test
+	public void streamsAReadableDirectoryTreeAsZip() throws IOException {
+		final User otherUser = mock(User.class);
+		when(otherUser.getEmail()).thenReturn("other@mail.com");
+		final Directory subDirectory = new Directory(mockedUserAPI, "Sub", user);
+		final Directory hiddenDirectory = new Directory(mockedUserAPI, "Hidden", otherUser);
+		final File hiddenFile = new File(mockedUserAPI, "Secret", otherUser);
+		tFile1.setContent(fileAPI.uploadContent("first content".getBytes()).get(), 13);
+		tFile2.setContent(fileAPI.uploadContent("second content".getBytes()).get(), 14);
+		hiddenFile.setContent(fileAPI.uploadContent("hidden content".getBytes()).get(), 14);
+		subDirectory.addFEntry(tFile2);
+		hiddenDirectory.addFEntry(hiddenFile);
+		tDirectory1.addFEntry(tFile1);
+		tDirectory1.addFEntry(subDirectory);
+		tDirectory1.addFEntry(hiddenDirectory);
+		final Long directoryID = fileAPI.createNewFEntry(tDirectory1);
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertThat(fileAPI.downloadDirectoryAsZip(directoryID, user, archive)).isTrue();
+
+		final Map<String, String> entries = new HashMap<String, String>();
+		final ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()));
+		for (ZipEntry entry = zipStream.getNextEntry(); entry != null; entry = zipStream.getNextEntry()) {
+			entries.put(entry.getName(), new String(ByteStreams.toByteArray(zipStream)));
+		}
+		assertThat(entries).hasSize(4);
+		assertThat(entries.get("Some dir/")).isEmpty();
+		assertThat(entries.get("Some dir/Testfile")).isEqualTo("first content");
+		assertThat(entries.get("Some dir/Sub/")).isEmpty();
+		assertThat(entries.get("Some dir/Sub/Other stuff")).isEqualTo("second content");
+	}
+
+	@Test
+	public void zipEntryNamesCannotLeaveTheirDirectory() throws IOException {
+		tFile1.setName("..");
+		tFile2.setName(".");
+		final Directory subDirectory = new Directory(mockedUserAPI, "..", user);
+		subDirectory.addFEntry(new File(mockedUserAPI, "x", user));
+		tDirectory1.addFEntry(tFile1);
+		tDirectory1.addFEntry(tFile2);
+		tDirectory1.addFEntry(subDirectory);
+		final Long directoryID = fileAPI.createNewFEntry(tDirectory1);
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertThat(fileAPI.downloadDirectoryAsZip(directoryID, user, archive)).isTrue();
+
+		final List<String> entryNames = new ArrayList<String>();
+		final ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()));
+		for (ZipEntry entry = zipStream.getNextEntry(); entry != null; entry = zipStream.getNextEntry()) {
+			entryNames.add(entry.getName());
+		}
+		assertThat(entryNames).containsOnly("Some dir/", "Some dir/_", "Some dir/_ (2)", "Some dir/_/",
+				"Some dir/_/x");
+	}
+
+	@Test
+	public void fEntriesContainedSeveralTimesAreZippedOnce() throws IOException {
+		final Directory subDirectory = new Directory(mockedUserAPI, "Sub", user);
+		subDirectory.addFEntry(tFile1);
+		tDirectory1.addFEntry(tFile1);
+		tDirectory1.addFEntry(subDirectory);
+		final Long directoryID = fileAPI.createNewFEntry(tDirectory1);
+
+		//the sub directory also contains its own parent
+		subDirectory.addFEntry(tDirectory1);
+		fileAPI.updateFEntry(subDirectory);
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertThat(fileAPI.downloadDirectoryAsZip(directoryID, user, archive)).isTrue();
+
+		final List<String> entryNames = new ArrayList<String>();
+		final ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()));
+		for (ZipEntry entry = zipStream.getNextEntry(); entry != null; entry = zipStream.getNextEntry()) {
+			entryNames.add(entry.getName());
+		}
+		assertThat(entryNames).containsOnly("Some dir/", "Some dir/Testfile", "Some dir/Sub/");
+	}
+
+	@Test
+	public void unreadableDirectoriesCannotBeDownloaded() {
+		final User otherUser = mock(User.class);
+		when(otherUser.getEmail()).thenReturn("other@mail.com");
+		final Long directoryID = fileAPI.createNewFEntry(tDirectory1);
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertThat(fileAPI.downloadDirectoryAsZip(directoryID, otherUser, archive)).isFalse();
+		assertThat(fileAPI.downloadDirectoryAsZip(null, user, archive)).isFalse();
+		assertThat(archive.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void subscribersReceiveCommittedChanges() throws InterruptedException {
+		final Long existingId = fileAPI.createNewFEntry(tFile1);
+		final BlockingQueue<ChangeSet> deliveredChanges = new LinkedBlockingQueue<ChangeSet>();
+		final ChangeSubscription subscription = fileAPI.subscribe(0L, new ChangeListener() {
+			@Override
+			public void changesCommitted(final ChangeSet changeSet) {
+				deliveredChanges.add(changeSet);
+			}
+		});
+
+		try {
+			final ChangeSet existingChanges = deliveredChanges.poll(5, TimeUnit.SECONDS);
+			assertThat(existingChanges.getChangedFEntries()).hasSize(1);
+			assertThat(existingChanges.getChangedFEntries().get(0).getIdentifier()).isEqualTo(existingId);
+
+			final Long newId = fileAPI.createNewFEntry(tFile2);
+			final ChangeSet newChanges = deliveredChanges.poll(5, TimeUnit.SECONDS);
+			assertThat(newChanges.getChangedFEntries()).hasSize(1);
+			assertThat(newChanges.getChangedFEntries().get(0).getIdentifier()).isEqualTo(newId);
+		} finally {
+			subscription.cancel();
+		}
+
+		fileAPI.deleteFEntry(tFile2);
+		assertThat(deliveredChanges.poll(200, TimeUnit.MILLISECONDS)).isNull();
+	}
+
+	@Test
+	public void longPollsWaitForNewChanges() throws Exception {
+		fileAPI.createNewFEntry(tFile1);
+		final long cursor = fileAPI.getChangesSince(0L, 100).getCursor();
+
+		final ListenableFuture<ChangeSet> poll = fileAPI.pollChangesSince(cursor, 100, 60000);
+		assertThat(poll.isDone()).isFalse();
+
+		final Long newId = fileAPI.createNewFEntry(tFile2);
+		final ChangeSet changeSet = poll.get(5, TimeUnit.SECONDS);
+		assertThat(changeSet.getChangedFEntries()).hasSize(1);
+		assertThat(changeSet.getChangedFEntries().get(0).getIdentifier()).isEqualTo(newId);
+
+		final ChangeSet timedOut = fileAPI.getChangesSince(changeSet.getCursor(), 100, 50);
+		assertThat(timedOut.getChangedFEntries()).isEmpty();
+		assertThat(timedOut.getCursor()).isEqualTo(changeSet.getCursor());
+	}
+
+	@Test
+	public void onlyChangedChunksHaveToBeUploaded() {
+		final byte[] content = new byte[1024 * 1024];
+		new Random(42).nextBytes(content);
+		fileAPI.uploadContent(content);
+
+		content[500000]++;
+		final ContentDefinedChunker chunker = new ContentDefinedChunker();
+		final List<String> chunkHashes = chunker.hashChunks(content);
+		final List<String> missingChunks = fileAPI.getMissingChunks(chunkHashes);
+		assertThat(missingChunks).hasSize(1);
+
+		int offset = 0;
+		for (int i = 0; i < chunkHashes.size(); i++) {
+			final int chunkLength = chunker.split(content).get(i);
+			if (missingChunks.contains(chunkHashes.get(i))) {
+				final byte[] chunk = new byte[chunkLength];
+				System.arraycopy(content, offset, chunk, 0, chunkLength);
+				assertThat(fileAPI.uploadChunk(chunk).get()).isEqualTo(chunkHashes.get(i));
+			}
+			offset += chunkLength;
+		}
+
+		tFile1.setContent(chunkHashes, content.length);
+		fileAPI.createNewFEntry(tFile1);
+		assertThat(fileAPI.getMissingChunks(chunkHashes)).isEmpty();
+		assertThat(fileAPI.downloadContent(tFile1).get()).isEqualTo(content);
+	}
+
+	@Test
+	public void transfersFileContentToAChannel() {
+		final byte[] content = new byte[512 * 1024];
+		new Random(7).nextBytes(content);
+		tFile1.setContent(fileAPI.uploadContent(content).get(), content.length);
+		fileAPI.createNewFEntry(tFile1);
+
+		final ByteArrayOutputStream target = new ByteArrayOutputStream();
+		assertThat(fileAPI.downloadContent(tFile1, Channels.newChannel(target))).isTrue();
+		assertThat(target.toByteArray()).isEqualTo(content);
+
+		tFile2.setContent(ImmutableList.of("unknown"), 10);
+		final ByteArrayOutputStream otherTarget = new ByteArrayOutputStream();
+		assertThat(fileAPI.downloadContent(tFile2, Channels.newChannel(otherTarget))).isFalse();
+		assertThat(otherTarget.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void readsRangesOfFileContent() {
+		final byte[] content = new byte[1024 * 1024];
+		new Random(3).nextBytes(content);
+		tFile1.setContent(fileAPI.uploadContent(content).get(), content.length);
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+
+		final byte[] range = fileAPI.readContent(fileID, content.length - 100000, 50000).get();
+		assertThat(range).isEqualTo(Arrays.copyOfRange(content, content.length - 100000, content.length - 50000));
+		assertThat(fileAPI.readContent(fileID, content.length - 10, 100).get()).hasSize(10);
+
+		assertThat(fileAPI.readContent(fileID, -1, 10).isPresent()).isFalse();
+		assertThat(fileAPI.readContent(fileAPI.createNewFEntry(tDirectory1), 0, 10).isPresent()).isFalse();
+		fileAPI.deleteFEntry(tFile1);
+		assertThat(fileAPI.readContent(fileID, 0, 10).isPresent()).isFalse();
+	}
+
+	@Test
+	public void restoresFileContentFromTheStorageDirectory() {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+		tFile1.setContent(fileAPI.uploadContent("persistent content".getBytes()).get(), 18);
+		final Long fileID = fileAPI.createNewFEntry(tFile1);
+		fileAPI.closeStorage();
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		assertThat(restoredFileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		final File restoredFile = (File) restoredFileAPI.getFEntryWithId(fileID);
+		assertThat(new String(restoredFileAPI.downloadContent(restoredFile).get())).isEqualTo("persistent content");
+	}
+
+	@Test
+	public void countsTheStorageUsageOfAllUsersWithPermissions() {
+		final User invitedUser = new User();
+		invitedUser.setEmail("invited@mail.com");
+		tFile1.setContent(uploadChunksOfLength(1000), 1000);
+		fileAPI.createNewFEntry(tFile1);
+		tFile2.setContent(uploadChunksOfLength(500), 500);
+		fileAPI.createNewFEntry(tFile2);
+
+		assertThat(fileAPI.getStorageUsage(user)).isEqualTo(1500);
+		assertThat(fileAPI.getStorageUsage(invitedUser)).isEqualTo(0);
+
+		tFile1.setPermission(invitedUser, true, true, false);
+		tFile1.setContent(uploadChunksOfLength(2000), 2000);
+		fileAPI.updateFEntry(tFile1);
+		assertThat(fileAPI.getStorageUsage(user)).isEqualTo(2500);
+		assertThat(fileAPI.getStorageUsage(invitedUser)).isEqualTo(2000);
+
+		fileAPI.deleteFEntry(tFile1);
+		assertThat(fileAPI.getStorageUsage(user)).isEqualTo(500);
+		assertThat(fileAPI.getStorageUsage(invitedUser)).isEqualTo(0);
+	}
+
+	@Test
+	public void filesExceedingTheStorageLimitAreRejected() {
+		when(mockedUserAPI.getStorageLimitOfUser("test@mail.com")).thenReturn(StorageLimit.GB_5);
+		tFile1.setContent(uploadChunksOfLength(StorageLimit.GB_5.getBytes() - 100), StorageLimit.GB_5.getBytes() - 100);
+		assertThat(fileAPI.createNewFEntry(tFile1)).isNotNull();
+
+		assertThat(fileAPI.hasStorageFor(user, 100)).isTrue();
+		assertThat(fileAPI.hasStorageFor(user, 101)).isFalse();
+
+		tFile2.setContent(uploadChunksOfLength(101), 101);
+		assertThat(fileAPI.createNewFEntry(tFile2)).isNull();
+		assertThat(tFile2.getIdentifier()).isNull();
+
+		tFile1.setContent(uploadChunksOfLength(StorageLimit.GB_5.getBytes() + 1), StorageLimit.GB_5.getBytes() + 1);
+		assertThat(fileAPI.updateFEntry(tFile1)).isFalse();
+		assertThat(fileAPI.getStorageUsage(user)).isEqualTo(StorageLimit.GB_5.getBytes() - 100);
+	}
+
+	@Test
+	public void theCurrentStorageLimitOfTheUserIsEnforced() {
+		//the copies of the user in the permissions keep their old storage limit
+		when(user.getStorageLimit()).thenReturn(StorageLimit.GB_20);
+		when(mockedUserAPI.getStorageLimitOfUser("test@mail.com")).thenReturn(StorageLimit.GB_5);
+		tFile1.setContent(uploadChunksOfLength(StorageLimit.GB_5.getBytes() + 1), StorageLimit.GB_5.getBytes() + 1);
+		assertThat(fileAPI.createNewFEntry(tFile1)).isNull();
+		assertThat(fileAPI.hasStorageFor(user, StorageLimit.GB_5.getBytes() + 1)).isFalse();
+
+		when(mockedUserAPI.getStorageLimitOfUser("test@mail.com")).thenReturn(StorageLimit.GB_20);
+		assertThat(fileAPI.createNewFEntry(tFile1)).isNotNull();
+		assertThat(fileAPI.hasStorageFor(user, StorageLimit.GB_5.getBytes())).isTrue();
+	}
+
+	@Test
+	public void restoresTheStorageUsage() {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+		tFile1.setContent(uploadChunksOfLength(1000), 1000);
+		fileAPI.createNewFEntry(tFile1);
+		tFile1.setContent(uploadChunksOfLength(3000), 3000);
+		fileAPI.updateFEntry(tFile1);
+		fileAPI.closeStorage();
+
+		final FileAPI restoredFileAPI = new FileAPI();
+		restoredFileAPI.openStorage(storageDirectory, mockedUserAPI);
+
+		assertThat(restoredFileAPI.getStorageUsage(user)).isEqualTo(3000);
+	}
+
+	@Test
+	public void restoresTheStorageUsageFromCheckpointAndLogWithoutEnforcingLimits() throws Exception {
+		final Path storageDirectory = temporaryFolder.getRoot().toPath();
+		fileAPI.openStorage(storageDirectory, mockedUserAPI);
+		tFile1.setContent(uploadChunksOfLength(1000), 1000);
+		fileAPI.createNewFEntry(tFile1);
+		tFile2.setContent(uploadChunksOfLength(500), 500);
+		fileAPI.createNewFEntry(tFile2);
+		fileAPI.writeCheckpoint();
+		tFile1.setContent(uploadChunksOfLength(StorageLimit.GB_5.getBytes() + 1000), StorageLimit.GB_5.getBytes() + 1000);
+		fileAPI.updateFEntry(tFile1);
+		fileAPI.deleteFEntry(tFile2);
+		fileAPI.closeStorage();
+
+		when(mockedUserAPI.getStorageLimitOfUser("test@mail.com")).thenReturn(StorageLimit.GB_5);
+		final FileAPI restoredFileAPI = new FileAPI();
+		restoredFileAPI.setUserAPI(Providers.of(mockedUserAPI));
+		assertThat(restoredFileAPI.openStorage(storageDirectory, mockedUserAPI)).isTrue();
+
+		assertThat(restoredFileAPI.getStorageUsage(user)).isEqualTo(fileAPI.getStorageUsage(user))
+				.isEqualTo(StorageLimit.GB_5.getBytes() + 1000);
+		assertThat(restoredFileAPI.getFEntryWithId(tFile1.getIdentifier())).isNotNull();
+	}
+
+	@Test
+	public void fileSizesAreDeterminedByTheStoredChunks() {
+		tFile1.setContent(uploadChunksOfLength(1000), 10);
+		final Long identifier = fileAPI.createNewFEntry(tFile1);
+
+		assertThat(((File) fileAPI.getFEntryWithId(identifier)).getSize()).isEqualTo(1000);
+		assertThat(fileAPI.getStorageUsage(user)).isEqualTo(1000);
+
+		tFile2.setContent(ImmutableList.of("unknown"), 10);
+		assertThat(fileAPI.createNewFEntry(tFile2)).isNull();
+		tFile1.setContent(ImmutableList.of("unknown"), 10);
+		assertThat(fileAPI.updateFEntry(tFile1)).isFalse();
+		assertThat(((File) fileAPI.getFEntryWithId(identifier)).getChunkHashes()).isNotEqualTo(tFile1.getChunkHashes());
+	}
+
+	@Test
+	public void copiedFilesShareTheirChunks() {
+		tFile1.setContent(fileAPI.uploadContent("some content".getBytes()).get(), 12);
+		fileAPI.createNewFEntry(tFile1);
+		final File copy = new File(tFile1);
+		fileAPI.createNewFEntry(copy);
+
+		final List<String> chunkHashesOfUpload = fileAPI.uploadContent("some content".getBytes()).get();
+
+		assertThat(chunkHashesOfUpload).isEqualTo(tFile1.getChunkHashes());
+		assertThat(new String(fileAPI.downloadContent(copy).get())).isEqualTo("some content");
+	}
+
+	@Test
+	public void chunksOfRemovedVersionsAreKeptUntilTheyExpire() {
+		tFile1.setContent(fileAPI.uploadContent("old content".getBytes()).get(), 11);
+		fileAPI.createNewFEntry(tFile1);
+		final File oldVersion = new File(tFile1);
+		tFile1.setContent(fileAPI.uploadContent("new content".getBytes()).get(), 11);
+		fileAPI.updateFEntry(tFile1);
+
+		fileAPI.setRetentionPolicy(new RetentionPolicy(1, 0, Long.MAX_VALUE));
+		fileAPI.compact();
+
+		assertThat(fileAPI.downloadContent(tFile1).isPresent()).isTrue();
+		assertThat(fileAPI.downloadContent(oldVersion).isPresent()).isTrue();
+	}
+
+	@Test
+	public void concurrentWritersDoNotLoseChanges() throws Exception {
+		final int threadCount = 4;
+		final int filesPerThread = 25;
+
+		final List<List<File>> filesOfThreads = new ArrayList<List<File>>();
+		for (int i = 0; i < threadCount; i++) {
+			final List<File> files = new ArrayList<File>();
+			for (int j = 0; j < filesPerThread; j++) {
+				files.add(new File(mockedUserAPI, "File " + i + "-" + j, user));
+			}
+			filesOfThreads.add(files);
+		}
+
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (final List<File> files : filesOfThreads) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (final File file : files) {
+						fileAPI.createNewFEntry(file);
+						file.setName(file.getName() + " updated");
+						fileAPI.updateFEntry(file);
+					}
+				}
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		final Set<Long> identifiers = new HashSet<Long>();
+		for (final List<File> files : filesOfThreads) {
+			for (final File file : files) {
+				identifiers.add(file.getIdentifier());
+				assertThat(fileAPI.getFEntryWithId(file.getIdentifier()).getName()).isEqualTo(file.getName());
+			}
+		}
+		assertThat(identifiers).hasSize(threadCount * filesPerThread);
+
+		final ChangeSet changes = fileAPI.getChangesSince(0L, 1000);
+		assertThat(changes.getChangedFEntries()).hasSize(threadCount * filesPerThread);
+		assertThat(changes.getCursor()).isEqualTo(2L * threadCount * filesPerThread);
+	}
+
+	@Test
+	public void cursorsDoNotSkipVersionsThatAreStillBeingLogged() throws Exception {
+		fileAPI.openStorage(temporaryFolder.getRoot().toPath(), mockedUserAPI);
+		final int threadCount = 4;
+		final int filesPerThread = 50;
+
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; i++) {
+			final int threadNumber = i;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < filesPerThread; j++) {
+						fileAPI.createNewFEntry(new File(mockedUserAPI, "File " + threadNumber + "-" + j, user));
+					}
+				}
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+
+		//versions must only become visible in the order of their sequence numbers, even if they are logged out of order
+		final Set<Long> identifiers = new HashSet<Long>();
+		long cursor = 0L;
+		boolean writing = true;
+		while (writing) {
+			writing = false;
+			for (final Thread thread : threads) {
+				writing |= thread.isAlive();
+			}
+			final ChangeSet changes = fileAPI.getChangesSince(cursor, 1000);
+			for (final FEntry fEntry : changes.getChangedFEntries()) {
+				identifiers.add(fEntry.getIdentifier());
+			}
+			cursor = changes.getCursor();
+		}
+
+		assertThat(identifiers).hasSize(threadCount * filesPerThread);
+		fileAPI.closeStorage();
+	}
+
+	/**
+	 * Speichert Chunks, deren Inhalt zusammen die gegebene Länge hat. Große Inhalte wiederholen dazu einen einzigen
+	 * Chunk, sodass die Tests keine Gigabytes speichern müssen.
+	 *
+	 * @param length Die Länge des Inhalts.
+	 * @return Die Hashes der Chunks.
+	 */
+	private List<String> uploadChunksOfLength(final long length) {
+		final int chunkLength = 1024 * 1024;
+		final List<String> chunkHashes = new ArrayList<String>();
+		if (length >= chunkLength) {
+			final String chunkHash = fileAPI.uploadChunk(new byte[chunkLength]).get();
+			for (long i = 0; i < length / chunkLength; i++) {
+				chunkHashes.add(chunkHash);
+			}
+		}
+		if (length % chunkLength != 0) {
+			chunkHashes.add(fileAPI.uploadChunk(new byte[(int) (length % chunkLength)]).get());
+		}
+		return chunkHashes;
+	}
 }
@@ -0,0 +1,38 @@
+package de.sharebox.api;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RetentionPolicyTest {
+
+	@Test
+	public void retainsTheLastVersionsAndYoungVersions() {
+		final RetentionPolicy retentionPolicy = new RetentionPolicy(3, 1000, 5000);
+
+		assertThat(retentionPolicy.isVersionRetained(2, 10000)).isTrue();
+		assertThat(retentionPolicy.isVersionRetained(3, 999)).isTrue();
+		assertThat(retentionPolicy.isVersionRetained(3, 1000)).isFalse();
+	}
+
+	@Test
+	public void retainsTombstonesForTheGivenDuration() {
+		final RetentionPolicy retentionPolicy = new RetentionPolicy(3, 1000, 5000);
+
+		assertThat(retentionPolicy.isTombstoneRetained(4999)).isTrue();
+		assertThat(retentionPolicy.isTombstoneRetained(5000)).isFalse();
+	}
+
+	@Test
+	public void keepEverythingNeverRemovesVersions() {
+		final RetentionPolicy retentionPolicy = RetentionPolicy.keepEverything();
+
+		assertThat(retentionPolicy.isVersionRetained(Integer.MAX_VALUE - 1, Long.MAX_VALUE - 1)).isTrue();
+		assertThat(retentionPolicy.isTombstoneRetained(Long.MAX_VALUE - 1)).isTrue();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theLatestVersionIsAlwaysRetained() {
+		new RetentionPolicy(0, 0, 0);
+	}
+}
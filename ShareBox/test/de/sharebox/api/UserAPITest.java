@@ -12,7 +12,9 @@ import de.sharebox.user.enums.StorageLimit;
 import de.sharebox.user.model.AddressInfo;
 import de.sharebox.user.model.User;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -33,6 +35,9 @@ public class UserAPITest {
 	@InjectMocks
 	private UserAPI userAPI;
 
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	/*
 	 * Zunächst werden für die Testklasse 2 User angelegt.
 	 */
@@ -175,4 +180,32 @@ public class UserAPITest {
 
 		assertThat(userAPI.getRootDirIDOfUser(user)).isEqualTo(1234L);
 	}
+
+	@Test
+	public void storageLimitReflectsChangedAccountingSettings() {
+		userAPI.registerUser(user);
+		assertThat(userAPI.getStorageLimitOfUser("Max@Mustermann.de")).isEqualTo(StorageLimit.GB_10);
+
+		userAPI.login(user);
+		userAPI.changeAccountingSettings(user2);
+
+		assertThat(userAPI.getStorageLimitOfUser("Max@Mustermann.de")).isEqualTo(StorageLimit.GB_20);
+		assertThat(userAPI.getStorageLimitOfUser("unknown@mail.com")).isNull();
+	}
+
+	@Test
+	public void restoredRootDirectoriesAreReusedAfterARestart() {
+		when(fileAPI.createNewFEntry(any(Directory.class))).thenReturn(1234L);
+		when(fileAPI.getFEntryWithId(1234L)).thenReturn(new Directory(userAPI));
+
+		assertThat(userAPI.openStorage(temporaryFolder.getRoot().toPath())).isTrue();
+		userAPI.registerUser(user);
+
+		final UserAPI restartedUserAPI = new UserAPI(fileAPI);
+		assertThat(restartedUserAPI.openStorage(temporaryFolder.getRoot().toPath())).isTrue();
+		restartedUserAPI.registerUser(user);
+
+		verify(fileAPI, times(1)).createNewFEntry(any(Directory.class));
+		assertThat(restartedUserAPI.getRootDirIDOfUser(user)).isEqualTo(1234L);
+	}
 }
@@ -0,0 +1,95 @@
+package de.sharebox.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class VersionChainTest {
+	private VersionChain<TestVersion> versionChain;
+
+	private static class TestVersion implements VersionChain.Version {
+		private final long sequenceNumber;
+
+		public TestVersion(final long sequenceNumber) {
+			this.sequenceNumber = sequenceNumber;
+		}
+
+		@Override
+		public long getSequenceNumber() {
+			return sequenceNumber;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		versionChain = new VersionChain<TestVersion>();
+	}
+
+	@Test
+	public void anEmptyChainHasNoVersions() {
+		assertThat(versionChain.size()).isEqualTo(0);
+		assertThat(versionChain.getLatest().isPresent()).isFalse();
+		assertThat(versionChain.getFirst().isPresent()).isFalse();
+		assertThat(versionChain.getAtSequence(10).isPresent()).isFalse();
+	}
+
+	@Test
+	public void latestVersionIsTheLastAppendedVersion() {
+		final TestVersion first = new TestVersion(1);
+		final TestVersion second = new TestVersion(4);
+		versionChain.append(first);
+		versionChain.append(second);
+
+		assertThat(versionChain.size()).isEqualTo(2);
+		assertThat(versionChain.getFirst().get()).isSameAs(first);
+		assertThat(versionChain.getLatest().get()).isSameAs(second);
+		assertThat(versionChain.getVersions()).containsExactly(first, second);
+	}
+
+	@Test
+	public void findsTheVersionValidAtAGivenSequenceNumber() {
+		final TestVersion first = new TestVersion(2);
+		final TestVersion second = new TestVersion(5);
+		final TestVersion third = new TestVersion(9);
+		versionChain.append(first);
+		versionChain.append(second);
+		versionChain.append(third);
+
+		assertThat(versionChain.getAtSequence(1).isPresent()).isFalse();
+		assertThat(versionChain.getAtSequence(2).get()).isSameAs(first);
+		assertThat(versionChain.getAtSequence(4).get()).isSameAs(first);
+		assertThat(versionChain.getAtSequence(5).get()).isSameAs(second);
+		assertThat(versionChain.getAtSequence(8).get()).isSameAs(second);
+		assertThat(versionChain.getAtSequence(100).get()).isSameAs(third);
+	}
+
+	@Test
+	public void oldestVersionsCanBeRemoved() {
+		final TestVersion first = new TestVersion(1);
+		final TestVersion second = new TestVersion(2);
+		final TestVersion third = new TestVersion(3);
+		versionChain.append(first);
+		versionChain.append(second);
+		versionChain.append(third);
+
+		assertThat(versionChain.removeOldest(2)).containsExactly(first, second);
+
+		assertThat(versionChain.getVersions()).containsExactly(third);
+		assertThat(versionChain.getFirst().get()).isSameAs(third);
+		assertThat(versionChain.getAtSequence(2).isPresent()).isFalse();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void latestVersionCannotBeRemoved() {
+		versionChain.append(new TestVersion(1));
+
+		versionChain.removeOldest(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void versionsMustBeAppendedInOrder() {
+		versionChain.append(new TestVersion(3));
+		versionChain.append(new TestVersion(2));
+	}
+}
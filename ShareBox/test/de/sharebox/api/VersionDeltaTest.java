@@ -0,0 +1,99 @@
+package de.sharebox.api;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import de.sharebox.file.model.Directory;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+import de.sharebox.file.model.LogEntry;
+import de.sharebox.user.model.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VersionDeltaTest {
+	private File file;
+
+	@Mock
+	private User user;
+	@Mock
+	private User otherUser;
+	@Mock
+	private UserAPI userAPI;
+
+	@Before
+	public void setUp() {
+		when(user.getEmail()).thenReturn("test@mail.com");
+		when(otherUser.getEmail()).thenReturn("other@mail.com");
+		when(userAPI.getCurrentUser()).thenReturn(user);
+
+		file = new File(userAPI, "Testfile", user);
+		file.setIdentifier(1L);
+	}
+
+	@Test
+	public void containsAllChangesOfTheNewVersion() {
+		final File updatedFile = new File(file);
+		updatedFile.setName("new name");
+		updatedFile.setPermission(otherUser, true, false, false);
+
+		final Optional<VersionDelta> delta = VersionDelta.between(file, updatedFile);
+		assertThat(delta.isPresent()).isTrue();
+
+		final FEntry restoredFile = VersionDelta.apply(file, ImmutableList.of(delta.get()));
+		assertThat(restoredFile).isInstanceOf(File.class);
+		assertThat(restoredFile.getIdentifier()).isEqualTo(1L);
+		assertThat(restoredFile.getName()).isEqualTo("new name");
+		assertThat(restoredFile.getPermissions()).hasSize(2);
+		assertThat(restoredFile.getPermissions().get(1).getUser()).isSameAs(otherUser);
+		assertThat(restoredFile.getPermissions().get(1).getFEntry()).isSameAs(restoredFile);
+		assertThat(restoredFile.getLogEntries()).hasSize(updatedFile.getLogEntries().size());
+	}
+
+	@Test
+	public void deltasCanBeAppliedInSequence() {
+		final File secondVersion = new File(file);
+		secondVersion.setName("second");
+		final File thirdVersion = new File(secondVersion);
+		thirdVersion.addLogEntry(LogEntry.LogMessage.CHANGED);
+
+		final FEntry restoredFile = VersionDelta.apply(file, ImmutableList.of(
+				VersionDelta.between(file, secondVersion).get(),
+				VersionDelta.between(secondVersion, thirdVersion).get()));
+
+		assertThat(restoredFile.getName()).isEqualTo("second");
+		assertThat(restoredFile.getLogEntries()).hasSize(thirdVersion.getLogEntries().size());
+		assertThat(restoredFile.getLogEntries().get(2).getMessage()).isEqualTo(LogEntry.LogMessage.CHANGED);
+	}
+
+	@Test
+	public void containsChangedContent() {
+		final File updatedFile = new File(file);
+		updatedFile.setContent(ImmutableList.of("hash1", "hash2"), 20);
+
+		final FEntry restoredFile = VersionDelta.apply(file, ImmutableList.of(VersionDelta.between(file, updatedFile).get()));
+
+		assertThat(((File) restoredFile).getChunkHashes()).containsExactly("hash1", "hash2");
+		assertThat(((File) restoredFile).getSize()).isEqualTo(20);
+	}
+
+	@Test
+	public void cannotBeCreatedIfLogEntriesWereRemoved() {
+		final File updatedFile = new File(userAPI, 1L, "Testfile", file.getPermissions(), ImmutableList.<LogEntry>of());
+
+		assertThat(VersionDelta.between(file, updatedFile).isPresent()).isFalse();
+	}
+
+	@Test
+	public void cannotBeCreatedBetweenDifferentTypes() {
+		final Directory directory = new Directory(userAPI, 1L, "Testfile", file.getPermissions(), file.getLogEntries());
+
+		assertThat(VersionDelta.between(file, directory).isPresent()).isFalse();
+	}
+}
@@ -0,0 +1,94 @@
+package de.sharebox.api;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class WriteAheadLogTest {
+	private static final byte[] RECORD_1 = {1, 2, 3};
+	private static final byte[] RECORD_2 = {4, 5};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path directory;
+	private WriteAheadLog writeAheadLog;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = temporaryFolder.getRoot().toPath();
+		writeAheadLog = new WriteAheadLog(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		writeAheadLog.close();
+	}
+
+	@Test
+	public void appendedRecordsCanBeReadAfterReopening() throws IOException {
+		writeAheadLog.append(RECORD_1);
+		writeAheadLog.appendAll(ImmutableList.of(RECORD_2));
+		writeAheadLog.close();
+
+		writeAheadLog = new WriteAheadLog(directory);
+		final List<byte[]> records = writeAheadLog.readRecords();
+
+		assertThat(records).hasSize(2);
+		assertThat(records.get(0)).isEqualTo(RECORD_1);
+		assertThat(records.get(1)).isEqualTo(RECORD_2);
+		assertThat(writeAheadLog.getRecordsSinceCheckpoint()).isEqualTo(2);
+		assertThat(writeAheadLog.readCheckpoint().isPresent()).isFalse();
+	}
+
+	@Test
+	public void truncatesAnIncompleteRecordAtTheEndOfTheLog() throws IOException {
+		writeAheadLog.append(RECORD_1);
+		writeAheadLog.close();
+
+		final Path logFile = directory.resolve(WriteAheadLog.LOG_FILE_NAME);
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 9, 1, 2}));
+		}
+
+		writeAheadLog = new WriteAheadLog(directory);
+		writeAheadLog.append(RECORD_2);
+
+		final List<byte[]> records = writeAheadLog.readRecords();
+		assertThat(records).hasSize(2);
+		assertThat(records.get(0)).isEqualTo(RECORD_1);
+		assertThat(records.get(1)).isEqualTo(RECORD_2);
+	}
+
+	@Test
+	public void checkpointReplacesTheLog() throws IOException {
+		writeAheadLog.append(RECORD_1);
+		writeAheadLog.writeCheckpoint(ImmutableList.of(RECORD_1));
+		writeAheadLog.append(RECORD_2);
+
+		assertThat(writeAheadLog.getRecordsSinceCheckpoint()).isEqualTo(1);
+		assertThat(writeAheadLog.readCheckpoint().get()).hasSize(1);
+		assertThat(writeAheadLog.readCheckpoint().get().get(0)).isEqualTo(RECORD_1);
+		assertThat(writeAheadLog.readRecords()).hasSize(1);
+		assertThat(writeAheadLog.readRecords().get(0)).isEqualTo(RECORD_2);
+	}
+
+	@Test(expected = IOException.class)
+	public void appendingFailsAfterTheLogWasClosed() throws IOException {
+		writeAheadLog.close();
+
+		writeAheadLog.append(RECORD_1);
+	}
+}
@@ -0,0 +1,122 @@
+package de.sharebox.file;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdaptiveSchedulerTest {
+	private AdaptiveScheduler scheduler;
+	private boolean changesDuringPoll = false;
+
+	@Mock
+	private ScheduledExecutorService executor;
+	@Mock
+	private ScheduledFuture<Object> scheduledRun;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		doReturn(scheduledRun).when(executor).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+		scheduler = new AdaptiveScheduler(new Runnable() {
+			@Override
+			public void run() {
+				if (changesDuringPoll) {
+					scheduler.recordActivity();
+				}
+			}
+		}, executor, 100, 800, 0, new Random(0));
+	}
+
+	@Test
+	public void startingPollsImmediately() {
+		scheduler.start();
+
+		verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void intervalBacksOffExponentiallyWhileIdle() {
+		scheduler.start();
+
+		assertThat(runScheduledPoll()).isEqualTo(200);
+		assertThat(runScheduledPoll()).isEqualTo(400);
+		assertThat(runScheduledPoll()).isEqualTo(800);
+		assertThat(runScheduledPoll()).isEqualTo(800);
+		assertThat(scheduler.getCurrentInterval()).isEqualTo(800);
+	}
+
+	@Test
+	public void activityResetsTheInterval() {
+		scheduler.start();
+		runScheduledPoll();
+		runScheduledPoll();
+
+		changesDuringPoll = true;
+		assertThat(runScheduledPoll()).isEqualTo(100);
+		assertThat(scheduler.getCurrentInterval()).isEqualTo(100);
+	}
+
+	@Test
+	public void pollsCanBeTriggeredOnDemand() {
+		scheduler.start();
+		runScheduledPoll();
+
+		verify(scheduledRun, times(1)).cancel(false);
+
+		scheduler.pollNow();
+
+		verify(scheduledRun, times(2)).cancel(false);
+		verify(executor, times(2)).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void intervalsAreJittered() {
+		final AdaptiveScheduler jitteredScheduler =
+				new AdaptiveScheduler(mock(Runnable.class), executor, 1000, 1000, 0.1, new Random(0));
+		jitteredScheduler.start();
+
+		for (int i = 0; i < 20; i++) {
+			final long delay = runScheduledPoll();
+			assertThat(delay).isGreaterThanOrEqualTo(900).isLessThanOrEqualTo(1100);
+		}
+	}
+
+	@Test
+	public void stoppedSchedulersDoNotPollAgain() {
+		scheduler.start();
+		scheduler.stop();
+
+		verify(scheduledRun).cancel(false);
+	}
+
+	/**
+	 * Führt die zuletzt geplante Abfrage aus und liefert die Verzögerung der danach geplanten Abfrage.
+	 */
+	private long runScheduledPoll() {
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		final ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+		verify(executor, atLeastOnce()).schedule(task.capture(), delay.capture(), eq(TimeUnit.MILLISECONDS));
+		final int scheduledRuns = task.getAllValues().size();
+
+		task.getValue().run();
+
+		verify(executor, times(scheduledRuns + 1)).schedule(task.capture(), delay.capture(), eq(TimeUnit.MILLISECONDS));
+		return delay.getValue();
+	}
+}
@@ -1,22 +1,36 @@
 package de.sharebox.file;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import de.sharebox.api.ChangeListener;
+import de.sharebox.api.ChangeSet;
+import de.sharebox.api.ChangeSubscription;
 import de.sharebox.api.FileAPI;
+import de.sharebox.api.Tombstone;
 import de.sharebox.file.model.Directory;
 import de.sharebox.file.model.FEntry;
 import de.sharebox.file.model.File;
+import de.sharebox.file.model.LogEntry;
+import de.sharebox.file.model.Permission;
 import de.sharebox.file.notification.DirectoryNotification;
 import de.sharebox.file.notification.FEntryNotification;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.List;
+
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.*;
 
@@ -32,16 +46,29 @@ public class FileManagerTest {
 	@Mock
 	private FileAPI fileAPI;
 
+	@Captor
+	private ArgumentCaptor<List<FEntry>> updatedFEntries;
+	@Captor
+	private ArgumentCaptor<List<FEntry>> deletedFEntries;
+
 	@InjectMocks
 	private FileManager fileManager;
 
 	@Before
 	public void setUp() {
-		when(fileAPI.createNewFEntry(any(FEntry.class))).thenReturn(idCounter++);
-		when(fileAPI.getChangesSince(anyLong())).thenReturn(ImmutableList.of(file, dir));
+		when(fileAPI.createNewFEntries(anyListOf(FEntry.class))).thenReturn(ImmutableList.of(idCounter++));
+		when(fileAPI.getChangesSince(anyLong(), anyInt())).thenReturn(new ChangeSet(ImmutableList.of(file, dir), ImmutableList.<Tombstone>of(), 2L, false));
 		when(file.getIdentifier()).thenReturn(null);
 		when(dir.getIdentifier()).thenReturn(1L);
 		when(dir.getFEntries()).thenReturn(ImmutableList.<FEntry>of(file));
+
+		//the write behind queue copies changed FEntries
+		when(file.getPermissions()).thenReturn(ImmutableList.<Permission>of());
+		when(file.getLogEntries()).thenReturn(ImmutableList.<LogEntry>of());
+		when(dir.getPermissions()).thenReturn(ImmutableList.<Permission>of());
+		when(dir.getLogEntries()).thenReturn(ImmutableList.<LogEntry>of());
+		when(fileAPI.updateFEntries(anyListOf(FEntry.class))).thenReturn(true);
+		when(fileAPI.deleteFEntries(anyListOf(FEntry.class))).thenReturn(true);
 	}
 
 	@Test
@@ -49,7 +76,7 @@ public class FileManagerTest {
 		assertThat(fileManager.registerFEntry(dir)).isTrue();
 
 		verify(file).addObserver(fileManager);
-		verify(fileAPI).createNewFEntry(file);
+		verify(fileAPI).createNewFEntries(ImmutableList.<FEntry>of(file));
 		verify(dir).addObserver(fileManager);
 	}
 
@@ -59,26 +86,136 @@ public class FileManagerTest {
 
 		fileManager.pollAPIForChanges();
 
-		verify(fileAPI).getChangesSince(anyLong());
+		verify(fileAPI).getChangesSince(0L, 500);
 
 		verify(file).applyChanges(any(FEntry.class), same(fileManager));
 		verify(dir, never()).applyChanges(any(FEntry.class), same(fileManager));
+
+		fileManager.pollAPIForChanges();
+
+		verify(fileAPI).getChangesSince(2L, 500);
+	}
+
+	@Test
+	public void appliesChangesPushedByASubscription() {
+		final ChangeSubscription subscription = mock(ChangeSubscription.class);
+		when(fileAPI.subscribe(anyLong(), any(ChangeListener.class))).thenReturn(subscription);
+		fileManager.registerFEntry(file);
+
+		fileManager.startPolling();
+		final ArgumentCaptor<ChangeListener> listener = ArgumentCaptor.forClass(ChangeListener.class);
+		verify(fileAPI).subscribe(eq(0L), listener.capture());
+
+		listener.getValue().changesCommitted(new ChangeSet(ImmutableList.<FEntry>of(file), ImmutableList.<Tombstone>of(), 4L, false));
+		verify(file).applyChanges(any(FEntry.class), same(fileManager));
+		verify(fileAPI, never()).getChangesSince(anyLong(), anyInt());
+
+		fileManager.stopPolling();
+		verify(subscription).cancel();
+	}
+
+	@Test
+	public void pollsTheAPIIfSubscriptionAndLongPollFail() {
+		when(fileAPI.subscribe(anyLong(), any(ChangeListener.class))).thenThrow(new IllegalStateException());
+		when(fileAPI.pollChangesSince(anyLong(), anyInt(), anyLong())).thenThrow(new IllegalStateException());
+
+		fileManager.startPolling();
+
+		verify(fileAPI, timeout(5000)).getChangesSince(0L, 500);
+		fileManager.stopPolling();
+		assertThat(fileManager.getPollInterval()).isGreaterThanOrEqualTo(AdaptiveScheduler.MINIMUM_INTERVAL);
+	}
+
+	@Test
+	public void longPollsTheAPIIfTheSubscriptionFails() {
+		final SettableFuture<ChangeSet> firstPoll = SettableFuture.create();
+		final SettableFuture<ChangeSet> secondPoll = SettableFuture.create();
+		when(fileAPI.subscribe(anyLong(), any(ChangeListener.class))).thenThrow(new IllegalStateException());
+		when(fileAPI.pollChangesSince(anyLong(), anyInt(), anyLong())).thenReturn(firstPoll).thenReturn(secondPoll);
+		fileManager.registerFEntry(file);
+
+		fileManager.startPolling();
+		verify(fileAPI).pollChangesSince(eq(0L), eq(500), anyLong());
+
+		firstPoll.set(new ChangeSet(ImmutableList.<FEntry>of(file), ImmutableList.<Tombstone>of(), 4L, false));
+		verify(fileAPI, timeout(5000)).pollChangesSince(eq(4L), eq(500), anyLong());
+		verify(file).applyChanges(any(FEntry.class), same(fileManager));
+		verify(fileAPI, never()).getChangesSince(anyLong(), anyInt());
+
+		fileManager.stopPolling();
+		assertThat(secondPoll.isCancelled()).isTrue();
+	}
+
+	@Test
+	public void pollsUntilNoMoreChangesAreAvailable() {
+		when(fileAPI.getChangesSince(0L, 500)).thenReturn(new ChangeSet(ImmutableList.<FEntry>of(file), ImmutableList.<Tombstone>of(), 500L, true));
+		when(fileAPI.getChangesSince(500L, 500)).thenReturn(new ChangeSet(ImmutableList.<FEntry>of(dir), ImmutableList.<Tombstone>of(), 700L, false));
+
+		fileManager.pollAPIForChanges();
+
+		verify(fileAPI).getChangesSince(0L, 500);
+		verify(fileAPI).getChangesSince(500L, 500);
+	}
+
+	@Test
+	public void appliesDeletionsReportedByTheAPI() {
+		when(file.getIdentifier()).thenReturn(2L);
+		fileManager.registerFEntry(dir);
+		when(fileAPI.getChangesSince(anyLong(), anyInt())).thenReturn(
+				new ChangeSet(ImmutableList.<FEntry>of(), ImmutableList.of(new Tombstone(2L, 1L, 0L)), 3L, false));
+
+		fileManager.pollAPIForChanges();
+
+		verify(dir).removeFEntry(file, fileManager);
+		verify(file).fireNotification(FEntryNotification.ChangeType.DELETED, fileManager);
+		verify(file).removeObserver(fileManager);
+		verify(dir, never()).fireNotification(any(FEntryNotification.ChangeType.class), any());
 	}
 
 	@Test
 	public void handlesNotifications() {
 		final FEntryNotification updateNotification = new FEntryNotification(file, FEntryNotification.ChangeType.NAME_CHANGED, file);
 		fileManager.fEntryNotification(updateNotification);
-		verify(fileAPI).updateFEntry(file);
+		fileManager.flushChanges();
+		verify(fileAPI).updateFEntries(updatedFEntries.capture());
+		assertThat(updatedFEntries.getValue()).hasSize(1);
+		assertThat(updatedFEntries.getValue().get(0)).isInstanceOf(File.class);
 
 		final FEntryNotification deleteNotification = new FEntryNotification(file, FEntryNotification.ChangeType.DELETED, file);
 		fileManager.fEntryNotification(deleteNotification);
-		verify(fileAPI).deleteFEntry(file);
+		fileManager.flushChanges();
+		verify(fileAPI).deleteFEntries(deletedFEntries.capture());
+		assertThat(deletedFEntries.getValue()).hasSize(1);
+		assertThat(deletedFEntries.getValue().get(0)).isInstanceOf(File.class);
 
 		final DirectoryNotification directoryNotification = new DirectoryNotification(dir, FEntryNotification.ChangeType.ADDED_CHILDREN, dir, ImmutableList.<FEntry>of(file));
 		fileManager.directoryNotification(directoryNotification);
-		verify(fileAPI).updateFEntry(dir);
-		verify(fileAPI).createNewFEntry(file);
+		fileManager.flushChanges();
+		verify(fileAPI, times(2)).updateFEntries(updatedFEntries.capture());
+		assertThat(updatedFEntries.getValue().get(0)).isInstanceOf(Directory.class);
+		verify(fileAPI).createNewFEntries(ImmutableList.<FEntry>of(file));
+	}
+
+	@Test
+	public void notificationsAreSentToTheAPIInTheBackground() {
+		final FEntryNotification updateNotification = new FEntryNotification(dir, FEntryNotification.ChangeType.NAME_CHANGED, dir);
+		fileManager.fEntryNotification(updateNotification);
+		fileManager.fEntryNotification(updateNotification);
+
+		verify(fileAPI, timeout(5000)).updateFEntries(updatedFEntries.capture());
+		assertThat(updatedFEntries.getValue()).hasSize(1);
+		assertThat(updatedFEntries.getValue().get(0)).isInstanceOf(Directory.class);
+		verify(fileAPI, never()).updateFEntry(any(FEntry.class));
+	}
+
+	@Test
+	public void pendingLocalChangesAreNotOverwrittenByTheAPI() {
+		fileManager.registerFEntry(dir);
+		fileManager.fEntryNotification(new FEntryNotification(dir, FEntryNotification.ChangeType.NAME_CHANGED, dir));
+
+		fileManager.pollAPIForChanges();
+
+		verify(dir, never()).applyChanges(any(FEntry.class), same(fileManager));
 	}
 
 	@Test
@@ -89,6 +226,8 @@ public class FileManagerTest {
 
 		final DirectoryNotification directoryNotification = new DirectoryNotification(dir, FEntryNotification.ChangeType.ADDED_CHILDREN, fileManager, ImmutableList.<FEntry>of(file));
 		fileManager.directoryNotification(directoryNotification);
-		verify(fileAPI, never()).updateFEntry(dir);
+		fileManager.flushChanges();
+		verify(fileAPI, never()).updateFEntries(anyListOf(FEntry.class));
+		verify(fileAPI, never()).deleteFEntries(anyListOf(FEntry.class));
 	}
 }
@@ -0,0 +1,123 @@
+package de.sharebox.file;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import de.sharebox.api.FileAPI;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalFolderScannerTest {
+	private Path folder;
+
+	@Mock
+	private FileAPI fileAPI;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		folder = temporaryFolder.getRoot().toPath();
+
+		//the stubbed upload reads the whole channel and uses its length as the only chunk hash
+		when(fileAPI.uploadContent(any(ReadableByteChannel.class), any(ByteBuffer.class)))
+				.thenAnswer(new Answer<Optional<ImmutableList<String>>>() {
+					@Override
+					public Optional<ImmutableList<String>> answer(final InvocationOnMock invocation)
+							throws IOException {
+						final ReadableByteChannel channel = (ReadableByteChannel) invocation.getArguments()[0];
+						final ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[1];
+						long length = 0;
+						buffer.clear();
+						for (int read = channel.read(buffer); read >= 0; read = channel.read(buffer)) {
+							length += read;
+							buffer.clear();
+						}
+						return Optional.of(ImmutableList.of(Long.toString(length)));
+					}
+				});
+	}
+
+	@Test
+	public void scansAndHashesTheWholeTree() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			final Path subfolder = Files.createDirectories(folder.resolve("dir" + i + "/nested"));
+			Files.write(folder.resolve("dir" + i + "/file.txt"), new byte[i]);
+			Files.write(subfolder.resolve("deep.txt"), new byte[100]);
+		}
+		Files.write(folder.resolve("root.txt"), new byte[5]);
+
+		final LocalFolderScanner scanner = new LocalFolderScanner(folder, fileAPI, 3);
+		final LocalFolderScanner.ScannedDirectory root = scanner.scan().get();
+
+		assertThat(root.getFiles().keySet()).containsOnly("root.txt");
+		assertThat(root.getFiles().get("root.txt").getChunkHashes()).containsExactly("5");
+		assertThat(root.getDirectories()).hasSize(10);
+
+		final LocalFolderScanner.ScannedDirectory directory = root.getDirectories().get("dir7");
+		assertThat(directory.getFiles().get("file.txt").getSize()).isEqualTo(7);
+		assertThat(directory.getDirectories().get("nested").getFiles().get("deep.txt").getChunkHashes())
+				.containsExactly("100");
+	}
+
+	@Test
+	public void reportsTheProgress() throws IOException {
+		Files.write(folder.resolve("first.txt"), new byte[10]);
+		Files.write(folder.resolve("second.txt"), new byte[20]);
+		final LocalFolderScanner scanner = new LocalFolderScanner(folder, fileAPI, 2);
+
+		assertThat(scanner.getProgress().isFinished()).isFalse();
+		scanner.scan();
+
+		final ScanProgress progress = scanner.getProgress();
+		assertThat(progress.isFinished()).isTrue();
+		assertThat(progress.getDiscoveredFiles()).isEqualTo(2);
+		assertThat(progress.getDiscoveredBytes()).isEqualTo(30);
+		assertThat(progress.getHashedFiles()).isEqualTo(2);
+		assertThat(progress.getHashedBytes()).isEqualTo(30);
+	}
+
+	@Test
+	public void filesAreReadIntoReusedDirectBuffers() throws IOException {
+		Files.write(folder.resolve("first.txt"), new byte[10]);
+		final LocalFolderScanner scanner = new LocalFolderScanner(folder, fileAPI, 1);
+
+		scanner.hashFile(folder.resolve("first.txt"));
+		scanner.hashFile(folder.resolve("first.txt"));
+
+		final ArgumentCaptor<ByteBuffer> buffers = ArgumentCaptor.forClass(ByteBuffer.class);
+		verify(fileAPI, times(2)).uploadContent(any(ReadableByteChannel.class), buffers.capture());
+		assertThat(buffers.getValue().isDirect()).isTrue();
+		assertThat(buffers.getAllValues().get(0)).isSameAs(buffers.getAllValues().get(1));
+	}
+
+	@Test
+	public void unreadableFilesAreLeftOut() throws IOException {
+		Files.write(folder.resolve("first.txt"), new byte[10]);
+		doReturn(Optional.absent()).when(fileAPI)
+				.uploadContent(any(ReadableByteChannel.class), any(ByteBuffer.class));
+
+		final LocalFolderScanner.ScannedDirectory root = new LocalFolderScanner(folder, fileAPI, 1).scan().get();
+
+		assertThat(root.getFiles()).isEmpty();
+	}
+}
@@ -0,0 +1,239 @@
+package de.sharebox.file;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import de.sharebox.api.FileAPI;
+import de.sharebox.api.UserAPI;
+import de.sharebox.file.model.Directory;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+import de.sharebox.file.notification.FEntryNotification;
+import de.sharebox.file.notification.FEntryObserver;
+import de.sharebox.user.model.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalFolderWatcherTest {
+	private static final ImmutableList<String> CHUNK_HASHES = ImmutableList.of("hash");
+
+	private Path folder;
+	private Directory directory;
+	private LocalFolderWatcher watcher;
+
+	@Mock
+	private FileAPI fileAPI;
+	@Mock
+	private UserAPI userAPI;
+	@Mock
+	private User user;
+	@Mock
+	private Runnable changesDetected;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("sharebox-watcher");
+		when(userAPI.getCurrentUser()).thenReturn(user);
+		when(fileAPI.uploadContent(any(ReadableByteChannel.class), any(ByteBuffer.class)))
+				.thenReturn(Optional.of(CHUNK_HASHES));
+
+		directory = new Directory(userAPI, "Root", user);
+		watcher = new LocalFolderWatcher(folder, directory, fileAPI, changesDetected, 50);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		watcher.stop();
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+					throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException exception)
+					throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void createdFilesAreAddedToTheDirectory() throws IOException {
+		startWatching();
+
+		Files.write(folder.resolve("new.txt"), new byte[]{1, 2, 3});
+		waitForChanges();
+
+		assertThat(watcher.applyChanges()).isTrue();
+		assertThat(names(directory)).containsOnly("new.txt");
+
+		final File file = (File) directory.getFEntries().get(0);
+		assertThat(file.getChunkHashes()).isEqualTo(CHUNK_HASHES);
+		assertThat(file.getSize()).isEqualTo(3);
+	}
+
+	@Test
+	public void filesAreHashedWithoutHoldingTheModelLock() throws IOException {
+		final Object modelLock = new Object();
+		final List<Boolean> lockHeldWhileHashing = new ArrayList<Boolean>();
+		when(fileAPI.uploadContent(any(ReadableByteChannel.class), any(ByteBuffer.class)))
+				.thenAnswer(new Answer<Optional<ImmutableList<String>>>() {
+					@Override
+					public Optional<ImmutableList<String>> answer(final InvocationOnMock invocation) {
+						lockHeldWhileHashing.add(Thread.holdsLock(modelLock) || Thread.holdsLock(watcher));
+						return Optional.of(CHUNK_HASHES);
+					}
+				});
+		assertThat(watcher.start()).isTrue();
+		waitForChanges();
+		watcher.applyChanges(modelLock);
+		reset(changesDetected);
+
+		Files.write(folder.resolve("new.txt"), new byte[]{1, 2, 3});
+		waitForChanges();
+
+		assertThat(watcher.applyChanges(modelLock)).isTrue();
+		assertThat(names(directory)).containsOnly("new.txt");
+		assertThat(lockHeldWhileHashing).containsOnly(false);
+	}
+
+	@Test
+	public void temporaryFilesThatAreRenamedAreCoalesced() throws IOException {
+		startWatching();
+
+		final Path temporaryFile = folder.resolve("document.txt~");
+		Files.write(temporaryFile, new byte[]{1});
+		Files.move(temporaryFile, folder.resolve("document.txt"));
+		waitForChanges();
+		watcher.applyChanges();
+
+		assertThat(names(directory)).containsOnly("document.txt");
+		verify(fileAPI, times(1)).uploadContent(any(ReadableByteChannel.class), any(ByteBuffer.class));
+	}
+
+	@Test
+	public void deletedFilesAreRemovedFromTheDirectory() throws IOException {
+		Files.write(folder.resolve("old.txt"), new byte[]{1});
+		directory.createNewFile("old.txt");
+		startWatching();
+
+		Files.delete(folder.resolve("old.txt"));
+		waitForChanges();
+
+		assertThat(watcher.applyChanges()).isTrue();
+		assertThat(directory.getFEntries()).isEmpty();
+	}
+
+	@Test
+	public void newDirectoriesAreReadAndWatched() throws IOException {
+		startWatching();
+
+		final Path subfolder = Files.createDirectories(folder.resolve("sub/nested"));
+		Files.write(subfolder.resolve("early.txt"), new byte[]{1});
+		waitForChanges();
+		watcher.applyChanges();
+
+		final Directory nested = (Directory) ((Directory) directory.getFEntries().get(0)).getFEntries().get(0);
+		assertThat(names(nested)).containsOnly("early.txt");
+
+		reset(changesDetected);
+		Files.write(subfolder.resolve("late.txt"), new byte[]{2});
+		waitForChanges();
+		watcher.applyChanges();
+
+		assertThat(names(nested)).containsOnly("early.txt", "late.txt");
+	}
+
+	@Test
+	public void existingFilesAreReadOnStart() throws IOException {
+		Files.createDirectories(folder.resolve("sub"));
+		Files.write(folder.resolve("sub/existing.txt"), new byte[]{1, 2});
+		Files.write(folder.resolve("unchanged.txt"), new byte[]{3});
+		directory.createNewFile("unchanged.txt").get().setContent(CHUNK_HASHES, 1);
+		directory.createNewFile("remote.txt");
+		final FEntryObserver unchangedFileObserver = mock(FEntryObserver.class);
+		directory.getFEntries().get(0).addObserver(unchangedFileObserver);
+
+		assertThat(watcher.start()).isTrue();
+		waitForChanges();
+		assertThat(watcher.applyChanges()).isTrue();
+
+		assertThat(names(directory)).containsOnly("sub", "unchanged.txt", "remote.txt");
+		assertThat(names((Directory) directory.getFEntries().get(2))).containsOnly("existing.txt");
+		verify(unchangedFileObserver, never()).fEntryNotification(any(FEntryNotification.class));
+
+		final ScanProgress progress = watcher.getScanProgress();
+		assertThat(progress.isFinished()).isTrue();
+		assertThat(progress.getHashedFiles()).isEqualTo(2);
+		assertThat(progress.getHashedBytes()).isEqualTo(3);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void overflowsRescanTheAffectedDirectory() throws IOException {
+		Files.write(folder.resolve("missed.txt"), new byte[]{1});
+		directory.createNewFile("stale.txt");
+
+		final WatchEvent<Object> overflow = mock(WatchEvent.class);
+		doReturn(StandardWatchEventKinds.OVERFLOW).when(overflow).kind();
+		final WatchKey key = mock(WatchKey.class);
+		when(key.watchable()).thenReturn(folder);
+		doReturn(ImmutableList.of(overflow)).when(key).pollEvents();
+
+		watcher.collectEvents(key);
+		watcher.applyChanges();
+
+		assertThat(names(directory)).containsOnly("missed.txt");
+		verify(key).reset();
+	}
+
+	/**
+	 * Startet den Watcher und wendet das Ergebnis des initialen Einlesens an.
+	 */
+	private void startWatching() {
+		assertThat(watcher.start()).isTrue();
+		waitForChanges();
+		watcher.applyChanges();
+		reset(changesDetected);
+	}
+
+	private void waitForChanges() {
+		verify(changesDetected, timeout(10000).atLeastOnce()).run();
+	}
+
+	private List<String> names(final Directory dir) {
+		final List<String> names = new ArrayList<String>();
+		for (final FEntry fEntry : dir.getFEntries()) {
+			names.add(fEntry.getName());
+		}
+		return names;
+	}
+}
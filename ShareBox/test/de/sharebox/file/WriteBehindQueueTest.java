@@ -0,0 +1,198 @@
+package de.sharebox.file;
+
+import de.sharebox.api.FileAPI;
+import de.sharebox.api.UserAPI;
+import de.sharebox.file.model.FEntry;
+import de.sharebox.file.model.File;
+import de.sharebox.user.model.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindQueueTest {
+	private File firstFEntry;
+	private File secondFEntry;
+
+	@Mock
+	private FileAPI fileAPI;
+	@Mock
+	private UserAPI userAPI;
+	@Mock
+	private User user;
+
+	@Captor
+	private ArgumentCaptor<List<FEntry>> fEntries;
+
+	@Before
+	public void setUp() {
+		firstFEntry = new File(userAPI, "first", user);
+		firstFEntry.setIdentifier(1L);
+		secondFEntry = new File(userAPI, "second", user);
+		secondFEntry.setIdentifier(2L);
+
+		when(fileAPI.updateFEntries(anyListOf(FEntry.class))).thenReturn(true);
+		when(fileAPI.deleteFEntries(anyListOf(FEntry.class))).thenReturn(true);
+	}
+
+	@Test
+	public void updatesOfTheSameFEntryAreCollapsed() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 10, 3);
+
+		queue.update(firstFEntry);
+		queue.update(secondFEntry);
+		queue.update(firstFEntry);
+		assertThat(queue.isPending(1L)).isTrue();
+		queue.flush();
+
+		assertThat(identifiersOf(verifyUpdate())).containsExactly(1L, 2L);
+		verify(fileAPI, never()).deleteFEntries(anyListOf(FEntry.class));
+		assertThat(queue.isPending(1L)).isFalse();
+	}
+
+	@Test
+	public void deletionsReplacePendingUpdates() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 10, 3);
+
+		queue.update(firstFEntry);
+		queue.delete(firstFEntry);
+		queue.update(firstFEntry);
+		queue.flush();
+
+		verify(fileAPI, never()).updateFEntries(anyListOf(FEntry.class));
+		assertThat(identifiersOf(verifyDeletion())).containsExactly(1L);
+	}
+
+	@Test
+	public void theStateAtTheTimeOfTheChangeIsWritten() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 10, 3);
+
+		queue.update(firstFEntry);
+		firstFEntry.setName("renamed later");
+		queue.flush();
+
+		final FEntry writtenFEntry = verifyUpdate().get(0);
+		assertThat(writtenFEntry).isNotSameAs(firstFEntry);
+		assertThat(writtenFEntry.getName()).isEqualTo("first");
+	}
+
+	@Test
+	public void changesArePendingUntilTheyAreWritten() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 10, 3);
+		final List<Boolean> pendingWhileWriting = new ArrayList<Boolean>();
+		when(fileAPI.updateFEntries(anyListOf(FEntry.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(final InvocationOnMock invocation) {
+				pendingWhileWriting.add(queue.isPending(1L));
+				return true;
+			}
+		});
+
+		queue.update(firstFEntry);
+		queue.flush();
+
+		assertThat(pendingWhileWriting).containsExactly(true);
+		assertThat(queue.isPending(1L)).isFalse();
+	}
+
+	@Test
+	public void failedWritesAreRetried() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 10, 3);
+		when(fileAPI.updateFEntries(anyListOf(FEntry.class)))
+				.thenThrow(new IllegalStateException("unavailable")).thenReturn(true);
+
+		queue.update(firstFEntry);
+		queue.flush();
+		assertThat(queue.isPending(1L)).isTrue();
+		queue.flush();
+
+		verify(fileAPI, times(2)).updateFEntries(anyListOf(FEntry.class));
+		assertThat(queue.isPending(1L)).isFalse();
+	}
+
+	@Test
+	public void failedWritesAreDroppedAfterTheLastAttempt() throws InterruptedException {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 10, 10, 3);
+		when(fileAPI.updateFEntries(anyListOf(FEntry.class))).thenReturn(false);
+
+		queue.update(firstFEntry);
+
+		verify(fileAPI, timeout(5000).times(3)).updateFEntries(anyListOf(FEntry.class));
+		Thread.sleep(100);
+		verify(fileAPI, times(3)).updateFEntries(anyListOf(FEntry.class));
+		assertThat(queue.isPending(1L)).isFalse();
+	}
+
+	@Test
+	public void newerChangesReplaceFailedUpdates() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 10, 3);
+		when(fileAPI.updateFEntries(anyListOf(FEntry.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(final InvocationOnMock invocation) {
+				firstFEntry.setName("changed while writing");
+				queue.update(firstFEntry);
+				return false;
+			}
+		}).thenReturn(true);
+
+		queue.update(firstFEntry);
+		queue.flush();
+		queue.flush();
+
+		verify(fileAPI, times(2)).updateFEntries(fEntries.capture());
+		assertThat(fEntries.getValue().get(0).getName()).isEqualTo("changed while writing");
+		assertThat(fEntries.getValue()).hasSize(1);
+	}
+
+	@Test
+	public void pendingChangesAreWrittenAfterTheDelay() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 10, 10, 3);
+
+		queue.update(firstFEntry);
+
+		verify(fileAPI, timeout(5000)).updateFEntries(anyListOf(FEntry.class));
+	}
+
+	@Test
+	public void aFullQueueIsWrittenImmediately() {
+		final WriteBehindQueue queue = new WriteBehindQueue(fileAPI, 60000, 1, 3);
+
+		queue.update(firstFEntry);
+		queue.update(secondFEntry);
+
+		verify(fileAPI, timeout(5000)).updateFEntries(anyListOf(FEntry.class));
+		assertThat(identifiersOf(verifyUpdate())).containsExactly(1L);
+		assertThat(queue.isPending(2L)).isTrue();
+	}
+
+	private List<FEntry> verifyUpdate() {
+		verify(fileAPI).updateFEntries(fEntries.capture());
+		return fEntries.getValue();
+	}
+
+	private List<FEntry> verifyDeletion() {
+		verify(fileAPI).deleteFEntries(fEntries.capture());
+		return fEntries.getValue();
+	}
+
+	private List<Long> identifiersOf(final List<FEntry> fEntries) {
+		final List<Long> identifiers = new ArrayList<Long>();
+		for (final FEntry fEntry : fEntries) {
+			identifiers.add(fEntry.getIdentifier());
+		}
+		return identifiers;
+	}
+}
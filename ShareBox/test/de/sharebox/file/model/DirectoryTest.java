@@ -1,5 +1,6 @@
 package de.sharebox.file.model;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import de.sharebox.api.UserAPI;
 import de.sharebox.file.FileManager;
@@ -13,6 +14,8 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.List;
+
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
@@ -63,6 +66,22 @@ public class DirectoryTest {
 		assertThat(copy.getFEntries().get(1).getName()).isEqualTo(directory.getFEntries().get(1).getName());
 	}
 
+	@Test
+	public void hasACopyConstructorWithGivenChildren() {
+		directory.setName(TEST_DIRNAME);
+		directory.setIdentifier(1234L);
+		directory.createNewFile(TEST_FILENAME);
+		final File otherFile = new File(mockedUserAPI, "other file", mockedUser);
+
+		final Directory copy = new Directory(directory, ImmutableList.<FEntry>of(otherFile));
+
+		assertThat(copy).isNotSameAs(directory);
+		assertThat(copy.getName()).isEqualTo(directory.getName());
+		assertThat(copy.getIdentifier()).isEqualTo(directory.getIdentifier());
+		assertThat(copy.getFEntries()).hasSize(1);
+		assertThat(copy.getFEntries().get(0)).isSameAs(otherFile);
+	}
+
 	@Test
 	public void canCreateNewSubFiles() {
 		final File createdFile = directory.createNewFile(TEST_FILENAME).get();
@@ -148,6 +167,35 @@ public class DirectoryTest {
 		verify(observer, times(1)).directoryNotification(expectedNotification2);    //assert that notification was sent
 	}
 
+	@Test
+	public void loadsLazyChildrenOnFirstAccessOnly() {
+		final File child = new File(mockedUserAPI, TEST_FILENAME, mockedUser);
+		@SuppressWarnings("unchecked")
+		final Supplier<List<FEntry>> childrenSupplier = mock(Supplier.class);
+		when(childrenSupplier.get()).thenReturn(ImmutableList.<FEntry>of(child));
+
+		final Directory lazyDirectory = new Directory(directory, childrenSupplier);
+		verify(childrenSupplier, never()).get();
+
+		assertThat(lazyDirectory.getFEntries()).containsExactly(child);
+		assertThat(lazyDirectory.getFEntries()).containsExactly(child);
+		verify(childrenSupplier, times(1)).get();
+	}
+
+	@Test
+	public void canAddMultipleFEntriesWithOneNotification() {
+		final File newFile = new File(mockedUserAPI, TEST_FILENAME, mockedUser);
+		final Directory newDirectory = new Directory(mockedUserAPI, TEST_DIRNAME, mockedUser);
+
+		directory.addFEntries(ImmutableList.of(newFile, newDirectory));
+
+		assertThat(directory.getFEntries()).containsExactly(newFile, newDirectory);
+		assertThat(directory.getLogEntries().get(1).getMessage()).isEqualTo(LogEntry.LogMessage.ADDED_FILE);
+		assertThat(directory.getLogEntries().get(2).getMessage()).isEqualTo(LogEntry.LogMessage.ADDED_DIRECTORY);
+		final DirectoryNotification expectedNotification = new DirectoryNotification(directory, FEntryNotification.ChangeType.ADDED_CHILDREN, directory, ImmutableList.<FEntry>of(newFile, newDirectory));
+		verify(observer, times(1)).directoryNotification(expectedNotification);
+	}
+
 	@Test
 	public void canRemoveFiles() {
 		final File createdFile = directory.createNewFile(TEST_FILENAME).get();
@@ -194,6 +242,24 @@ public class DirectoryTest {
 		assertThat(directory.getLogEntries().get(2).getMessage()).isEqualTo(LogEntry.LogMessage.REMOVED_DIRECTORY);
 	}
 
+	@Test
+	public void canRemoveChildrenWithoutDeletingThem() {
+		final Directory createdDirectory = directory.createNewDirectory(TEST_DIRNAME).get();
+		createdDirectory.createNewFile(TEST_FILENAME);
+		final FileManager source = mock(FileManager.class);
+
+		directory.removeFEntry(createdDirectory, source);
+
+		assertThat(directory.getFEntries()).isEmpty();
+		assertThat(createdDirectory.getFEntries()).hasSize(1);
+		assertThat(directory.getLogEntries()).hasSize(2);
+		final DirectoryNotification expectedNotification = new DirectoryNotification(directory, FEntryNotification.ChangeType.REMOVE_CHILDREN, source, ImmutableList.<FEntry>of(createdDirectory));
+		verify(observer, times(1)).directoryNotification(expectedNotification);
+
+		directory.removeFEntry(createdDirectory, source);
+		verify(observer, times(1)).directoryNotification(expectedNotification);
+	}
+
 	@Test
 	public void testApplyChangesFormAPI() {
 		directory.setIdentifier(1234L);
@@ -1,6 +1,9 @@
 package de.sharebox.file.model;
 
+import com.google.common.collect.ImmutableList;
 import de.sharebox.api.UserAPI;
+import de.sharebox.file.notification.FEntryNotification;
+import de.sharebox.file.notification.FEntryObserver;
 import de.sharebox.user.model.User;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,6 +12,8 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -56,6 +61,44 @@ public class FileTest {
 		}
 	}
 
+	@Test
+	public void copiesShareTheContent() {
+		file.setContent(ImmutableList.of("hash1", "hash2"), 42);
+
+		final File copy = new File(file);
+
+		assertThat(copy.getChunkHashes()).isSameAs(file.getChunkHashes());
+		assertThat(copy.getSize()).isEqualTo(42);
+	}
+
+	@Test
+	public void changingTheContentNotifiesObservers() {
+		final FEntryObserver observer = mock(FEntryObserver.class);
+		file.addObserver(observer);
+
+		file.setContent(ImmutableList.of("hash"), 10);
+
+		assertThat(file.getChunkHashes()).containsExactly("hash");
+		assertThat(file.getSize()).isEqualTo(10);
+		assertThat(file.getLogEntries().get(file.getLogEntries().size() - 1).getMessage()).isEqualTo(LogEntry.LogMessage.CHANGED);
+		verify(observer).fEntryNotification(new FEntryNotification(file, FEntryNotification.ChangeType.CONTENT_CHANGED, file));
+	}
+
+	@Test
+	public void appliesChangedContent() {
+		file.setName("TestFile");
+		final FEntryObserver observer = mock(FEntryObserver.class);
+		file.addObserver(observer);
+		final File updatedFile = new File(file);
+		updatedFile.setContent(ImmutableList.of("hash"), 10);
+
+		file.applyChanges(updatedFile, this);
+
+		assertThat(file.getChunkHashes()).containsExactly("hash");
+		assertThat(file.getSize()).isEqualTo(10);
+		verify(observer).fEntryNotification(new FEntryNotification(file, FEntryNotification.ChangeType.CONTENT_CHANGED, this));
+	}
+
 	@Test
 	public void isSubclassOfFEntry() {
 		assertThat(file).isInstanceOf(FEntry.class);
@@ -1,5 +1,6 @@
 package de.sharebox.user.controller;
 
+import de.sharebox.api.FileAPI;
 import de.sharebox.api.UserAPI;
 import de.sharebox.helpers.OptionPaneHelper;
 import de.sharebox.user.enums.StorageLimit;
@@ -23,6 +24,8 @@ public class AccountingControllerTest {
 	private UserAPI mockedAPI;
 	@Mock
 	private OptionPaneHelper optionPaneHelper;
+	@Mock
+	private FileAPI fileAPI;
 
 	@InjectMocks
 	private AccountingController accountingController;
@@ -75,6 +78,17 @@ public class AccountingControllerTest {
 		verify(optionPaneHelper).showMessageDialog("Sie müssen erst die Zahlungsinformationen angeben, bevor sie ihre Speicherkapazität erhöhen können!");
 	}
 
+	@Test
+	public void storageLimitCannotBeLowerThanTheUsedStorage() {
+		when(fileAPI.getStorageUsage(any(User.class))).thenReturn(StorageLimit.GB_5.getBytes() + 1);
+		accountingController.storageLimitField.setSelectedItem(StorageLimit.GB_5);
+
+		accountingController.save();
+
+		verify(mockedAPI, never()).changeAccountingSettings(any(User.class));
+		verify(optionPaneHelper).showMessageDialog("Ihre Dateien belegen bereits mehr Speicher als das gewählte Speicherlimit!");
+	}
+
 	@Test
 	public void testReactionOnAPIReportsErrorOnChange() {
 		when(mockedAPI.changeAccountingSettings(Matchers.any(User.class))).thenReturn(false);